@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.benchmark;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.TransferCoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the bytes allocated per request while framing message bodies, without any network I/O.
+ * The length scenarios compare handling the Content-Length with primitive longs to the BigInteger based handling it replaced,
+ * the request scenario measures parsing a request, streaming its message body and writing a response,
+ * the chunked scenario measures encoding and decoding a 'chunked' message body.
+ * <p>
+ * Usage: {@code AllocationBenchmark [requests]}, defaults to 1000000 requests per scenario.
+ * Requires a Java runtime reporting the allocated bytes per thread, like HotSpot.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class AllocationBenchmark {
+    public static final int BATCH_SIZE = 1000;
+    public static final int CHUNKED_BODY_SIZE = 20000;
+    public static final byte[] BODY = "hello world".getBytes(StandardCharsets.ISO_8859_1);
+    public static final byte[] REQUEST = ("POST /resource HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "User-Agent: benchmark\r\n"
+            + "Content-Length: " + BODY.length + "\r\n"
+            + "\r\n"
+            + new String(BODY, StandardCharsets.ISO_8859_1)).getBytes(StandardCharsets.ISO_8859_1);
+
+    protected static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Consumed by every scenario, so the JIT can't remove the work.
+    protected static long sink;
+
+    /**
+     * A scenario handling a batch of requests.
+     */
+    protected interface Scenario {
+        void run(int requests) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Headers headers = new HttpInputStream(new ByteArrayInputStream(REQUEST)).readHttpRequest().getHeaders();
+        String value = headers.getValue(headers.indexOf(Header.CONTENT_LENGTH));
+        TransferCoding transferCoding = new DefaultTransferCoding();
+
+        run("length (BigInteger)", requests, n -> {
+            for (int i = 0; i < n; i++) {
+                BigInteger contentLength = new BigInteger(value);
+                sink += contentLength.compareTo(BigInteger.valueOf(65536)) > 0 ? 1 : contentLength.longValueExact();
+            }
+        });
+        run("length (long)", requests, n -> {
+            for (int i = 0; i < n; i++) {
+                long contentLength = new ContentLength().deserialize(value).getLength();
+                sink += contentLength > 65536 ? 1 : contentLength;
+            }
+        });
+        run("request", requests, n -> {
+            byte[] batch = new byte[REQUEST.length * BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                System.arraycopy(REQUEST, 0, batch, i * REQUEST.length, REQUEST.length);
+            }
+
+            byte[] body = new byte[BODY.length];
+            HttpOutputStream outputStream = new HttpOutputStream(new NullOutputStream());
+            Headers responseHeaders = Headers.builder().with(Header.CONTENT_LENGTH, new ContentLength(BODY.length)).build();
+            HttpResponse response = new HttpResponse(Status.OK, responseHeaders);
+            for (int i = 0; i < n; i += BATCH_SIZE) {
+                HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(batch));
+                for (int j = 0; j < BATCH_SIZE; j++) {
+                    HttpRequest request = inputStream.readHttpRequest();
+                    try (InputStream bodyStream = transferCoding.openInputStream(inputStream, request.getHeaders().getContentLength(0))) {
+                        sink += bodyStream.read(body);
+                    }
+
+                    outputStream.writeResponse(response);
+                    transferCoding.writeBody(outputStream, responseHeaders.getContentLength(0), body);
+                }
+
+                outputStream.flush();
+            }
+        });
+        run("chunked", requests / 100, chunked());
+    }
+
+    /**
+     * Encodes and decodes a 'chunked' message body, streamed and as a whole.
+     */
+    protected static Scenario chunked() throws IOException {
+        TransferCoding transferCoding = new ChunkedTransferCoding(new DefaultTransferCoding());
+        byte[] body = new byte[CHUNKED_BODY_SIZE];
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        HttpOutputStream encodedStream = new HttpOutputStream(encoded);
+        transferCoding.writeBody(encodedStream, body.length, body);
+        encodedStream.flush();
+        byte[] message = encoded.toByteArray();
+        byte[] buffer = new byte[4096];
+        return n -> {
+            HttpOutputStream outputStream = new HttpOutputStream(new NullOutputStream());
+            for (int i = 0; i < n; i++) {
+                HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(message));
+                sink += transferCoding.readBody(inputStream, 0).length;
+                transferCoding.writeBody(outputStream, body.length, body);
+                inputStream = new HttpInputStream(new ByteArrayInputStream(message));
+                try (InputStream bodyStream = transferCoding.openInputStream(inputStream, 0); OutputStream bodyOutputStream = transferCoding.openOutputStream(outputStream, 0)) {
+                    int read;
+                    while ((read = bodyStream.read(buffer)) != -1) {
+                        bodyOutputStream.write(buffer, 0, read);
+                    }
+                }
+            }
+
+            outputStream.flush();
+        };
+    }
+
+    protected static void run(String name, int requests, Scenario scenario) throws IOException {
+        // Warm up, so the measurement excludes class loading and benefits from escape analysis like a long-running server.
+        scenario.run(requests);
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        scenario.run(requests);
+        long nanos = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - before;
+        System.out.printf("%-20s %8.1f bytes/request | %7.1f ns/request%n", name, (double) allocated / requests, (double) nanos / requests);
+    }
+
+    /**
+     * An output stream discarding everything written to it.
+     */
+    protected static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.benchmark;
+
+import com.jvdsn.feather.server.HttpServer;
+import com.jvdsn.feather.server.VirtualThreads;
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+/**
+ * Compares the threaded HTTP server on a cached thread pool with the same server on virtual threads.
+ * Holds many concurrent keep-alive clients, each sending a request after every think time.
+ * <p>
+ * Usage: {@code KeepAliveBenchmark [clients] [durationMillis] [thinkMillis] [cached|virtual|both]}, defaults to 10000 clients for 30 seconds with 100ms think time.
+ * Virtual threads require running the benchmark on Java 21 or newer, and the process needs a file descriptor limit of at least twice the amount of clients.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class KeepAliveBenchmark {
+    public static final int PORT = 18080;
+    public static final byte[] BODY = "OK".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long durationMillis = args.length > 1 ? Long.parseLong(args[1]) : 30000;
+        long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        String mode = args.length > 3 ? args[3] : "both";
+        LogManager.getLogManager().reset();
+        System.out.printf("%d keep-alive clients, %d ms, %d ms think time%n", clients, durationMillis, thinkMillis);
+        if (!mode.equals("virtual")) {
+            run("cached", new HttpServer(), clients, durationMillis, thinkMillis);
+        }
+
+        if (!mode.equals("cached")) {
+            if (VirtualThreads.isSupported()) {
+                run("virtual", new HttpServer(VirtualThreads.newVirtualThreadPerTaskExecutor()), clients, durationMillis, thinkMillis);
+            } else {
+                System.out.println("virtual: skipped, virtual threads require Java 21 or newer");
+            }
+        }
+    }
+
+    protected static void run(String name, HttpServer httpServer, int clients, long durationMillis, long thinkMillis) throws Exception {
+        Headers headers = new Headers().with(Header.CONTENT_LENGTH, new ContentLength(BODY.length));
+        httpServer.registerRequestHandler(RequestMethod.GET, (client, request, body) -> {
+            client.sendResponse(new HttpResponse(Status.OK, headers));
+            client.sendMessageBody(headers, BODY);
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        httpServer.start(PORT);
+        try {
+            LoadGenerator.Result result = new LoadGenerator(new InetSocketAddress("localhost", PORT), clients, thinkMillis, "/").run(durationMillis);
+            long heapAfter = memory.getHeapMemoryUsage().getUsed();
+            System.out.printf("%-8s connect %6d ms | %9.0f req/s | p50 %7.2f ms | p99 %7.2f ms | p99.9 %7.2f ms | errors %d | peak platform threads %6d | heap growth %5d MB%n",
+                    name,
+                    TimeUnit.NANOSECONDS.toMillis(result.getConnectNanos()),
+                    result.getThroughput(),
+                    result.getP50Nanos() / 1e6,
+                    result.getP99Nanos() / 1e6,
+                    result.getP999Nanos() / 1e6,
+                    result.getErrors(),
+                    threads.getPeakThreadCount(),
+                    (heapAfter - heapBefore) >> 20);
+        } finally {
+            httpServer.stop();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.benchmark;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load with many concurrent keep-alive clients from a single thread.
+ * Every client repeatedly sends a GET request, waits for the response and then waits for the think time.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class LoadGenerator {
+    protected static final byte[] HEAD_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    protected static final String CONTENT_LENGTH = "content-length:";
+
+    protected final InetSocketAddress address;
+    protected final int clients;
+    protected final long thinkNanos;
+    protected final byte[] request;
+
+    /**
+     * Constructs a new load generator.
+     *
+     * @param address     the address of the server
+     * @param clients     the amount of concurrent clients
+     * @param thinkMillis the time a client waits between receiving a response and sending the next request
+     * @param resource    the resource to request
+     */
+    public LoadGenerator(InetSocketAddress address, int clients, long thinkMillis, String resource) {
+        this.address = address;
+        this.clients = clients;
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        this.request = ("GET " + resource + " HTTP/1.1\r\nHost:" + address.getHostString() + ':' + address.getPort() + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the index directly after the end of the head in a buffer, or -1 if the head is incomplete.
+     */
+    protected static int headEnd(ByteBuffer buffer) {
+        outer:
+        for (int i = 0; i <= buffer.position() - HEAD_END.length; i++) {
+            for (int j = 0; j < HEAD_END.length; j++) {
+                if (buffer.get(i + j) != HEAD_END[j]) {
+                    continue outer;
+                }
+            }
+
+            return i + HEAD_END.length;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the value of the Content-Length header in a head, or 0 if it is absent.
+     */
+    protected static int contentLength(ByteBuffer buffer, int headEnd) {
+        String head = new String(buffer.array(), 0, headEnd, StandardCharsets.ISO_8859_1).toLowerCase();
+        int i = head.indexOf(CONTENT_LENGTH);
+        if (i == -1) {
+            return 0;
+        }
+
+        return Integer.parseInt(head.substring(i + CONTENT_LENGTH.length(), head.indexOf('\r', i)).trim());
+    }
+
+    /**
+     * Connects all clients and runs the load for a duration.
+     *
+     * @param durationMillis the duration of the measurement, excluding the time to connect the clients
+     * @return the result
+     */
+    public Result run(long durationMillis) throws IOException {
+        Client[] clients = new Client[this.clients];
+        PriorityQueue<Client> scheduled = new PriorityQueue<>(this.clients, (c1, c2) -> Long.compare(c1.nextRequest, c2.nextRequest));
+        try (Selector selector = Selector.open()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < clients.length; i++) {
+                SocketChannel channel = SocketChannel.open(this.address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                clients[i] = new Client(channel);
+                channel.register(selector, SelectionKey.OP_READ, clients[i]);
+                // Spread the first requests over one think time so the clients don't all fire at once.
+                clients[i].nextRequest = start + this.thinkNanos * i / clients.length;
+                scheduled.add(clients[i]);
+            }
+
+            long connectNanos = System.nanoTime() - start;
+            long[] latencies = new long[1024];
+            int completed = 0;
+            int errors = 0;
+            long measureStart = System.nanoTime();
+            long measureEnd = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            long now;
+            while ((now = System.nanoTime()) < measureEnd) {
+                while (!scheduled.isEmpty() && scheduled.peek().nextRequest <= now) {
+                    Client client = scheduled.poll();
+                    client.sent = now;
+                    client.channel.write(ByteBuffer.wrap(this.request));
+                }
+
+                long timeout = scheduled.isEmpty() ? 1 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(scheduled.peek().nextRequest - now));
+                selector.select(Math.min(timeout, 10));
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Client client = (Client) key.attachment();
+                    if (client.channel.read(client.buffer) == -1) {
+                        key.cancel();
+                        errors++;
+                        continue;
+                    }
+
+                    int headEnd = headEnd(client.buffer);
+                    if (headEnd == -1 || client.buffer.position() < headEnd + contentLength(client.buffer, headEnd)) {
+                        continue;
+                    }
+
+                    long received = System.nanoTime();
+                    if (completed == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                    }
+
+                    latencies[completed++] = received - client.sent;
+                    client.buffer.clear();
+                    client.nextRequest = received + this.thinkNanos;
+                    scheduled.add(client);
+                }
+            }
+
+            long elapsed = System.nanoTime() - measureStart;
+            for (Client client : clients) {
+                client.channel.close();
+            }
+
+            Arrays.sort(latencies, 0, completed);
+            return new Result(connectNanos, elapsed, completed, errors, percentile(latencies, completed, 0.5), percentile(latencies, completed, 0.99), percentile(latencies, completed, 0.999));
+        }
+    }
+
+    protected static long percentile(long[] sorted, int length, double percentile) {
+        return length == 0 ? 0 : sorted[Math.min(length - 1, (int) (length * percentile))];
+    }
+
+    protected static class Client {
+        protected final SocketChannel channel;
+        protected final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        protected long nextRequest;
+        protected long sent;
+
+        protected Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * The result of a load run.
+     */
+    @Value
+    public static class Result {
+        long connectNanos;
+        long elapsedNanos;
+        int completed;
+        int errors;
+        long p50Nanos;
+        long p99Nanos;
+        long p999Nanos;
+
+        /**
+         * Returns the throughput in requests per second.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return this.completed / (this.elapsedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.header.Connection;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.TransferEncoding;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.stream.HttpParser;
+import com.jvdsn.feather.shared.stream.HttpParser.State;
+import com.jvdsn.feather.shared.stream.MessageBodyTooLargeException;
+import com.jvdsn.feather.shared.transfercoding.TransferCoding;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking connection to a server, driven by a client event loop.
+ * Writes one encoded request at a time and decodes the response incrementally as data arrives.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class AsyncConnection {
+    public static final int INITIAL_BUFFER_SIZE = 8192;
+    // Chunk size lines are short, a longer line without CRLF is not a chunk size line.
+    public static final int MAX_CHUNK_SIZE_LINE_LENGTH = 8192;
+
+    /**
+     * The part of the response that is being decoded.
+     */
+    protected enum Phase {
+        HEAD,
+        FIXED_BODY,
+        BODY_UNTIL_CLOSE,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILER
+    }
+
+    protected final ClientEventLoop eventLoop;
+    @Getter
+    protected final HostAndPort hostAndPort;
+    @Getter
+    protected final SocketChannel channel;
+    protected final HttpParser parser = new HttpParser();
+    protected SelectionKey selectionKey;
+    protected ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    protected ByteBuffer out;
+    // The exchange in progress, or null if the connection is idle.
+    protected HttpRequest request;
+    protected byte[] body;
+    protected CompletableFuture<HttpExchange> future;
+    @Getter
+    protected long deadlineMillis;
+    // True once the connection carried a complete exchange, a failure before the next response may then be a stale connection.
+    @Getter
+    protected boolean reused;
+    protected boolean responseStarted;
+    protected Phase phase;
+    protected HttpResponse response;
+    protected ByteArrayOutputStream responseBody;
+    protected long remaining;
+
+    /**
+     * Constructs a new asynchronous connection.
+     *
+     * @param eventLoop   the event loop driving this connection
+     * @param hostAndPort the host and port of the server
+     * @param channel     the non-blocking channel, which may still be connecting
+     */
+    public AsyncConnection(ClientEventLoop eventLoop, HostAndPort hostAndPort, SocketChannel channel) {
+        this.eventLoop = eventLoop;
+        this.hostAndPort = hostAndPort;
+        this.channel = channel;
+    }
+
+    /**
+     * Sets the selection key after the channel was registered with the event loop.
+     *
+     * @param selectionKey the selection key
+     */
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * Returns true if an exchange is in progress.
+     *
+     * @return true if busy, false if idle
+     */
+    public boolean isBusy() {
+        return this.future != null;
+    }
+
+    /**
+     * Encodes a request and its body.
+     *
+     * @param request the request
+     * @param body    the request body
+     * @return a buffer containing the encoded request
+     */
+    protected static ByteBuffer encode(HttpRequest request, byte[] body) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        Headers headers = request.getHeaders();
+        httpOutputStream.writeRequest(request);
+        TransferCoding transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getTransferCoding).orElse(null);
+        long contentLength = headers.getContentLength(0);
+        if (transferCoding != null) {
+            transferCoding.writeBody(httpOutputStream, contentLength, body);
+        } else {
+            httpOutputStream.write(body, 0, Math.toIntExact(contentLength));
+        }
+
+        httpOutputStream.flush();
+        return ByteBuffer.wrap(outputStream.toByteArray());
+    }
+
+    /**
+     * Starts an exchange on this connection.
+     *
+     * @param request        the request
+     * @param body           the request body
+     * @param future         the future to complete with the exchange
+     * @param deadlineMillis the time at which the exchange times out
+     */
+    public void start(HttpRequest request, byte[] body, CompletableFuture<HttpExchange> future, long deadlineMillis) throws IOException {
+        this.request = request;
+        this.body = body;
+        this.future = future;
+        this.deadlineMillis = deadlineMillis;
+        this.responseStarted = false;
+        this.in.clear();
+        this.out = encode(request, body);
+        this.beginResponse();
+        if (this.channel.isConnected()) {
+            this.selectionKey.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Prepares for the next response.
+     */
+    protected void beginResponse() {
+        this.phase = Phase.HEAD;
+        this.parser.reset(State.STATUS_LINE);
+        this.response = null;
+        this.responseBody = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Called by the event loop when the channel finished connecting.
+     */
+    public void onConnectable() throws IOException {
+        this.channel.finishConnect();
+        this.selectionKey.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Called by the event loop when the channel is writable.
+     */
+    public void onWritable() throws IOException {
+        this.channel.write(this.out);
+        if (!this.out.hasRemaining()) {
+            this.out = null;
+            this.selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Called by the event loop when the channel is readable.
+     *
+     * @param readBuffer the buffer of the event loop to read into
+     * @return true if the connection should be closed
+     */
+    public boolean onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = this.channel.read(readBuffer);
+        if (!this.isBusy()) {
+            // Idle connections shouldn't receive anything, the server either closed the connection or broke the framing.
+            return read != 0;
+        }
+
+        if (read == -1) {
+            if (this.phase == Phase.BODY_UNTIL_CLOSE) {
+                this.complete();
+                return true;
+            }
+
+            throw new EOFException("Server closed the connection");
+        }
+
+        readBuffer.flip();
+        if (this.in.remaining() < readBuffer.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(this.in.capacity() * 2, this.in.position() + readBuffer.remaining()));
+            this.in.flip();
+            grown.put(this.in);
+            this.in = grown;
+        }
+
+        this.in.put(readBuffer);
+        this.responseStarted = true;
+        this.in.flip();
+        try {
+            return this.decode();
+        } finally {
+            this.in.compact();
+        }
+    }
+
+    /**
+     * Decodes as much of the response as the buffered data allows.
+     *
+     * @return true if the connection should be closed
+     */
+    protected boolean decode() throws IOException {
+        while (this.isBusy()) {
+            switch (this.phase) {
+                case HEAD:
+                    if (!this.parser.parse(this.in)) {
+                        return false;
+                    }
+
+                    this.response = this.parser.getResponse();
+                    this.beginBody();
+                    break;
+                case FIXED_BODY:
+                case CHUNK_DATA:
+                    if (this.remaining > 0) {
+                        if (!this.in.hasRemaining()) {
+                            return false;
+                        }
+
+                        int n = (int) Math.min(this.remaining, this.in.remaining());
+                        this.ensureBodyCapacity(n);
+                        this.responseBody.write(this.in.array(), this.in.arrayOffset() + this.in.position(), n);
+                        this.in.position(this.in.position() + n);
+                        this.remaining -= n;
+                    }
+
+                    if (this.remaining == 0) {
+                        if (this.phase == Phase.FIXED_BODY) {
+                            return this.complete();
+                        }
+
+                        this.phase = Phase.CHUNK_DATA_END;
+                    }
+
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    this.ensureBodyCapacity(this.in.remaining());
+                    this.responseBody.write(this.in.array(), this.in.arrayOffset() + this.in.position(), this.in.remaining());
+                    this.in.position(this.in.limit());
+                    return false;
+                case CHUNK_SIZE:
+                case CHUNK_DATA_END: {
+                    int start = this.in.position();
+                    int end = HttpParser.findLineEnd(this.in, start);
+                    if (end == -1) {
+                        if (this.in.remaining() > MAX_CHUNK_SIZE_LINE_LENGTH) {
+                            throw new IOException("Chunk size line exceeds " + MAX_CHUNK_SIZE_LINE_LENGTH + " bytes");
+                        }
+
+                        return false;
+                    }
+
+                    this.in.position(end + 2);
+                    if (this.phase == Phase.CHUNK_DATA_END) {
+                        if (end != start) {
+                            throw new IOException("Expected CRLF after chunk data");
+                        }
+
+                        this.phase = Phase.CHUNK_SIZE;
+                        break;
+                    }
+
+                    // Rejects signs, a negative chunk size would never be consumed.
+                    this.remaining = HttpParser.parseChunkSize(this.in, start, end);
+                    this.ensureBodyCapacity(this.remaining);
+
+                    if (this.remaining == 0) {
+                        this.parser.reset(State.HEADERS);
+                        this.phase = Phase.TRAILER;
+                    } else {
+                        this.phase = Phase.CHUNK_DATA;
+                    }
+
+                    break;
+                }
+                case TRAILER:
+                    if (!this.parser.parse(this.in)) {
+                        return false;
+                    }
+
+                    return this.complete();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the received response body can grow by an amount of bytes.
+     * The received response body is bounded by the maximum decoded length too, so a huge Content-Length or a close delimited body can't exhaust the memory.
+     *
+     * @param n the amount of bytes
+     */
+    protected void ensureBodyCapacity(long n) throws IOException {
+        long maxDecodedLength = this.eventLoop.getMaxDecodedLength();
+        if (this.responseBody.size() + n > maxDecodedLength) {
+            throw new MessageBodyTooLargeException(maxDecodedLength);
+        }
+    }
+
+    /**
+     * Determines how the message body of the parsed response head is framed.
+     */
+    protected void beginBody() throws IOException {
+        Headers headers = this.response.getHeaders();
+        int statusCode = this.response.getStatusCode();
+        if (statusCode >= 100 && statusCode < 200) {
+            // Interim responses are followed by the actual response.
+            this.beginResponse();
+            return;
+        }
+
+        if (this.request.getRequestMethod() == RequestMethod.HEAD || statusCode == Status.NO_CONTENT.getCode() || statusCode == Status.NOT_MODIFIED.getCode()) {
+            this.remaining = 0;
+            this.phase = Phase.FIXED_BODY;
+            return;
+        }
+
+        if (headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getLast).map(t -> t.getIdentifier().equals(TransferCoding.CHUNKED)).orElse(false)) {
+            this.phase = Phase.CHUNK_SIZE;
+        } else if (headers.contains(Header.CONTENT_LENGTH)) {
+            this.remaining = headers.getContentLength(0);
+            this.phase = Phase.FIXED_BODY;
+            this.ensureBodyCapacity(this.remaining);
+        } else {
+            this.phase = Phase.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    /**
+     * Decodes the transfer codings applied on top of the framing of the response body, like the gzip in 'gzip, chunked'.
+     * Throws a {@link com.jvdsn.feather.shared.stream.MessageBodyTooLargeException} if the decoded body exceeds the maximum decoded length.
+     *
+     * @return the decoded response body
+     */
+    protected byte[] decodeBody() throws IOException {
+        byte[] body = this.responseBody.toByteArray();
+        List<TransferCoding> transferCodings = this.response.getHeaders().get(Header.TRANSFER_ENCODING, TransferEncoding.class).map(TransferEncoding::getTransferCodings).orElse(Collections.emptyList());
+        // The chunked framing was already removed while the body was received.
+        int stacked = this.phase == Phase.TRAILER ? transferCodings.size() - 1 : transferCodings.size();
+        if (stacked <= 0 || body.length == 0) {
+            return body;
+        }
+
+        long maxDecodedLength = this.eventLoop.getMaxDecodedLength();
+        InputStream inputStream = new ByteArrayInputStream(body);
+        for (int i = stacked - 1; i >= 0; i--) {
+            inputStream = transferCodings.get(i).withMaxDecodedLength(maxDecodedLength).openDecodingStream(inputStream);
+        }
+
+        try (InputStream decodingStream = inputStream) {
+            // Grows with the data actually decoded, the compression ratio says nothing about the decoded length.
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.min(body.length, TransferCoding.MAX_INITIAL_READ_SIZE));
+            byte[] b = new byte[INITIAL_BUFFER_SIZE];
+            int read;
+            while ((read = decodingStream.read(b)) != -1) {
+                outputStream.write(b, 0, read);
+            }
+
+            return outputStream.toByteArray();
+        }
+    }
+
+    /**
+     * Completes the exchange in progress.
+     *
+     * @return true if the connection should be closed
+     */
+    protected boolean complete() throws IOException {
+        boolean close = this.phase == Phase.BODY_UNTIL_CLOSE || this.response.getHeaders().get(Header.CONNECTION, Connection.class).map(c -> c.contains(Connection.CLOSE)).orElse(false);
+        CompletableFuture<HttpExchange> future = this.future;
+        HttpExchange exchange = new HttpExchange(this.request, this.body, this.response, this.decodeBody());
+        this.request = null;
+        this.body = null;
+        this.future = null;
+        this.response = null;
+        this.responseBody = null;
+        this.reused = true;
+        this.eventLoop.release(this, close);
+        future.complete(exchange);
+        return close;
+    }
+
+    /**
+     * Returns true if the exchange in progress can be retried on a new connection after a failure.
+     * That is the case if the server closed this reused connection before responding to an idempotent request.
+     *
+     * @return true if the exchange can be retried, false otherwise
+     */
+    public boolean isRetryable() {
+        return this.isBusy() && this.reused && !this.responseStarted && this.request.getRequestMethod().isIdempotent();
+    }
+
+    /**
+     * Fails the exchange in progress, if any.
+     *
+     * @param e the cause
+     */
+    public void fail(Throwable e) {
+        if (this.future != null) {
+            CompletableFuture<HttpExchange> future = this.future;
+            this.future = null;
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails the exchange in progress if its deadline passed.
+     *
+     * @param nowMillis the current time
+     * @return true if the exchange timed out
+     */
+    public boolean checkTimeout(long nowMillis) {
+        if (this.isBusy() && nowMillis >= this.deadlineMillis) {
+            this.fail(new SocketTimeoutException(String.format("Request to %s timed out", this.hostAndPort)));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() throws IOException {
+        if (this.selectionKey != null) {
+            this.selectionKey.cancel();
+        }
+
+        this.channel.close();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.Host;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A non-blocking HTTP client.
+ * Requests return immediately with a future, the exchanges are driven by a small amount of event loop threads.
+ * The futures are completed on the event loop threads, so dependent actions that block should use the asynchronous variants.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class AsyncHttpClient {
+    public static final int DEFAULT_EVENT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final long DEFAULT_TIMEOUT_MILLIS = 15000;
+
+    protected final ClientEventLoop[] eventLoops;
+    // Resolves hosts off the event loop threads, DNS lookups block.
+    protected final ExecutorService resolver = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "feather-client-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    @Getter
+    protected final long timeoutMillis;
+
+    /**
+     * Constructs a new asynchronous HTTP client.
+     *
+     * @param eventLoops    the amount of event loop threads
+     * @param timeoutMillis the maximum time an exchange may take
+     */
+    public AsyncHttpClient(int eventLoops, long timeoutMillis) throws IOException {
+        if (eventLoops <= 0) {
+            throw new IllegalArgumentException("Non-positive amount of event loops " + eventLoops);
+        }
+
+        this.eventLoops = new ClientEventLoop[eventLoops];
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < eventLoops; i++) {
+            this.eventLoops[i] = new ClientEventLoop(this.resolver);
+            Thread thread = new Thread(this.eventLoops[i], "feather-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Constructs a new asynchronous HTTP client with an event loop for every two processors and a timeout of 15 seconds.
+     */
+    public AsyncHttpClient() throws IOException {
+        this(DEFAULT_EVENT_LOOPS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the maximum length of a response body, as received and after decoding its compression transfer codings.
+     *
+     * @return the maximum decoded length
+     */
+    public long getMaxDecodedLength() {
+        return this.eventLoops[0].getMaxDecodedLength();
+    }
+
+    /**
+     * Sets the maximum length of a response body, as received and after decoding its compression transfer codings.
+     * Exchanges with a longer response body fail with a {@link com.jvdsn.feather.shared.stream.MessageBodyTooLargeException}.
+     *
+     * @param maxDecodedLength the maximum decoded length
+     */
+    public void setMaxDecodedLength(long maxDecodedLength) {
+        for (ClientEventLoop eventLoop : this.eventLoops) {
+            eventLoop.setMaxDecodedLength(maxDecodedLength);
+        }
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param hostAndPort   the host and port
+     * @param requestMethod the request method
+     * @param resource      the resource to request, should start with /
+     * @param body          the request body
+     * @return a future completed with the exchange once the response was received
+     */
+    public CompletableFuture<HttpExchange> sendRequest(HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body) {
+        Header host = new Host(hostAndPort);
+        Header contentLength = new ContentLength(body.length);
+        Headers headers = Headers.builder().with(Header.HOST, host).with(Header.CONTENT_LENGTH, contentLength).build();
+        return this.send(hostAndPort, new HttpRequest(requestMethod, resource, headers), body);
+    }
+
+    /**
+     * Sends an arbitrary request, the headers should frame the body.
+     *
+     * @param hostAndPort the host and port
+     * @param request     the request
+     * @param body        the request body
+     * @return a future completed with the exchange once the response was received
+     */
+    public CompletableFuture<HttpExchange> send(@NonNull HostAndPort hostAndPort, @NonNull HttpRequest request, @NonNull byte[] body) {
+        CompletableFuture<HttpExchange> future = new CompletableFuture<>();
+        // Requests to a server always go to the same event loop, so they can reuse its idle connections.
+        ClientEventLoop eventLoop = this.eventLoops[(hostAndPort.hashCode() & Integer.MAX_VALUE) % this.eventLoops.length];
+        if (eventLoop.isStopped()) {
+            future.completeExceptionally(new IOException("Client closed"));
+            return future;
+        }
+
+        eventLoop.submit(hostAndPort, request, body, future, System.currentTimeMillis() + this.timeoutMillis);
+        return future;
+    }
+
+    /**
+     * Closes the client, failing the exchanges in progress and closing all connections.
+     */
+    public void close() {
+        for (ClientEventLoop eventLoop : this.eventLoops) {
+            eventLoop.stop();
+        }
+
+        this.resolver.shutdown();
+    }
+}
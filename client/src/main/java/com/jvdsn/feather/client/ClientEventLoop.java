@@ -0,0 +1,326 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.transfercoding.CompressionTransferCoding;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.SneakyThrows;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * Drives the connections of an asynchronous HTTP client on a single thread.
+ * Idle connections are kept per server and reused for later requests.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class ClientEventLoop implements Runnable {
+    public static final int READ_BUFFER_SIZE = 65536;
+    public static final long SELECT_TIMEOUT_MILLIS = 100;
+
+    protected final Selector selector;
+    // Resolves the hosts of new connections, so a slow DNS lookup doesn't stall the other connections of this event loop.
+    protected final Executor resolver;
+    protected final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Only accessed by the event loop thread.
+    protected final Map<HostAndPort, Deque<AsyncConnection>> idle = new HashMap<>();
+    protected final Set<AsyncConnection> busy = new HashSet<>();
+    protected long lastTimeoutCheckMillis;
+    @Getter
+    protected volatile boolean stopped;
+    // The maximum length of a response body, as received and after decoding its compression transfer codings.
+    @Getter
+    @Setter
+    protected volatile long maxDecodedLength = CompressionTransferCoding.DEFAULT_MAX_DECODED_LENGTH;
+
+    /**
+     * Constructs a new client event loop.
+     *
+     * @param resolver the executor to resolve the hosts of new connections on
+     */
+    public ClientEventLoop(@NonNull Executor resolver) throws IOException {
+        this.selector = Selector.open();
+        this.resolver = resolver;
+    }
+
+    /**
+     * Executes a task on the event loop thread.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Sends a request on an idle connection to the server, or on a new connection if there is none.
+     * The host of a new connection is resolved on the resolver, the connection is opened back on the event loop thread.
+     *
+     * @param hostAndPort    the host and port of the server
+     * @param request        the request
+     * @param body           the request body
+     * @param future         the future to complete with the exchange
+     * @param deadlineMillis the time at which the exchange times out
+     */
+    public void submit(HostAndPort hostAndPort, HttpRequest request, byte[] body, CompletableFuture<HttpExchange> future, long deadlineMillis) {
+        this.execute(() -> {
+            try {
+                AsyncConnection connection = this.idle.getOrDefault(hostAndPort, new ArrayDeque<>()).pollFirst();
+                if (connection == null) {
+                    this.resolve(hostAndPort, request, body, future, deadlineMillis);
+                    return;
+                }
+
+                this.start(connection, request, body, future, deadlineMillis);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Resolves the host of the server on the resolver, then sends a request on a new connection to the resolved address.
+     *
+     * @param hostAndPort    the host and port of the server
+     * @param request        the request
+     * @param body           the request body
+     * @param future         the future to complete with the exchange
+     * @param deadlineMillis the time at which the exchange times out
+     */
+    protected void resolve(HostAndPort hostAndPort, HttpRequest request, byte[] body, CompletableFuture<HttpExchange> future, long deadlineMillis) {
+        this.resolver.execute(() -> {
+            InetSocketAddress address = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+            if (address.isUnresolved()) {
+                future.completeExceptionally(new UnknownHostException(hostAndPort.getHost()));
+                return;
+            }
+
+            if (this.stopped) {
+                future.completeExceptionally(new IOException("Client stopped"));
+                return;
+            }
+
+            this.execute(() -> {
+                try {
+                    this.start(this.open(hostAndPort, address), request, body, future, deadlineMillis);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Starts an exchange on a connection.
+     *
+     * @param connection     the connection
+     * @param request        the request
+     * @param body           the request body
+     * @param future         the future to complete with the exchange
+     * @param deadlineMillis the time at which the exchange times out
+     */
+    protected void start(AsyncConnection connection, HttpRequest request, byte[] body, CompletableFuture<HttpExchange> future, long deadlineMillis) {
+        this.busy.add(connection);
+        try {
+            connection.start(request, body, future, deadlineMillis);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            this.close(connection);
+        }
+    }
+
+    /**
+     * Opens a new non-blocking connection to a server.
+     *
+     * @param hostAndPort the host and port of the server
+     * @param address     the resolved address of the server
+     * @return the connection
+     */
+    protected AsyncConnection open(HostAndPort hostAndPort, InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            AsyncConnection connection = new AsyncConnection(this, hostAndPort, channel);
+            boolean connected = channel.connect(address);
+            connection.setSelectionKey(channel.register(this.selector, connected ? 0 : SelectionKey.OP_CONNECT, connection));
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Called by a connection when its exchange completed.
+     *
+     * @param connection the connection
+     * @param close      true if the connection can't be reused
+     */
+    protected void release(AsyncConnection connection, boolean close) {
+        this.busy.remove(connection);
+        if (close || this.stopped) {
+            this.close(connection);
+            return;
+        }
+
+        connection.selectionKey.interestOps(SelectionKey.OP_READ);
+        this.idle.computeIfAbsent(connection.getHostAndPort(), __ -> new ArrayDeque<>()).addFirst(connection);
+    }
+
+    /**
+     * Closes a connection and removes it from the idle connections.
+     *
+     * @param connection the connection
+     */
+    protected void close(AsyncConnection connection) {
+        this.busy.remove(connection);
+        Deque<AsyncConnection> connections = this.idle.get(connection.getHostAndPort());
+        if (connections != null) {
+            connections.remove(connection);
+        }
+
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close connection", e);
+        }
+    }
+
+    /**
+     * Handles a failed connection, retrying its exchange on a new connection if that is safe.
+     *
+     * @param connection the connection
+     * @param e          the cause
+     */
+    protected void fail(AsyncConnection connection, Throwable e) {
+        if (connection.isRetryable()) {
+            // The server closed an idle connection just as it was reused, the request never reached it.
+            HttpRequest request = connection.request;
+            byte[] body = connection.body;
+            CompletableFuture<HttpExchange> future = connection.future;
+            connection.future = null;
+            this.close(connection);
+            this.submit(connection.getHostAndPort(), request, body, future, connection.getDeadlineMillis());
+            return;
+        }
+
+        connection.fail(e);
+        this.close(connection);
+    }
+
+    /**
+     * Fails the exchanges that exceeded their deadline, at most once per select timeout.
+     */
+    protected void checkTimeouts() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastTimeoutCheckMillis < SELECT_TIMEOUT_MILLIS) {
+            return;
+        }
+
+        this.lastTimeoutCheckMillis = now;
+        for (AsyncConnection connection : new ArrayList<>(this.busy)) {
+            if (connection.checkTimeout(now)) {
+                this.close(connection);
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop, failing the exchanges in progress.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.selector.wakeup();
+    }
+
+    @Override
+    @SneakyThrows(IOException.class)
+    public void run() {
+        while (!this.stopped) {
+            this.selector.select(SELECT_TIMEOUT_MILLIS);
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey selectionKey = iterator.next();
+                iterator.remove();
+                AsyncConnection connection = (AsyncConnection) selectionKey.attachment();
+                try {
+                    if (selectionKey.isConnectable()) {
+                        connection.onConnectable();
+                    }
+
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        connection.onWritable();
+                    }
+
+                    if (selectionKey.isValid() && selectionKey.isReadable() && connection.onReadable(this.readBuffer)) {
+                        this.close(connection);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    this.fail(connection, e);
+                }
+            }
+
+            this.checkTimeouts();
+        }
+
+        // Exchanges submitted while stopping get a connection that is failed below, rather than never completing.
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            task.run();
+        }
+
+        for (AsyncConnection connection : new ArrayList<>(this.busy)) {
+            connection.fail(new IOException("Client stopped"));
+            this.close(connection);
+        }
+
+        for (Deque<AsyncConnection> connections : this.idle.values()) {
+            for (AsyncConnection connection : new ArrayList<>(connections)) {
+                this.close(connection);
+            }
+        }
+
+        this.selector.close();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * A thread-safe pool of connections to HTTP servers.
+ * Every server has a bounded amount of connections, which are leased in the order the threads asked for them.
+ * Idle connections are closed after a while, and checked for staleness before they are leased again.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 30000;
+    public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 15000;
+
+    protected final Map<HostAndPort, Route> routes = new ConcurrentHashMap<>();
+    @Getter
+    protected final int maxConnectionsPerHost;
+    @Getter
+    protected final long maxIdleMillis;
+    @Getter
+    protected final long leaseTimeoutMillis;
+    protected final ScheduledExecutorService evictor;
+    protected volatile boolean closed;
+
+    /**
+     * Constructs a new connection pool.
+     *
+     * @param maxConnectionsPerHost the maximum amount of connections to a single server
+     * @param maxIdleMillis         the time after which idle connections are closed
+     * @param leaseTimeoutMillis    the maximum time to wait for a connection
+     */
+    public ConnectionPool(int maxConnectionsPerHost, long maxIdleMillis, long leaseTimeoutMillis) {
+        if (maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("Non-positive maximum connections per host " + maxConnectionsPerHost);
+        }
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxIdleMillis = maxIdleMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "feather-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionIntervalMillis = Math.max(maxIdleMillis / 2, 1);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a new connection pool with 8 connections per server, which are closed after being idle for 30 seconds.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_LEASE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the route to a server, creating it if needed.
+     *
+     * @param hostAndPort the host and port of the server
+     * @return the route
+     */
+    protected Route getRoute(HostAndPort hostAndPort) {
+        return this.routes.computeIfAbsent(hostAndPort, __ -> new Route(this.maxConnectionsPerHost));
+    }
+
+    /**
+     * Opens a new connection to a server.
+     *
+     * @param hostAndPort the host and port of the server
+     * @return the connection
+     */
+    protected PooledConnection open(HostAndPort hostAndPort) throws IOException {
+        log.info(String.format("Connecting to %s...", hostAndPort));
+        // A channel-backed socket allows large bodies to be sent with gathering writes.
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort()));
+        channel.socket().setTcpNoDelay(true);
+        log.info(String.format("Connected to %s!", hostAndPort));
+        return new PooledConnection(hostAndPort, channel);
+    }
+
+    /**
+     * Closes a connection, logging instead of throwing on failure.
+     *
+     * @param connection the connection
+     */
+    protected void closeQuietly(PooledConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close connection", e);
+        }
+    }
+
+    /**
+     * Leases a connection to a server, reusing an idle connection if possible.
+     * Waits for another thread to release a connection if the maximum amount of connections is reached.
+     *
+     * @param hostAndPort the host and port of the server
+     * @return the connection, which must be released after use
+     */
+    public PooledConnection lease(HostAndPort hostAndPort) throws IOException {
+        if (this.closed) {
+            throw new IOException("Connection pool closed");
+        }
+
+        Route route = this.getRoute(hostAndPort);
+        try {
+            if (!route.permits.tryAcquire(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException(String.format("Timed out waiting for a connection to %s", hostAndPort));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        try {
+            PooledConnection connection;
+            while ((connection = route.poll()) != null) {
+                if (System.currentTimeMillis() - connection.getLastUsedMillis() <= this.maxIdleMillis && !connection.isStale()) {
+                    connection.touch();
+                    return connection;
+                }
+
+                this.closeQuietly(connection);
+            }
+
+            return this.open(hostAndPort);
+        } catch (IOException | RuntimeException e) {
+            route.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a leased connection.
+     *
+     * @param connection the connection
+     * @param reusable   true if the connection can be leased again, false if it should be closed
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        Route route = this.getRoute(connection.getHostAndPort());
+        if (reusable && !this.closed) {
+            connection.touch();
+            route.offer(connection);
+        } else {
+            this.closeQuietly(connection);
+        }
+
+        route.permits.release();
+    }
+
+    /**
+     * Opens connections to a server up front, so the first requests don't have to wait for them.
+     *
+     * @param hostAndPort the host and port of the server
+     * @param connections the amount of idle connections to have, limited by the maximum amount of connections per server
+     */
+    public void prewarm(HostAndPort hostAndPort, int connections) throws IOException {
+        Route route = this.getRoute(hostAndPort);
+        int leased = this.maxConnectionsPerHost - route.permits.availablePermits();
+        for (int i = route.size() + leased; i < Math.min(connections, this.maxConnectionsPerHost); i++) {
+            route.offer(this.open(hostAndPort));
+        }
+    }
+
+    /**
+     * Closes the idle connections that exceeded the maximum idle time.
+     */
+    protected void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Route route : this.routes.values()) {
+            for (PooledConnection connection : route.pollIdle(now - this.maxIdleMillis)) {
+                this.closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections to a server.
+     *
+     * @param hostAndPort the host and port of the server
+     */
+    public void closeIdle(HostAndPort hostAndPort) {
+        Route route = this.routes.get(hostAndPort);
+        if (route != null) {
+            for (PooledConnection connection : route.pollIdle(Long.MAX_VALUE)) {
+                this.closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection pool and all idle connections.
+     * Leased connections are closed when they are released.
+     */
+    public void close() {
+        this.closed = true;
+        this.evictor.shutdownNow();
+        for (Route route : this.routes.values()) {
+            for (PooledConnection connection : route.pollIdle(Long.MAX_VALUE)) {
+                this.closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * The connections to a single server.
+     */
+    protected static class Route {
+        // Fair, so threads waiting for a connection get one in the order they asked.
+        protected final Semaphore permits;
+        // Most recently used first, so the connections at the end stay idle long enough to be evicted.
+        protected final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+        /**
+         * Constructs a new route.
+         *
+         * @param maxConnections the maximum amount of leased connections
+         */
+        protected Route(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        /**
+         * Returns the most recently used idle connection.
+         *
+         * @return the connection, or null if there are no idle connections
+         */
+        protected synchronized PooledConnection poll() {
+            return this.idle.pollFirst();
+        }
+
+        /**
+         * Adds an idle connection.
+         *
+         * @param connection the connection
+         */
+        protected synchronized void offer(PooledConnection connection) {
+            this.idle.addFirst(connection);
+        }
+
+        /**
+         * Returns the amount of idle connections.
+         *
+         * @return the amount of idle connections
+         */
+        protected synchronized int size() {
+            return this.idle.size();
+        }
+
+        /**
+         * Removes the idle connections that were last used before a point in time.
+         *
+         * @param beforeMillis the point in time
+         * @return the removed connections
+         */
+        protected synchronized List<PooledConnection> pollIdle(long beforeMillis) {
+            List<PooledConnection> connections = new ArrayList<>();
+            while (!this.idle.isEmpty() && this.idle.peekLast().getLastUsedMillis() < beforeMillis) {
+                connections.add(this.idle.pollLast());
+            }
+
+            return connections;
+        }
+    }
+}
@@ -13,30 +13,39 @@ package com.jvdsn.feather.client;
 import com.jvdsn.feather.shared.Headers;
 import com.jvdsn.feather.shared.HostAndPort;
 import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.buffer.PooledBuffer;
+import com.jvdsn.feather.shared.header.Connection;
 import com.jvdsn.feather.shared.header.ContentLength;
 import com.jvdsn.feather.shared.header.Header;
 import com.jvdsn.feather.shared.header.Host;
 import com.jvdsn.feather.shared.request.HttpRequest;
 import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.BufferHttpResponseHandler;
 import com.jvdsn.feather.shared.response.HttpResponse;
 import com.jvdsn.feather.shared.response.HttpResponseHandler;
 import lombok.extern.java.Log;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * An HTTP client.
  * Provides methods to send arbitrary HTTP requests or just simple get/head/post/put methods.
+ * Batches of requests can be pipelined on a single connection.
  *
  * @author Joachim Vandersmissen
  */
 @Log
 public class HttpClient {
     public static final byte[] EMPTY_BYTES = new byte[0];
+    public static final int MAX_PIPELINE_DEPTH = 16;
     protected final Map<HostAndPort, HttpAgent> servers = new HashMap<>();
 
     /**
@@ -46,9 +55,11 @@ public class HttpClient {
      * @return the remote server
      */
     public HttpAgent connect(HostAndPort hostAndPort) throws IOException {
-        if (!this.servers.containsKey(hostAndPort)) {
+        if (!this.servers.containsKey(hostAndPort) || !this.servers.get(hostAndPort).isConnected()) {
             log.info(String.format("Connecting to %s...", hostAndPort));
-            Socket socket = new Socket(hostAndPort.getHost(), hostAndPort.getPort());
+            // A channel-backed socket allows large bodies to be sent with gathering writes.
+            Socket socket = SocketChannel.open(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort())).socket();
+            socket.setTcpNoDelay(true);
             HttpAgent server = new HttpAgent(socket);
             this.servers.put(hostAndPort, server);
             log.info(String.format("Connected to %s!", hostAndPort));
@@ -83,21 +94,239 @@ public class HttpClient {
      * @param responseHandlers the HTTP response handlers to use
      */
     public void sendRequest(HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, HttpResponseHandler... responseHandlers) throws IOException {
-        HttpAgent server = this.connect(hostAndPort);
+        this.exchange(this.connect(hostAndPort), hostAndPort, requestMethod, resource, body, responseHandlers);
+    }
+
+    /**
+     * Sends a request, receiving the response body in a pooled buffer.
+     * The buffer is released once the response handler returned.
+     *
+     * @param hostAndPort     the host and port
+     * @param requestMethod   the request method
+     * @param resource        the resource to request, should start with /
+     * @param body            the request body
+     * @param responseHandler the buffer HTTP response handler to use
+     */
+    public void sendBufferRequest(HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, BufferHttpResponseHandler responseHandler) throws IOException {
+        this.exchangeBuffer(this.connect(hostAndPort), hostAndPort, requestMethod, resource, body, responseHandler);
+    }
+
+    /**
+     * Sends a batch of requests, writing consecutive idempotent requests back-to-back before reading their responses.
+     * The responses are matched to the requests in order, the response handlers of each request are called in the same order.
+     * Non-idempotent requests are sent by themselves once all earlier responses were received, so they are never sent twice.
+     * Idempotent requests that weren't answered because the server closed the connection are sent again on a new connection.
+     *
+     * @param hostAndPort the host and port
+     * @param requests    the requests
+     */
+    public void sendPipelined(HostAndPort hostAndPort, List<PipelinedRequest> requests) throws IOException {
+        int i = 0;
+        while (i < requests.size()) {
+            PipelinedRequest request = requests.get(i);
+            if (!request.getRequestMethod().isIdempotent()) {
+                this.sendRequest(hostAndPort, request.getRequestMethod(), request.getResource(), request.getBody(), request.getResponseHandlers());
+                i++;
+                continue;
+            }
+
+            int j = i + 1;
+            while (j < requests.size() && j - i < MAX_PIPELINE_DEPTH && requests.get(j).getRequestMethod().isIdempotent()) {
+                j++;
+            }
+
+            i += this.sendPipelinedRun(hostAndPort, requests.subList(i, j));
+        }
+    }
+
+    /**
+     * Pipelines a run of idempotent requests on a connection to the server.
+     *
+     * @param hostAndPort the host and port
+     * @param requests    the idempotent requests
+     * @return the amount of requests that were answered, at least one
+     */
+    protected int sendPipelinedRun(HostAndPort hostAndPort, List<PipelinedRequest> requests) throws IOException {
+        return this.pipeline(this.connect(hostAndPort), hostAndPort, requests);
+    }
+
+    /**
+     * Checks whether a connection can be used again after a response.
+     * HTTP/1.1 connections persist unless the server closes them, connections of older versions only persist if the server keeps them alive.
+     *
+     * @param response the HTTP response
+     * @return true if the connection can be used again, false otherwise
+     */
+    protected static boolean isPersistent(HttpResponse response) {
+        Optional<Connection> connection = response.getHeaders().get(Header.CONNECTION, Connection.class);
+        if (connection.map(c -> c.contains(Connection.CLOSE)).orElse(false)) {
+            return false;
+        }
+
+        return HttpAgent.HTTP_1_1.equals(response.getHttpVersion()) || connection.map(c -> c.contains(Connection.KEEP_ALIVE)).orElse(false);
+    }
+
+    /**
+     * Writes requests back-to-back to a connected server and receives their responses in order.
+     * Stops early and disconnects if the server closes the connection, either explicitly or before starting a response after answering at least one request.
+     * Any other failure, like a malformed or truncated response or a failing response handler, disconnects and is thrown.
+     *
+     * @param server      the remote server
+     * @param hostAndPort the host and port
+     * @param requests    the idempotent requests
+     * @return the amount of requests that were answered, at least one
+     */
+    protected int pipeline(HttpAgent server, HostAndPort hostAndPort, List<PipelinedRequest> requests) throws IOException {
+        HttpRequest[] sent = new HttpRequest[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            PipelinedRequest request = requests.get(i);
+            sent[i] = this.send(server, hostAndPort, request.getRequestMethod(), request.getResource(), request.getBody());
+        }
+
+        server.flush();
+        for (int i = 0; i < requests.size(); i++) {
+            PipelinedRequest request = requests.get(i);
+            if (i > 0 && !this.awaitResponse(server)) {
+                // The server dropped the connection before it started this response, the unanswered requests are safe to send again.
+                server.disconnect();
+                return i;
+            }
+
+            HttpResponse response;
+            try {
+                response = this.receive(server, sent[i], request.getBody(), request.getResponseHandlers());
+            } catch (IOException | RuntimeException e) {
+                // The rest of the response is still unread, so the connection can't be used for anything else.
+                server.disconnect();
+                throw e;
+            }
+
+            if (!isPersistent(response)) {
+                server.disconnect();
+                return i + 1;
+            }
+        }
+
+        return requests.size();
+    }
+
+    /**
+     * Waits until a connected server starts sending the next response.
+     * A connection reset before any byte of the response arrived is treated like the server closing the connection.
+     *
+     * @param server the remote server
+     * @return false if the connection was lost before the response started
+     */
+    protected boolean awaitResponse(HttpAgent server) throws IOException {
+        try {
+            return server.awaitMessage();
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends a request to a connected server and receives the response.
+     *
+     * @param server           the remote server
+     * @param hostAndPort      the host and port
+     * @param requestMethod    the request method
+     * @param resource         the resource to request, should start with /
+     * @param body             the request body
+     * @param responseHandlers the HTTP response handlers to use
+     * @return the response
+     */
+    protected HttpResponse exchange(HttpAgent server, HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, HttpResponseHandler... responseHandlers) throws IOException {
+        HttpRequest request = this.send(server, hostAndPort, requestMethod, resource, body);
+        server.flush();
+        return this.receive(server, request, body, responseHandlers);
+    }
+
+    /**
+     * Sends a request to a connected server and receives the response body in a pooled buffer.
+     *
+     * @param server          the remote server
+     * @param hostAndPort     the host and port
+     * @param requestMethod   the request method
+     * @param resource        the resource to request, should start with /
+     * @param body            the request body
+     * @param responseHandler the buffer HTTP response handler to use
+     * @return the response
+     */
+    protected HttpResponse exchangeBuffer(HttpAgent server, HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, BufferHttpResponseHandler responseHandler) throws IOException {
+        HttpRequest request = this.send(server, hostAndPort, requestMethod, resource, body);
+        server.flush();
+        return this.receiveBuffer(server, request, body, responseHandler);
+    }
+
+    /**
+     * Sends a request to a connected server without flushing it.
+     *
+     * @param server        the remote server
+     * @param hostAndPort   the host and port
+     * @param requestMethod the request method
+     * @param resource      the resource to request, should start with /
+     * @param body          the request body
+     * @return the request
+     */
+    protected HttpRequest send(HttpAgent server, HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body) throws IOException {
         Header host = new Host(hostAndPort);
-        Header contentLength = new ContentLength(BigInteger.valueOf(body.length));
-        Headers headers = new Headers().with(Header.HOST, host).with(Header.CONTENT_LENGTH, contentLength);
+        Header contentLength = new ContentLength(body.length);
+        Headers headers = Headers.builder().with(Header.HOST, host).with(Header.CONTENT_LENGTH, contentLength).build();
         HttpRequest request = new HttpRequest(requestMethod, resource, headers);
         server.sendRequest(request);
         server.sendMessageBody(headers, body);
+        return request;
+    }
+
+    /**
+     * Receives the response to a request from a connected server and calls the response handlers.
+     *
+     * @param server           the remote server
+     * @param request          the request
+     * @param body             the request body
+     * @param responseHandlers the HTTP response handlers to use
+     * @return the response
+     */
+    protected HttpResponse receive(HttpAgent server, HttpRequest request, byte[] body, HttpResponseHandler... responseHandlers) throws IOException {
         HttpResponse response = server.receiveResponse();
         byte[] responseBody = EMPTY_BYTES;
-        if (requestMethod != RequestMethod.HEAD) {
+        if (request.getRequestMethod() != RequestMethod.HEAD) {
             responseBody = server.receiveMessageBody(response.getHeaders());
         }
 
         for (HttpResponseHandler responseHandler : responseHandlers) {
             responseHandler.handleResponse(server, request, body, response, responseBody);
         }
+
+        return response;
+    }
+
+    /**
+     * Receives the response to a request from a connected server into a pooled buffer and calls the response handler.
+     *
+     * @param server          the remote server
+     * @param request         the request
+     * @param body            the request body
+     * @param responseHandler the buffer HTTP response handler to use
+     * @return the response
+     */
+    protected HttpResponse receiveBuffer(HttpAgent server, HttpRequest request, byte[] body, BufferHttpResponseHandler responseHandler) throws IOException {
+        HttpResponse response = server.receiveResponse();
+        PooledBuffer responseBody;
+        if (request.getRequestMethod() != RequestMethod.HEAD) {
+            responseBody = server.receiveMessageBodyBuffer(response.getHeaders());
+        } else {
+            responseBody = server.getBufferPool().acquire(0);
+            responseBody.getBuffer().flip();
+        }
+
+        try {
+            responseHandler.handleResponse(server, request, body, response, responseBody);
+        } finally {
+            responseBody.release();
+        }
+
+        return response;
     }
 }
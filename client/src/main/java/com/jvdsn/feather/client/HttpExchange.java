@@ -0,0 +1,29 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A completed exchange of an HTTP request and an HTTP response.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Value
+public class HttpExchange {
+    @NonNull HttpRequest request;
+    @NonNull byte[] body;
+    @NonNull HttpResponse response;
+    @NonNull byte[] responseBody;
+}
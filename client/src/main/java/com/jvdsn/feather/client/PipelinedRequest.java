@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponseHandler;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A request in a batch of pipelined requests.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Value
+public class PipelinedRequest {
+    RequestMethod requestMethod;
+    String resource;
+    byte[] body;
+    HttpResponseHandler[] responseHandlers;
+
+    /**
+     * Constructs a new pipelined request.
+     *
+     * @param requestMethod    the request method
+     * @param resource         the resource to request, should start with /
+     * @param body             the request body
+     * @param responseHandlers the HTTP response handlers to call with the response
+     */
+    public PipelinedRequest(@NonNull RequestMethod requestMethod, @NonNull String resource, @NonNull byte[] body, @NonNull HttpResponseHandler... responseHandlers) {
+        this.requestMethod = requestMethod;
+        this.resource = resource;
+        this.body = body;
+        this.responseHandlers = responseHandlers;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.HttpAgent;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection managed by a connection pool.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class PooledConnection {
+    @Getter
+    protected final HostAndPort hostAndPort;
+    @Getter
+    protected final HttpAgent agent;
+    protected final SocketChannel channel;
+    @Getter
+    protected long lastUsedMillis;
+
+    /**
+     * Constructs a new pooled connection.
+     *
+     * @param hostAndPort the host and port of the server
+     * @param channel     the connected channel
+     */
+    public PooledConnection(@NonNull HostAndPort hostAndPort, @NonNull SocketChannel channel) throws IOException {
+        this.hostAndPort = hostAndPort;
+        this.agent = new HttpAgent(channel.socket());
+        this.channel = channel;
+        this.lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the connection as used now.
+     */
+    public void touch() {
+        this.lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks whether the server closed the connection or sent unexpected data while it was idle.
+     * Peeks at the channel without blocking, so the check costs a single system call.
+     *
+     * @return true if the connection can't be reused, false otherwise
+     */
+    public boolean isStale() {
+        if (!this.channel.isOpen()) {
+            return true;
+        }
+
+        try {
+            this.channel.configureBlocking(false);
+            try {
+                // Idle connections shouldn't receive anything, so any data or the end of the stream means the connection is unusable.
+                return this.channel.read(ByteBuffer.allocate(1)) != 0;
+            } finally {
+                this.channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() throws IOException {
+        this.agent.disconnect();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.BufferHttpResponseHandler;
+import com.jvdsn.feather.shared.response.HttpResponseHandler;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A thread-safe HTTP client.
+ * Every request leases a connection from a connection pool, so many threads can share a few connections to each server.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class PooledHttpClient extends HttpClient {
+    @Getter
+    protected final ConnectionPool connectionPool;
+
+    /**
+     * Constructs a new pooled HTTP client.
+     *
+     * @param connectionPool the connection pool to lease connections from
+     */
+    public PooledHttpClient(@NonNull ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Constructs a new pooled HTTP client with a default connection pool.
+     */
+    public PooledHttpClient() {
+        this(new ConnectionPool());
+    }
+
+    /**
+     * Pooled connections are only handed out for the duration of a single exchange, use {@link #getConnectionPool()} to lease one.
+     *
+     * @param hostAndPort the host and port of the server
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public HttpAgent connect(HostAndPort hostAndPort) {
+        throw new UnsupportedOperationException("Pooled connections must be leased from the connection pool");
+    }
+
+    /**
+     * Closes the idle pooled connections to a server.
+     * Leased connections are returned to the pool as usual.
+     *
+     * @param hostAndPort the host and port of the server
+     */
+    @Override
+    public void closeConnection(HostAndPort hostAndPort) {
+        this.connectionPool.closeIdle(hostAndPort);
+    }
+
+    /**
+     * Sends a request over a pooled connection.
+     * The connection is returned to the pool once the response was handled, unless the server doesn't keep it alive or an error occurred.
+     *
+     * @param hostAndPort      the host and port
+     * @param requestMethod    the request method
+     * @param resource         the resource to request, should start with /
+     * @param body             the request body
+     * @param responseHandlers the HTTP response handlers to use
+     */
+    @Override
+    public void sendRequest(HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, HttpResponseHandler... responseHandlers) throws IOException {
+        PooledConnection connection = this.connectionPool.lease(hostAndPort);
+        boolean reusable = false;
+        try {
+            reusable = isPersistent(this.exchange(connection.getAgent(), hostAndPort, requestMethod, resource, body, responseHandlers));
+        } finally {
+            this.connectionPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Sends a request over a pooled connection, receiving the response body in a pooled buffer.
+     * The connection is returned to the pool once the response was handled, unless the server doesn't keep it alive or an error occurred.
+     *
+     * @param hostAndPort     the host and port
+     * @param requestMethod   the request method
+     * @param resource        the resource to request, should start with /
+     * @param body            the request body
+     * @param responseHandler the buffer HTTP response handler to use
+     */
+    @Override
+    public void sendBufferRequest(HostAndPort hostAndPort, RequestMethod requestMethod, String resource, byte[] body, BufferHttpResponseHandler responseHandler) throws IOException {
+        PooledConnection connection = this.connectionPool.lease(hostAndPort);
+        boolean reusable = false;
+        try {
+            reusable = isPersistent(this.exchangeBuffer(connection.getAgent(), hostAndPort, requestMethod, resource, body, responseHandler));
+        } finally {
+            this.connectionPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Pipelines a run of idempotent requests on a pooled connection.
+     *
+     * @param hostAndPort the host and port
+     * @param requests    the idempotent requests
+     * @return the amount of requests that were answered, at least one
+     */
+    @Override
+    protected int sendPipelinedRun(HostAndPort hostAndPort, List<PipelinedRequest> requests) throws IOException {
+        PooledConnection connection = this.connectionPool.lease(hostAndPort);
+        boolean reusable = false;
+        try {
+            int answered = this.pipeline(connection.getAgent(), hostAndPort, requests);
+            // Pipelining disconnects if the server closed the connection.
+            reusable = connection.getAgent().isConnected();
+            return answered;
+        } finally {
+            this.connectionPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Closes the connection pool of this client.
+     */
+    public void close() {
+        this.connectionPool.close();
+    }
+}
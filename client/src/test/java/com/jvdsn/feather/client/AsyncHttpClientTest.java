@@ -0,0 +1,274 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.stream.MessageBodyTooLargeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class AsyncHttpClientTest {
+    /**
+     * Handles a connection accepted by a loopback server.
+     */
+    private interface ConnectionHandler {
+        void handle(Socket socket) throws Exception;
+    }
+
+    /**
+     * Starts a loopback server handling every connection on its own thread.
+     */
+    private static ServerSocket serve(ConnectionHandler handler) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread connectionThread = new Thread(() -> {
+                        try (Socket s = socket) {
+                            handler.handle(s);
+                        } catch (Exception e) {
+                            // The client closed the connection.
+                        }
+                    });
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                } catch (IOException e) {
+                    // The server socket was closed.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket;
+    }
+
+    /**
+     * Reads a request head, returning null if the connection was closed first.
+     */
+    private static String readHead(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int state = 0;
+        while (state < 4) {
+            int b = inputStream.read();
+            if (b == -1) {
+                return null;
+            }
+
+            head.write(b);
+            state = (b == '\r' && state % 2 == 0) || (b == '\n' && state % 2 == 1) ? state + 1 : 0;
+        }
+
+        return new String(head.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static HostAndPort hostAndPort(ServerSocket serverSocket) {
+        return HostAndPort.parse(serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort());
+    }
+
+    private static Throwable failure(CompletableFuture<HttpExchange> future) throws InterruptedException {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        int requests = 8;
+        AtomicInteger connections = new AtomicInteger();
+        CountDownLatch received = new CountDownLatch(requests);
+        try (ServerSocket serverSocket = serve(socket -> {
+            connections.incrementAndGet();
+            String head;
+            while ((head = readHead(socket.getInputStream())) != null) {
+                // Only responds once every request arrived, which is only possible if they were sent on separate connections.
+                received.countDown();
+                received.await();
+                String resource = head.substring(head.indexOf(' ') + 1, head.indexOf(' ', head.indexOf(' ') + 1));
+                OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(("HTTP/1.1 200 OK\r\nContent-Length: " + resource.length() + "\r\n\r\n" + resource).getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+            }
+        })) {
+            AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+            try {
+                List<CompletableFuture<HttpExchange>> futures = new ArrayList<>();
+                for (int i = 0; i < requests; i++) {
+                    futures.add(client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/" + i, new byte[0]));
+                }
+
+                for (int i = 0; i < requests; i++) {
+                    HttpExchange exchange = futures.get(i).get(10, TimeUnit.SECONDS);
+                    Assertions.assertEquals(200, exchange.getResponse().getStatusCode());
+                    Assertions.assertEquals("/" + i, new String(exchange.getResponseBody(), StandardCharsets.US_ASCII));
+                }
+
+                Assertions.assertEquals(requests, connections.get());
+
+                // The idle connections are reused.
+                HttpExchange exchange = client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/again", new byte[0]).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals("/again", new String(exchange.getResponseBody(), StandardCharsets.US_ASCII));
+                Assertions.assertEquals(requests, connections.get());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        HostAndPort hostAndPort;
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            hostAndPort = hostAndPort(serverSocket);
+        }
+
+        AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+        try {
+            Assertions.assertTrue(failure(client.sendRequest(hostAndPort, RequestMethod.GET, "/", new byte[0])) instanceof ConnectException);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClosedMidResponse() throws Exception {
+        try (ServerSocket serverSocket = serve(socket -> {
+            readHead(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\nincomplete".getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+        })) {
+            AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+            try {
+                Assertions.assertTrue(failure(client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/", new byte[0])) instanceof EOFException);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedChunkSize() throws Exception {
+        try (ServerSocket serverSocket = serve(socket -> {
+            String head;
+            while ((head = readHead(socket.getInputStream())) != null) {
+                OutputStream outputStream = socket.getOutputStream();
+                if (head.startsWith("GET /ok ")) {
+                    outputStream.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    String chunkSize = head.substring(head.indexOf('/') + 1, head.indexOf(' ', head.indexOf('/')));
+                    outputStream.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + chunkSize + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                }
+
+                outputStream.flush();
+            }
+        })) {
+            AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+            try {
+                for (String chunkSize : new String[]{"-1", "+5", "x", "10000000000000000"}) {
+                    Throwable cause = failure(client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/" + chunkSize, new byte[0]));
+                    Assertions.assertTrue(cause instanceof IOException, cause.toString());
+                }
+
+                // The event loop is still responsive.
+                HttpExchange exchange = client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/ok", new byte[0]).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals("ok", new String(exchange.getResponseBody(), StandardCharsets.US_ASCII));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxReceivedLength() throws Exception {
+        try (ServerSocket serverSocket = serve(socket -> {
+            String head = readHead(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            if (head.startsWith("GET /fixed ")) {
+                outputStream.write("HTTP/1.1 200 OK\r\nContent-Length: 1000000000000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+                readHead(socket.getInputStream());
+                return;
+            }
+
+            outputStream.write("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            byte[] data = new byte[8192];
+            for (int i = 0; i < 64; i++) {
+                outputStream.write(data);
+            }
+
+            outputStream.flush();
+        })) {
+            AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+            try {
+                client.setMaxDecodedLength(1 << 16);
+                for (String resource : new String[]{"/fixed", "/close"}) {
+                    Throwable cause = failure(client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, resource, new byte[0]));
+                    Assertions.assertTrue(cause instanceof MessageBodyTooLargeException, cause.toString());
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDecodedLength() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(new byte[1 << 20]);
+        }
+
+        byte[] body = compressed.toByteArray();
+        try (ServerSocket serverSocket = serve(socket -> {
+            while (readHead(socket.getInputStream()) != null) {
+                OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: gzip, chunked\r\n\r\n" + Integer.toHexString(body.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                outputStream.write(body);
+                outputStream.write("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+            }
+        })) {
+            AsyncHttpClient client = new AsyncHttpClient(1, 10000);
+            try {
+                Assertions.assertEquals(1 << 20, client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/", new byte[0]).get(10, TimeUnit.SECONDS).getResponseBody().length);
+                client.setMaxDecodedLength(1 << 16);
+                Assertions.assertEquals(1 << 16, client.getMaxDecodedLength());
+                Throwable cause = failure(client.sendRequest(hostAndPort(serverSocket), RequestMethod.GET, "/", new byte[0]));
+                Assertions.assertTrue(cause instanceof MessageBodyTooLargeException, cause.toString());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ConnectionPoolTest {
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            ConnectionPool pool = new ConnectionPool(2, 30000, 5000);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            PooledConnection first = pool.lease(hostAndPort);
+            PooledConnection second = pool.lease(hostAndPort);
+            Assertions.assertNotSame(first, second);
+
+            CompletableFuture<PooledConnection> third = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.lease(hostAndPort);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            LoopbackServer.await(() -> pool.getRoute(hostAndPort).permits.hasQueuedThreads());
+            Assertions.assertFalse(third.isDone());
+
+            pool.release(first, true);
+            Assertions.assertSame(first, third.get(5, TimeUnit.SECONDS));
+            LoopbackServer.await(() -> server.getAccepted() == 2);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testFairLease() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            ConnectionPool pool = new ConnectionPool(1, 30000, 5000);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            PooledConnection leased = pool.lease(hostAndPort);
+
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                int waiter = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        PooledConnection connection = pool.lease(hostAndPort);
+                        order.add(waiter);
+                        pool.release(connection, true);
+                    } catch (IOException e) {
+                        order.add(-1);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                thread.start();
+                // Queue the threads one after another.
+                LoopbackServer.await(() -> pool.getRoute(hostAndPort).permits.getQueueLength() == waiter + 1);
+            }
+
+            pool.release(leased, true);
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(Arrays.asList(0, 1, 2), order);
+            LoopbackServer.await(() -> server.getAccepted() == 1);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testLeaseTimeout() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            ConnectionPool pool = new ConnectionPool(1, 30000, 100);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            PooledConnection leased = pool.lease(hostAndPort);
+            long start = System.nanoTime();
+            Assertions.assertThrows(IOException.class, () -> pool.lease(hostAndPort));
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+            // The timed out lease didn't take a permit.
+            pool.release(leased, true);
+            Assertions.assertSame(leased, pool.lease(hostAndPort));
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            ConnectionPool pool = new ConnectionPool(1, 100, 5000);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            PooledConnection connection = pool.lease(hostAndPort);
+            pool.release(connection, true);
+            Assertions.assertEquals(1, pool.getRoute(hostAndPort).size());
+
+            LoopbackServer.await(() -> pool.getRoute(hostAndPort).size() == 0);
+            LoopbackServer.await(() -> server.getClosed() == 1);
+            Assertions.assertNotSame(connection, pool.lease(hostAndPort));
+            LoopbackServer.await(() -> server.getAccepted() == 2);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        CountDownLatch closeFirst = new CountDownLatch(1);
+        try (LoopbackServer server = new LoopbackServer((connection, socket) -> {
+            if (connection == 0) {
+                closeFirst.await();
+                return;
+            }
+
+            LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n").handle(connection, socket);
+        })) {
+            ConnectionPool pool = new ConnectionPool(1, 30000, 5000);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            PooledConnection connection = pool.lease(hostAndPort);
+            Assertions.assertFalse(connection.isStale());
+            pool.release(connection, true);
+
+            closeFirst.countDown();
+            LoopbackServer.await(connection::isStale);
+            // The stale connection is replaced by a new one.
+            PooledConnection replacement = pool.lease(hostAndPort);
+            Assertions.assertNotSame(connection, replacement);
+            Assertions.assertFalse(replacement.isStale());
+            LoopbackServer.await(() -> server.getAccepted() == 2);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            ConnectionPool pool = new ConnectionPool(2, 30000, 5000);
+            HostAndPort hostAndPort = server.getHostAndPort();
+            // Limited by the maximum amount of connections per server.
+            pool.prewarm(hostAndPort, 3);
+            Assertions.assertEquals(2, pool.getRoute(hostAndPort).size());
+
+            PooledConnection first = pool.lease(hostAndPort);
+            // Leased connections count towards the idle connections to have.
+            pool.prewarm(hostAndPort, 2);
+            Assertions.assertEquals(1, pool.getRoute(hostAndPort).size());
+            PooledConnection second = pool.lease(hostAndPort);
+            Assertions.assertNotSame(first, second);
+            LoopbackServer.await(() -> server.getAccepted() == 2);
+            pool.close();
+        }
+    }
+}
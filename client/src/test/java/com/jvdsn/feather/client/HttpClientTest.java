@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class HttpClientTest {
+    /**
+     * Handles a connection accepted by a loopback server.
+     */
+    private interface ConnectionHandler {
+        void handle(int connection, Socket socket) throws Exception;
+    }
+
+    /**
+     * Starts a loopback server handling its connections one after another.
+     */
+    private static ServerSocket serve(ConnectionHandler handler) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            for (int connection = 0; !serverSocket.isClosed(); connection++) {
+                try (Socket socket = serverSocket.accept()) {
+                    handler.handle(connection, socket);
+                } catch (Exception e) {
+                    // The server socket or the connection was closed.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket;
+    }
+
+    /**
+     * Reads the resource of the next request, returning null if the connection was closed first.
+     */
+    private static String readResource(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int state = 0;
+        while (state < 4) {
+            int b = inputStream.read();
+            if (b == -1) {
+                return null;
+            }
+
+            head.write(b);
+            state = (b == '\r' && state % 2 == 0) || (b == '\n' && state % 2 == 1) ? state + 1 : 0;
+        }
+
+        String requestLine = new String(head.toByteArray(), StandardCharsets.US_ASCII);
+        return requestLine.substring(requestLine.indexOf(' ') + 1, requestLine.indexOf(' ', requestLine.indexOf(' ') + 1));
+    }
+
+    private static void respond(OutputStream outputStream, String body) throws IOException {
+        outputStream.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+    }
+
+    private static HostAndPort hostAndPort(ServerSocket serverSocket) {
+        return HostAndPort.parse(serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort());
+    }
+
+    private static List<PipelinedRequest> requests(List<String> responses, String... resources) {
+        List<PipelinedRequest> requests = new ArrayList<>();
+        for (String resource : resources) {
+            requests.add(new PipelinedRequest(RequestMethod.GET, resource, new byte[0], (server, request, body, response, responseBody) -> {
+                synchronized (responses) {
+                    responses.add(new String(responseBody, StandardCharsets.US_ASCII));
+                }
+            }));
+        }
+
+        return requests;
+    }
+
+    @Test
+    public void testPipelineResend() throws IOException {
+        AtomicInteger received = new AtomicInteger();
+        try (ServerSocket serverSocket = serve((connection, socket) -> {
+            List<String> resources = new ArrayList<>();
+            String resource;
+            while ((connection > 0 || resources.size() < 3) && (resource = readResource(socket.getInputStream())) != null) {
+                received.incrementAndGet();
+                resources.add(resource);
+                if (connection > 0) {
+                    respond(socket.getOutputStream(), resource);
+                }
+            }
+
+            // The first connection answers two of the three requests before it is closed.
+            for (int i = 0; i < 2 && connection == 0; i++) {
+                respond(socket.getOutputStream(), resources.get(i));
+            }
+        })) {
+            List<String> responses = Collections.synchronizedList(new ArrayList<>());
+            HttpClient client = new HttpClient();
+            client.sendPipelined(hostAndPort(serverSocket), requests(responses, "/a", "/b", "/c"));
+            Assertions.assertEquals(Arrays.asList("/a", "/b", "/c"), responses);
+            Assertions.assertEquals(4, received.get());
+        }
+    }
+
+    @Test
+    public void testPipelineHandlerFailure() throws IOException, InterruptedException {
+        AtomicInteger received = new AtomicInteger();
+        try (ServerSocket serverSocket = serve((connection, socket) -> {
+            String resource;
+            while ((resource = readResource(socket.getInputStream())) != null) {
+                received.incrementAndGet();
+                respond(socket.getOutputStream(), resource);
+            }
+        })) {
+            List<String> responses = Collections.synchronizedList(new ArrayList<>());
+            List<PipelinedRequest> requests = requests(responses, "/a", "/c");
+            requests.add(1, new PipelinedRequest(RequestMethod.GET, "/b", new byte[0], (server, request, body, response, responseBody) -> {
+                throw new IOException("Handler failed");
+            }));
+
+            HttpClient client = new HttpClient();
+            IOException e = Assertions.assertThrows(IOException.class, () -> client.sendPipelined(hostAndPort(serverSocket), requests));
+            Assertions.assertEquals("Handler failed", e.getMessage());
+            // The failure is not mistaken for a lost connection, so nothing is sent again.
+            Assertions.assertEquals(Collections.singletonList("/a"), responses);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.get() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            Assertions.assertEquals(3, received.get());
+        }
+    }
+
+    @Test
+    public void testPipelineMalformedResponse() throws IOException {
+        try (ServerSocket serverSocket = serve((connection, socket) -> {
+            readResource(socket.getInputStream());
+            readResource(socket.getInputStream());
+            respond(socket.getOutputStream(), "/a");
+            socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n/b".getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+        })) {
+            List<String> responses = Collections.synchronizedList(new ArrayList<>());
+            HttpClient client = new HttpClient();
+            // The server closed the connection halfway through the response, which is not safe to retry.
+            Assertions.assertThrows(IOException.class, () -> client.sendPipelined(hostAndPort(serverSocket), requests(responses, "/a", "/b")));
+            Assertions.assertEquals(Collections.singletonList("/a"), responses);
+        }
+    }
+}
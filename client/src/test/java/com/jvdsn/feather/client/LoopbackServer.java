@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A loopback server handling every connection on its own thread.
+ *
+ * @author Joachim Vandersmissen
+ */
+class LoopbackServer implements AutoCloseable {
+    /**
+     * Handles a connection accepted by the server.
+     */
+    interface ConnectionHandler {
+        void handle(int connection, Socket socket) throws Exception;
+    }
+
+    protected final ServerSocket serverSocket;
+    protected final AtomicInteger accepted = new AtomicInteger();
+    protected final AtomicInteger closed = new AtomicInteger();
+
+    LoopbackServer(ConnectionHandler handler) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    int connection = this.accepted.getAndIncrement();
+                    Thread connectionThread = new Thread(() -> {
+                        try (Socket s = socket) {
+                            handler.handle(connection, s);
+                        } catch (Exception e) {
+                            // The connection was closed.
+                        } finally {
+                            this.closed.incrementAndGet();
+                        }
+                    });
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                } catch (IOException e) {
+                    // The server socket was closed.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Answers every request on a connection with a fixed response head followed by the resource as body.
+     */
+    static ConnectionHandler respondWith(String head) {
+        return (connection, socket) -> {
+            String resource;
+            while ((resource = readResource(socket.getInputStream())) != null) {
+                socket.getOutputStream().write((head + "Content-Length: " + resource.length() + "\r\n\r\n" + resource).getBytes(StandardCharsets.US_ASCII));
+                socket.getOutputStream().flush();
+            }
+        };
+    }
+
+    /**
+     * Reads the resource of the next request, returning null if the connection was closed first.
+     */
+    static String readResource(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int state = 0;
+        while (state < 4) {
+            int b = inputStream.read();
+            if (b == -1) {
+                return null;
+            }
+
+            head.write(b);
+            state = (b == '\r' && state % 2 == 0) || (b == '\n' && state % 2 == 1) ? state + 1 : 0;
+        }
+
+        String requestLine = new String(head.toByteArray(), StandardCharsets.US_ASCII);
+        return requestLine.substring(requestLine.indexOf(' ') + 1, requestLine.indexOf(' ', requestLine.indexOf(' ') + 1));
+    }
+
+    /**
+     * Waits until a condition holds, failing after a few seconds.
+     */
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Condition not met in time");
+            }
+
+            Thread.sleep(5);
+        }
+    }
+
+    HostAndPort getHostAndPort() {
+        return HostAndPort.parse(this.serverSocket.getInetAddress().getHostAddress() + ":" + this.serverSocket.getLocalPort());
+    }
+
+    int getAccepted() {
+        return this.accepted.get();
+    }
+
+    int getClosed() {
+        return this.closed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.client;
+
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class PooledHttpClientTest {
+    private static List<String> sendRequests(PooledHttpClient client, HostAndPort hostAndPort, String... resources) throws Exception {
+        List<String> responses = new ArrayList<>();
+        for (String resource : resources) {
+            client.sendRequest(hostAndPort, RequestMethod.GET, resource, new byte[0], (server, request, body, response, responseBody) -> responses.add(new String(responseBody, StandardCharsets.US_ASCII)));
+        }
+
+        return responses;
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            Assertions.assertEquals(Arrays.asList("/a", "/b", "/c"), sendRequests(client, server.getHostAndPort(), "/a", "/b", "/c"));
+            Assertions.assertEquals(1, server.getAccepted());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            ExecutorService executorService = Executors.newFixedThreadPool(8);
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String resource = "/" + i;
+                futures.add(executorService.submit(() -> sendRequests(client, server.getHostAndPort(), resource, resource)));
+            }
+
+            for (int i = 0; i < 8; i++) {
+                Assertions.assertEquals(Collections.nCopies(2, "/" + i), futures.get(i).get());
+            }
+
+            executorService.shutdown();
+            Assertions.assertTrue(server.getAccepted() <= 2);
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\nConnection: close\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            Assertions.assertEquals(Arrays.asList("/a", "/b"), sendRequests(client, server.getHostAndPort(), "/a", "/b"));
+            Assertions.assertEquals(2, server.getAccepted());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testHttp10() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.0 200 OK\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            Assertions.assertEquals(Arrays.asList("/a", "/b"), sendRequests(client, server.getHostAndPort(), "/a", "/b"));
+            Assertions.assertEquals(2, server.getAccepted());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testHttp10KeepAlive() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.0 200 OK\r\nConnection: keep-alive\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            Assertions.assertEquals(Arrays.asList("/a", "/b"), sendRequests(client, server.getHostAndPort(), "/a", "/b"));
+            Assertions.assertEquals(1, server.getAccepted());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConnectionManagement() throws Exception {
+        try (LoopbackServer server = new LoopbackServer(LoopbackServer.respondWith("HTTP/1.1 200 OK\r\n"))) {
+            PooledHttpClient client = new PooledHttpClient(new ConnectionPool(2, 30000, 5000));
+            HostAndPort hostAndPort = server.getHostAndPort();
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> client.connect(hostAndPort));
+
+            sendRequests(client, hostAndPort, "/a");
+            Assertions.assertEquals(1, client.getConnectionPool().getRoute(hostAndPort).size());
+            client.closeConnection(hostAndPort);
+            Assertions.assertEquals(0, client.getConnectionPool().getRoute(hostAndPort).size());
+            LoopbackServer.await(() -> server.getClosed() == 1);
+
+            sendRequests(client, hostAndPort, "/b");
+            Assertions.assertEquals(2, server.getAccepted());
+            client.close();
+        }
+    }
+}
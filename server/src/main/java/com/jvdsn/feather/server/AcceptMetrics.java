@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the connections accepted by a server handler.
+ * The accept rate is measured over windows of about a second, so it shows bursts without being too noisy.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class AcceptMetrics {
+    public static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    protected long accepted;
+    protected long windowStart = System.nanoTime();
+    protected long windowAccepted;
+    protected double acceptRate;
+
+    /**
+     * Records an accepted connection.
+     */
+    public synchronized void record() {
+        this.accepted++;
+        this.roll(System.nanoTime());
+    }
+
+    /**
+     * Computes the accept rate of the last window once it has passed.
+     *
+     * @param now the current time
+     */
+    protected void roll(long now) {
+        long elapsed = now - this.windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            this.acceptRate = (this.accepted - this.windowAccepted) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            this.windowStart = now;
+            this.windowAccepted = this.accepted;
+        }
+    }
+
+    /**
+     * Returns the total amount of accepted connections.
+     *
+     * @return the amount of accepted connections
+     */
+    public synchronized long getAccepted() {
+        return this.accepted;
+    }
+
+    /**
+     * Returns the amount of connections accepted per second during the last window.
+     *
+     * @return the accept rate
+     */
+    public synchronized double getAcceptRate() {
+        this.roll(System.nanoTime());
+        return this.acceptRate;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * An HTTP agent collecting everything sent to it in memory, so it can be sent to the client later.
+ * Used to handle pipelined requests concurrently, nothing can be received from it.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class BufferedHttpAgent extends HttpAgent {
+    protected final ByteArrayOutputStream buffer;
+
+    /**
+     * Constructs a new buffered HTTP agent.
+     *
+     * @param socket the socket of the client, which is only used to disconnect
+     */
+    public BufferedHttpAgent(Socket socket) {
+        this(socket, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Constructs a new buffered HTTP agent.
+     *
+     * @param socket the socket of the client, which is only used to disconnect
+     * @param buffer the buffer to collect the output in
+     */
+    protected BufferedHttpAgent(Socket socket, ByteArrayOutputStream buffer) {
+        super(new DefaultTransferCoding(), socket, new HttpInputStream(new ByteArrayInputStream(new byte[0])), new HttpOutputStream(buffer));
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns everything sent to this agent.
+     *
+     * @return the bytes
+     */
+    public byte[] toByteArray() throws IOException {
+        this.flush();
+        return this.buffer.toByteArray();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.timer.Timeout;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles all incoming requests for a single client connected to a non-blocking HTTP server.
+ * The client only occupies a worker thread while it has unhandled data, idle clients are tracked by the event loop.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ChannelHandler extends HttpAgent implements Runnable {
+    public static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+    protected final NioHttpServer httpServer;
+    protected final EventLoop eventLoop;
+    @Getter
+    protected final SocketChannel channel;
+    protected final ChannelInputStream channelInputStream;
+    protected final ChannelOutputStream channelOutputStream;
+    protected final ResponseSequencer responseSequencer = new ResponseSequencer(this);
+    protected final ConnectionDeadline deadline;
+    protected SelectionKey selectionKey;
+    // Guarded by the channel input stream, so the event loop and the worker agree on who handles new data.
+    protected boolean processing;
+    @Getter
+    protected volatile boolean stopped;
+    protected volatile long lastActiveMillis = System.currentTimeMillis();
+    protected int requests;
+    // Both guarded by the channel output stream, which reports the changes in writability while holding its lock.
+    protected Timeout unwritableTimeout;
+    protected CompletableFuture<Void> writableFuture;
+
+    /**
+     * Constructs a new channel handler.
+     *
+     * @param httpServer the HTTP server constructing this channel handler
+     * @param eventLoop  the event loop this channel handler is registered with
+     * @param channel    the channel to read from and write to
+     */
+    public ChannelHandler(@NonNull NioHttpServer httpServer, @NonNull EventLoop eventLoop, @NonNull SocketChannel channel) {
+        this(httpServer, eventLoop, channel, new ChannelInputStream(httpServer.getBufferPool(), MAX_BUFFERED_BYTES, ChannelInputStream.NO_TIMEOUT), new ChannelOutputStream(channel, eventLoop, httpServer.getBufferPool(), httpServer.getWriteWatermarks()));
+    }
+
+    /**
+     * Constructs a new channel handler.
+     *
+     * @param httpServer          the HTTP server constructing this channel handler
+     * @param eventLoop           the event loop this channel handler is registered with
+     * @param channel             the channel to read from and write to
+     * @param channelInputStream  the stream the event loop appends incoming data to
+     * @param channelOutputStream the stream writing outgoing data to the channel
+     */
+    protected ChannelHandler(NioHttpServer httpServer, EventLoop eventLoop, SocketChannel channel, ChannelInputStream channelInputStream, ChannelOutputStream channelOutputStream) {
+        super(new DefaultTransferCoding(), channel.socket(), new HttpInputStream(channelInputStream), new HttpOutputStream(channelOutputStream));
+        this.httpServer = httpServer;
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.channelInputStream = channelInputStream;
+        this.channelOutputStream = channelOutputStream;
+        this.bufferPool = httpServer.getBufferPool();
+        this.maxDecodedLength = httpServer.getMaxDecodedLength();
+        try {
+            this.outputStream.setSendBufferSize(channel.socket().getSendBufferSize());
+        } catch (SocketException e) {
+            // The default send buffer size is a fine estimate.
+        }
+
+        this.channelInputStream.setResumeReading(() -> this.eventLoop.execute(() -> {
+            if (this.selectionKey.isValid()) {
+                this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_READ);
+            }
+        }));
+        this.channelOutputStream.setWritabilityChanged(this::onWritabilityChanged);
+        this.deadline = new ConnectionDeadline(httpServer, this.inputStream, this.outputStream, () -> httpServer.closeConnection(this));
+        this.deadline.idle();
+    }
+
+    /**
+     * Sets the selection key after the channel was registered with the event loop.
+     *
+     * @param selectionKey the selection key
+     */
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        this.channelOutputStream.setSelectionKey(selectionKey);
+    }
+
+    /**
+     * Stops the channel handler.
+     */
+    public void stop() throws IOException {
+        this.stopped = true;
+        this.deadline.cancel();
+        try {
+            this.disconnect();
+        } finally {
+            // The channel is closed, so the buffered data can be returned to the pool.
+            // Closing the input stream wakes up a blocked handler only now, so whatever it answers can't reach the client anymore.
+            this.channelInputStream.close();
+            this.channelOutputStream.close();
+            CompletableFuture<Void> writableFuture;
+            synchronized (this.channelOutputStream) {
+                if (this.unwritableTimeout != null) {
+                    this.unwritableTimeout.cancel();
+                    this.unwritableTimeout = null;
+                }
+
+                writableFuture = this.writableFuture;
+                this.writableFuture = null;
+            }
+
+            // Completed outside of the lock, a dependent action could otherwise run while holding the lock of the stream.
+            if (writableFuture != null) {
+                writableFuture.completeExceptionally(new ClosedChannelException());
+            }
+        }
+    }
+
+    /**
+     * Called by the channel output stream while holding its lock whenever it becomes writable or unwritable.
+     * Starts the deadline of an unwritable connection, or completes the future of the handler waiting for it to become writable.
+     */
+    protected void onWritabilityChanged() {
+        WriteWatermarks writeWatermarks = this.httpServer.getWriteWatermarks();
+        if (!this.channelOutputStream.isWritable()) {
+            if (writeWatermarks.getMaxUnwritableMillis() != ConnectionTimeouts.UNLIMITED) {
+                this.unwritableTimeout = this.httpServer.getTimingWheel().schedule(timeout -> this.eventLoop.close(this), writeWatermarks.getMaxUnwritableMillis());
+            }
+
+            return;
+        }
+
+        if (this.unwritableTimeout != null) {
+            this.unwritableTimeout.cancel();
+            this.unwritableTimeout = null;
+        }
+
+        if (this.writableFuture != null) {
+            CompletableFuture<Void> writableFuture = this.writableFuture;
+            this.writableFuture = null;
+            // Completed on a worker thread, a dependent action could otherwise write on the event loop or while holding the lock of the stream.
+            this.httpServer.execute(() -> writableFuture.complete(null));
+        }
+    }
+
+    @Override
+    public boolean isWritable() {
+        return this.channelOutputStream.isWritable();
+    }
+
+    @Override
+    public CompletableFuture<Void> whenWritable() {
+        synchronized (this.channelOutputStream) {
+            if (this.stopped) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(new ClosedChannelException());
+                return future;
+            }
+
+            if (this.channelOutputStream.isWritable()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            if (this.writableFuture == null) {
+                this.writableFuture = new CompletableFuture<>();
+            }
+
+            return this.writableFuture;
+        }
+    }
+
+    /**
+     * Returns how long the client has been waiting for its next request.
+     *
+     * @param nowMillis the current time
+     * @return the idle time, or -1 if the client isn't idle
+     */
+    public long getIdleMillis(long nowMillis) {
+        synchronized (this.channelInputStream) {
+            if (this.processing || this.channelInputStream.available() > 0) {
+                return -1;
+            }
+        }
+
+        return Math.max(0, nowMillis - this.lastActiveMillis);
+    }
+
+    /**
+     * Called by the event loop when the channel is readable.
+     *
+     * @param readBuffer the buffer of the event loop to read into
+     */
+    public void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = this.channel.read(readBuffer);
+        if (read == -1) {
+            this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            synchronized (this.channelInputStream) {
+                this.channelInputStream.endOfStream();
+                if (!this.processing) {
+                    this.httpServer.closeConnection(this);
+                }
+            }
+
+            return;
+        }
+
+        if (read == 0) {
+            return;
+        }
+
+        readBuffer.flip();
+        this.lastActiveMillis = System.currentTimeMillis();
+        synchronized (this.channelInputStream) {
+            if (this.channelInputStream.append(readBuffer)) {
+                this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+            if (!this.processing) {
+                this.processing = true;
+                this.deadline.header();
+                this.httpServer.dispatch(this);
+            }
+        }
+    }
+
+    /**
+     * Called by the event loop when the channel is writable.
+     */
+    public void onWritable() throws IOException {
+        this.channelOutputStream.onWritable();
+    }
+
+    @Override
+    @SneakyThrows(IOException.class)
+    public void run() {
+        KeepAliveManager keepAliveManager = this.httpServer.getKeepAliveManager();
+        try {
+            while (!this.stopped) {
+                HttpRequest request = this.receiveRequest();
+                this.deadline.request();
+                if (!this.isClosing()) {
+                    this.connection = keepAliveManager.getConnection(request, ++this.requests);
+                }
+
+                this.httpServer.handleRequest(this, request, this.responseSequencer);
+                if (this.isClosing()) {
+                    // Anything the client pipelined after this request is discarded.
+                    break;
+                }
+
+                synchronized (this.channelInputStream) {
+                    if (this.inputStream.available() == 0 && !this.channelInputStream.isEndOfStream()) {
+                        this.lastActiveMillis = System.currentTimeMillis();
+                        this.processing = false;
+                        this.deadline.idle();
+                        return;
+                    }
+                }
+
+                // The client pipelined its next request, which is timed from now on.
+                this.deadline.header();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client closed the connection or sent a malformed request.
+        }
+
+        try {
+            // The client may have stopped sending after pipelining its last requests, which still deserve a response.
+            this.responseSequencer.await();
+        } finally {
+            this.httpServer.closeConnection(this);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.buffer.BufferPool;
+import com.jvdsn.feather.shared.buffer.PooledBuffer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * An input stream fed by an event loop.
+ * Reads block until the event loop appended data, the end of the stream was reached, or the timeout expired, if any.
+ * Appended data is held in pooled buffers, which are released as soon as they are consumed.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ChannelInputStream extends InputStream {
+    public static final int NO_TIMEOUT = 0;
+
+    protected final Deque<PooledBuffer> buffers = new ArrayDeque<>();
+    protected final BufferPool bufferPool;
+    protected final int limit;
+    protected final int timeoutMillis;
+    @Setter
+    protected Runnable resumeReading;
+    protected int available;
+    protected boolean suspended;
+    @Getter
+    protected boolean endOfStream;
+
+    /**
+     * Constructs a new channel input stream.
+     *
+     * @param bufferPool    the pool to hold appended data in
+     * @param limit         the amount of buffered bytes after which the event loop should stop reading
+     * @param timeoutMillis the maximum time to wait for data, or {@link #NO_TIMEOUT} if the owner of the stream enforces its own deadlines
+     */
+    public ChannelInputStream(@NonNull BufferPool bufferPool, int limit, int timeoutMillis) {
+        this.bufferPool = bufferPool;
+        this.limit = limit;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer to this stream.
+     *
+     * @param buffer the buffer, which is copied
+     * @return true if the event loop should stop reading until the buffered data was consumed
+     */
+    public synchronized boolean append(ByteBuffer buffer) {
+        if (this.endOfStream) {
+            return false;
+        }
+
+        PooledBuffer copy = this.bufferPool.acquire(buffer.remaining());
+        copy.getBuffer().put(buffer).flip();
+        this.buffers.add(copy);
+        this.available += copy.getBuffer().remaining();
+        this.notifyAll();
+        this.suspended = this.available >= this.limit;
+        return this.suspended;
+    }
+
+    /**
+     * Signals that no more data will be appended to this stream.
+     */
+    public synchronized void endOfStream() {
+        this.endOfStream = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Signals the end of this stream and releases the buffered data, which is discarded.
+     */
+    @Override
+    public synchronized void close() {
+        this.endOfStream();
+        PooledBuffer buffer;
+        while ((buffer = this.buffers.pollFirst()) != null) {
+            buffer.release();
+        }
+
+        this.available = 0;
+    }
+
+    /**
+     * Waits until data is available.
+     *
+     * @return false if the end of the stream was reached and no more data is available
+     */
+    protected boolean await() throws IOException {
+        long deadline = System.currentTimeMillis() + this.timeoutMillis;
+        while (this.available == 0 && !this.endOfStream) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (this.timeoutMillis != NO_TIMEOUT && remaining <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+
+            try {
+                this.wait(this.timeoutMillis == NO_TIMEOUT ? 0 : remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        return this.available > 0;
+    }
+
+    /**
+     * Updates the bookkeeping after bytes were consumed, resuming the event loop if enough data was consumed.
+     *
+     * @param consumed the amount of bytes consumed
+     */
+    protected void consumed(int consumed) {
+        this.available -= consumed;
+        if (this.buffers.peekFirst() != null && !this.buffers.peekFirst().getBuffer().hasRemaining()) {
+            this.buffers.removeFirst().release();
+        }
+
+        if (this.suspended && this.available < this.limit / 2) {
+            this.suspended = false;
+            if (this.resumeReading != null) {
+                this.resumeReading.run();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!this.await()) {
+            return -1;
+        }
+
+        int i = this.buffers.getFirst().getBuffer().get() & 0xFF;
+        this.consumed(1);
+        return i;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!this.await()) {
+            return -1;
+        }
+
+        int read = 0;
+        while (read < len && this.available > 0) {
+            ByteBuffer buffer = this.buffers.getFirst().getBuffer();
+            int n = Math.min(len - read, buffer.remaining());
+            buffer.get(b, off + read, n);
+            read += n;
+            this.consumed(n);
+        }
+
+        return read;
+    }
+
+    @Override
+    public synchronized int available() {
+        return this.available;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.buffer.BufferPool;
+import com.jvdsn.feather.shared.buffer.PooledBuffer;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * An output stream writing to a non-blocking channel.
+ * Written data is staged in pooled buffers until flushed, data the channel can't accept immediately is queued and written by the event loop.
+ * The stream becomes unwritable once the queue exceeds the high watermark, writers that keep writing then block until the queue drops below the low watermark,
+ * so a streamed message body can't outgrow the memory of the server.
+ * Writers that check the writability before writing never block, at most a staging buffer is queued beyond the high watermark.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ChannelOutputStream extends OutputStream {
+    public static final int STAGING_BUFFER_SIZE = 8192;
+
+    protected final SocketChannel channel;
+    protected final EventLoop eventLoop;
+    protected final BufferPool bufferPool;
+    protected final WriteWatermarks writeWatermarks;
+    protected final Deque<PooledBuffer> queue = new ArrayDeque<>();
+    @Setter
+    protected SelectionKey selectionKey;
+    // Called while holding the lock of this stream whenever the stream becomes writable or unwritable.
+    @Setter
+    protected Runnable writabilityChanged;
+    protected PooledBuffer staging;
+    // Reused for every gathering write, so writing the queue doesn't allocate.
+    protected ByteBuffer[] gather = new ByteBuffer[4];
+    protected long queued;
+    protected boolean writeInterest;
+    protected boolean writable = true;
+    protected boolean closed;
+
+    /**
+     * Constructs a new channel output stream.
+     *
+     * @param channel         the channel to write to
+     * @param eventLoop       the event loop the channel is registered with
+     * @param bufferPool      the pool to stage written data in
+     * @param writeWatermarks the limits on the queued data
+     */
+    public ChannelOutputStream(@NonNull SocketChannel channel, @NonNull EventLoop eventLoop, @NonNull BufferPool bufferPool, @NonNull WriteWatermarks writeWatermarks) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.bufferPool = bufferPool;
+        this.writeWatermarks = writeWatermarks;
+    }
+
+    /**
+     * Constructs a new channel output stream with the default watermarks.
+     *
+     * @param channel    the channel to write to
+     * @param eventLoop  the event loop the channel is registered with
+     * @param bufferPool the pool to stage written data in
+     */
+    public ChannelOutputStream(@NonNull SocketChannel channel, @NonNull EventLoop eventLoop, @NonNull BufferPool bufferPool) {
+        this(channel, eventLoop, bufferPool, new WriteWatermarks());
+    }
+
+    /**
+     * Returns true if the queue didn't exceed the high watermark, or dropped below the low watermark since.
+     *
+     * @return true if writable, false otherwise
+     */
+    public synchronized boolean isWritable() {
+        return this.writable;
+    }
+
+    /**
+     * Updates the writability after the queue changed, waking up the blocked writers once the stream becomes writable again.
+     */
+    protected void updateWritability() {
+        boolean writable = this.queued <= (this.writable ? this.writeWatermarks.getHighWatermark() : this.writeWatermarks.getLowWatermark());
+        if (writable == this.writable) {
+            return;
+        }
+
+        this.writable = writable;
+        if (writable) {
+            this.notifyAll();
+        }
+
+        if (this.writabilityChanged != null) {
+            this.writabilityChanged.run();
+        }
+    }
+
+    /**
+     * Moves the staged data to the queue.
+     */
+    protected void stage() {
+        if (this.staging != null && this.staging.getBuffer().position() > 0) {
+            this.staging.getBuffer().flip();
+            this.queue.add(this.staging);
+            this.queued += this.staging.getBuffer().remaining();
+            this.staging = null;
+        }
+    }
+
+    /**
+     * Writes as much of the queue as the channel accepts.
+     *
+     * @return true if the queue was fully written
+     */
+    protected boolean writeQueue() throws IOException {
+        while (!this.queue.isEmpty()) {
+            if (this.gather.length < this.queue.size()) {
+                this.gather = new ByteBuffer[Integer.highestOneBit(this.queue.size()) << 1];
+            }
+
+            int length = 0;
+            for (PooledBuffer buffer : this.queue) {
+                this.gather[length++] = buffer.getBuffer();
+            }
+
+            this.queued -= this.channel.write(this.gather, 0, length);
+            while (!this.queue.isEmpty() && !this.queue.peekFirst().getBuffer().hasRemaining()) {
+                this.queue.removeFirst().release();
+            }
+
+            if (!this.queue.isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Called by the event loop when the channel is writable.
+     */
+    public synchronized void onWritable() throws IOException {
+        boolean written = this.writeQueue();
+        this.updateWritability();
+        if (written) {
+            this.writeInterest = false;
+            this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Waits until the stream is writable again, should only be called while holding the lock of this stream.
+     * A client that stops reading is cut off by the deadlines of its connection, which close the channel.
+     */
+    protected void awaitWritable() throws IOException {
+        while (!this.writable) {
+            if (this.closed || !this.channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+
+            try {
+                this.wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Releases the staged and queued data, which is discarded.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.staging != null) {
+            this.staging.release();
+            this.staging = null;
+        }
+
+        PooledBuffer buffer;
+        while ((buffer = this.queue.pollFirst()) != null) {
+            buffer.release();
+        }
+
+        this.queued = 0;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void write(int i) throws IOException {
+        this.write(new byte[]{(byte) i}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+
+        while (len > 0) {
+            // The writer ignored that the stream became unwritable, so it has to wait until the client caught up.
+            if (!this.writable) {
+                this.awaitWritable();
+            }
+
+            if (this.staging == null) {
+                this.staging = this.bufferPool.acquire(Math.min(Math.max(len, STAGING_BUFFER_SIZE), this.writeWatermarks.getHighWatermark()));
+            }
+
+            ByteBuffer staging = this.staging.getBuffer();
+            int n = Math.min(len, staging.remaining());
+            staging.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!staging.hasRemaining()) {
+                this.stage();
+                this.updateWritability();
+                if (!this.writable) {
+                    // The queue must drain without waiting for the writer to flush, the writer may wait until the stream is writable first.
+                    this.flush();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+
+        this.stage();
+        // The event loop is already waiting to write, writing now would only race it.
+        if (this.writeInterest) {
+            this.updateWritability();
+            return;
+        }
+
+        boolean written = this.writeQueue();
+        this.updateWritability();
+        if (written) {
+            return;
+        }
+
+        this.writeInterest = true;
+        this.eventLoop.execute(() -> {
+            if (this.selectionKey.isValid()) {
+                this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+}
@@ -11,13 +11,13 @@
 package com.jvdsn.feather.server;
 
 import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.request.HttpRequest;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.net.SocketException;
 
 /**
  * Handles all incoming requests for a single client, forwarding them to the HTTP server.
@@ -26,8 +26,14 @@ import java.net.SocketException;
  */
 public class ClientHandler extends HttpAgent implements Runnable {
     protected final HttpServer httpServer;
+    protected final ResponseSequencer responseSequencer = new ResponseSequencer(this);
+    protected final ConnectionDeadline deadline;
     @Getter
-    protected boolean stopped;
+    protected volatile boolean stopped;
+    // Set while waiting for the next request, so the connection can be closed without interrupting a request.
+    @Getter
+    protected volatile boolean idle;
+    protected int requests;
 
     /**
      * Constructs a new client handler.
@@ -38,6 +44,7 @@ public class ClientHandler extends HttpAgent implements Runnable {
     public ClientHandler(@NonNull HttpServer httpServer, Socket socket) throws IOException {
         super(socket);
         this.httpServer = httpServer;
+        this.deadline = new ConnectionDeadline(httpServer, this.inputStream, this.outputStream, () -> httpServer.closeConnection(this));
     }
 
     /**
@@ -45,16 +52,47 @@ public class ClientHandler extends HttpAgent implements Runnable {
      */
     public void stop() throws IOException {
         this.stopped = true;
+        this.deadline.cancel();
         this.disconnect();
     }
 
     @Override
     @SneakyThrows(IOException.class)
     public void run() {
-        while (!this.stopped) {
+        KeepAliveManager keepAliveManager = this.httpServer.getKeepAliveManager();
+        try {
+            while (!this.stopped) {
+                // Pipelined requests were already received, so the client isn't idle.
+                this.idle = this.available() == 0;
+                if (this.idle) {
+                    this.deadline.idle();
+                    if (!this.inputStream.await()) {
+                        break;
+                    }
+
+                    this.idle = false;
+                }
+
+                // The message head is timed from its first byte, so waiting for it doesn't count.
+                this.deadline.header();
+                HttpRequest request = this.receiveRequest();
+                this.deadline.request();
+                if (!this.isClosing()) {
+                    this.connection = keepAliveManager.getConnection(request, ++this.requests);
+                }
+
+                this.httpServer.handleRequest(this, request, this.responseSequencer);
+                if (this.isClosing()) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client closed the connection, sent a malformed request, or was idle for too long.
+        } finally {
             try {
-                this.httpServer.handleRequest(this, this.receiveRequest());
-            } catch (SocketException e) {
+                // The responses to the requests the client pipelined before still deserve to be sent.
+                this.responseSequencer.await();
+            } finally {
                 this.httpServer.closeConnection(this);
             }
         }
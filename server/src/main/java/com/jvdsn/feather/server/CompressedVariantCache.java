@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import lombok.Getter;
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps compressed variants of static or otherwise cacheable representations, so each one is compressed once instead of for every request.
+ * A variant is identified by a key and a content coding, and is compressed again when the validator of the representation changes.
+ * Concurrent requests for a variant that is being compressed wait for that compression instead of starting another one.
+ * The least recently used variants are evicted when the variants exceed the byte budget.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class CompressedVariantCache {
+    public static final long DEFAULT_BUDGET = 16L << 20;
+    public static final int DEFAULT_MAX_SOURCE_SIZE = 1 << 20;
+
+    // Accessed in order, so the first entry is always the least recently used one.
+    protected final Map<VariantKey, Variant> variants = new LinkedHashMap<>(16, 0.75f, true);
+    // The compressions in progress, which concurrent requests for the same variant wait for.
+    protected final Map<VariantKey, Variant> pending = new HashMap<>();
+    @Getter
+    protected final long budget;
+    @Getter
+    protected final int maxSourceSize;
+    @Getter
+    protected long size;
+
+    /**
+     * Constructs a new compressed variant cache.
+     *
+     * @param budget        the maximum total size of the compressed variants
+     * @param maxSourceSize the maximum size of a representation to compress, larger representations are not cached
+     */
+    public CompressedVariantCache(long budget, int maxSourceSize) {
+        if (budget < 0 || maxSourceSize < 0) {
+            throw new IllegalArgumentException("Negative budget " + budget + " or maximum source size " + maxSourceSize);
+        }
+
+        this.budget = budget;
+        this.maxSourceSize = maxSourceSize;
+    }
+
+    /**
+     * Constructs a new compressed variant cache with a budget of 16 MiB, compressing representations up to 1 MiB.
+     */
+    public CompressedVariantCache() {
+        this(DEFAULT_BUDGET, DEFAULT_MAX_SOURCE_SIZE);
+    }
+
+    /**
+     * Returns a compressed variant of a representation, compressing it if it isn't cached yet or if its validator changed.
+     *
+     * @param key           the key identifying the representation, like the path of a file
+     * @param validator     the validator of the representation, which must change when the representation changes
+     * @param contentCoding the content coding to compress with
+     * @param source        the representation, whose remaining bytes are compressed without modifying its position
+     * @return an optional containing a read-only buffer with the compressed variant, or an empty optional if the representation is too large to be cached
+     */
+    public Optional<ByteBuffer> get(Object key, Object validator, ContentCoding contentCoding, ByteBuffer source) throws IOException {
+        if (source.remaining() > this.maxSourceSize) {
+            return Optional.empty();
+        }
+
+        return Optional.of(this.get(key, validator, contentCoding, source::duplicate));
+    }
+
+    /**
+     * Returns a compressed variant of a representation, reading and compressing the representation only if it isn't cached yet or if its validator changed.
+     * The caller should make sure the representation isn't larger than the maximum source size.
+     *
+     * @param key           the key identifying the representation, like the path of a file
+     * @param validator     the validator of the representation, which must change when the representation changes
+     * @param contentCoding the content coding to compress with
+     * @param source        reads the representation, whose remaining bytes are compressed
+     * @return a read-only buffer with the compressed variant
+     */
+    public ByteBuffer get(Object key, Object validator, ContentCoding contentCoding, Source source) throws IOException {
+        VariantKey variantKey = new VariantKey(key, contentCoding.getIdentifier());
+        Variant variant;
+        boolean compress = false;
+        synchronized (this) {
+            variant = this.variants.get(variantKey);
+            if (variant != null && variant.getValidator().equals(validator)) {
+                return variant.getData();
+            }
+
+            variant = this.pending.get(variantKey);
+            if (variant == null || !variant.getValidator().equals(validator)) {
+                variant = new Variant(validator, new FutureTask<>(() -> compress(contentCoding, source.read())));
+                this.pending.put(variantKey, variant);
+                compress = true;
+            }
+        }
+
+        // Compressing happens outside of the lock, so requests for other variants aren't blocked.
+        if (compress) {
+            variant.getCompression().run();
+        }
+
+        try {
+            variant.getData();
+        } finally {
+            if (compress) {
+                synchronized (this) {
+                    this.pending.remove(variantKey, variant);
+                }
+            }
+        }
+
+        if (compress) {
+            this.put(variantKey, variant);
+        }
+
+        return variant.getData();
+    }
+
+    /**
+     * Adds a compressed variant to the cache and evicts the least recently used variants while the budget is exceeded.
+     * A variant larger than the budget is not cached, it would only evict all other variants.
+     *
+     * @param variantKey the key of the variant
+     * @param variant    the variant
+     */
+    protected synchronized void put(VariantKey variantKey, Variant variant) {
+        if (variant.getSize() > this.budget) {
+            // The previous variant is outdated, so it can't stay either.
+            Variant previous = this.variants.remove(variantKey);
+            if (previous != null) {
+                this.size -= previous.getSize();
+            }
+
+            return;
+        }
+
+        Variant previous = this.variants.put(variantKey, variant);
+        if (previous != null) {
+            this.size -= previous.getSize();
+        }
+
+        this.size += variant.getSize();
+        Iterator<Variant> iterator = this.variants.values().iterator();
+        while (this.size > this.budget && iterator.hasNext()) {
+            this.size -= iterator.next().getSize();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer.
+     *
+     * @param contentCoding the content coding to compress with
+     * @param source        the buffer
+     * @return a read-only buffer containing the compressed data
+     */
+    protected static ByteBuffer compress(ContentCoding contentCoding, ByteBuffer source) throws IOException {
+        byte[] data;
+        if (source.hasArray()) {
+            data = contentCoding.encode(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        } else {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            data = contentCoding.encode(bytes, 0, bytes.length);
+        }
+
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes all variants from the cache.
+     */
+    public synchronized void clear() {
+        this.variants.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Reads a representation to compress.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Reads the representation.
+         *
+         * @return a buffer whose remaining bytes are the representation
+         */
+        ByteBuffer read() throws IOException;
+    }
+
+    /**
+     * Identifies a compressed variant.
+     */
+    @Value
+    protected static class VariantKey {
+        Object key;
+        String contentCoding;
+    }
+
+    /**
+     * A compressed variant of a representation, which may still be compressing.
+     */
+    @Value
+    protected static class Variant {
+        Object validator;
+        FutureTask<ByteBuffer> compression;
+
+        /**
+         * Waits until the variant is compressed.
+         *
+         * @return a read-only buffer with the compressed data and its own position and limit
+         */
+        protected ByteBuffer getData() throws IOException {
+            try {
+                // Every caller gets its own position and limit, the compressed data itself is shared.
+                return this.compression.get().duplicate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Returns the size of the compressed data, should only be called once the variant is compressed.
+         *
+         * @return the size
+         */
+        protected int getSize() {
+            try {
+                return this.compression.get().capacity();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the amount of requests handled concurrently, adjusting the limit to the observed latency.
+ * The limit follows a gradient between the long-term and the short-term average latency:
+ * it grows while the latency stays close to the long-term average and shrinks as soon as requests start queueing up inside the server.
+ * Requests over the limit wait in a short queue, once the queue is full or the wait times out they are rejected so they can be shed quickly.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 4;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+    public static final int DEFAULT_MAX_QUEUED = 100;
+    public static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 50;
+    // The short-term latency is averaged over windows of at least this duration and amount of samples.
+    public static final long SAMPLE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    public static final int MIN_SAMPLES = 10;
+    // The long-term latency averages roughly this many windows.
+    public static final int LONG_WINDOW = 100;
+    // Short-term latencies up to this factor of the long-term latency don't shrink the limit.
+    public static final double TOLERANCE = 1.5;
+    public static final double SMOOTHING = 0.2;
+
+    @Getter
+    protected final int minLimit;
+    @Getter
+    protected final int maxLimit;
+    @Getter
+    protected final int maxQueued;
+    @Getter
+    protected final long queueTimeoutMillis;
+    // The source of the timestamps the latencies and sample windows are measured with.
+    protected final LongSupplier nanoTime;
+    protected double limit;
+    @Getter
+    protected int inFlight;
+    @Getter
+    protected int queued;
+    @Getter
+    protected long rejected;
+    protected double longLatency;
+    protected long windowStart;
+    protected long windowLatency;
+    protected int windowSamples;
+    protected int windowMaxInFlight;
+
+    /**
+     * Constructs a new concurrency limiter.
+     *
+     * @param initialLimit       the limit to start with
+     * @param minLimit           the lowest the limit can shrink to
+     * @param maxLimit           the highest the limit can grow to
+     * @param maxQueued          the maximum amount of requests waiting for a place, further requests are rejected immediately
+     * @param queueTimeoutMillis the maximum time a request waits for a place before it is rejected
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, long queueTimeoutMillis) {
+        this(initialLimit, minLimit, maxLimit, maxQueued, queueTimeoutMillis, System::nanoTime);
+    }
+
+    /**
+     * Constructs a new concurrency limiter measuring time with a custom clock.
+     *
+     * @param initialLimit       the limit to start with
+     * @param minLimit           the lowest the limit can shrink to
+     * @param maxLimit           the highest the limit can grow to
+     * @param maxQueued          the maximum amount of requests waiting for a place, further requests are rejected immediately
+     * @param queueTimeoutMillis the maximum time a request waits for a place before it is rejected
+     * @param nanoTime           the clock, returning a timestamp in nanoseconds like {@link System#nanoTime()}
+     */
+    protected ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, long queueTimeoutMillis, @NonNull LongSupplier nanoTime) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        }
+
+        if (maxQueued < 0 || queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Negative queue size " + maxQueued + " or queue timeout " + queueTimeoutMillis);
+        }
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.nanoTime = nanoTime;
+        this.windowStart = nanoTime.getAsLong();
+    }
+
+    /**
+     * Constructs a new concurrency limiter starting at 20 concurrent requests, between 4 and 1000, queueing up to 100 requests for 50 milliseconds.
+     */
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUED, DEFAULT_QUEUE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the maximum amount of requests handled concurrently
+     */
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * Returns the current timestamp of the clock of this limiter, the latency passed to {@link #release(long)} should be measured with it.
+     *
+     * @return the timestamp in nanoseconds
+     */
+    public long nanoTime() {
+        return this.nanoTime.getAsLong();
+    }
+
+    /**
+     * Acquires a place to handle a request, waiting in the queue if the limit is reached.
+     * Every successful acquire must be followed by a {@link #release(long)}.
+     *
+     * @return true if the request can be handled, false if it should be rejected
+     */
+    public synchronized boolean acquire() throws IOException {
+        if (this.inFlight < (int) this.limit) {
+            this.admit();
+            return true;
+        }
+
+        if (this.queued >= this.maxQueued) {
+            this.rejected++;
+            return false;
+        }
+
+        this.queued++;
+        try {
+            // The clock is monotonic, unlike the wall clock, which can jump while a request is queued.
+            long deadline = this.nanoTime.getAsLong() + TimeUnit.MILLISECONDS.toNanos(this.queueTimeoutMillis);
+            while (this.inFlight >= (int) this.limit) {
+                long remaining = deadline - this.nanoTime.getAsLong();
+                if (remaining <= 0) {
+                    this.rejected++;
+                    return false;
+                }
+
+                try {
+                    this.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        } finally {
+            this.queued--;
+        }
+
+        this.admit();
+        return true;
+    }
+
+    /**
+     * Takes a place.
+     */
+    protected void admit() {
+        this.inFlight++;
+        this.windowMaxInFlight = Math.max(this.windowMaxInFlight, this.inFlight);
+    }
+
+    /**
+     * Releases a place after a request was handled, adjusting the limit to the latency of the request.
+     *
+     * @param latencyNanos the time it took to handle the request
+     */
+    public synchronized void release(long latencyNanos) {
+        this.inFlight--;
+        this.windowLatency += latencyNanos;
+        this.windowSamples++;
+        long now = this.nanoTime.getAsLong();
+        if (this.windowSamples >= MIN_SAMPLES && now - this.windowStart >= SAMPLE_WINDOW_NANOS) {
+            this.update((double) this.windowLatency / this.windowSamples);
+            this.windowStart = now;
+            this.windowLatency = 0;
+            this.windowSamples = 0;
+            this.windowMaxInFlight = this.inFlight;
+        }
+
+        // The limit may have grown by more than one place.
+        this.notifyAll();
+    }
+
+    /**
+     * Adjusts the limit after a sample window.
+     *
+     * @param shortLatency the average latency during the window
+     */
+    protected void update(double shortLatency) {
+        if (this.longLatency == 0) {
+            this.longLatency = shortLatency;
+        } else {
+            this.longLatency += (shortLatency - this.longLatency) / LONG_WINDOW;
+        }
+
+        // After a long overload the long-term latency is inflated, let it recover faster once the short-term latency dropped.
+        if (this.longLatency > 2 * shortLatency) {
+            this.longLatency *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.longLatency / Math.max(shortLatency, 1)));
+        // The square root leaves room for a small queue, so the limit can grow while the latency is stable.
+        double limit = this.limit * gradient + Math.sqrt(this.limit);
+        if (this.windowMaxInFlight < this.limit / 2) {
+            // Too few requests arrived to know whether the server can handle more.
+            limit = Math.min(limit, this.limit);
+        }
+
+        limit = this.limit * (1 - SMOOTHING) + limit * SMOOTHING;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, limit));
+    }
+}
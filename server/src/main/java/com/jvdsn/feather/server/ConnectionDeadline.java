@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.timer.Timeout;
+import com.jvdsn.feather.shared.timer.TimerTask;
+import com.jvdsn.feather.shared.timer.TimingWheel;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+/**
+ * Closes a client connection once it exceeds the budget of its current phase, using a single timeout on the timing wheel of the server.
+ * Idle connections and message heads are closed once their budget is spent.
+ * While a request is handled, the timeout fires periodically to check whether a blocked read or write stopped making progress, or whether the handler exceeded its budget.
+ * A stall is detected within one to two budgets, as it is only noticed by the first check after it started.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class ConnectionDeadline implements TimerTask {
+    protected final TimingWheel timingWheel;
+    protected final ConnectionTimeouts connectionTimeouts;
+    protected final int maxIdleMillis;
+    // How often the progress of a request is checked, computed once as the budgets don't change while the server runs.
+    protected final int checkIntervalMillis;
+    protected final HttpInputStream inputStream;
+    protected final HttpOutputStream outputStream;
+    protected final Closer closer;
+    protected Phase phase;
+    protected Timeout timeout;
+    protected long phaseStartMillis;
+    protected long bytesRead;
+    protected long readProgressMillis;
+    protected long bytesWritten;
+    protected long writeProgressMillis;
+    protected boolean expired;
+
+    /**
+     * Constructs a new connection deadline.
+     *
+     * @param httpServer   the HTTP server the connection belongs to
+     * @param inputStream  the input stream of the connection
+     * @param outputStream the output stream of the connection
+     * @param closer       closes the connection once the deadline expires
+     */
+    public ConnectionDeadline(@NonNull HttpServer httpServer, @NonNull HttpInputStream inputStream, @NonNull HttpOutputStream outputStream, @NonNull Closer closer) {
+        this.timingWheel = httpServer.getTimingWheel();
+        this.connectionTimeouts = httpServer.getConnectionTimeouts();
+        this.maxIdleMillis = httpServer.getKeepAliveManager().getMaxIdleMillis();
+        this.checkIntervalMillis = getCheckIntervalMillis(this.connectionTimeouts);
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.closer = closer;
+    }
+
+    /**
+     * Starts waiting for the next request.
+     */
+    public synchronized void idle() {
+        this.start(Phase.IDLE, this.maxIdleMillis);
+    }
+
+    /**
+     * Starts reading a message head, should be called once its first byte arrived.
+     */
+    public synchronized void header() {
+        this.start(Phase.HEADER, this.connectionTimeouts.getHeaderReadMillis());
+    }
+
+    /**
+     * Starts handling a request.
+     */
+    public synchronized void request() {
+        long nowMillis = System.currentTimeMillis();
+        this.bytesRead = this.inputStream.getBytesRead();
+        this.readProgressMillis = nowMillis;
+        this.bytesWritten = this.outputStream.getBytesWritten();
+        this.writeProgressMillis = nowMillis;
+        this.start(Phase.REQUEST, this.checkIntervalMillis);
+    }
+
+    /**
+     * Cancels the deadline for good, should be called once the connection is closed.
+     */
+    public synchronized void cancel() {
+        this.expired = true;
+        this.cancelTimeout();
+    }
+
+    /**
+     * Cancels the current timeout, if any.
+     */
+    protected void cancelTimeout() {
+        if (this.timeout != null) {
+            this.timeout.cancel();
+            this.timeout = null;
+        }
+    }
+
+    /**
+     * Replaces the current timeout with the timeout of a new phase.
+     *
+     * @param phase       the phase
+     * @param delayMillis the budget of the phase, or {@link ConnectionTimeouts#UNLIMITED}
+     */
+    protected void start(Phase phase, int delayMillis) {
+        if (this.expired) {
+            return;
+        }
+
+        this.cancelTimeout();
+        this.phase = phase;
+        this.phaseStartMillis = System.currentTimeMillis();
+        if (delayMillis != ConnectionTimeouts.UNLIMITED) {
+            this.timeout = this.timingWheel.schedule(this, delayMillis);
+        }
+    }
+
+    /**
+     * Returns how often the progress of a request is checked, the smallest budget of its phase.
+     *
+     * @param connectionTimeouts the budgets
+     * @return the interval, or {@link ConnectionTimeouts#UNLIMITED} if the request has no budget
+     */
+    protected static int getCheckIntervalMillis(ConnectionTimeouts connectionTimeouts) {
+        return minBudget(minBudget(connectionTimeouts.getBodyReadMillis(), connectionTimeouts.getResponseWriteMillis()), connectionTimeouts.getHandlerMillis());
+    }
+
+    /**
+     * Returns the smaller of two budgets, where {@link ConnectionTimeouts#UNLIMITED} is larger than any other budget.
+     *
+     * @param a a budget
+     * @param b another budget
+     * @return the smaller budget
+     */
+    protected static int minBudget(int a, int b) {
+        if (a == ConnectionTimeouts.UNLIMITED) {
+            return b;
+        }
+
+        return b == ConnectionTimeouts.UNLIMITED ? a : Math.min(a, b);
+    }
+
+    /**
+     * Checks whether the request exceeded one of its budgets, recording the progress made since the last check.
+     *
+     * @param nowMillis the current time
+     * @return true if the request exceeded a budget
+     */
+    protected boolean isRequestExpired(long nowMillis) {
+        int handlerMillis = this.connectionTimeouts.getHandlerMillis();
+        if (handlerMillis != ConnectionTimeouts.UNLIMITED && nowMillis - this.phaseStartMillis >= handlerMillis) {
+            return true;
+        }
+
+        long bytesRead = this.inputStream.getBytesRead();
+        if (bytesRead != this.bytesRead || !this.inputStream.isReading()) {
+            this.bytesRead = bytesRead;
+            this.readProgressMillis = nowMillis;
+        } else if (this.connectionTimeouts.getBodyReadMillis() != ConnectionTimeouts.UNLIMITED && nowMillis - this.readProgressMillis >= this.connectionTimeouts.getBodyReadMillis()) {
+            return true;
+        }
+
+        long bytesWritten = this.outputStream.getBytesWritten();
+        if (bytesWritten != this.bytesWritten || !this.outputStream.isWriting()) {
+            this.bytesWritten = bytesWritten;
+            this.writeProgressMillis = nowMillis;
+        } else if (this.connectionTimeouts.getResponseWriteMillis() != ConnectionTimeouts.UNLIMITED && nowMillis - this.writeProgressMillis >= this.connectionTimeouts.getResponseWriteMillis()) {
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        Phase phase;
+        synchronized (this) {
+            // The phase changed while the timeout fired.
+            if (timeout != this.timeout) {
+                return;
+            }
+
+            this.timeout = null;
+            if (this.phase == Phase.REQUEST && !this.isRequestExpired(System.currentTimeMillis())) {
+                this.timeout = this.timingWheel.schedule(this, this.checkIntervalMillis);
+                return;
+            }
+
+            phase = this.phase;
+            this.expired = true;
+        }
+
+        log.info(String.format("Connection exceeded the budget of the %s phase", phase));
+        try {
+            // Closed outside of the lock, closing the connection may wait for the handler that changes the phase.
+            this.closer.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close connection", e);
+        }
+    }
+
+    /**
+     * The phases of a connection.
+     */
+    public enum Phase {
+        IDLE,
+        HEADER,
+        REQUEST
+    }
+
+    /**
+     * Closes a connection once its deadline expired.
+     */
+    @FunctionalInterface
+    public interface Closer {
+        /**
+         * Closes the connection.
+         */
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+
+/**
+ * The time budgets of the phases of a client connection.
+ * The message head must arrive within its budget as a whole, while reading a message body and writing a response only have to make progress within theirs, so slow but steady transfers aren't interrupted.
+ * How long a connection may wait for its next request is decided by the {@link KeepAliveManager}.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+public class ConnectionTimeouts {
+    public static final int UNLIMITED = 0;
+
+    protected final int headerReadMillis;
+    protected final int bodyReadMillis;
+    protected final int responseWriteMillis;
+    protected final int handlerMillis;
+
+    /**
+     * Constructs new connection timeouts, each budget can be {@link #UNLIMITED}.
+     *
+     * @param headerReadMillis    the maximum time between the first byte of a request and the end of its message head
+     * @param bodyReadMillis      the maximum time a read of the message body may wait for data
+     * @param responseWriteMillis the maximum time a write of the response may wait for the client
+     * @param handlerMillis       the maximum time between receiving a request and the end of its handling
+     */
+    public ConnectionTimeouts(int headerReadMillis, int bodyReadMillis, int responseWriteMillis, int handlerMillis) {
+        if (headerReadMillis < 0 || bodyReadMillis < 0 || responseWriteMillis < 0 || handlerMillis < 0) {
+            throw new IllegalArgumentException("Invalid header read " + headerReadMillis + ", body read " + bodyReadMillis + ", response write " + responseWriteMillis + " or handler budget " + handlerMillis);
+        }
+
+        this.headerReadMillis = headerReadMillis;
+        this.bodyReadMillis = bodyReadMillis;
+        this.responseWriteMillis = responseWriteMillis;
+        this.handlerMillis = handlerMillis;
+    }
+
+    /**
+     * Constructs new connection timeouts, allowing the client connection timeout for every phase except handling, which is unlimited.
+     */
+    public ConnectionTimeouts() {
+        this(HttpServer.CLIENT_CONNECTION_TIMEOUT_MILLIS, HttpServer.CLIENT_CONNECTION_TIMEOUT_MILLIS, HttpServer.CLIENT_CONNECTION_TIMEOUT_MILLIS, UNLIMITED);
+    }
+}
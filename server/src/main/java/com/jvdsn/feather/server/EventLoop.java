@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Multiplexes the connections of many clients on a single thread.
+ * Reads incoming data and writes queued outgoing data, the requests themselves are handled on worker threads.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class EventLoop implements Runnable {
+    public static final int READ_BUFFER_SIZE = 65536;
+    public static final long MEMORY_CHECK_INTERVAL_MILLIS = 1000;
+
+    protected final NioHttpServer httpServer;
+    protected final Selector selector;
+    protected final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    @Getter
+    protected volatile boolean stopped;
+    protected long nextMemoryCheckMillis;
+
+    /**
+     * Constructs a new event loop.
+     *
+     * @param httpServer the HTTP server constructing this event loop
+     */
+    public EventLoop(@NonNull NioHttpServer httpServer) throws IOException {
+        this.httpServer = httpServer;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Executes a task on the event loop thread.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Registers a channel handler with this event loop.
+     *
+     * @param channelHandler the channel handler
+     */
+    public void register(ChannelHandler channelHandler) {
+        this.execute(() -> {
+            try {
+                channelHandler.setSelectionKey(channelHandler.getChannel().register(this.selector, SelectionKey.OP_READ, channelHandler));
+            } catch (ClosedChannelException e) {
+                this.close(channelHandler);
+            }
+        });
+    }
+
+    /**
+     * Stops the event loop.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Closes the connection of a channel handler after an I/O error.
+     *
+     * @param channelHandler the channel handler
+     */
+    protected void close(ChannelHandler channelHandler) {
+        try {
+            this.httpServer.closeConnection(channelHandler);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close connection", e);
+        }
+    }
+
+    /**
+     * Closes all idle connections if the heap is under memory pressure, idle connections are otherwise closed by their deadlines.
+     *
+     * @param nowMillis the current time
+     */
+    protected void checkMemoryPressure(long nowMillis) {
+        if (!this.httpServer.getKeepAliveManager().isUnderMemoryPressure()) {
+            return;
+        }
+
+        log.warning("Closing idle connections because of memory pressure");
+        for (SelectionKey selectionKey : this.selector.keys()) {
+            ChannelHandler channelHandler = (ChannelHandler) selectionKey.attachment();
+            if (selectionKey.isValid() && channelHandler.getIdleMillis(nowMillis) >= 0) {
+                this.close(channelHandler);
+            }
+        }
+    }
+
+    @Override
+    @SneakyThrows(IOException.class)
+    public void run() {
+        while (!this.stopped) {
+            this.selector.select(MEMORY_CHECK_INTERVAL_MILLIS);
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey selectionKey = iterator.next();
+                iterator.remove();
+                ChannelHandler channelHandler = (ChannelHandler) selectionKey.attachment();
+                try {
+                    if (selectionKey.isReadable()) {
+                        channelHandler.onReadable(this.readBuffer);
+                    }
+
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        channelHandler.onWritable();
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    this.close(channelHandler);
+                }
+            }
+
+            long nowMillis = System.currentTimeMillis();
+            if (nowMillis >= this.nextMemoryCheckMillis) {
+                this.nextMemoryCheckMillis = nowMillis + MEMORY_CHECK_INTERVAL_MILLIS;
+                this.checkMemoryPressure(nowMillis);
+            }
+        }
+
+        this.selector.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps frequently served files mapped into memory, so they don't have to be opened and read for every request.
+ * The least recently used files are evicted when the mapped files exceed the byte budget.
+ * Files are mapped again when their modification time or size changes.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class FileCache {
+    public static final long DEFAULT_BUDGET = 64L << 20;
+    public static final long DEFAULT_MAX_FILE_SIZE = 1L << 20;
+
+    // Accessed in order, so the first entry is always the least recently used one.
+    protected final Map<Path, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    @Getter
+    protected final long budget;
+    @Getter
+    protected final long maxFileSize;
+    @Getter
+    protected long size;
+
+    /**
+     * Constructs a new file cache.
+     *
+     * @param budget      the maximum total size of the cached files
+     * @param maxFileSize the maximum size of a single cached file, larger files are not cached
+     */
+    public FileCache(long budget, long maxFileSize) {
+        if (budget < 0 || maxFileSize < 0) {
+            throw new IllegalArgumentException("Negative budget " + budget + " or maximum file size " + maxFileSize);
+        }
+
+        this.budget = budget;
+        this.maxFileSize = Math.min(budget, maxFileSize);
+    }
+
+    /**
+     * Constructs a new file cache with a budget of 64 MiB, caching files up to 1 MiB.
+     */
+    public FileCache() {
+        this(DEFAULT_BUDGET, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Returns the contents of a file, mapping it if it isn't cached yet or if it was modified since it was mapped.
+     *
+     * @param file       the file
+     * @param attributes the current attributes of the file
+     * @return an optional containing a buffer with the contents of the file, or an empty optional if the file is too large to be cached
+     */
+    public Optional<ByteBuffer> get(Path file, BasicFileAttributes attributes) throws IOException {
+        synchronized (this) {
+            CachedFile cachedFile = this.files.get(file);
+            if (cachedFile != null && cachedFile.matches(attributes)) {
+                // Every caller gets its own position and limit, the mapped data itself is shared.
+                return Optional.of(cachedFile.getBuffer().duplicate());
+            }
+
+            if (cachedFile != null) {
+                this.remove(file);
+            }
+        }
+
+        if (attributes.size() > this.maxFileSize) {
+            return Optional.empty();
+        }
+
+        // Mapping happens outside of the lock, so a slow disk doesn't block requests for cached files.
+        MappedByteBuffer buffer;
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = fileChannel.map(MapMode.READ_ONLY, 0, Math.min(fileChannel.size(), this.maxFileSize));
+        }
+
+        synchronized (this) {
+            this.remove(file);
+            this.files.put(file, new CachedFile(attributes.lastModifiedTime(), attributes.size(), buffer));
+            this.size += buffer.capacity();
+            Iterator<CachedFile> iterator = this.files.values().iterator();
+            while (this.size > this.budget && iterator.hasNext()) {
+                this.size -= iterator.next().getBuffer().capacity();
+                iterator.remove();
+            }
+        }
+
+        return Optional.of(buffer.duplicate());
+    }
+
+    /**
+     * Removes a file from the cache, should only be called while holding the lock of this cache.
+     *
+     * @param file the file
+     */
+    protected void remove(Path file) {
+        CachedFile cachedFile = this.files.remove(file);
+        if (cachedFile != null) {
+            this.size -= cachedFile.getBuffer().capacity();
+        }
+    }
+
+    /**
+     * Removes all files from the cache.
+     * The mapped memory is released once the buffers are garbage collected.
+     */
+    public synchronized void clear() {
+        this.files.clear();
+        this.size = 0;
+    }
+
+    /**
+     * A file mapped into memory.
+     */
+    @Value
+    protected static class CachedFile {
+        FileTime lastModified;
+        long size;
+        MappedByteBuffer buffer;
+
+        /**
+         * Returns true if the file wasn't modified since it was mapped.
+         *
+         * @param attributes the current attributes of the file
+         * @return true if the mapped contents are still valid, false otherwise
+         */
+        protected boolean matches(BasicFileAttributes attributes) {
+            return this.lastModified.equals(attributes.lastModifiedTime()) && this.size == attributes.size();
+        }
+    }
+}
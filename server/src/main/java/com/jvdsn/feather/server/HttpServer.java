@@ -10,27 +10,53 @@
 
 package com.jvdsn.feather.server;
 
+import com.jvdsn.feather.server.ResponseSequencer.PendingResponse;
 import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.buffer.BufferPool;
+import com.jvdsn.feather.shared.buffer.PooledBuffer;
+import com.jvdsn.feather.shared.header.Allow;
+import com.jvdsn.feather.shared.header.Connection;
 import com.jvdsn.feather.shared.header.ContentLength;
 import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.Host;
+import com.jvdsn.feather.shared.header.TransferEncoding;
+import com.jvdsn.feather.shared.request.BufferHttpRequestHandler;
 import com.jvdsn.feather.shared.request.HttpRequest;
 import com.jvdsn.feather.shared.request.HttpRequestHandler;
 import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.request.StreamingHttpRequestHandler;
 import com.jvdsn.feather.shared.response.HttpResponse;
 import com.jvdsn.feather.shared.response.Status;
+import com.jvdsn.feather.shared.stream.MessageBodyTooLargeException;
+import com.jvdsn.feather.shared.timer.TimingWheel;
+import com.jvdsn.feather.shared.transfercoding.CompressionTransferCoding;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.math.BigInteger;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.logging.Level;
 
 /**
  * A threaded HTTP server.
@@ -41,11 +67,87 @@ import java.util.concurrent.Executors;
 @Log
 public class HttpServer {
     public static final int CLIENT_CONNECTION_TIMEOUT_MILLIS = 15000;
+    public static final long MAX_PIPELINED_BODY_SIZE = 65536;
+    // Only requests without side effects are handled concurrently, the others must take effect in the order the client sent them.
+    protected static final Set<RequestMethod> CONCURRENT_METHODS = Collections.unmodifiableSet(EnumSet.of(RequestMethod.GET, RequestMethod.HEAD, RequestMethod.OPTIONS));
+    public static final int DEFAULT_BACKLOG = 1024;
+    // Only available since Java 9 and not on every platform, so it is looked up when the server is loaded.
+    protected static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
 
+    protected static final ThreadLocal<RouteMatch> ROUTE_MATCH = ThreadLocal.withInitial(RouteMatch::new);
+
+    @Getter
+    protected final Router router = new Router();
     protected final Map<RequestMethod, Set<HttpRequestHandler>> requestHandlers = Collections.synchronizedMap(new EnumMap<>(RequestMethod.class));
-    protected final ExecutorService executorService = Executors.newCachedThreadPool();
+    protected final Map<RequestMethod, Set<StreamingHttpRequestHandler>> streamingRequestHandlers = Collections.synchronizedMap(new EnumMap<>(RequestMethod.class));
+    protected final Map<RequestMethod, Set<BufferHttpRequestHandler>> bufferRequestHandlers = Collections.synchronizedMap(new EnumMap<>(RequestMethod.class));
+    protected final ExecutorService executorService;
     protected final Set<ClientHandler> clients = Collections.synchronizedSet(new HashSet<>());
-    protected ServerHandler serverHandler;
+    protected final List<ServerHandler> serverHandlers = new ArrayList<>();
+    // The pool message bodies and connection buffers are borrowed from, should be set before starting the server.
+    @Getter
+    @Setter
+    protected @NonNull BufferPool bufferPool = BufferPool.DEFAULT;
+    // Bounds the amount of requests handled concurrently, or null to handle every request right away.
+    @Getter
+    @Setter
+    protected volatile ConcurrencyLimiter concurrencyLimiter;
+    // The amount of listening sockets sharing the port with SO_REUSEPORT, each with its own accept loop, should be set before starting the server.
+    @Getter
+    @Setter
+    protected int acceptors = 1;
+    // The maximum amount of connections waiting to be accepted per listening socket, should be set before starting the server.
+    @Getter
+    @Setter
+    protected int backlog = DEFAULT_BACKLOG;
+    // Decides how long client connections persist.
+    @Getter
+    @Setter
+    protected @NonNull KeepAliveManager keepAliveManager = new KeepAliveManager();
+    // The budgets of the phases of client connections, should be set before starting the server.
+    @Getter
+    @Setter
+    protected @NonNull ConnectionTimeouts connectionTimeouts = new ConnectionTimeouts();
+    // The maximum length of a request body after decoding its compression transfer codings, should be set before starting the server.
+    @Getter
+    @Setter
+    protected long maxDecodedLength = CompressionTransferCoding.DEFAULT_MAX_DECODED_LENGTH;
+    // The port the listening sockets are bound to, or -1 if the server wasn't started.
+    @Getter
+    protected volatile int port = -1;
+    // Enforces the deadlines of all client connections.
+    @Getter
+    protected final TimingWheel timingWheel = new TimingWheel();
+
+    /**
+     * Constructs a new HTTP server running the server handler and the client handlers on an executor service.
+     *
+     * @param executorService the executor service, should not bound the amount of concurrently running tasks
+     */
+    public HttpServer(@NonNull ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Constructs a new HTTP server running the server handler and the client handlers on a cached thread pool.
+     */
+    public HttpServer() {
+        this(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Looks up the SO_REUSEPORT socket option.
+     *
+     * @return the socket option, or null if the runtime doesn't know it
+     */
+    @SuppressWarnings("unchecked")
+    protected static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
     /**
      * Registers an HTTP request handler for a request method.
@@ -67,6 +169,46 @@ public class HttpServer {
         this.requestHandlers.getOrDefault(requestMethod, Collections.emptySet()).remove(requestHandler);
     }
 
+    /**
+     * Registers a streaming HTTP request handler for a request method.
+     *
+     * @param requestMethod  the request method to register for
+     * @param requestHandler the request handler to add
+     */
+    public void registerStreamingRequestHandler(RequestMethod requestMethod, StreamingHttpRequestHandler requestHandler) {
+        this.streamingRequestHandlers.computeIfAbsent(requestMethod, __ -> new HashSet<>()).add(requestHandler);
+    }
+
+    /**
+     * Unregisters a streaming HTTP request handler for a request method.
+     *
+     * @param requestMethod  the request method to unregister for
+     * @param requestHandler the request handler to remove
+     */
+    public void unregisterStreamingRequestHandler(RequestMethod requestMethod, StreamingHttpRequestHandler requestHandler) {
+        this.streamingRequestHandlers.getOrDefault(requestMethod, Collections.emptySet()).remove(requestHandler);
+    }
+
+    /**
+     * Registers a buffer HTTP request handler for a request method.
+     *
+     * @param requestMethod  the request method to register for
+     * @param requestHandler the request handler to add
+     */
+    public void registerBufferRequestHandler(RequestMethod requestMethod, BufferHttpRequestHandler requestHandler) {
+        this.bufferRequestHandlers.computeIfAbsent(requestMethod, __ -> new HashSet<>()).add(requestHandler);
+    }
+
+    /**
+     * Unregisters a buffer HTTP request handler for a request method.
+     *
+     * @param requestMethod  the request method to unregister for
+     * @param requestHandler the request handler to remove
+     */
+    public void unregisterBufferRequestHandler(RequestMethod requestMethod, BufferHttpRequestHandler requestHandler) {
+        this.bufferRequestHandlers.getOrDefault(requestMethod, Collections.emptySet()).remove(requestHandler);
+    }
+
     /**
      * Starts the HTTP server bound to a port.
      *
@@ -74,8 +216,13 @@ public class HttpServer {
      */
     public void start(int port) throws IOException {
         log.info(String.format("Starting server on %d...", port));
-        this.serverHandler = new ServerHandler(this, new ServerSocket(port));
-        this.executorService.submit(this.serverHandler);
+        // Sockets accepted through a channel allow the responses to be written with gathering writes.
+        for (ServerSocketChannel serverSocketChannel : this.bind(port)) {
+            ServerHandler serverHandler = new ServerHandler(this, serverSocketChannel.socket());
+            this.serverHandlers.add(serverHandler);
+            this.executorService.submit(serverHandler);
+        }
+
         log.info("Started server!");
     }
 
@@ -84,21 +231,129 @@ public class HttpServer {
      */
     public void stop() throws IOException {
         log.info("Stopping server...");
-        // Stop server handler first so we don't get new connections.
-        this.serverHandler.stop();
+        // Stop server handlers first so we don't get new connections.
+        for (ServerHandler serverHandler : this.serverHandlers) {
+            serverHandler.stop();
+        }
+
+        this.serverHandlers.clear();
         // Stop the client handlers next so we don't get new requests.
-        for (ClientHandler clientHandler : this.clients) {
+        for (ClientHandler clientHandler : this.getClients()) {
             log.info(String.format("Disconnecting from %s...", clientHandler));
             clientHandler.stop();
             log.info("Disconnected!");
         }
 
         this.clients.clear();
+        this.timingWheel.stop();
         // Stop the thread pool last when we're somewhat sure all handlers are stopped.
         this.executorService.shutdown();
         log.info("Stopped server!");
     }
 
+    /**
+     * Starts draining the HTTP server, so it can be stopped without interrupting requests.
+     * Idle connections are closed right away, the other connections are closed after their current request, with a Connection: close header in the response.
+     */
+    public void drain() throws IOException {
+        log.info("Draining server...");
+        this.keepAliveManager.drain();
+        this.closeIdleConnections();
+        for (ClientHandler clientHandler : this.getClients()) {
+            clientHandler.setConnection(new Connection(Connection.CLOSE));
+        }
+    }
+
+    /**
+     * Returns a snapshot of the connected clients.
+     *
+     * @return the client handlers
+     */
+    protected List<ClientHandler> getClients() {
+        synchronized (this.clients) {
+            return new ArrayList<>(this.clients);
+        }
+    }
+
+    /**
+     * Closes the connections of all clients waiting for their next request.
+     */
+    protected void closeIdleConnections() throws IOException {
+        for (ClientHandler clientHandler : this.getClients()) {
+            if (clientHandler.isIdle()) {
+                this.closeConnection(clientHandler);
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections if the heap is under memory pressure.
+     */
+    protected void checkMemoryPressure() throws IOException {
+        if (this.keepAliveManager.isUnderMemoryPressure()) {
+            log.warning("Closing idle connections because of memory pressure");
+            this.closeIdleConnections();
+        }
+    }
+
+    /**
+     * Opens the listening sockets, one per acceptor.
+     * Multiple listening sockets share the port using SO_REUSEPORT, so the kernel spreads new connections across them.
+     * If the platform doesn't support SO_REUSEPORT, a single listening socket is opened instead.
+     *
+     * @param port the port to bind to, or 0 to bind all listening sockets to the same ephemeral port
+     * @return the listening sockets
+     */
+    protected List<ServerSocketChannel> bind(int port) throws IOException {
+        if (this.acceptors < 1 || this.backlog < 1) {
+            throw new IllegalArgumentException("Invalid acceptors " + this.acceptors + " or backlog " + this.backlog);
+        }
+
+        List<ServerSocketChannel> serverSocketChannels = new ArrayList<>(this.acceptors);
+        try {
+            for (int i = 0; i < this.acceptors; i++) {
+                ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+                serverSocketChannels.add(serverSocketChannel);
+                if (this.acceptors > 1) {
+                    if (SO_REUSEPORT == null || !serverSocketChannel.supportedOptions().contains(SO_REUSEPORT)) {
+                        log.warning(String.format("SO_REUSEPORT is not supported, using a single acceptor instead of %d", this.acceptors));
+                        serverSocketChannel.bind(new InetSocketAddress(port), this.backlog);
+                        break;
+                    }
+
+                    serverSocketChannel.setOption(SO_REUSEPORT, true);
+                }
+
+                serverSocketChannel.bind(new InetSocketAddress(port), this.backlog);
+                port = serverSocketChannel.socket().getLocalPort();
+            }
+
+            this.port = serverSocketChannels.get(0).socket().getLocalPort();
+        } catch (IOException | RuntimeException e) {
+            for (ServerSocketChannel serverSocketChannel : serverSocketChannels) {
+                serverSocketChannel.close();
+            }
+
+            throw e;
+        }
+
+        return serverSocketChannels;
+    }
+
+    /**
+     * Returns the accept metrics of every listening socket.
+     *
+     * @return the accept metrics, one per acceptor
+     */
+    public List<AcceptMetrics> getAcceptMetrics() {
+        List<AcceptMetrics> acceptMetrics = new ArrayList<>();
+        for (ServerHandler serverHandler : this.serverHandlers) {
+            acceptMetrics.add(serverHandler.getAcceptMetrics());
+        }
+
+        return acceptMetrics;
+    }
+
     /**
      * Accepts the connection of a new client.
      *
@@ -106,15 +361,19 @@ public class HttpServer {
      */
     protected void acceptConnection(Socket socket) throws IOException {
         log.info(String.format("Accepting connecting from %s...", socket));
+        this.checkMemoryPressure();
+        // Responses are only written when flushed, so Nagle's algorithm would just delay them.
+        socket.setTcpNoDelay(true);
         ClientHandler clientHandler = new ClientHandler(this, socket);
+        clientHandler.setBufferPool(this.bufferPool);
+        clientHandler.setMaxDecodedLength(this.maxDecodedLength);
         this.clients.add(clientHandler);
         this.executorService.submit(clientHandler);
-        socket.setSoTimeout(CLIENT_CONNECTION_TIMEOUT_MILLIS);
         log.info("Accepted connection! (%d connections so far)");
     }
 
     /**
-     * Closes the connection of a client (after the timeout has expired).
+     * Closes the connection of a client (after its deadline has expired).
      *
      * @param clientHandler the client
      */
@@ -125,30 +384,230 @@ public class HttpServer {
         this.clients.remove(clientHandler);
     }
 
+    /**
+     * Reads the remainder of a stream.
+     *
+     * @param inputStream the stream
+     * @return the bytes read
+     */
+    protected static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int read;
+        while ((read = inputStream.read(b)) != -1) {
+            outputStream.write(b, 0, read);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer to a new array, without modifying the buffer.
+     *
+     * @param buffer the buffer
+     * @return the bytes
+     */
+    protected static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Responds with an error and closes the connection, as the rest of the request can't be received.
+     *
+     * @param client the client
+     * @param status the status of the response
+     */
+    protected static void reject(HttpAgent client, Status status) throws IOException {
+        client.setConnection(new Connection(Connection.CLOSE));
+        client.sendResponse(new HttpResponse(status, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
+    }
+
+    /**
+     * Handles a client request, possibly concurrently with the other requests the client pipelined.
+     * A pipelined request is handled concurrently if its method is safe, its message body is small and no streaming request handlers need it,
+     * the response is then sent by the response sequencer once the responses to the earlier requests were sent.
+     * Other requests are handled once all earlier responses were sent, so their side effects happen in order.
+     * Reserving a response blocks while too many responses are pending, so the client can't pipeline more requests until the earliest one was answered.
+     * Responds with BAD_REQUEST and closes the connection if the Content-Length or Transfer-Encoding header is malformed.
+     *
+     * @param client            the client
+     * @param request           the request
+     * @param responseSequencer the response sequencer of the client
+     */
+    protected void handleRequest(HttpAgent client, HttpRequest request, ResponseSequencer responseSequencer) throws IOException {
+        Headers headers = request.getHeaders();
+        long contentLength;
+        try {
+            // The framing headers are parsed lazily, so a malformed one would otherwise fail wherever it is first used.
+            contentLength = headers.getContentLength(0);
+            headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class);
+        } catch (RuntimeException e) {
+            // Without a valid framing, neither this message body nor the requests after it can be received.
+            responseSequencer.await();
+            reject(client, Status.BAD_REQUEST);
+            client.flush();
+            return;
+        }
+
+        if (!CONCURRENT_METHODS.contains(request.getRequestMethod()) || headers.contains(Header.TRANSFER_ENCODING) || contentLength > MAX_PIPELINED_BODY_SIZE
+                || !this.streamingRequestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet()).isEmpty()) {
+            responseSequencer.await();
+            this.handleRequest(client, request);
+            return;
+        }
+
+        byte[] body;
+        try {
+            body = client.receiveMessageBody(headers);
+        } catch (IOException e) {
+            responseSequencer.await();
+            reject(client, e instanceof MessageBodyTooLargeException ? Status.PAYLOAD_TOO_LARGE : Status.BAD_REQUEST);
+            client.flush();
+            return;
+        }
+
+        if (!responseSequencer.isPending() && client.available() == 0) {
+            // The request wasn't pipelined, so there is nothing to gain by handling it concurrently.
+            this.handleRequest(client, request, new ByteArrayInputStream(body));
+            return;
+        }
+
+        PendingResponse pendingResponse = responseSequencer.reserve();
+        Connection connection = client.getConnection();
+        this.executorService.submit(() -> {
+            BufferedHttpAgent agent = new BufferedHttpAgent(client.getSocket());
+            agent.setBufferPool(this.bufferPool);
+            agent.setConnection(connection);
+            try {
+                this.handleRequest(agent, request, new ByteArrayInputStream(body));
+            } finally {
+                if (agent.isClosing()) {
+                    // The handler closed the connection, so the client shouldn't handle any more requests.
+                    client.setConnection(agent.getConnection());
+                }
+
+                responseSequencer.complete(pendingResponse, agent.toByteArray(), agent.isClosing());
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Handles a client request, reading the message body from the client.
+     *
+     * @param client  the client
+     * @param request the request
+     */
+    protected void handleRequest(HttpAgent client, HttpRequest request) throws IOException {
+        // Closing the body skips whatever the handlers didn't read, so the next request can be received.
+        try (InputStream body = client.receiveMessageBodyStream(request.getHeaders())) {
+            this.handleRequest(client, request, body);
+        }
+    }
+
     /**
      * Handles a client request by forwarding to the appropriate request handlers.
+     * The streaming request handlers are called first and receive the message body as a stream.
+     * The route handler of the router is called next, the buffer and other request handlers are only called if the router has no route for the request.
+     * They all receive the part of the message body the streaming request handlers did not read.
+     * Responds with SERVICE_UNAVAILABLE if the concurrency limiter rejected the request.
      * Responds with BAD_REQUEST if the client did not specify a Host.
+     * Responds with PAYLOAD_TOO_LARGE and closes the connection if the decoded message body exceeded the maximum decoded length.
+     * Responds with BAD_REQUEST and closes the connection if the message body was malformed or truncated.
      * Responds with INTERNAL_SERVER_ERROR if an error occured.
      *
      * @param client  the client
      * @param request the request
+     * @param body    the message body
      */
-    protected void handleRequest(ClientHandler client, HttpRequest request) throws IOException {
-        log.info(String.format("Received request from %s", client));
-        log.info(request.toString());
+    protected void handleRequest(HttpAgent client, HttpRequest request, InputStream body) throws IOException {
+        RequestBodyInputStream requestBody = new RequestBodyInputStream(body);
+        // Formatting the request is costly, so skip it entirely when it wouldn't be logged.
+        if (log.isLoggable(Level.INFO)) {
+            log.info(String.format("Received request from %s", client));
+            log.info(request.toString());
+        }
+
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        if (concurrencyLimiter != null && !concurrencyLimiter.acquire()) {
+            // Shedding the request right away keeps the latency of the admitted requests low.
+            client.sendResponse(new HttpResponse(Status.SERVICE_UNAVAILABLE, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
+            client.flush();
+            return;
+        }
+
+        long start = concurrencyLimiter == null ? 0 : concurrencyLimiter.nanoTime();
+        PooledBuffer pooledBody = null;
         try {
-            byte[] body = client.receiveMessageBody(request.getHeaders());
             if (!request.getHeaders().contains(Header.HOST)) {
-                client.sendResponse(new HttpResponse(Status.BAD_REQUEST, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(BigInteger.ZERO))));
+                client.sendResponse(new HttpResponse(Status.BAD_REQUEST, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
                 return;
             }
 
-            for (HttpRequestHandler requestHandler : this.requestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet())) {
-                requestHandler.handleRequest(client, request, body);
+            for (StreamingHttpRequestHandler requestHandler : this.streamingRequestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet())) {
+                requestHandler.handleRequest(client, request, requestBody);
             }
+
+            RouteMatch match = ROUTE_MATCH.get();
+            String host = request.getHeaders().get(Header.HOST, Host.class).map(h -> h.getHostAndPort().getHost()).orElse(null);
+            if (this.router.route(request.getRequestMethod(), host, request.getResource(), match)) {
+                match.getHandler().handleRequest(client, request, match, readFully(requestBody));
+                return;
+            }
+
+            Set<BufferHttpRequestHandler> bufferRequestHandlers = this.bufferRequestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet());
+            if (!bufferRequestHandlers.isEmpty()) {
+                pooledBody = client.getBufferPool().read(requestBody, (int) Math.min(request.getHeaders().getContentLength(0), 1 << BufferPool.MAX_SIZE_CLASS_SHIFT));
+                int limit = pooledBody.getBuffer().limit();
+                for (BufferHttpRequestHandler requestHandler : bufferRequestHandlers) {
+                    // Every handler sees the whole message body, regardless of what the previous handler read.
+                    pooledBody.getBuffer().limit(limit).position(0);
+                    requestHandler.handleRequest(client, request, pooledBody);
+                }
+
+                pooledBody.getBuffer().limit(limit).position(0);
+            }
+
+            Set<HttpRequestHandler> requestHandlers = this.requestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet());
+            if (!requestHandlers.isEmpty()) {
+                byte[] bytes = pooledBody == null ? readFully(requestBody) : toByteArray(pooledBody.getBuffer());
+                for (HttpRequestHandler requestHandler : requestHandlers) {
+                    requestHandler.handleRequest(client, request, bytes);
+                }
+            } else if (pooledBody == null && !this.router.isEmpty() && this.streamingRequestHandlers.getOrDefault(request.getRequestMethod(), Collections.emptySet()).isEmpty()) {
+                if (match.isPathMatched()) {
+                    client.sendResponse(new HttpResponse(Status.METHOD_NOT_ALLOWED, new Headers()
+                            .with(Header.ALLOW, new Allow(match.getAllowedMethods()))
+                            .with(Header.CONTENT_LENGTH, new ContentLength(0))));
+                } else {
+                    client.sendResponse(new HttpResponse(Status.NOT_FOUND, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
+                }
+            }
+        } catch (MessageBodyTooLargeException e) {
+            // The rest of the message body isn't worth receiving.
+            reject(client, Status.PAYLOAD_TOO_LARGE);
         } catch (Exception e) {
-            client.sendResponse(new HttpResponse(Status.INTERNAL_SERVER_ERROR, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(BigInteger.ZERO))));
-            e.printStackTrace();
+            if (requestBody.isFailed()) {
+                // The client is at fault, and the rest of the message body can't be skipped.
+                log.info(String.format("Received malformed message body from %s: %s", client, e));
+                reject(client, Status.BAD_REQUEST);
+            } else {
+                client.sendResponse(new HttpResponse(Status.INTERNAL_SERVER_ERROR, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
+                log.log(Level.WARNING, "Failed to handle request", e);
+            }
+        } finally {
+            if (pooledBody != null) {
+                pooledBody.release();
+            }
+
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.release(concurrencyLimiter.nanoTime() - start);
+            }
+
+            client.flush();
         }
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.header.Connection;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import lombok.Getter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Optional;
+
+/**
+ * Decides how long the connection of a client persists.
+ * A connection is closed after a request if the client asked for it, if it is an HTTP/1.0 client without keep-alive,
+ * if it reached the maximum amount of requests, or if the server is draining.
+ * Idle connections are closed after the maximum idle time, or right away if the heap is under memory pressure.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class KeepAliveManager {
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final int UNLIMITED_REQUESTS = 0;
+    public static final double DEFAULT_MEMORY_PRESSURE_THRESHOLD = 0.9;
+    public static final long MEMORY_CHECK_INTERVAL_MILLIS = 1000;
+
+    @Getter
+    protected final int maxRequests;
+    @Getter
+    protected final int maxIdleMillis;
+    @Getter
+    protected final double memoryPressureThreshold;
+    @Getter
+    protected volatile boolean draining;
+    protected volatile long nextMemoryCheckMillis;
+    protected volatile boolean memoryPressure;
+
+    /**
+     * Constructs a new keep-alive manager.
+     *
+     * @param maxRequests             the maximum amount of requests per connection, or {@link #UNLIMITED_REQUESTS}
+     * @param maxIdleMillis           the maximum time a connection waits for the next request, or 0 to wait indefinitely
+     * @param memoryPressureThreshold the fraction of the old generation that may be in use after a garbage collection before idle connections are closed
+     */
+    public KeepAliveManager(int maxRequests, int maxIdleMillis, double memoryPressureThreshold) {
+        if (maxRequests < 0 || maxIdleMillis < 0 || memoryPressureThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid maximum requests " + maxRequests + ", maximum idle time " + maxIdleMillis + " or memory pressure threshold " + memoryPressureThreshold);
+        }
+
+        this.maxRequests = maxRequests;
+        this.maxIdleMillis = maxIdleMillis;
+        this.memoryPressureThreshold = memoryPressureThreshold;
+    }
+
+    /**
+     * Constructs a new keep-alive manager allowing unlimited requests per connection, closing connections after being idle for the client connection timeout.
+     */
+    public KeepAliveManager() {
+        this(UNLIMITED_REQUESTS, HttpServer.CLIENT_CONNECTION_TIMEOUT_MILLIS, DEFAULT_MEMORY_PRESSURE_THRESHOLD);
+    }
+
+    /**
+     * Returns the Connection header to send in the response to a request.
+     *
+     * @param request  the request
+     * @param requests the amount of requests received on the connection, including this one
+     * @return the Connection header, or null if the default persistence of the HTTP version applies
+     */
+    public Connection getConnection(HttpRequest request, int requests) {
+        boolean http10 = HTTP_1_0.equals(request.getHttpVersion());
+        Optional<Connection> connection = request.getHeaders().get(Header.CONNECTION, Connection.class);
+        if (this.draining || (this.maxRequests != UNLIMITED_REQUESTS && requests >= this.maxRequests)) {
+            return new Connection(Connection.CLOSE);
+        }
+
+        if (connection.isPresent() && connection.get().contains(Connection.CLOSE)) {
+            return new Connection(Connection.CLOSE);
+        }
+
+        if (http10) {
+            // HTTP/1.0 connections only persist if the client asked for it.
+            return connection.isPresent() && connection.get().contains(Connection.KEEP_ALIVE) ? new Connection(Connection.KEEP_ALIVE) : new Connection(Connection.CLOSE);
+        }
+
+        return null;
+    }
+
+    /**
+     * Starts draining, every following response closes its connection.
+     */
+    public void drain() {
+        this.draining = true;
+    }
+
+    /**
+     * Returns true if idle connections should be closed to free memory.
+     * The live data is measured after the last garbage collection, so garbage waiting to be collected doesn't count.
+     *
+     * @return true if the heap is under memory pressure, false otherwise
+     */
+    public boolean isUnderMemoryPressure() {
+        long now = System.currentTimeMillis();
+        if (now < this.nextMemoryCheckMillis) {
+            return this.memoryPressure;
+        }
+
+        this.nextMemoryCheckMillis = now + MEMORY_CHECK_INTERVAL_MILLIS;
+        long used = 0;
+        long max = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // Only the pools with a maximum size can run out, which is the old generation for most collectors.
+            MemoryUsage usage = memoryPool.getType() == MemoryType.HEAP ? memoryPool.getCollectionUsage() : null;
+            if (usage != null && usage.getMax() > 0) {
+                used += usage.getUsed();
+                max += usage.getMax();
+            }
+        }
+
+        this.memoryPressure = max > 0 && used > max * this.memoryPressureThreshold;
+        return this.memoryPressure;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.header.Connection;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking HTTP server.
+ * Multiplexes the connections over a fixed amount of event loops, only clients with unhandled data occupy a worker thread.
+ * Forwards HTTP requests to the same request handlers as the threaded HTTP server.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class NioHttpServer extends HttpServer {
+    public static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    protected final Set<ChannelHandler> channels = ConcurrentHashMap.newKeySet();
+    protected final EventLoop[] eventLoops;
+    protected final AtomicInteger nextEventLoop = new AtomicInteger();
+    protected final List<NioServerHandler> nioServerHandlers = new ArrayList<>();
+    // Limits the outgoing data queued per client, should be set before starting the server.
+    @Getter
+    @Setter
+    protected @NonNull WriteWatermarks writeWatermarks = new WriteWatermarks();
+
+    /**
+     * Constructs a new non-blocking HTTP server running the event loops and the request handlers on an executor service.
+     *
+     * @param executorService the executor service, should not bound the amount of concurrently running tasks
+     * @param eventLoops      the amount of event loops to use
+     */
+    public NioHttpServer(ExecutorService executorService, int eventLoops) {
+        super(executorService);
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+
+        this.eventLoops = new EventLoop[eventLoops];
+    }
+
+    /**
+     * Constructs a new non-blocking HTTP server running the event loops and the request handlers on a cached thread pool.
+     *
+     * @param eventLoops the amount of event loops to use
+     */
+    public NioHttpServer(int eventLoops) {
+        this(Executors.newCachedThreadPool(), eventLoops);
+    }
+
+    /**
+     * Constructs a new non-blocking HTTP server using one event loop per processor.
+     */
+    public NioHttpServer() {
+        this(DEFAULT_EVENT_LOOPS);
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        log.info(String.format("Starting server on %d...", port));
+        for (int i = 0; i < this.eventLoops.length; i++) {
+            this.eventLoops[i] = new EventLoop(this);
+            this.executorService.submit(this.eventLoops[i]);
+        }
+
+        for (ServerSocketChannel serverSocketChannel : this.bind(port)) {
+            NioServerHandler nioServerHandler = new NioServerHandler(this, serverSocketChannel);
+            this.nioServerHandlers.add(nioServerHandler);
+            this.executorService.submit(nioServerHandler);
+        }
+
+        log.info("Started server!");
+    }
+
+    @Override
+    public void stop() throws IOException {
+        log.info("Stopping server...");
+        // Stop server handlers first so we don't get new connections.
+        for (NioServerHandler nioServerHandler : this.nioServerHandlers) {
+            nioServerHandler.stop();
+        }
+
+        this.nioServerHandlers.clear();
+        // Stop the channel handlers next so we don't get new requests.
+        for (ChannelHandler channelHandler : this.channels) {
+            log.info(String.format("Disconnecting from %s...", channelHandler));
+            channelHandler.stop();
+            log.info("Disconnected!");
+        }
+
+        this.channels.clear();
+        for (EventLoop eventLoop : this.eventLoops) {
+            eventLoop.stop();
+        }
+
+        this.timingWheel.stop();
+
+        // Stop the thread pool last when we're somewhat sure all handlers are stopped.
+        this.executorService.shutdown();
+        log.info("Stopped server!");
+    }
+
+    @Override
+    public void drain() throws IOException {
+        super.drain();
+        for (ChannelHandler channelHandler : this.channels) {
+            channelHandler.setConnection(new Connection(Connection.CLOSE));
+        }
+    }
+
+    @Override
+    protected void closeIdleConnections() throws IOException {
+        long nowMillis = System.currentTimeMillis();
+        for (ChannelHandler channelHandler : this.channels) {
+            if (channelHandler.getIdleMillis(nowMillis) >= 0) {
+                this.closeConnection(channelHandler);
+            }
+        }
+    }
+
+    @Override
+    public List<AcceptMetrics> getAcceptMetrics() {
+        List<AcceptMetrics> acceptMetrics = new ArrayList<>();
+        for (NioServerHandler nioServerHandler : this.nioServerHandlers) {
+            acceptMetrics.add(nioServerHandler.getAcceptMetrics());
+        }
+
+        return acceptMetrics;
+    }
+
+    /**
+     * Accepts the connection of a new client, registering it with one of the event loops.
+     *
+     * @param channel the channel
+     */
+    protected void acceptConnection(SocketChannel channel) throws IOException {
+        log.info(String.format("Accepting connecting from %s...", channel));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        EventLoop eventLoop = this.eventLoops[Math.floorMod(this.nextEventLoop.getAndIncrement(), this.eventLoops.length)];
+        ChannelHandler channelHandler = new ChannelHandler(this, eventLoop, channel);
+        this.channels.add(channelHandler);
+        eventLoop.register(channelHandler);
+        log.info(String.format("Accepted connection! (%d connections so far)", this.channels.size()));
+    }
+
+    /**
+     * Hands a client with unhandled data to a worker thread.
+     *
+     * @param channelHandler the client
+     */
+    protected void dispatch(ChannelHandler channelHandler) {
+        this.executorService.submit(channelHandler);
+    }
+
+    /**
+     * Runs a task on a worker thread.
+     *
+     * @param task the task
+     */
+    protected void execute(Runnable task) {
+        this.executorService.execute(task);
+    }
+
+    /**
+     * Closes the connection of a client.
+     *
+     * @param channelHandler the client
+     */
+    protected void closeConnection(ChannelHandler channelHandler) throws IOException {
+        log.info(String.format("Disconnecting from %s...", channelHandler));
+        channelHandler.stop();
+        log.info("Disconnected!");
+        this.channels.remove(channelHandler);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Handles all incoming connections of a non-blocking HTTP server, forwarding them to the HTTP server.
+ *
+ * @author Joachim Vandersmissen
+ */
+@RequiredArgsConstructor
+public class NioServerHandler implements Runnable {
+    protected final @NonNull NioHttpServer httpServer;
+    protected final @NonNull ServerSocketChannel serverSocketChannel;
+    @Getter
+    protected final AcceptMetrics acceptMetrics = new AcceptMetrics();
+    @Getter
+    protected boolean stopped;
+
+    /**
+     * Stops the server handler.
+     */
+    public void stop() throws IOException {
+        this.stopped = true;
+        this.serverSocketChannel.close();
+    }
+
+    @Override
+    @SneakyThrows(IOException.class)
+    public void run() {
+        while (!this.stopped) {
+            this.httpServer.acceptConnection(this.serverSocketChannel.accept());
+            this.acceptMetrics.record();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream remembering whether receiving the message body of a request failed.
+ * Tells a malformed or truncated request apart from a failing request handler, even if the handler wrapped the exception.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class RequestBodyInputStream extends FilterInputStream {
+    @Getter
+    protected boolean failed;
+
+    /**
+     * Constructs a new request body input stream.
+     *
+     * @param inputStream the message body
+     */
+    public RequestBodyInputStream(@NonNull InputStream inputStream) {
+        super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+        try {
+            return this.in.read();
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        try {
+            return this.in.read(b, off, len);
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        try {
+            return this.in.skip(n);
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        try {
+            return this.in.available();
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import com.jvdsn.feather.shared.contentcoding.DeflateContentCoding;
+import com.jvdsn.feather.shared.contentcoding.GzipContentCoding;
+import com.jvdsn.feather.shared.header.AcceptEncoding;
+import com.jvdsn.feather.shared.header.ContentEncoding;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.ContentType;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.media.MediaType;
+import com.jvdsn.feather.shared.media.TextMediaType;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compresses responses with a content coding the client accepts.
+ * Only representations of a compressible media type and of at least a minimum size are compressed,
+ * the content coding with the highest quality in the Accept-Encoding header is picked, ties are broken by the order of the content codings of this compression.
+ * Compressed representations can be cached in a compressed variant cache, so static representations are compressed once.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+public class ResponseCompression {
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final String VARY_ACCEPT_ENCODING = Header.ACCEPT_ENCODING;
+
+    protected final List<ContentCoding> contentCodings;
+    protected final int minSize;
+    protected final CompressedVariantCache variantCache;
+
+    /**
+     * Constructs a new response compression.
+     *
+     * @param contentCodings the content codings to compress with, in order of preference
+     * @param minSize        the minimum size of a representation to compress
+     * @param variantCache   the cache to keep compressed variants of static representations in, or null to compress them for every request
+     */
+    public ResponseCompression(@NonNull List<ContentCoding> contentCodings, int minSize, CompressedVariantCache variantCache) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Negative minimum size " + minSize);
+        }
+
+        this.contentCodings = new ArrayList<>(contentCodings);
+        this.minSize = minSize;
+        this.variantCache = variantCache;
+    }
+
+    /**
+     * Constructs a new response compression preferring gzip over deflate, compressing representations of at least 1 KiB,
+     * with a compressed variant cache of 16 MiB.
+     */
+    public ResponseCompression() {
+        this(Arrays.asList(new GzipContentCoding(), new DeflateContentCoding()), DEFAULT_MIN_SIZE, new CompressedVariantCache());
+    }
+
+    /**
+     * Returns true if representations of a media type are worth compressing.
+     * Subclasses can override this method to compress other media types.
+     *
+     * @param mediaType the media type
+     * @return true for text, JSON, XML and JavaScript, false otherwise
+     */
+    public boolean isCompressible(MediaType mediaType) {
+        if (mediaType instanceof TextMediaType) {
+            return true;
+        }
+
+        String subtype = mediaType.getSubtype();
+        return subtype.equals("json") || subtype.endsWith("+json") || subtype.equals("xml") || subtype.endsWith("+xml") || subtype.equals("javascript");
+    }
+
+    /**
+     * Picks the content coding to compress a representation with.
+     *
+     * @param request   the request
+     * @param mediaType the media type of the representation
+     * @param length    the length of the representation, or -1 if it is unknown
+     * @return an optional containing the content coding, or an empty optional if the representation should be sent as is
+     */
+    public Optional<ContentCoding> negotiate(HttpRequest request, MediaType mediaType, long length) {
+        if ((length != -1 && length < this.minSize) || !this.isCompressible(mediaType)) {
+            return Optional.empty();
+        }
+
+        Optional<AcceptEncoding> acceptEncoding = request.getHeaders().get(Header.ACCEPT_ENCODING, AcceptEncoding.class);
+        if (!acceptEncoding.isPresent()) {
+            return Optional.empty();
+        }
+
+        ContentCoding best = null;
+        double bestQuality = 0;
+        for (ContentCoding contentCoding : this.contentCodings) {
+            double quality = acceptEncoding.get().getQuality(contentCoding.getIdentifier());
+            if (quality > bestQuality) {
+                best = contentCoding;
+                bestQuality = quality;
+            }
+        }
+
+        return Optional.ofNullable(best);
+    }
+
+    /**
+     * Picks the content coding to compress a response with, based on its headers.
+     * Responses that are already encoded or don't have a content type are sent as is.
+     *
+     * @param request the request
+     * @param headers the headers of the response
+     * @return an optional containing the content coding, or an empty optional if the response should be sent as is
+     */
+    public Optional<ContentCoding> negotiate(HttpRequest request, Headers headers) {
+        Optional<ContentType> contentType = headers.get(Header.CONTENT_TYPE, ContentType.class);
+        if (!contentType.isPresent() || headers.contains(Header.CONTENT_ENCODING)) {
+            return Optional.empty();
+        }
+
+        return this.negotiate(request, contentType.get().getMediaType(), headers.getContentLength(-1));
+    }
+
+    /**
+     * Adds Accept-Encoding to the Vary header, since the representation depends on it.
+     *
+     * @param builder the builder of the headers of the response
+     * @param headers the current headers of the response
+     * @return the builder
+     */
+    public static Headers.Builder vary(Headers.Builder builder, Headers headers) {
+        Optional<UnknownHeader> vary = headers.get(Header.VARY, UnknownHeader.class);
+        if (!vary.isPresent()) {
+            return builder.with(Header.VARY, new UnknownHeader(VARY_ACCEPT_ENCODING));
+        }
+
+        for (String fieldName : vary.get().getValue().split(",")) {
+            if (fieldName.trim().equalsIgnoreCase(VARY_ACCEPT_ENCODING) || fieldName.trim().equals("*")) {
+                return builder;
+            }
+        }
+
+        return builder.with(Header.VARY, new UnknownHeader(vary.get().getValue() + ", " + VARY_ACCEPT_ENCODING));
+    }
+
+    /**
+     * Returns the headers of a compressed response.
+     *
+     * @param headers       the headers of the uncompressed response
+     * @param contentCoding the content coding the response is compressed with
+     * @param length        the length of the compressed message body, or -1 if it is streamed
+     * @return the headers
+     */
+    public static Headers encode(Headers headers, ContentCoding contentCoding, long length) {
+        Headers.Builder builder = headers.toBuilder().with(Header.CONTENT_ENCODING, new ContentEncoding(contentCoding));
+        if (length == -1) {
+            builder.without(Header.CONTENT_LENGTH);
+        } else {
+            builder.with(Header.CONTENT_LENGTH, new ContentLength(length));
+        }
+
+        return vary(builder, headers).build();
+    }
+
+    /**
+     * Sends a response and its message body, compressing the message body if the client accepts it and it is worth it.
+     * The message body of a response to a HEAD request is not sent, but its compressed length is.
+     *
+     * @param client   the client
+     * @param request  the request
+     * @param response the response, which should have a Content-Type
+     * @param body     the uncompressed message body
+     */
+    public void sendResponse(HttpAgent client, HttpRequest request, HttpResponse response, byte[] body) throws IOException {
+        Headers headers = response.getHeaders().toBuilder().with(Header.CONTENT_LENGTH, new ContentLength(body.length)).build();
+        Optional<ContentCoding> contentCoding = this.negotiate(request, headers);
+        if (contentCoding.isPresent()) {
+            byte[] compressed = contentCoding.get().encode(body, 0, body.length);
+            // Tiny or already compressed data can grow, in which case the client is better off with the original.
+            if (compressed.length < body.length) {
+                headers = encode(headers, contentCoding.get(), compressed.length);
+                body = compressed;
+            }
+        }
+
+        if (this.isCompressible(headers)) {
+            headers = vary(headers.toBuilder(), headers).build();
+        }
+
+        client.sendResponse(new HttpResponse(response.getHttpVersion(), response.getStatusCode(), response.getStatusMessage(), headers));
+        if (request.getRequestMethod() != RequestMethod.HEAD) {
+            client.sendMessageBody(headers, body);
+        }
+    }
+
+    /**
+     * Sends a response and opens a stream to send its message body, compressing it while it is written if the client accepts it.
+     * Compressed message bodies have no Content-Length, so they are framed as described by {@link HttpAgent#sendResponseWithBodyStream(HttpRequest, HttpResponse)}.
+     * Flushing the returned stream sends the data compressed so far.
+     * Closing the returned stream finishes the message body.
+     *
+     * @param client   the client
+     * @param request  the request
+     * @param response the response, which should have a Content-Type
+     * @return the message body stream
+     */
+    public OutputStream sendResponseWithBodyStream(HttpAgent client, HttpRequest request, HttpResponse response) throws IOException {
+        Headers headers = response.getHeaders();
+        Optional<ContentCoding> contentCoding = this.negotiate(request, headers);
+        if (!contentCoding.isPresent()) {
+            if (this.isCompressible(headers)) {
+                headers = vary(headers.toBuilder(), headers).build();
+            }
+
+            return client.sendResponseWithBodyStream(request, new HttpResponse(response.getHttpVersion(), response.getStatusCode(), response.getStatusMessage(), headers));
+        }
+
+        headers = encode(headers, contentCoding.get(), -1);
+        OutputStream outputStream = client.sendResponseWithBodyStream(request, new HttpResponse(response.getHttpVersion(), response.getStatusCode(), response.getStatusMessage(), headers));
+        return contentCoding.get().openOutputStream(outputStream);
+    }
+
+    /**
+     * Returns true if the representation of a response could be compressed for other clients, in which case caches should vary on Accept-Encoding.
+     *
+     * @param headers the headers of the response
+     * @return true if the response is compressible, false otherwise
+     */
+    protected boolean isCompressible(Headers headers) {
+        Optional<ContentType> contentType = headers.get(Header.CONTENT_TYPE, ContentType.class);
+        return contentType.isPresent() && !headers.contains(Header.CONTENT_ENCODING) && this.isCompressible(contentType.get().getMediaType());
+    }
+}
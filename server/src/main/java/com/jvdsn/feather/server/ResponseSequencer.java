@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.HttpAgent;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+
+/**
+ * Sends the responses to concurrently handled pipelined requests in the order the requests were received.
+ * Responses that are ready at the same time are sent with a single flush, so small responses share a single write.
+ * The amount of pending responses is capped, every pending response holds an encoded response in memory.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class ResponseSequencer {
+    public static final int DEFAULT_MAX_PENDING = 16;
+
+    protected final HttpAgent client;
+    protected final int maxPending;
+    protected final Deque<PendingResponse> pending = new ArrayDeque<>();
+
+    /**
+     * Constructs a new response sequencer.
+     *
+     * @param client     the client to send the responses to
+     * @param maxPending the maximum amount of pending responses
+     */
+    public ResponseSequencer(@NonNull HttpAgent client, int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Invalid maximum pending responses " + maxPending);
+        }
+
+        this.client = client;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Constructs a new response sequencer allowing {@link #DEFAULT_MAX_PENDING} pending responses.
+     *
+     * @param client the client to send the responses to
+     */
+    public ResponseSequencer(@NonNull HttpAgent client) {
+        this(client, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Reserves the next place in the order of responses.
+     * Blocks while the maximum amount of responses is pending, until the earliest pending response was sent.
+     *
+     * @return the pending response, which must be completed
+     */
+    public synchronized PendingResponse reserve() throws IOException {
+        while (this.pending.size() >= this.maxPending) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        PendingResponse response = new PendingResponse();
+        this.pending.add(response);
+        return response;
+    }
+
+    /**
+     * Completes a pending response, sending it and all following ready responses if all earlier responses were sent.
+     * If the response closes the connection, the responses to the requests after it are discarded.
+     *
+     * @param response the pending response
+     * @param data     the encoded response
+     * @param closing  true if the response closes the connection
+     */
+    public synchronized void complete(PendingResponse response, byte[] data, boolean closing) {
+        response.data = data;
+        response.closing = closing;
+        try {
+            boolean sent = false;
+            while (!this.pending.isEmpty() && this.pending.peekFirst().data != null) {
+                PendingResponse next = this.pending.pollFirst();
+                this.client.sendBuffer(ByteBuffer.wrap(next.data));
+                sent = true;
+                if (next.closing) {
+                    this.pending.clear();
+                }
+            }
+
+            if (sent) {
+                this.client.flush();
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to send pipelined responses", e);
+            this.pending.clear();
+            try {
+                this.client.disconnect();
+            } catch (IOException ignored) {
+            }
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Returns true if some responses weren't sent yet.
+     *
+     * @return true if there are pending responses, false otherwise
+     */
+    public synchronized boolean isPending() {
+        return !this.pending.isEmpty();
+    }
+
+    /**
+     * Waits until all pending responses were sent, so the client can be written to directly again.
+     */
+    public synchronized void await() throws IOException {
+        while (!this.pending.isEmpty()) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * A response to a pipelined request that is being handled.
+     */
+    public static class PendingResponse {
+        protected byte[] data;
+        protected boolean closing;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.request.RequestMethod;
+import lombok.Getter;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The result of routing a request.
+ * Path parameters are recorded as offsets into the path and only converted to strings when they are requested,
+ * so a route match can be reused to route many requests without allocating.
+ * Route handlers should not keep a reference to the route match after handling the request.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class RouteMatch {
+    protected String path;
+    protected String[] parameterNames;
+    protected int[] starts = new int[4];
+    protected int[] ends = new int[4];
+    @Getter
+    protected int parameterCount;
+    protected int wildcardStart;
+    protected int wildcardEnd;
+    @Getter
+    protected RouteHandler handler;
+    @Getter
+    protected boolean pathMatched;
+    // Bit i is set if the path matched a route for the request method with ordinal i.
+    protected int allowedMethods;
+
+    /**
+     * Prepares this route match for routing a path.
+     *
+     * @param path          the path
+     * @param maxParameters the maximum amount of path parameters a route can have
+     */
+    protected void reset(String path, int maxParameters) {
+        this.path = path;
+        this.parameterNames = null;
+        if (this.starts.length < maxParameters) {
+            this.starts = new int[maxParameters];
+            this.ends = new int[maxParameters];
+        }
+
+        this.parameterCount = 0;
+        this.wildcardStart = -1;
+        this.handler = null;
+        this.pathMatched = false;
+        this.allowedMethods = 0;
+    }
+
+    /**
+     * Returns the request methods of the routes matching the path, regardless of the request method that was routed.
+     * These are the request methods for the Allow header of a 405 (Method Not Allowed) response.
+     *
+     * @return the request methods
+     */
+    public Set<RequestMethod> getAllowedMethods() {
+        Set<RequestMethod> allowedMethods = EnumSet.noneOf(RequestMethod.class);
+        for (RequestMethod requestMethod : RequestMethod.values()) {
+            if ((this.allowedMethods & 1 << requestMethod.ordinal()) != 0) {
+                allowedMethods.add(requestMethod);
+            }
+        }
+
+        return allowedMethods;
+    }
+
+    /**
+     * Returns the name of a path parameter.
+     *
+     * @param index the index of the path parameter
+     * @return the name
+     */
+    public String getParameterName(int index) {
+        if (index < 0 || index >= this.parameterCount) {
+            throw new IndexOutOfBoundsException("Parameter index " + index + " out of bounds for " + this.parameterCount + " parameters");
+        }
+
+        return this.parameterNames[index];
+    }
+
+    /**
+     * Returns the value of a path parameter.
+     *
+     * @param index the index of the path parameter
+     * @return the value
+     */
+    public String getParameter(int index) {
+        if (index < 0 || index >= this.parameterCount) {
+            throw new IndexOutOfBoundsException("Parameter index " + index + " out of bounds for " + this.parameterCount + " parameters");
+        }
+
+        return this.path.substring(this.starts[index], this.ends[index]);
+    }
+
+    /**
+     * Returns the value of a path parameter.
+     *
+     * @param name the name of the path parameter
+     * @return the value, or null if the route has no parameter with the name
+     */
+    public String getParameter(String name) {
+        for (int i = 0; i < this.parameterCount; i++) {
+            if (this.parameterNames[i].equals(name)) {
+                return this.getParameter(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the part of the path matched by the wildcard of the route.
+     *
+     * @return the part of the path, or null if the route has no wildcard
+     */
+    public String getWildcard() {
+        return this.wildcardStart == -1 ? null : this.path.substring(this.wildcardStart, this.wildcardEnd);
+    }
+}
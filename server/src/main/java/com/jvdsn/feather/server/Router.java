@@ -0,0 +1,405 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.request.HttpRequestHandler;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Routes requests to exactly one handler by request method, path and optionally host.
+ * Path patterns consist of literal segments, parameter segments like {id}, and optionally a wildcard * as last segment.
+ * Literal segments take precedence over parameter segments, which take precedence over wildcards.
+ * The patterns are compiled into a radix tree, which is replaced by a new tree whenever the routes change.
+ * Routing reads the current tree without locking or allocating.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class Router {
+    public static final char PATH_SEPARATOR = '/';
+    public static final char PARAMETER_START = '{';
+    public static final char PARAMETER_END = '}';
+    public static final char WILDCARD = '*';
+    public static final char QUERY_SEPARATOR = '?';
+
+    // Guarded by this router, only used to compile new trees.
+    protected final List<Route> routes = new ArrayList<>();
+    protected volatile Tree tree = new Tree(new Node(""), Collections.emptyMap(), 0, 0);
+
+    /**
+     * Registers a route handler for a request method and path pattern on any host.
+     *
+     * @param requestMethod the request method
+     * @param pattern       the path pattern, should start with /
+     * @param handler       the route handler
+     */
+    public void register(RequestMethod requestMethod, String pattern, RouteHandler handler) {
+        this.register(requestMethod, null, pattern, handler);
+    }
+
+    /**
+     * Registers a request handler for a request method and path pattern on any host.
+     * The request handler can't access the path parameters.
+     *
+     * @param requestMethod the request method
+     * @param pattern       the path pattern, should start with /
+     * @param handler       the request handler
+     */
+    public void register(RequestMethod requestMethod, String pattern, @NonNull HttpRequestHandler handler) {
+        this.register(requestMethod, null, pattern, (client, request, match, body) -> handler.handleRequest(client, request, body));
+    }
+
+    /**
+     * Registers a route handler for a request method and path pattern.
+     * Routes for a specific host take precedence over routes for any host.
+     *
+     * @param requestMethod the request method
+     * @param host          the host, or null for any host
+     * @param pattern       the path pattern, should start with /
+     * @param handler       the route handler
+     */
+    public synchronized void register(@NonNull RequestMethod requestMethod, String host, @NonNull String pattern, @NonNull RouteHandler handler) {
+        Route route = new Route(requestMethod, host == null ? null : host.toLowerCase(Locale.ROOT), pattern, parse(pattern), handler);
+        this.routes.add(route);
+        try {
+            this.tree = compile(this.routes);
+        } catch (IllegalArgumentException e) {
+            this.routes.remove(this.routes.size() - 1);
+            throw e;
+        }
+    }
+
+    /**
+     * Unregisters the route handler for a request method and path pattern.
+     *
+     * @param requestMethod the request method
+     * @param host          the host, or null for any host
+     * @param pattern       the path pattern
+     */
+    public synchronized void unregister(RequestMethod requestMethod, String host, String pattern) {
+        String lowerCaseHost = host == null ? null : host.toLowerCase(Locale.ROOT);
+        this.routes.removeIf(route -> route.requestMethod == requestMethod && route.pattern.equals(pattern)
+                && (lowerCaseHost == null ? route.host == null : lowerCaseHost.equals(route.host)));
+        this.tree = compile(this.routes);
+    }
+
+    /**
+     * Returns true if no routes are registered.
+     *
+     * @return true if empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return this.tree.size == 0;
+    }
+
+    /**
+     * Routes a request.
+     *
+     * @param requestMethod the request method
+     * @param host          the host of the request, or null if unknown
+     * @param resource      the requested resource, the query is ignored
+     * @param match         the route match to fill in, which is reset first
+     * @return true if a route handler was found, false otherwise
+     */
+    public boolean route(RequestMethod requestMethod, String host, String resource, RouteMatch match) {
+        Tree tree = this.tree;
+        int end = resource.indexOf(QUERY_SEPARATOR);
+        if (end == -1) {
+            end = resource.length();
+        }
+
+        match.reset(resource, tree.maxParameters);
+        if (host != null) {
+            Node root = tree.hosts.get(host.toLowerCase(Locale.ROOT));
+            if (root != null && match(root, resource, 0, end, requestMethod.ordinal(), match)) {
+                return true;
+            }
+        }
+
+        boolean pathMatched = match.pathMatched;
+        int allowedMethods = match.allowedMethods;
+        match.reset(resource, tree.maxParameters);
+        boolean matched = match(tree.root, resource, 0, end, requestMethod.ordinal(), match);
+        match.pathMatched |= pathMatched;
+        match.allowedMethods |= allowedMethods;
+        return matched;
+    }
+
+    /**
+     * Matches the rest of a path against a node, of which the prefix was already matched.
+     */
+    protected static boolean match(Node node, String path, int position, int end, int method, RouteMatch match) {
+        if (position == end && node.handlers != null) {
+            match.pathMatched = true;
+            match.allowedMethods |= node.methods;
+            if (node.handlers[method] != null) {
+                match.handler = node.handlers[method];
+                match.parameterNames = node.parameterNames[method];
+                return true;
+            }
+        }
+
+        if (position < end) {
+            int i = indexOf(node.indices, path.charAt(position));
+            if (i != -1) {
+                Node child = node.children[i];
+                int length = child.prefix.length();
+                if (length <= end - position && path.regionMatches(position, child.prefix, 0, length) && match(child, path, position + length, end, method, match)) {
+                    return true;
+                }
+            }
+
+            if (node.parameter != null && path.charAt(position) != PATH_SEPARATOR) {
+                int parameterEnd = path.indexOf(PATH_SEPARATOR, position);
+                if (parameterEnd == -1 || parameterEnd > end) {
+                    parameterEnd = end;
+                }
+
+                int parameterCount = match.parameterCount;
+                match.starts[parameterCount] = position;
+                match.ends[parameterCount] = parameterEnd;
+                match.parameterCount++;
+                if (match(node.parameter, path, parameterEnd, end, method, match)) {
+                    return true;
+                }
+
+                match.parameterCount = parameterCount;
+            }
+        }
+
+        if (node.wildcard != null) {
+            match.pathMatched = true;
+            match.allowedMethods |= node.wildcard.methods;
+            if (node.wildcard.handlers[method] != null) {
+                match.handler = node.wildcard.handlers[method];
+                match.parameterNames = node.wildcard.parameterNames[method];
+                match.wildcardStart = position;
+                match.wildcardEnd = end;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the index of a character in an array, or -1 if the array doesn't contain the character.
+     */
+    protected static int indexOf(char[] chars, char c) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a path pattern into literal, parameter and wildcard tokens.
+     * Parameter tokens are the names enclosed in braces, the wildcard token is a lone *.
+     *
+     * @param pattern the path pattern
+     * @return the tokens
+     */
+    protected static List<String> parse(String pattern) {
+        if (pattern.isEmpty() || pattern.charAt(0) != PATH_SEPARATOR) {
+            throw new IllegalArgumentException("Pattern " + pattern + " does not start with " + PATH_SEPARATOR);
+        }
+
+        List<String> tokens = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            boolean segmentStart = i > 0 && pattern.charAt(i - 1) == PATH_SEPARATOR;
+            if (c == PARAMETER_START && segmentStart) {
+                int j = pattern.indexOf(PARAMETER_END, i);
+                if (j == -1 || j == i + 1 || (j + 1 < pattern.length() && pattern.charAt(j + 1) != PATH_SEPARATOR)) {
+                    throw new IllegalArgumentException("Malformed parameter segment in pattern " + pattern);
+                }
+
+                tokens.add(literal.toString());
+                literal.setLength(0);
+                tokens.add(pattern.substring(i, j + 1));
+                i = j + 1;
+            } else if (c == WILDCARD && segmentStart && i == pattern.length() - 1) {
+                tokens.add(literal.toString());
+                literal.setLength(0);
+                tokens.add(String.valueOf(WILDCARD));
+                i++;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+
+        tokens.add(literal.toString());
+        return tokens;
+    }
+
+    /**
+     * Compiles routes into a new tree.
+     *
+     * @param routes the routes
+     * @return the tree
+     */
+    protected static Tree compile(List<Route> routes) {
+        Node root = new Node("");
+        Map<String, Node> hosts = new HashMap<>();
+        int maxParameters = 0;
+        for (Route route : routes) {
+            Node node = route.host == null ? root : hosts.computeIfAbsent(route.host, __ -> new Node(""));
+            List<String> parameterNames = new ArrayList<>();
+            for (String token : route.tokens) {
+                if (token.length() == 1 && token.charAt(0) == WILDCARD) {
+                    if (node.wildcard == null) {
+                        node.wildcard = new Node("");
+                    }
+
+                    node = node.wildcard;
+                } else if (!token.isEmpty() && token.charAt(0) == PARAMETER_START) {
+                    if (node.parameter == null) {
+                        node.parameter = new Node("");
+                    }
+
+                    node = node.parameter;
+                    parameterNames.add(token.substring(1, token.length() - 1));
+                } else {
+                    node = insert(node, token);
+                }
+            }
+
+            if (node.handlers == null) {
+                node.handlers = new RouteHandler[RequestMethod.values().length];
+                node.parameterNames = new String[RequestMethod.values().length][];
+            }
+
+            int method = route.requestMethod.ordinal();
+            if (node.handlers[method] != null) {
+                throw new IllegalArgumentException("Pattern " + route.pattern + " conflicts with an existing route for " + route.requestMethod);
+            }
+
+            node.handlers[method] = route.handler;
+            node.methods |= 1 << method;
+            node.parameterNames[method] = parameterNames.toArray(new String[0]);
+            maxParameters = Math.max(maxParameters, parameterNames.size());
+        }
+
+        return new Tree(root, hosts, maxParameters, routes.size());
+    }
+
+    /**
+     * Inserts a literal below a node, splitting the child sharing a prefix with the literal if needed.
+     *
+     * @param node    the node
+     * @param literal the literal
+     * @return the node matching the end of the literal
+     */
+    protected static Node insert(Node node, String literal) {
+        if (literal.isEmpty()) {
+            return node;
+        }
+
+        int i = indexOf(node.indices, literal.charAt(0));
+        if (i == -1) {
+            Node child = new Node(literal);
+            node.indices = Arrays.copyOf(node.indices, node.indices.length + 1);
+            node.indices[node.indices.length - 1] = literal.charAt(0);
+            node.children = Arrays.copyOf(node.children, node.children.length + 1);
+            node.children[node.children.length - 1] = child;
+            return child;
+        }
+
+        Node child = node.children[i];
+        int common = 0;
+        int max = Math.min(child.prefix.length(), literal.length());
+        while (common < max && child.prefix.charAt(common) == literal.charAt(common)) {
+            common++;
+        }
+
+        if (common < child.prefix.length()) {
+            Node split = new Node(child.prefix.substring(0, common));
+            child.prefix = child.prefix.substring(common);
+            split.indices = new char[]{child.prefix.charAt(0)};
+            split.children = new Node[]{child};
+            node.children[i] = split;
+            child = split;
+        }
+
+        return insert(child, literal.substring(common));
+    }
+
+    /**
+     * A registered route.
+     */
+    protected static class Route {
+        protected final RequestMethod requestMethod;
+        protected final String host;
+        protected final String pattern;
+        protected final List<String> tokens;
+        protected final RouteHandler handler;
+
+        protected Route(RequestMethod requestMethod, String host, String pattern, List<String> tokens, RouteHandler handler) {
+            this.requestMethod = requestMethod;
+            this.host = host;
+            this.pattern = pattern;
+            this.tokens = tokens;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * A compiled set of routes, which is never modified after it was published.
+     */
+    protected static class Tree {
+        protected final Node root;
+        protected final Map<String, Node> hosts;
+        protected final int maxParameters;
+        protected final int size;
+
+        protected Tree(Node root, Map<String, Node> hosts, int maxParameters, int size) {
+            this.root = root;
+            this.hosts = hosts;
+            this.maxParameters = maxParameters;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A node in the radix tree.
+     * The prefix is the literal part of the path matched by this node, the children are indexed by the first character of their prefix.
+     */
+    protected static class Node {
+        protected String prefix;
+        protected char[] indices = new char[0];
+        protected Node[] children = new Node[0];
+        protected Node parameter;
+        protected Node wildcard;
+        // Indexed by the ordinal of the request method, null if no route ends at this node.
+        protected RouteHandler[] handlers;
+        protected String[][] parameterNames;
+        // Bit i is set if a route for the request method with ordinal i ends at this node.
+        protected int methods;
+
+        protected Node(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+}
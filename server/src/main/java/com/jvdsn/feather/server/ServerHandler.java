@@ -28,6 +28,8 @@ public class ServerHandler implements Runnable {
     protected final @NonNull HttpServer httpServer;
     protected final @NonNull ServerSocket serverSocket;
     @Getter
+    protected final AcceptMetrics acceptMetrics = new AcceptMetrics();
+    @Getter
     protected boolean stopped;
 
     /**
@@ -43,6 +45,7 @@ public class ServerHandler implements Runnable {
     public void run() {
         while (!this.stopped) {
             this.httpServer.acceptConnection(this.serverSocket.accept());
+            this.acceptMetrics.record();
         }
     }
 }
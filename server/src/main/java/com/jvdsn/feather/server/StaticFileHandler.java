@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.ContentType;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.IfModifiedSince;
+import com.jvdsn.feather.shared.header.LastModified;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.media.MediaType;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.HttpRequestHandler;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Serves the files in a directory.
+ * File bodies are transferred to the connection by the operating system where possible, so they are never copied into memory.
+ * Frequently served files can be kept mapped into memory by a file cache.
+ * Compressible files can be compressed for clients accepting it, small files are compressed once and kept in the compressed variant cache.
+ * Should be registered for GET and HEAD requests.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class StaticFileHandler implements HttpRequestHandler {
+    public static final String INDEX_FILE = "index.html";
+    public static final MediaType DEFAULT_MEDIA_TYPE = MediaType.parse("application/octet-stream");
+    protected static final Map<String, MediaType> MEDIA_TYPES = new HashMap<>();
+
+    static {
+        MEDIA_TYPES.put("css", MediaType.parse("text/css;charset=utf-8"));
+        MEDIA_TYPES.put("csv", MediaType.parse("text/csv;charset=utf-8"));
+        MEDIA_TYPES.put("gif", MediaType.parse("image/gif"));
+        MEDIA_TYPES.put("gz", MediaType.parse("application/gzip"));
+        MEDIA_TYPES.put("htm", MediaType.parse("text/html;charset=utf-8"));
+        MEDIA_TYPES.put("html", MediaType.parse("text/html;charset=utf-8"));
+        MEDIA_TYPES.put("ico", MediaType.parse("image/x-icon"));
+        MEDIA_TYPES.put("jpeg", MediaType.parse("image/jpeg"));
+        MEDIA_TYPES.put("jpg", MediaType.parse("image/jpeg"));
+        MEDIA_TYPES.put("js", MediaType.parse("text/javascript;charset=utf-8"));
+        MEDIA_TYPES.put("json", MediaType.parse("application/json"));
+        MEDIA_TYPES.put("mjs", MediaType.parse("text/javascript;charset=utf-8"));
+        MEDIA_TYPES.put("mp3", MediaType.parse("audio/mpeg"));
+        MEDIA_TYPES.put("mp4", MediaType.parse("video/mp4"));
+        MEDIA_TYPES.put("otf", MediaType.parse("font/otf"));
+        MEDIA_TYPES.put("pdf", MediaType.parse("application/pdf"));
+        MEDIA_TYPES.put("png", MediaType.parse("image/png"));
+        MEDIA_TYPES.put("svg", MediaType.parse("image/svg+xml"));
+        MEDIA_TYPES.put("ttf", MediaType.parse("font/ttf"));
+        MEDIA_TYPES.put("txt", MediaType.parse("text/plain;charset=utf-8"));
+        MEDIA_TYPES.put("wasm", MediaType.parse("application/wasm"));
+        MEDIA_TYPES.put("webm", MediaType.parse("video/webm"));
+        MEDIA_TYPES.put("webp", MediaType.parse("image/webp"));
+        MEDIA_TYPES.put("woff", MediaType.parse("font/woff"));
+        MEDIA_TYPES.put("woff2", MediaType.parse("font/woff2"));
+        MEDIA_TYPES.put("xml", MediaType.parse("application/xml"));
+        MEDIA_TYPES.put("zip", MediaType.parse("application/zip"));
+    }
+
+    protected final Path root;
+    protected final FileCache fileCache;
+    protected final ResponseCompression compression;
+
+    /**
+     * Constructs a new static file handler.
+     *
+     * @param root        the directory containing the files to serve
+     * @param fileCache   the cache to keep frequently served files in, or null to read files for every request
+     * @param compression the compression of the served files, or null to serve them as is
+     */
+    public StaticFileHandler(@NonNull Path root, FileCache fileCache, ResponseCompression compression) {
+        this.root = root.toAbsolutePath().normalize();
+        this.fileCache = fileCache;
+        this.compression = compression;
+    }
+
+    /**
+     * Constructs a new static file handler without compression.
+     *
+     * @param root      the directory containing the files to serve
+     * @param fileCache the cache to keep frequently served files in, or null to read files for every request
+     */
+    public StaticFileHandler(@NonNull Path root, FileCache fileCache) {
+        this(root, fileCache, null);
+    }
+
+    /**
+     * Constructs a new static file handler without a file cache.
+     *
+     * @param root the directory containing the files to serve
+     */
+    public StaticFileHandler(@NonNull Path root) {
+        this(root, null);
+    }
+
+    /**
+     * Constructs the headers of a file response.
+     *
+     * @param file       the file
+     * @param attributes the attributes of the file
+     * @param length     the length of the message body
+     * @return the headers
+     */
+    protected Headers getHeaders(Path file, BasicFileAttributes attributes, long length) {
+        Headers.Builder builder = Headers.builder()
+                .with(Header.CONTENT_LENGTH, new ContentLength(length))
+                .with(Header.CONTENT_TYPE, new ContentType(getMediaType(file)))
+                .with(Header.LAST_MODIFIED, new LastModified(ZonedDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneOffset.UTC)));
+        if (this.compression != null && this.compression.isCompressible(getMediaType(file))) {
+            builder.with(Header.VARY, new UnknownHeader(ResponseCompression.VARY_ACCEPT_ENCODING));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the media type of a file by its extension.
+     *
+     * @param file the file
+     * @return the media type, or application/octet-stream if the extension is unknown
+     */
+    public static MediaType getMediaType(Path file) {
+        String fileName = file.getFileName().toString();
+        int i = fileName.lastIndexOf('.');
+        if (i == -1) {
+            return DEFAULT_MEDIA_TYPE;
+        }
+
+        return MEDIA_TYPES.getOrDefault(fileName.substring(i + 1).toLowerCase(Locale.ROOT), DEFAULT_MEDIA_TYPE);
+    }
+
+    /**
+     * Resolves the requested resource to a file in the root directory.
+     *
+     * @param resource the requested resource
+     * @return an optional containing the file, or an empty optional if the resource is outside of the root directory
+     */
+    protected Optional<Path> resolve(String resource) {
+        int i = resource.indexOf('?');
+        String path = i == -1 ? resource : resource.substring(0, i);
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        Path file = this.root.resolve(path).normalize();
+        return file.startsWith(this.root) ? Optional.of(file) : Optional.empty();
+    }
+
+    /**
+     * Sends a response without message body.
+     *
+     * @param client the client
+     * @param status the status of the response
+     */
+    protected void sendEmptyResponse(HttpAgent client, Status status) throws IOException {
+        client.sendResponse(new HttpResponse(status, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(0))));
+    }
+
+    /**
+     * Sends a file compressed with a content coding.
+     * Files fitting in the compressed variant cache are compressed once, larger files are compressed while they are sent.
+     *
+     * @param client        the client
+     * @param request       the request
+     * @param file          the file
+     * @param attributes    the attributes of the file
+     * @param cached        an optional containing the contents of the file if it is in the file cache
+     * @param contentCoding the content coding
+     * @return false if compressing the file isn't worth it and it should be sent as is
+     */
+    protected boolean sendCompressed(HttpAgent client, HttpRequest request, Path file, BasicFileAttributes attributes, Optional<ByteBuffer> cached, ContentCoding contentCoding) throws IOException {
+        CompressedVariantCache variantCache = this.compression.getVariantCache();
+        if (variantCache != null && attributes.size() <= variantCache.getMaxSourceSize()) {
+            // The file is only read if the variant has to be compressed.
+            ByteBuffer variant = variantCache.get(file, Arrays.asList(attributes.lastModifiedTime(), attributes.size()), contentCoding,
+                    () -> cached.isPresent() ? cached.get() : ByteBuffer.wrap(Files.readAllBytes(file)));
+            // Already compressed data can grow, in which case the client is better off with the original.
+            if (variant.remaining() >= attributes.size()) {
+                return false;
+            }
+
+            Headers headers = ResponseCompression.encode(this.getHeaders(file, attributes, variant.remaining()), contentCoding, variant.remaining());
+            client.sendResponse(new HttpResponse(Status.OK, headers));
+            if (request.getRequestMethod() != RequestMethod.HEAD) {
+                client.sendBuffer(variant);
+            }
+
+            return true;
+        }
+
+        // The compressed length of a large file isn't known without compressing it, so a HEAD request gets the uncompressed length.
+        if (request.getRequestMethod() == RequestMethod.HEAD) {
+            return false;
+        }
+
+        Headers headers = ResponseCompression.encode(this.getHeaders(file, attributes, attributes.size()), contentCoding, -1);
+        try (OutputStream outputStream = contentCoding.openOutputStream(client.sendResponseWithBodyStream(request, new HttpResponse(Status.OK, headers)))) {
+            Files.copy(file, outputStream);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void handleRequest(HttpAgent client, HttpRequest request, byte[] body) throws IOException {
+        Optional<Path> resolved = this.resolve(request.getResource());
+        if (!resolved.isPresent()) {
+            this.sendEmptyResponse(client, Status.NOT_FOUND);
+            return;
+        }
+
+        Path file = resolved.get();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                file = file.resolve(INDEX_FILE);
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            }
+        } catch (NoSuchFileException e) {
+            this.sendEmptyResponse(client, Status.NOT_FOUND);
+            return;
+        }
+
+        if (!attributes.isRegularFile()) {
+            this.sendEmptyResponse(client, Status.NOT_FOUND);
+            return;
+        }
+
+        // HTTP dates have a precision of one second.
+        long lastModified = attributes.lastModifiedTime().toInstant().getEpochSecond();
+        Optional<IfModifiedSince> ifModifiedSince = request.getHeaders().get(Header.IF_MODIFIED_SINCE, IfModifiedSince.class);
+        if (ifModifiedSince.isPresent() && lastModified <= ifModifiedSince.get().getDate().toEpochSecond()) {
+            client.sendResponse(new HttpResponse(Status.NOT_MODIFIED, new Headers()));
+            return;
+        }
+
+        Optional<ByteBuffer> cached = this.fileCache == null ? Optional.empty() : this.fileCache.get(file, attributes);
+        Optional<ContentCoding> contentCoding = this.compression == null ? Optional.empty() : this.compression.negotiate(request, getMediaType(file), attributes.size());
+        if (contentCoding.isPresent() && this.sendCompressed(client, request, file, attributes, cached, contentCoding.get())) {
+            return;
+        }
+
+        if (cached.isPresent()) {
+            client.sendResponse(new HttpResponse(Status.OK, this.getHeaders(file, attributes, cached.get().remaining())));
+            if (request.getRequestMethod() != RequestMethod.HEAD) {
+                client.sendBuffer(cached.get());
+            }
+
+            return;
+        }
+
+        // The file is only opened now, so conditional requests are answered without opening it.
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = fileChannel.size();
+            client.sendResponse(new HttpResponse(Status.OK, this.getHeaders(file, attributes, length)));
+            if (request.getRequestMethod() != RequestMethod.HEAD) {
+                client.sendFile(fileChannel, 0, length);
+            }
+        }
+    }
+}
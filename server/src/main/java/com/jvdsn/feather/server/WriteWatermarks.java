@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import lombok.Getter;
+
+/**
+ * The limits on the outgoing data queued for a client that doesn't read as fast as responses are written.
+ * Once more than the high watermark is queued, the connection becomes unwritable and writers block until the client read enough to drop below the low watermark.
+ * The gap between both watermarks keeps writers from waking up for every few bytes the client reads.
+ * A connection that stays unwritable for too long is dropped, so it doesn't hold on to a worker thread indefinitely.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+public class WriteWatermarks {
+    public static final int DEFAULT_LOW_WATERMARK = 1 << 19;
+    public static final int DEFAULT_HIGH_WATERMARK = 1 << 20;
+    public static final int DEFAULT_MAX_UNWRITABLE_MILLIS = 30000;
+
+    protected final int lowWatermark;
+    protected final int highWatermark;
+    protected final int maxUnwritableMillis;
+
+    /**
+     * Constructs new write watermarks.
+     *
+     * @param lowWatermark        the amount of queued bytes below which an unwritable connection becomes writable again
+     * @param highWatermark       the amount of queued bytes above which a connection becomes unwritable
+     * @param maxUnwritableMillis the maximum time a connection may stay unwritable, or {@link ConnectionTimeouts#UNLIMITED}
+     */
+    public WriteWatermarks(int lowWatermark, int highWatermark, int maxUnwritableMillis) {
+        if (lowWatermark < 0 || highWatermark < 1 || lowWatermark > highWatermark || maxUnwritableMillis < 0) {
+            throw new IllegalArgumentException("Invalid low watermark " + lowWatermark + ", high watermark " + highWatermark + " or maximum unwritable time " + maxUnwritableMillis);
+        }
+
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxUnwritableMillis = maxUnwritableMillis;
+    }
+
+    /**
+     * Constructs new write watermarks, queueing up to 1 MiB and dropping connections that stay unwritable for 30 seconds.
+     */
+    public WriteWatermarks() {
+        this(DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK, DEFAULT_MAX_UNWRITABLE_MILLIS);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HttpAgent;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket-level tests which are run against every server engine.
+ *
+ * @author Joachim Vandersmissen
+ */
+public abstract class AbstractHttpServerTest {
+    protected static final int LARGE_BODY_LENGTH = 8 * 1024 * 1024;
+    // Budgets of 300 milliseconds expire within two budgets and a few ticks of the timing wheel.
+    protected static final long DEADLINE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    protected HttpServer httpServer;
+
+    protected abstract HttpServer createServer() throws IOException;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.httpServer = this.createServer();
+        this.httpServer.getRouter().register(RequestMethod.GET, "/slow/{millis}", (client, request, match, body) -> {
+            try {
+                Thread.sleep(Long.parseLong(match.getParameter("millis")));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            respond(client, request.getResource().getBytes(StandardCharsets.US_ASCII));
+        });
+        this.httpServer.getRouter().register(RequestMethod.GET, "/large", (client, request, match, body) -> respond(client, largeBody()));
+        this.httpServer.getRouter().register(RequestMethod.GET, "/*", (client, request, match, body) -> respond(client, request.getResource().getBytes(StandardCharsets.US_ASCII)));
+        this.httpServer.getRouter().register(RequestMethod.POST, "/echo", (client, request, match, body) -> respond(client, body));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (this.httpServer.getPort() != -1) {
+            this.httpServer.stop();
+        }
+    }
+
+    /**
+     * Connects to the server, starting it first if needed so tests can configure it beforehand.
+     */
+    protected TestConnection connect(int receiveBufferSize) throws IOException {
+        if (this.httpServer.getPort() == -1) {
+            this.httpServer.start(0);
+        }
+
+        return new TestConnection(this.httpServer.getPort(), receiveBufferSize);
+    }
+
+    protected TestConnection connect() throws IOException {
+        return this.connect(0);
+    }
+
+    protected static void respond(HttpAgent client, byte[] body) throws IOException {
+        Headers headers = new Headers().with(Header.CONTENT_LENGTH, new ContentLength(body.length));
+        client.sendResponse(new HttpResponse(Status.OK, headers));
+        client.sendMessageBody(headers, body);
+    }
+
+    protected static byte[] largeBody() {
+        byte[] body = new byte[LARGE_BODY_LENGTH];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31 + (i >>> 16));
+        }
+
+        return body;
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            for (int i = 0; i < 3; i++) {
+                connection.write("GET /keep-alive/" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                TestConnection.Response response = connection.readResponse();
+                Assertions.assertEquals(200, response.status);
+                Assertions.assertEquals("/keep-alive/" + i, response.getBodyAsString());
+                Assertions.assertNotEquals("close", response.getHeader("connection"));
+            }
+        }
+    }
+
+    @Test
+    public void testPipeliningOrder() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /slow/300 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /slow/0 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /slow/100 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/slow/300", connection.readResponse().getBodyAsString());
+            Assertions.assertEquals("/slow/0", connection.readResponse().getBodyAsString());
+            Assertions.assertEquals("/slow/100", connection.readResponse().getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testPartialRequestHead() throws IOException, InterruptedException {
+        try (TestConnection connection = this.connect()) {
+            String request = "GET /partial HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            for (int i = 0; i < request.length(); i++) {
+                connection.write(request.substring(i, i + 1));
+                if (i % 8 == 0) {
+                    Thread.sleep(5);
+                }
+            }
+
+            TestConnection.Response response = connection.readResponse();
+            Assertions.assertEquals(200, response.status);
+            Assertions.assertEquals("/partial", response.getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testChunkedRequestBody() throws IOException, InterruptedException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n");
+            Thread.sleep(20);
+            connection.write("5\r\nhello\r\n");
+            Thread.sleep(20);
+            connection.write("1;name=value\r\n,\r\n6\r\n wor");
+            Thread.sleep(20);
+            connection.write("ld\r\n0\r\n");
+            Thread.sleep(20);
+            connection.write("Trailer: value\r\n\r\n");
+            TestConnection.Response response = connection.readResponse();
+            Assertions.assertEquals(200, response.status);
+            Assertions.assertEquals("hello, world", response.getBodyAsString());
+
+            // The connection can be reused after the chunked message body.
+            connection.write("GET /after-chunked HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/after-chunked", connection.readResponse().getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testMalformedRequestBody() throws IOException {
+        for (String chunkSize : new String[]{"-1", "+5", "x", "10000000000000000"}) {
+            try (TestConnection connection = this.connect()) {
+                connection.write("POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + chunkSize + "\r\nhello\r\n0\r\n\r\n");
+                TestConnection.Response response = connection.readResponse();
+                Assertions.assertEquals(400, response.status);
+                Assertions.assertEquals("close", response.getHeader("connection"));
+                Assertions.assertTrue(connection.isClosedByPeer());
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedContentLength() throws IOException {
+        for (String contentLength : new String[]{"abc", "-5", "+5", "99999999999999999999"}) {
+            try (TestConnection connection = this.connect()) {
+                // The earlier pipelined request is still answered first.
+                connection.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + contentLength + "\r\n\r\nhello");
+                Assertions.assertEquals("/first", connection.readResponse().getBodyAsString());
+                TestConnection.Response response = connection.readResponse();
+                Assertions.assertEquals(400, response.status);
+                Assertions.assertEquals("close", response.getHeader("connection"));
+                Assertions.assertTrue(connection.isClosedByPeer());
+            }
+        }
+    }
+
+    @Test
+    public void testLargeResponse() throws IOException, InterruptedException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            // Let the socket buffers fill up so the server has to wait until the response is writable again.
+            Thread.sleep(200);
+            TestConnection.Response response = connection.readResponse();
+            Assertions.assertEquals(200, response.status);
+            Assertions.assertArrayEquals(largeBody(), response.body);
+
+            connection.write("GET /after-large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/after-large", connection.readResponse().getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /close HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            TestConnection.Response response = connection.readResponse();
+            Assertions.assertEquals(200, response.status);
+            Assertions.assertEquals("close", response.getHeader("connection"));
+            Assertions.assertTrue(connection.isClosedByPeer());
+        }
+    }
+
+    @Test
+    public void testHttp10() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /http10 HTTP/1.0\r\nHost: localhost\r\n\r\n");
+            TestConnection.Response response = connection.readResponse();
+            Assertions.assertEquals(200, response.status);
+            Assertions.assertEquals("/http10", response.getBodyAsString());
+            Assertions.assertTrue(connection.isClosedByPeer());
+        }
+    }
+
+    @Test
+    public void testHttp10KeepAlive() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            for (int i = 0; i < 2; i++) {
+                connection.write("GET /http10/" + i + " HTTP/1.0\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+                TestConnection.Response response = connection.readResponse();
+                Assertions.assertEquals(200, response.status);
+                Assertions.assertEquals("/http10/" + i, response.getBodyAsString());
+            }
+        }
+    }
+
+    @Test
+    public void testMissingHost() throws IOException {
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /missing-host HTTP/1.1\r\n\r\n");
+            Assertions.assertEquals(400, connection.readResponse().status);
+        }
+    }
+
+    @Test
+    public void testDrain() throws IOException, InterruptedException {
+        try (TestConnection idle = this.connect(); TestConnection busy = this.connect()) {
+            idle.write("GET /idle HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/idle", idle.readResponse().getBodyAsString());
+            busy.write("GET /slow/500 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            // Let the slow request reach its handler before draining.
+            Thread.sleep(100);
+
+            this.httpServer.drain();
+            Assertions.assertTrue(idle.isClosedByPeer());
+            TestConnection.Response response = busy.readResponse();
+            Assertions.assertEquals("/slow/500", response.getBodyAsString());
+            Assertions.assertEquals("close", response.getHeader("connection"));
+            Assertions.assertTrue(busy.isClosedByPeer());
+        }
+
+        // New connections are closed after their first request.
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /drained HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("close", connection.readResponse().getHeader("connection"));
+            Assertions.assertTrue(connection.isClosedByPeer());
+        }
+    }
+
+    @Test
+    public void testIdleDeadline() throws IOException {
+        this.httpServer.setKeepAliveManager(new KeepAliveManager(KeepAliveManager.UNLIMITED_REQUESTS, 300, KeepAliveManager.DEFAULT_MEMORY_PRESSURE_THRESHOLD));
+        try (TestConnection connection = this.connect()) {
+            connection.write("GET /idle HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/idle", connection.readResponse().getBodyAsString());
+            long start = System.nanoTime();
+            Assertions.assertTrue(connection.isClosedByPeer());
+            Assertions.assertTrue(System.nanoTime() - start < DEADLINE_NANOS);
+        }
+    }
+
+    @Test
+    public void testHeaderDeadline() throws IOException {
+        this.httpServer.setConnectionTimeouts(new ConnectionTimeouts(300, ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED));
+        try (TestConnection connection = this.connect()) {
+            long start = System.nanoTime();
+            connection.write("GET /header HTTP/1.1\r\nHost: ");
+            Assertions.assertTrue(connection.isClosedByPeer());
+            Assertions.assertTrue(System.nanoTime() - start < DEADLINE_NANOS);
+        }
+    }
+
+    @Test
+    public void testBodyReadDeadline() throws IOException {
+        this.httpServer.setConnectionTimeouts(new ConnectionTimeouts(ConnectionTimeouts.UNLIMITED, 300, ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED));
+        try (TestConnection connection = this.connect()) {
+            long start = System.nanoTime();
+            connection.write("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\nab");
+            Assertions.assertTrue(connection.isClosedByPeer());
+            Assertions.assertTrue(System.nanoTime() - start < DEADLINE_NANOS);
+        }
+    }
+
+    @Test
+    public void testResponseWriteDeadline() throws IOException, InterruptedException {
+        this.httpServer.setConnectionTimeouts(new ConnectionTimeouts(ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED, 300, ConnectionTimeouts.UNLIMITED));
+        try (TestConnection connection = this.connect(4096)) {
+            connection.write("GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            // Stop reading until the stalled write exceeded its budget.
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(DEADLINE_NANOS));
+            Assertions.assertTrue(connection.drain() < LARGE_BODY_LENGTH);
+        }
+    }
+
+    @Test
+    public void testHandlerDeadline() throws IOException {
+        this.httpServer.setConnectionTimeouts(new ConnectionTimeouts(ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED, ConnectionTimeouts.UNLIMITED, 300));
+        try (TestConnection connection = this.connect()) {
+            long start = System.nanoTime();
+            connection.write("GET /slow/5000 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertTrue(connection.isClosedByPeer());
+            Assertions.assertTrue(System.nanoTime() - start < DEADLINE_NANOS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.Connection;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class BufferedHttpAgentTest {
+    @Test
+    public void testToByteArray() throws IOException {
+        BufferedHttpAgent agent = new BufferedHttpAgent(new Socket());
+        Assertions.assertEquals(0, agent.toByteArray().length);
+        Headers headers = new Headers().with(Header.CONTENT_LENGTH, new ContentLength(2));
+        agent.sendResponse(new HttpResponse(Status.OK, headers));
+        agent.sendMessageBody(headers, "ok".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\nContent-Length:2\r\n\r\nok", new String(agent.toByteArray(), StandardCharsets.US_ASCII));
+        Assertions.assertFalse(agent.isClosing());
+    }
+
+    /**
+     * Sends a response with a body stream, writing "body" to it.
+     */
+    private static String sendWithBodyStream(HttpRequest request, Status status) throws IOException {
+        BufferedHttpAgent agent = new BufferedHttpAgent(new Socket());
+        try (OutputStream outputStream = agent.sendResponseWithBodyStream(request, new HttpResponse(status, new Headers()))) {
+            outputStream.write("body".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return new String(agent.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testSendResponseWithBodyStream() throws IOException {
+        HttpRequest get = new HttpRequest(RequestMethod.GET, "/", new Headers());
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding:chunked\r\n\r\n4\r\nbody\r\n0\r\n\r\n", sendWithBodyStream(get, Status.OK));
+
+        // HTTP/1.0 clients don't know the chunked transfer coding.
+        HttpRequest get10 = new HttpRequest(RequestMethod.GET, "/", "HTTP/1.0", new Headers());
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\nConnection:close\r\n\r\nbody", sendWithBodyStream(get10, Status.OK));
+        BufferedHttpAgent agent = new BufferedHttpAgent(new Socket());
+        agent.sendResponseWithBodyStream(get10, new HttpResponse(Status.OK, new Headers())).close();
+        Assertions.assertTrue(agent.isClosing());
+
+        HttpRequest head = new HttpRequest(RequestMethod.HEAD, "/", new Headers());
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\n\r\n", sendWithBodyStream(head, Status.OK));
+        Assertions.assertEquals("HTTP/1.1 204 No Content\r\n\r\n", sendWithBodyStream(get, Status.NO_CONTENT));
+        Assertions.assertEquals("HTTP/1.1 304 Not Modified\r\n\r\n", sendWithBodyStream(get10, Status.NOT_MODIFIED));
+    }
+
+    @Test
+    public void testClosing() throws IOException {
+        BufferedHttpAgent agent = new BufferedHttpAgent(new Socket());
+        agent.setConnection(new Connection(Connection.CLOSE));
+        agent.sendResponse(new HttpResponse(Status.NO_CONTENT, new Headers()));
+        Assertions.assertTrue(agent.isClosing());
+        Assertions.assertTrue(new String(agent.toByteArray(), StandardCharsets.US_ASCII).contains("Connection:close\r\n"));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import com.jvdsn.feather.shared.contentcoding.DeflateContentCoding;
+import com.jvdsn.feather.shared.contentcoding.GzipContentCoding;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class CompressedVariantCacheTest {
+    private static final ContentCoding GZIP = new GzipContentCoding();
+
+    /**
+     * Returns data that doesn't compress, so its compressed size is slightly larger than its length.
+     */
+    private static ByteBuffer incompressible(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    private static byte[] decode(ContentCoding contentCoding, ByteBuffer variant) throws IOException {
+        byte[] compressed = new byte[variant.remaining()];
+        variant.duplicate().get(compressed);
+        return contentCoding.decode(compressed);
+    }
+
+    @Test
+    public void testCompressOnce() throws IOException {
+        CompressedVariantCache cache = new CompressedVariantCache();
+        ByteBuffer source = ByteBuffer.wrap(new byte[10000]);
+        AtomicInteger reads = new AtomicInteger();
+        CompressedVariantCache.Source counting = () -> {
+            reads.incrementAndGet();
+            return source.duplicate();
+        };
+
+        ByteBuffer first = cache.get("file", 1, GZIP, counting);
+        ByteBuffer second = cache.get("file", 1, GZIP, counting);
+        Assertions.assertEquals(1, reads.get());
+        Assertions.assertEquals(first, second);
+        Assertions.assertTrue(first.isReadOnly());
+        Assertions.assertArrayEquals(source.array(), decode(GZIP, first));
+
+        // Every content coding and every validator has its own variant.
+        ByteBuffer deflated = cache.get("file", 1, new DeflateContentCoding(), counting);
+        Assertions.assertArrayEquals(source.array(), decode(new DeflateContentCoding(), deflated));
+        cache.get("file", 2, GZIP, counting);
+        Assertions.assertEquals(3, reads.get());
+        Assertions.assertEquals(first.remaining() + deflated.remaining(), cache.getSize());
+    }
+
+    @Test
+    public void testMaxSourceSize() throws IOException {
+        CompressedVariantCache cache = new CompressedVariantCache(1 << 20, 100);
+        Assertions.assertFalse(cache.get("large", 1, GZIP, ByteBuffer.allocate(101)).isPresent());
+        Assertions.assertTrue(cache.get("small", 1, GZIP, ByteBuffer.allocate(100)).isPresent());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        int size = GZIP.encode(incompressible(1000, 0).array(), 0, 1000).length;
+        CompressedVariantCache cache = new CompressedVariantCache(2L * size, CompressedVariantCache.DEFAULT_MAX_SOURCE_SIZE);
+        cache.get("a", 1, GZIP, incompressible(1000, 0));
+        cache.get("b", 1, GZIP, incompressible(1000, 0));
+        // Using a makes b the least recently used variant.
+        cache.get("a", 1, GZIP, () -> Assertions.fail("Variant a was evicted"));
+        cache.get("c", 1, GZIP, incompressible(1000, 0));
+        Assertions.assertEquals(2L * size, cache.getSize());
+        cache.get("a", 1, GZIP, () -> Assertions.fail("Variant a was evicted"));
+        AtomicInteger reads = new AtomicInteger();
+        cache.get("b", 1, GZIP, () -> {
+            reads.incrementAndGet();
+            return incompressible(1000, 0);
+        });
+        Assertions.assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testVariantLargerThanBudget() throws IOException {
+        int size = GZIP.encode(incompressible(1000, 0).array(), 0, 1000).length;
+        CompressedVariantCache cache = new CompressedVariantCache(2L * size, CompressedVariantCache.DEFAULT_MAX_SOURCE_SIZE);
+        cache.get("small", 1, GZIP, incompressible(1000, 0));
+        cache.get("large", 1, GZIP, incompressible(10000, 1));
+        // The large variant is returned, but it doesn't evict the variants that fit.
+        Assertions.assertEquals(size, cache.getSize());
+        cache.get("small", 1, GZIP, () -> Assertions.fail("Variant small was evicted"));
+
+        // An outdated variant doesn't survive a new one that is too large.
+        cache.get("small", 2, GZIP, incompressible(10000, 1));
+        Assertions.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentCompression() throws Exception {
+        CompressedVariantCache cache = new CompressedVariantCache();
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(8);
+        CompressedVariantCache.Source slow = () -> {
+            reads.incrementAndGet();
+            try {
+                // Give the other requests time to find the compression in progress.
+                started.await(5, TimeUnit.SECONDS);
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return ByteBuffer.wrap(new byte[100000]);
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<ByteBuffer>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executorService.submit(() -> {
+                started.countDown();
+                return cache.get("file", 1, GZIP, slow);
+            }));
+        }
+
+        ByteBuffer first = futures.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<ByteBuffer> future : futures) {
+            Assertions.assertEquals(first, future.get(5, TimeUnit.SECONDS));
+        }
+
+        executorService.shutdown();
+        Assertions.assertEquals(1, reads.get());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.HostAndPort;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.Host;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ConcurrencyLimiterTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Fills the limit, then releases every request with the same latency, the last one after a sample window passed.
+     */
+    private static void window(ConcurrencyLimiter limiter, AtomicLong clock, long latencyMillis) throws IOException {
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            Assertions.assertTrue(limiter.acquire());
+        }
+
+        for (int i = 0; i < limit - 1; i++) {
+            limiter.release(latencyMillis * MILLIS);
+        }
+
+        clock.addAndGet(ConcurrencyLimiter.SAMPLE_WINDOW_NANOS);
+        limiter.release(latencyMillis * MILLIS);
+        Assertions.assertEquals(0, limiter.windowSamples);
+
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(20, 0, 1000, 100, 50));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(2, 4, 1000, 100, 50));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(20, 4, 10, 100, 50));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(20, 4, 1000, -1, 50));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(20, 4, 1000, 100, -1));
+        Assertions.assertEquals(ConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, new ConcurrencyLimiter().getLimit());
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        AtomicLong clock = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 10, 1000, 0, 0, clock::get);
+        for (int i = 0; i < 20; i++) {
+            window(limiter, clock, 10);
+        }
+
+        // The limit grows while the latency is stable.
+        int stable = limiter.getLimit();
+        Assertions.assertTrue(stable > 20, "Limit " + stable);
+
+        for (int i = 0; i < 10; i++) {
+            int limit = limiter.getLimit();
+            window(limiter, clock, 100);
+            Assertions.assertTrue(limiter.getLimit() < limit || limiter.getLimit() == 10, "Limit " + limiter.getLimit() + " after " + limit);
+        }
+
+        // The limit shrinks as soon as the latency rises.
+        int overloaded = limiter.getLimit();
+        Assertions.assertTrue(overloaded < stable * 3 / 4, "Limit " + overloaded + " after " + stable);
+
+        for (int i = 0; i < 20; i++) {
+            window(limiter, clock, 10);
+        }
+
+        // The limit recovers once the latency falls again.
+        Assertions.assertTrue(limiter.getLimit() > overloaded, "Limit " + limiter.getLimit() + " after " + overloaded);
+    }
+
+    @Test
+    public void testIdle() throws IOException {
+        AtomicLong clock = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 4, 1000, 0, 0, clock::get);
+        for (int i = 0; i < 20; i++) {
+            // A single request at a time says nothing about the capacity of the server.
+            for (int j = 0; j < 10; j++) {
+                Assertions.assertTrue(limiter.acquire());
+                limiter.release(10 * MILLIS);
+            }
+
+            clock.addAndGet(ConcurrencyLimiter.SAMPLE_WINDOW_NANOS);
+        }
+
+        Assertions.assertTrue(limiter.getLimit() <= 20, "Limit " + limiter.getLimit());
+    }
+
+    @Test
+    public void testFullQueue() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, TimeUnit.MINUTES.toMillis(1));
+        Assertions.assertTrue(limiter.acquire());
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.acquire();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueued() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        Assertions.assertEquals(1, limiter.getQueued());
+        // The queue is full, so the request is rejected without waiting for the queue timeout.
+        long start = System.nanoTime();
+        Assertions.assertFalse(limiter.acquire());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assertions.assertEquals(1, limiter.getRejected());
+
+        limiter.release(MILLIS);
+        Assertions.assertTrue(queued.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, limiter.getInFlight());
+        Assertions.assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testQueueTimeout() throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, 20);
+        Assertions.assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        Assertions.assertFalse(limiter.acquire());
+        Assertions.assertTrue(System.nanoTime() - start >= 20 * MILLIS);
+        Assertions.assertEquals(1, limiter.getRejected());
+        Assertions.assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testQueueTimeoutClock() throws IOException {
+        // Every reading of the clock is a minute later, so the queue timeout passes without actually waiting for it.
+        AtomicLong clock = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, TimeUnit.SECONDS.toMillis(30), () -> clock.addAndGet(TimeUnit.MINUTES.toNanos(1)));
+        Assertions.assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        Assertions.assertFalse(limiter.acquire());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assertions.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void testRelease() throws IOException {
+        AtomicLong clock = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 0, clock::get);
+        HttpServer httpServer = new HttpServer();
+        try {
+            httpServer.setConcurrencyLimiter(limiter);
+            httpServer.getRouter().register(RequestMethod.GET, "/io", (client, request, match, body) -> {
+                clock.addAndGet(5 * MILLIS);
+                throw new IOException("Handler failed");
+            });
+            httpServer.getRouter().register(RequestMethod.GET, "/runtime", (client, request, match, body) -> {
+                throw new IllegalStateException("Handler failed");
+            });
+
+            for (String resource : new String[]{"/io", "/runtime", "/io"}) {
+                BufferedHttpAgent client = new BufferedHttpAgent(new Socket());
+                Headers headers = new Headers().with(Header.HOST, new Host(HostAndPort.parse("localhost")));
+                httpServer.handleRequest(client, new HttpRequest(RequestMethod.GET, resource, headers), new ByteArrayInputStream(new byte[0]));
+                Assertions.assertTrue(new String(client.toByteArray(), StandardCharsets.US_ASCII).startsWith("HTTP/1.1 500 "));
+                // The place was released, otherwise the next request would be rejected with 503.
+                Assertions.assertEquals(0, limiter.getInFlight());
+            }
+
+            Assertions.assertEquals(0, limiter.getRejected());
+            Assertions.assertEquals(3, limiter.windowSamples);
+            Assertions.assertEquals(10 * MILLIS, limiter.windowLatency);
+        } finally {
+            httpServer.executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ConnectionDeadlineTest {
+    @Test
+    public void testCheckInterval() {
+        int unlimited = ConnectionTimeouts.UNLIMITED;
+        Assertions.assertEquals(unlimited, ConnectionDeadline.getCheckIntervalMillis(new ConnectionTimeouts(1000, unlimited, unlimited, unlimited)));
+        Assertions.assertEquals(300, ConnectionDeadline.getCheckIntervalMillis(new ConnectionTimeouts(1000, unlimited, 300, unlimited)));
+        Assertions.assertEquals(200, ConnectionDeadline.getCheckIntervalMillis(new ConnectionTimeouts(1000, 500, 300, 200)));
+        Assertions.assertEquals(100, ConnectionDeadline.getCheckIntervalMillis(new ConnectionTimeouts(1000, 100, unlimited, 200)));
+    }
+}
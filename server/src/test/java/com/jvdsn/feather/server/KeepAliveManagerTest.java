@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.Connection;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class KeepAliveManagerTest {
+    private static HttpRequest request(String httpVersion, String connection) {
+        Headers headers = new Headers();
+        if (connection != null) {
+            headers = headers.with(Header.CONNECTION, new Connection(connection));
+        }
+
+        return new HttpRequest(RequestMethod.GET, "/", httpVersion, headers);
+    }
+
+    private static String getConnection(KeepAliveManager keepAliveManager, HttpRequest request, int requests) {
+        Connection connection = keepAliveManager.getConnection(request, requests);
+        return connection == null ? null : connection.serialize();
+    }
+
+    @Test
+    public void testHttp11() {
+        KeepAliveManager keepAliveManager = new KeepAliveManager();
+        Assertions.assertNull(getConnection(keepAliveManager, request("HTTP/1.1", null), 1));
+        Assertions.assertNull(getConnection(keepAliveManager, request("HTTP/1.1", "keep-alive"), 1));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request("HTTP/1.1", "close"), 1));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request("HTTP/1.1", "Upgrade, Close"), 1));
+    }
+
+    @Test
+    public void testHttp10() {
+        KeepAliveManager keepAliveManager = new KeepAliveManager();
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request(KeepAliveManager.HTTP_1_0, null), 1));
+        Assertions.assertEquals(Connection.KEEP_ALIVE, getConnection(keepAliveManager, request(KeepAliveManager.HTTP_1_0, "Keep-Alive"), 1));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request(KeepAliveManager.HTTP_1_0, "close"), 1));
+    }
+
+    @Test
+    public void testMaxRequests() {
+        KeepAliveManager keepAliveManager = new KeepAliveManager(3, 1000, KeepAliveManager.DEFAULT_MEMORY_PRESSURE_THRESHOLD);
+        Assertions.assertNull(getConnection(keepAliveManager, request("HTTP/1.1", null), 1));
+        Assertions.assertNull(getConnection(keepAliveManager, request("HTTP/1.1", null), 2));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request("HTTP/1.1", null), 3));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request(KeepAliveManager.HTTP_1_0, "keep-alive"), 3));
+    }
+
+    @Test
+    public void testDraining() {
+        KeepAliveManager keepAliveManager = new KeepAliveManager();
+        Assertions.assertFalse(keepAliveManager.isDraining());
+        keepAliveManager.drain();
+        Assertions.assertTrue(keepAliveManager.isDraining());
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request("HTTP/1.1", null), 1));
+        Assertions.assertEquals(Connection.CLOSE, getConnection(keepAliveManager, request(KeepAliveManager.HTTP_1_0, "keep-alive"), 1));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new KeepAliveManager(-1, 1000, KeepAliveManager.DEFAULT_MEMORY_PRESSURE_THRESHOLD));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new KeepAliveManager(0, -1, KeepAliveManager.DEFAULT_MEMORY_PRESSURE_THRESHOLD));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new KeepAliveManager(0, 1000, 0));
+    }
+}
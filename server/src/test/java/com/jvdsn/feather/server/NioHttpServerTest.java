@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class NioHttpServerTest extends AbstractHttpServerTest {
+    protected static final int CHUNK_LENGTH = 16 * 1024;
+    // Larger than the socket buffers, so the outgoing queue has to grow.
+    protected static final int CHUNKS = 1024;
+
+    // How often the streaming handler found the connection unwritable.
+    protected final AtomicInteger unwritable = new AtomicInteger();
+    // Completes once the streaming handler wrote the whole body, or failed to.
+    protected final CompletableFuture<Void> streamed = new CompletableFuture<>();
+
+    @Override
+    protected HttpServer createServer() throws IOException {
+        return new NioHttpServer(2);
+    }
+
+    protected static byte[] chunk(int i) {
+        byte[] chunk = new byte[CHUNK_LENGTH];
+        Arrays.fill(chunk, (byte) i);
+        return chunk;
+    }
+
+    @BeforeEach
+    public void registerStream() {
+        ((NioHttpServer) this.httpServer).setWriteWatermarks(new WriteWatermarks(16 * 1024, 64 * 1024, 1000));
+        // Writes a large body in chunks, waiting whenever the client doesn't keep up.
+        this.httpServer.getRouter().register(RequestMethod.GET, "/stream", (client, request, match, body) -> {
+            Headers headers = new Headers().with(Header.CONTENT_LENGTH, new ContentLength(CHUNKS * CHUNK_LENGTH));
+            client.sendResponse(new HttpResponse(Status.OK, headers));
+            try {
+                OutputStream outputStream = client.sendMessageBodyStream(headers);
+                for (int i = 0; i < CHUNKS; i++) {
+                    if (!client.isWritable()) {
+                        this.unwritable.incrementAndGet();
+                        client.whenWritable().get(10, TimeUnit.SECONDS);
+                    }
+
+                    outputStream.write(chunk(i));
+                    outputStream.flush();
+                }
+
+                outputStream.close();
+                this.streamed.complete(null);
+            } catch (ExecutionException e) {
+                this.streamed.completeExceptionally(e.getCause());
+            } catch (Exception e) {
+                this.streamed.completeExceptionally(e);
+            }
+        });
+    }
+
+    @Test
+    public void testSlowReader() throws Exception {
+        try (TestConnection connection = this.connect(4096)) {
+            connection.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            // Let the queue grow past the high watermark.
+            Thread.sleep(200);
+            Assertions.assertEquals("HTTP/1.1 200 OK", connection.readLine());
+            while (!connection.readLine().isEmpty()) {
+                // Skip the headers.
+            }
+
+            for (int i = 0; i < CHUNKS; i++) {
+                Assertions.assertArrayEquals(chunk(i), connection.readFully(CHUNK_LENGTH));
+            }
+
+            this.streamed.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(this.unwritable.get() > 0);
+
+            // The connection is still usable after it became writable again.
+            connection.write("GET /after-stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            Assertions.assertEquals("/after-stream", connection.readResponse().getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testUnwritableDeadline() throws Exception {
+        try (TestConnection connection = this.connect(4096)) {
+            connection.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            // Never read, so the connection stays unwritable until it is dropped.
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> this.streamed.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof ClosedChannelException);
+            Assertions.assertTrue(this.unwritable.get() > 0);
+            Assertions.assertTrue(connection.drain() < (long) CHUNKS * CHUNK_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import com.jvdsn.feather.shared.contentcoding.DeflateContentCoding;
+import com.jvdsn.feather.shared.contentcoding.GzipContentCoding;
+import com.jvdsn.feather.shared.header.AcceptEncoding;
+import com.jvdsn.feather.shared.header.ContentEncoding;
+import com.jvdsn.feather.shared.header.ContentType;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.media.MediaType;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ResponseCompressionTest {
+    private static final MediaType TEXT = MediaType.parse("text/plain");
+
+    private final ResponseCompression compression = new ResponseCompression(Arrays.asList(new GzipContentCoding(), new DeflateContentCoding()), 100, null);
+
+    private static HttpRequest request(String acceptEncoding) {
+        Headers headers = new Headers();
+        if (acceptEncoding != null) {
+            headers = headers.with(Header.ACCEPT_ENCODING, new AcceptEncoding().deserialize(acceptEncoding));
+        }
+
+        return new HttpRequest(RequestMethod.GET, "/", headers);
+    }
+
+    private Optional<String> negotiate(String acceptEncoding, MediaType mediaType, long length) {
+        return this.compression.negotiate(request(acceptEncoding), mediaType, length).map(ContentCoding::getIdentifier);
+    }
+
+    @Test
+    public void testNegotiate() {
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("gzip, deflate", TEXT, 1000));
+        Assertions.assertEquals(Optional.of(ContentCoding.DEFLATE), this.negotiate("gzip;q=0.5, deflate", TEXT, 1000));
+        // Ties are broken by the order of the content codings, not by the order of the header.
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("deflate, gzip", TEXT, 1000));
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("*", TEXT, 1000));
+        Assertions.assertEquals(Optional.empty(), this.negotiate(null, TEXT, 1000));
+        Assertions.assertEquals(Optional.empty(), this.negotiate("identity", TEXT, 1000));
+        Assertions.assertEquals(Optional.empty(), this.negotiate("gzip;q=0, deflate;q=0", TEXT, 1000));
+        Assertions.assertEquals(Optional.empty(), this.negotiate("gzip", MediaType.parse("image/png"), 1000));
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("gzip", MediaType.parse("application/json"), 1000));
+        Assertions.assertEquals(Optional.empty(), this.negotiate("gzip", TEXT, 99));
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("gzip", TEXT, 100));
+        // Streamed representations of unknown length are compressed.
+        Assertions.assertEquals(Optional.of(ContentCoding.GZIP), this.negotiate("gzip", TEXT, -1));
+    }
+
+    @Test
+    public void testNegotiateHeaders() {
+        HttpRequest request = request("gzip");
+        Headers headers = new Headers().with(Header.CONTENT_TYPE, new ContentType(TEXT));
+        Assertions.assertTrue(this.compression.negotiate(request, headers).isPresent());
+        Assertions.assertFalse(this.compression.negotiate(request, new Headers()).isPresent());
+        Headers encoded = headers.with(Header.CONTENT_ENCODING, new ContentEncoding(new GzipContentCoding()));
+        Assertions.assertFalse(this.compression.negotiate(request, encoded).isPresent());
+    }
+
+    private static String vary(Headers headers) {
+        return ResponseCompression.vary(headers.toBuilder(), headers).build().get(Header.VARY, UnknownHeader.class).map(UnknownHeader::getValue).orElse(null);
+    }
+
+    @Test
+    public void testVary() {
+        Assertions.assertEquals("Accept-Encoding", vary(new Headers()));
+        Assertions.assertEquals("Origin, Accept-Encoding", vary(new Headers().with(Header.VARY, new UnknownHeader("Origin"))));
+        Assertions.assertEquals("origin, accept-encoding", vary(new Headers().with(Header.VARY, new UnknownHeader("origin, accept-encoding"))));
+        Assertions.assertEquals("*", vary(new Headers().with(Header.VARY, new UnknownHeader("*"))));
+    }
+
+    /**
+     * Sends a text response with a message body through the compression.
+     *
+     * @return the response head and the message body
+     */
+    private String[] sendResponse(String acceptEncoding, byte[] body) throws IOException {
+        BufferedHttpAgent agent = new BufferedHttpAgent(new Socket());
+        this.compression.sendResponse(agent, request(acceptEncoding), new HttpResponse(Status.OK, new Headers().with(Header.CONTENT_TYPE, new ContentType(TEXT))), body);
+        String output = new String(agent.toByteArray(), StandardCharsets.ISO_8859_1);
+        int end = output.indexOf("\r\n\r\n") + 4;
+        return new String[]{output.substring(0, end), output.substring(end)};
+    }
+
+    @Test
+    public void testSendResponse() throws IOException {
+        byte[] body = new byte[1000];
+        Arrays.fill(body, (byte) 'a');
+        String[] response = this.sendResponse("gzip", body);
+        Assertions.assertTrue(response[0].contains("Content-Encoding:gzip\r\n"));
+        Assertions.assertTrue(response[0].contains("Vary:Accept-Encoding\r\n"));
+        byte[] compressed = response[1].getBytes(StandardCharsets.ISO_8859_1);
+        Assertions.assertTrue(response[0].contains("Content-Length:" + compressed.length + "\r\n"));
+        Assertions.assertArrayEquals(body, new GzipContentCoding().decode(compressed));
+
+        // Clients that don't accept a content coding get the original, but caches still have to vary.
+        response = this.sendResponse(null, body);
+        Assertions.assertFalse(response[0].contains("Content-Encoding"));
+        Assertions.assertTrue(response[0].contains("Vary:Accept-Encoding\r\n"));
+        Assertions.assertTrue(response[0].contains("Content-Length:1000\r\n"));
+        Assertions.assertArrayEquals(body, response[1].getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testSendResponseNotSmaller() throws IOException {
+        byte[] body = new byte[1000];
+        new Random(0).nextBytes(body);
+        String[] response = this.sendResponse("gzip", body);
+        Assertions.assertFalse(response[0].contains("Content-Encoding"));
+        Assertions.assertTrue(response[0].contains("Content-Length:1000\r\n"));
+        Assertions.assertArrayEquals(body, response[1].getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ResponseSequencerTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ResponseSequencer(new BufferedHttpAgent(new Socket()), 0));
+    }
+
+    @Test
+    public void testOrder() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        ResponseSequencer responseSequencer = new ResponseSequencer(new BufferedHttpAgent(new Socket(), output));
+        ResponseSequencer.PendingResponse first = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse second = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse third = responseSequencer.reserve();
+        responseSequencer.complete(third, bytes("c"), false);
+        responseSequencer.complete(second, bytes("b"), false);
+        Assertions.assertEquals("", output.toString());
+        Assertions.assertTrue(responseSequencer.isPending());
+        responseSequencer.complete(first, bytes("a"), false);
+        Assertions.assertEquals("abc", output.toString());
+        Assertions.assertFalse(responseSequencer.isPending());
+    }
+
+    @Test
+    public void testCoalesce() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        ResponseSequencer responseSequencer = new ResponseSequencer(new BufferedHttpAgent(new Socket(), output));
+        ResponseSequencer.PendingResponse first = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse second = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse third = responseSequencer.reserve();
+        responseSequencer.complete(second, bytes("b"), false);
+        responseSequencer.complete(third, bytes("c"), false);
+        responseSequencer.complete(first, bytes("a"), false);
+        Assertions.assertEquals("abc", output.toString());
+        Assertions.assertEquals(1, output.writes);
+        ResponseSequencer.PendingResponse fourth = responseSequencer.reserve();
+        responseSequencer.complete(fourth, bytes("d"), false);
+        Assertions.assertEquals("abcd", output.toString());
+        Assertions.assertEquals(2, output.writes);
+    }
+
+    @Test
+    public void testClosing() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        ResponseSequencer responseSequencer = new ResponseSequencer(new BufferedHttpAgent(new Socket(), output));
+        ResponseSequencer.PendingResponse first = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse second = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse third = responseSequencer.reserve();
+        responseSequencer.complete(third, bytes("c"), false);
+        responseSequencer.complete(second, bytes("b"), true);
+        responseSequencer.complete(first, bytes("a"), false);
+        Assertions.assertEquals("ab", output.toString());
+        Assertions.assertFalse(responseSequencer.isPending());
+        // The await of the client handler returns, even though the discarded response was never sent.
+        responseSequencer.await();
+    }
+
+    @Test
+    public void testMaxPending() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        CountingOutputStream output = new CountingOutputStream();
+        ResponseSequencer responseSequencer = new ResponseSequencer(new BufferedHttpAgent(new Socket(), output), 2);
+        ResponseSequencer.PendingResponse first = responseSequencer.reserve();
+        ResponseSequencer.PendingResponse second = responseSequencer.reserve();
+        CompletableFuture<ResponseSequencer.PendingResponse> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return responseSequencer.reserve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Assertions.assertThrows(TimeoutException.class, () -> third.get(100, TimeUnit.MILLISECONDS));
+        // Completing a later response doesn't free a place, only sending the earliest one does.
+        responseSequencer.complete(second, bytes("b"), false);
+        Assertions.assertThrows(TimeoutException.class, () -> third.get(100, TimeUnit.MILLISECONDS));
+        responseSequencer.complete(first, bytes("a"), false);
+        responseSequencer.complete(third.get(5, TimeUnit.SECONDS), bytes("c"), false);
+        Assertions.assertEquals("abc", output.toString());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Counts the writes reaching the connection.
+     */
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        private int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            this.writes++;
+            super.write(b, off, len);
+        }
+    }
+}
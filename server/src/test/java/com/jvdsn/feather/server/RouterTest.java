@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class RouterTest {
+    private static RouteHandler handler() {
+        return (client, request, match, body) -> {
+        };
+    }
+
+    @Test
+    public void testSplit() {
+        Router router = new Router();
+        RouteHandler users = handler();
+        RouteHandler uploads = handler();
+        RouteHandler us = handler();
+        router.register(RequestMethod.GET, "/users", users);
+        router.register(RequestMethod.GET, "/uploads", uploads);
+        router.register(RequestMethod.GET, "/us", us);
+
+        Router.Node root = router.tree.root;
+        Assertions.assertEquals(1, root.children.length);
+        Router.Node split = root.children[0];
+        Assertions.assertEquals("/u", split.prefix);
+        Assertions.assertArrayEquals(new char[]{'s', 'p'}, split.indices);
+        Assertions.assertEquals("s", split.children[0].prefix);
+        Assertions.assertEquals("ers", split.children[0].children[0].prefix);
+        Assertions.assertEquals("ploads", split.children[1].prefix);
+
+        RouteMatch match = new RouteMatch();
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/users", match));
+        Assertions.assertSame(users, match.getHandler());
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/uploads?page=2", match));
+        Assertions.assertSame(uploads, match.getHandler());
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/us", match));
+        Assertions.assertSame(us, match.getHandler());
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/u", match));
+        Assertions.assertFalse(match.isPathMatched());
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/user", match));
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/usersx", match));
+    }
+
+    @Test
+    public void testPrecedence() {
+        Router router = new Router();
+        RouteHandler literal = handler();
+        RouteHandler parameter = handler();
+        RouteHandler wildcard = handler();
+        RouteHandler edit = handler();
+        router.register(RequestMethod.GET, "/files/*", wildcard);
+        router.register(RequestMethod.GET, "/files/{name}", parameter);
+        router.register(RequestMethod.GET, "/files/new", literal);
+        router.register(RequestMethod.GET, "/files/{name}/edit", edit);
+
+        RouteMatch match = new RouteMatch();
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/files/new", match));
+        Assertions.assertSame(literal, match.getHandler());
+        Assertions.assertEquals(0, match.getParameterCount());
+
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/files/report?download", match));
+        Assertions.assertSame(parameter, match.getHandler());
+        Assertions.assertEquals(1, match.getParameterCount());
+        Assertions.assertEquals("name", match.getParameterName(0));
+        Assertions.assertEquals("report", match.getParameter("name"));
+        Assertions.assertNull(match.getWildcard());
+
+        // The literal segment doesn't match the rest of the path, so the parameter segment is tried next.
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/files/new/edit", match));
+        Assertions.assertSame(edit, match.getHandler());
+        Assertions.assertEquals("new", match.getParameter(0));
+
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/files/a/b", match));
+        Assertions.assertSame(wildcard, match.getHandler());
+        Assertions.assertEquals(0, match.getParameterCount());
+        Assertions.assertEquals("a/b", match.getWildcard());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> match.getParameter(0));
+    }
+
+    @Test
+    public void testHost() {
+        Router router = new Router();
+        RouteHandler host = handler();
+        RouteHandler any = handler();
+        RouteHandler other = handler();
+        router.register(RequestMethod.GET, "Example.com", "/index", host);
+        router.register(RequestMethod.GET, "/index", any);
+        router.register(RequestMethod.POST, "/other", other);
+
+        RouteMatch match = new RouteMatch();
+        Assertions.assertTrue(router.route(RequestMethod.GET, "example.COM", "/index", match));
+        Assertions.assertSame(host, match.getHandler());
+        Assertions.assertTrue(router.route(RequestMethod.GET, "example.org", "/index", match));
+        Assertions.assertSame(any, match.getHandler());
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/index", match));
+        Assertions.assertSame(any, match.getHandler());
+
+        // Falls back to the routes for any host if the host has no matching route.
+        Assertions.assertTrue(router.route(RequestMethod.POST, "example.com", "/other", match));
+        Assertions.assertSame(other, match.getHandler());
+
+        // A path matched on the host is remembered when falling back.
+        Assertions.assertFalse(router.route(RequestMethod.PUT, "example.com", "/index", match));
+        Assertions.assertTrue(match.isPathMatched());
+        Assertions.assertEquals(EnumSet.of(RequestMethod.GET), match.getAllowedMethods());
+    }
+
+    @Test
+    public void testConflict() {
+        Router router = new Router();
+        RouteHandler first = handler();
+        router.register(RequestMethod.GET, "/items/{id}", first);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> router.register(RequestMethod.GET, "/items/{name}", handler()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> router.register(RequestMethod.GET, "/items/{id}", handler()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> router.register(RequestMethod.GET, "items", handler()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> router.register(RequestMethod.GET, "/items/{id", handler()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> router.register(RequestMethod.GET, "/items/{}", handler()));
+        Assertions.assertEquals(1, router.routes.size());
+
+        // The conflicting routes were rolled back, the existing route still matches.
+        RouteMatch match = new RouteMatch();
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/items/1", match));
+        Assertions.assertSame(first, match.getHandler());
+        Assertions.assertEquals("1", match.getParameter("id"));
+        Assertions.assertNull(match.getParameter("name"));
+
+        // The same pattern for another request method or another host doesn't conflict.
+        router.register(RequestMethod.DELETE, "/items/{name}", handler());
+        router.register(RequestMethod.GET, "example.com", "/items/{id}", handler());
+        Assertions.assertEquals(3, router.routes.size());
+    }
+
+    @Test
+    public void testUnregister() {
+        Router router = new Router();
+        Assertions.assertTrue(router.isEmpty());
+        RouteHandler get = handler();
+        RouteHandler post = handler();
+        router.register(RequestMethod.GET, "/items", get);
+        router.register(RequestMethod.POST, "/items", post);
+        router.register(RequestMethod.GET, "example.com", "/items", handler());
+        Assertions.assertFalse(router.isEmpty());
+
+        router.unregister(RequestMethod.GET, "EXAMPLE.com", "/items");
+        RouteMatch match = new RouteMatch();
+        Assertions.assertTrue(router.route(RequestMethod.GET, "example.com", "/items", match));
+        Assertions.assertSame(get, match.getHandler());
+
+        router.unregister(RequestMethod.GET, null, "/items");
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/items", match));
+        Assertions.assertTrue(router.route(RequestMethod.POST, null, "/items", match));
+        Assertions.assertSame(post, match.getHandler());
+
+        // A route can be registered again after it was unregistered.
+        router.register(RequestMethod.GET, "/items", get);
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/items", match));
+
+        router.unregister(RequestMethod.GET, null, "/items");
+        router.unregister(RequestMethod.POST, null, "/items");
+        Assertions.assertTrue(router.isEmpty());
+        Assertions.assertFalse(router.route(RequestMethod.POST, null, "/items", match));
+        Assertions.assertFalse(match.isPathMatched());
+    }
+
+    @Test
+    public void testNotFoundAndMethodNotAllowed() {
+        Router router = new Router();
+        router.register(RequestMethod.GET, "/items/{id}", handler());
+        router.register(RequestMethod.DELETE, "/items/{id}", handler());
+        router.register(RequestMethod.POST, "/items/*", handler());
+
+        RouteMatch match = new RouteMatch();
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/other", match));
+        Assertions.assertFalse(match.isPathMatched());
+        Assertions.assertTrue(match.getAllowedMethods().isEmpty());
+
+        Assertions.assertFalse(router.route(RequestMethod.PUT, null, "/items/1", match));
+        Assertions.assertTrue(match.isPathMatched());
+        Assertions.assertNull(match.getHandler());
+        Assertions.assertEquals(EnumSet.of(RequestMethod.GET, RequestMethod.POST, RequestMethod.DELETE), match.getAllowedMethods());
+
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/items/1/2", match));
+        Assertions.assertTrue(match.isPathMatched());
+        Assertions.assertEquals(EnumSet.of(RequestMethod.POST), match.getAllowedMethods());
+
+        // A match resets the previous result.
+        Assertions.assertTrue(router.route(RequestMethod.GET, null, "/items/1", match));
+        Assertions.assertNotNull(match.getHandler());
+        Assertions.assertFalse(router.route(RequestMethod.GET, null, "/", match));
+        Assertions.assertFalse(match.isPathMatched());
+        Assertions.assertNull(match.getHandler());
+    }
+}
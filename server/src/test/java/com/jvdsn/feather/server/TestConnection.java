@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A raw socket connection used to exercise the servers byte by byte.
+ *
+ * @author Joachim Vandersmissen
+ */
+class TestConnection implements AutoCloseable {
+    protected static final int TIMEOUT_MILLIS = 10000;
+
+    protected final Socket socket;
+    protected final InputStream inputStream;
+    protected final OutputStream outputStream;
+
+    TestConnection(int port) throws IOException {
+        this(port, 0);
+    }
+
+    TestConnection(int port, int receiveBufferSize) throws IOException {
+        this.socket = new Socket();
+        if (receiveBufferSize > 0) {
+            // Set before connecting, so the advertised window stays small.
+            this.socket.setReceiveBufferSize(receiveBufferSize);
+        }
+
+        this.socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.socket.setSoTimeout(TIMEOUT_MILLIS);
+        this.socket.setTcpNoDelay(true);
+        this.inputStream = this.socket.getInputStream();
+        this.outputStream = this.socket.getOutputStream();
+    }
+
+    void write(String data) throws IOException {
+        this.write(data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    void write(byte[] data) throws IOException {
+        this.outputStream.write(data);
+        this.outputStream.flush();
+    }
+
+    Response readResponse() throws IOException {
+        String statusLine = this.readLine();
+        Response response = new Response(Integer.parseInt(statusLine.split(" ")[1]));
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+
+        if ("chunked".equalsIgnoreCase(response.getHeader("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int chunkSize;
+            while ((chunkSize = Integer.parseInt(this.readLine().split(";")[0].trim(), 16)) != 0) {
+                body.write(this.readFully(chunkSize));
+                this.readLine();
+            }
+
+            while (!this.readLine().isEmpty()) {
+                // Discard the trailer.
+            }
+
+            response.body = body.toByteArray();
+        } else if (response.getHeader("content-length") != null) {
+            response.body = this.readFully(Integer.parseInt(response.getHeader("content-length")));
+        }
+
+        return response;
+    }
+
+    boolean isClosedByPeer() throws IOException {
+        try {
+            return this.inputStream.read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // A reset also means the peer closed the connection.
+            return true;
+        }
+    }
+
+    long drain() throws IOException {
+        long drained = 0;
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = this.inputStream.read(buffer)) != -1) {
+                drained += read;
+            }
+        } catch (SocketTimeoutException e) {
+            throw e;
+        } catch (IOException e) {
+            // A reset also means the peer closed the connection.
+        }
+
+        return drained;
+    }
+
+    String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = this.inputStream.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException();
+            }
+
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+
+        return line.toString();
+    }
+
+    byte[] readFully(int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = this.inputStream.read(data, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+
+            offset += read;
+        }
+
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    static class Response {
+        final int status;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body = new byte[0];
+
+        Response(int status) {
+            this.status = status;
+        }
+
+        String getHeader(String name) {
+            return this.headers.get(name);
+        }
+
+        String getBodyAsString() {
+            return new String(this.body, StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -10,10 +10,14 @@
 
 package com.jvdsn.feather.shared;
 
+import com.jvdsn.feather.shared.header.ContentLength;
 import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.HeaderNames;
+import com.jvdsn.feather.shared.header.UnknownHeader;
 import lombok.NonNull;
-import lombok.Value;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.NavigableMap;
 import java.util.Optional;
@@ -21,12 +25,29 @@ import java.util.TreeMap;
 
 /**
  * Contains headers.
+ * The headers are kept in flat arrays in the order they were added, each field name occurs at most once.
+ * Field names are case-insensitive, well-known field names are identified by their id in {@link HeaderNames}.
+ * Received headers keep the raw field names and values in a single byte array and only deserialize a header when it is requested.
+ * Use a {@link Builder} to construct headers without copying them for every added header.
  *
  * @author Joachim Vandersmissen
  */
-@Value
 public class Headers {
-    NavigableMap<String, Header> headers;
+    protected static final String[] NO_FIELD_NAMES = new String[0];
+    protected static final Header[] NO_HEADERS = new Header[0];
+    protected static final int[] NO_IDS = new int[0];
+
+    protected final int size;
+    // Filled in lazily for received headers.
+    protected final String[] fieldNames;
+    // Filled in lazily for received headers, guarded by the array itself.
+    protected final Header[] headers;
+    // The id of each field name, or HeaderNames.UNKNOWN.
+    protected final int[] ids;
+    // The raw field names and values of received headers, null otherwise.
+    protected final byte[] raw;
+    // For each header the start and end of the field name and the start and end of the value in the raw bytes.
+    protected final int[] ranges;
 
     /**
      * Constructs a new headers.
@@ -34,27 +55,199 @@ public class Headers {
      * @param headers the headers
      */
     public Headers(@NonNull NavigableMap<String, Header> headers) {
-        this.headers = Collections.unmodifiableNavigableMap(headers);
+        this.size = headers.size();
+        this.fieldNames = headers.keySet().toArray(NO_FIELD_NAMES);
+        this.headers = headers.values().toArray(NO_HEADERS);
+        this.ids = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.ids[i] = HeaderNames.getId(this.fieldNames[i]);
+        }
+
+        this.raw = null;
+        this.ranges = null;
     }
 
     /**
      * Constructs a new headers containing no headers.
      */
     public Headers() {
-        this(Collections.emptyNavigableMap());
+        this(NO_FIELD_NAMES, NO_HEADERS, NO_IDS, 0);
+    }
+
+    /**
+     * Constructs a new headers from raw field names and values, which are deserialized when they are requested.
+     * The ranges contain four indices per header: the start and end of the field name and the start and end of the value.
+     * The field name of a well-known header is not read from the raw bytes and may be an empty range.
+     * Each field name should occur at most once.
+     *
+     * @param raw    the raw field names and values, encoded in ISO-8859-1
+     * @param ranges the ranges of the field names and values in the raw bytes
+     * @param ids    the id of each field name, or {@link HeaderNames#UNKNOWN}
+     * @param size   the amount of headers
+     */
+    public Headers(@NonNull byte[] raw, @NonNull int[] ranges, @NonNull int[] ids, int size) {
+        if (ranges.length < size * 4 || ids.length < size) {
+            throw new IllegalArgumentException("Expected " + size * 4 + " ranges and " + size + " ids, got " + ranges.length + " and " + ids.length);
+        }
+
+        this.size = size;
+        this.fieldNames = new String[size];
+        this.headers = new Header[size];
+        this.ids = ids;
+        this.raw = raw;
+        this.ranges = ranges;
+    }
+
+    protected Headers(String[] fieldNames, Header[] headers, int[] ids, int size) {
+        this.size = size;
+        this.fieldNames = fieldNames;
+        this.headers = headers;
+        this.ids = ids;
+        this.raw = null;
+        this.ranges = null;
+    }
+
+    /**
+     * Returns a new builder.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder containing these headers.
+     *
+     * @return the builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        for (int i = 0; i < this.size; i++) {
+            builder.with(this.getFieldName(i), this.getHeader(i));
+        }
+
+        return builder;
     }
 
     /**
      * Adds a header and returns a new instance.
+     * Use a {@link Builder} to add multiple headers.
      *
      * @param fieldName the field name
      * @param header    the header
      * @return the new instance containing the new header
      */
     public Headers with(String fieldName, Header header) {
-        TreeMap<String, Header> treeMap = new TreeMap<>(this.headers);
-        treeMap.put(fieldName, header);
-        return new Headers(treeMap);
+        return this.toBuilder().with(fieldName, header).build();
+    }
+
+    /**
+     * Returns the amount of headers.
+     *
+     * @return the amount of headers
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the index of a field name.
+     * Well-known field names are compared by id, other field names are compared ignoring case.
+     *
+     * @param fieldName the field name
+     * @return the index, or -1 if this headers doesn't contain the field name
+     */
+    public int indexOf(String fieldName) {
+        int id = HeaderNames.getId(fieldName);
+        for (int i = 0; i < this.size; i++) {
+            if (this.ids[i] != id) {
+                continue;
+            }
+
+            if (id != HeaderNames.UNKNOWN || (this.raw == null ? this.fieldNames[i].equalsIgnoreCase(fieldName) : this.rawEqualsIgnoreCase(this.ranges[i * 4], this.ranges[i * 4 + 1], fieldName))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns true if a range of the raw bytes equals a string ignoring case, without decoding the range.
+     */
+    protected boolean rawEqualsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (HeaderNames.toLowerCase(this.raw[i] & 0xFF) != HeaderNames.toLowerCase(s.charAt(i - start))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the field name of a header, well-known field names are returned in their interned form.
+     *
+     * @param index the index of the header
+     * @return the field name
+     */
+    public String getFieldName(int index) {
+        this.checkIndex(index);
+        String fieldName = this.fieldNames[index];
+        if (fieldName == null) {
+            fieldName = this.ids[index] != HeaderNames.UNKNOWN ? HeaderNames.getName(this.ids[index]) : new String(this.raw, this.ranges[index * 4], this.ranges[index * 4 + 1] - this.ranges[index * 4], StandardCharsets.ISO_8859_1);
+            this.fieldNames[index] = fieldName;
+        }
+
+        return fieldName;
+    }
+
+    /**
+     * Returns the serialized value of a header, without deserializing received headers.
+     *
+     * @param index the index of the header
+     * @return the serialized value
+     */
+    public String getValue(int index) {
+        this.checkIndex(index);
+        if (this.raw == null) {
+            return this.headers[index].serialize();
+        }
+
+        return new String(this.raw, this.ranges[index * 4 + 2], this.ranges[index * 4 + 3] - this.ranges[index * 4 + 2], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns a header, deserializing it if needed.
+     *
+     * @param index the index of the header
+     * @return the header
+     */
+    public Header getHeader(int index) {
+        this.checkIndex(index);
+        if (this.raw == null) {
+            return this.headers[index];
+        }
+
+        synchronized (this.headers) {
+            if (this.headers[index] == null) {
+                Header header = this.ids[index] == HeaderNames.UNKNOWN ? new UnknownHeader() : HeaderNames.newHeader(this.ids[index]);
+                this.headers[index] = header.deserialize(this.getValue(index));
+            }
+
+            return this.headers[index];
+        }
+    }
+
+    protected void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + this.size + " headers");
+        }
     }
 
     /**
@@ -64,7 +257,7 @@ public class Headers {
      * @return true if this headers contains the field name, false otherwise
      */
     public boolean contains(String fieldName) {
-        return this.headers.containsKey(fieldName);
+        return this.indexOf(fieldName) != -1;
     }
 
     /**
@@ -75,6 +268,150 @@ public class Headers {
      * @return the header
      */
     public <H extends Header> Optional<H> get(String fieldName, Class<H> headerClass) {
-        return Optional.ofNullable(this.headers.get(fieldName)).filter(headerClass::isInstance).map(headerClass::cast);
+        int index = this.indexOf(fieldName);
+        if (index == -1) {
+            return Optional.empty();
+        }
+
+        return Optional.of(this.getHeader(index)).filter(headerClass::isInstance).map(headerClass::cast);
+    }
+
+    /**
+     * Returns the length of the Content-Length header, without boxing it.
+     *
+     * @param defaultLength the length to return if this headers doesn't contain a Content-Length header
+     * @return the length
+     */
+    public long getContentLength(long defaultLength) {
+        int index = this.indexOf(Header.CONTENT_LENGTH);
+        if (index == -1) {
+            return defaultLength;
+        }
+
+        Header header = this.getHeader(index);
+        return header instanceof ContentLength ? ((ContentLength) header).getLength() : defaultLength;
+    }
+
+    /**
+     * Returns the headers as a map, deserializing all received headers.
+     *
+     * @return the headers, sorted by field name ignoring case
+     */
+    public NavigableMap<String, Header> getHeaders() {
+        NavigableMap<String, Header> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < this.size; i++) {
+            headers.put(this.getFieldName(i), this.getHeader(i));
+        }
+
+        return Collections.unmodifiableNavigableMap(headers);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof Headers)) {
+            return false;
+        }
+
+        return this.getHeaders().equals(((Headers) o).getHeaders());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.getHeaders().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("Headers(headers={");
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                stringBuilder.append(", ");
+            }
+
+            stringBuilder.append(this.getFieldName(i)).append('=').append(this.getValue(i));
+        }
+
+        return stringBuilder.append("})").toString();
+    }
+
+    /**
+     * Builds headers without copying them for every added header.
+     */
+    public static class Builder {
+        public static final int DEFAULT_CAPACITY = 8;
+
+        protected String[] fieldNames = new String[DEFAULT_CAPACITY];
+        protected Header[] headers = new Header[DEFAULT_CAPACITY];
+        protected int[] ids = new int[DEFAULT_CAPACITY];
+        protected int size;
+
+        /**
+         * Adds a header, replacing the header with the same field name ignoring case if present.
+         *
+         * @param fieldName the field name
+         * @param header    the header
+         * @return this builder
+         */
+        public Builder with(@NonNull String fieldName, @NonNull Header header) {
+            int id = HeaderNames.getId(fieldName);
+            int index = this.indexOf(fieldName, id);
+            if (index == -1) {
+                if (this.size == this.fieldNames.length) {
+                    this.fieldNames = Arrays.copyOf(this.fieldNames, this.size * 2);
+                    this.headers = Arrays.copyOf(this.headers, this.size * 2);
+                    this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                }
+
+                index = this.size++;
+            }
+
+            this.fieldNames[index] = fieldName;
+            this.headers[index] = header;
+            this.ids[index] = id;
+            return this;
+        }
+
+        /**
+         * Removes the header with a field name if present.
+         *
+         * @param fieldName the field name
+         * @return this builder
+         */
+        public Builder without(String fieldName) {
+            int index = this.indexOf(fieldName, HeaderNames.getId(fieldName));
+            if (index != -1) {
+                System.arraycopy(this.fieldNames, index + 1, this.fieldNames, index, this.size - index - 1);
+                System.arraycopy(this.headers, index + 1, this.headers, index, this.size - index - 1);
+                System.arraycopy(this.ids, index + 1, this.ids, index, this.size - index - 1);
+                this.size--;
+                this.fieldNames[this.size] = null;
+                this.headers[this.size] = null;
+            }
+
+            return this;
+        }
+
+        protected int indexOf(String fieldName, int id) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.ids[i] == id && (id != HeaderNames.UNKNOWN || this.fieldNames[i].equalsIgnoreCase(fieldName))) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Builds the headers.
+         *
+         * @return the headers
+         */
+        public Headers build() {
+            return new Headers(Arrays.copyOf(this.fieldNames, this.size), Arrays.copyOf(this.headers, this.size), Arrays.copyOf(this.ids, this.size), this.size);
+        }
     }
 }
@@ -23,11 +23,13 @@ import lombok.Value;
 @RequiredArgsConstructor
 public class HostAndPort {
     public static final char SEPARATOR = ':';
+    public static final int DEFAULT_PORT = 80;
     @NonNull String host;
     int port;
 
     /**
      * Parses a string to a host and port.
+     * The port defaults to 80 if the string doesn't contain one, as a Host header may omit the default port.
      *
      * @param s the string to parse
      * @return the host and port
@@ -35,6 +37,11 @@ public class HostAndPort {
     public static HostAndPort parse(String s) {
         s = s.trim();
         int i = s.lastIndexOf(SEPARATOR);
+        // The separators in an IPv6 address are enclosed in brackets.
+        if (i == -1 || s.indexOf(']', i) != -1) {
+            return new HostAndPort(s, DEFAULT_PORT);
+        }
+
         return new HostAndPort(s.substring(0, i).trim(), Integer.parseInt(s.substring(i + 1).trim()));
     }
 
@@ -10,22 +10,37 @@
 
 package com.jvdsn.feather.shared;
 
-import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.buffer.BufferPool;
+import com.jvdsn.feather.shared.buffer.PooledBuffer;
+import com.jvdsn.feather.shared.header.Connection;
 import com.jvdsn.feather.shared.header.Header;
 import com.jvdsn.feather.shared.header.TransferEncoding;
 import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
 import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import com.jvdsn.feather.shared.stream.CloseDelimitedOutputStream;
+import com.jvdsn.feather.shared.stream.DiscardingOutputStream;
 import com.jvdsn.feather.shared.stream.HttpInputStream;
 import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.CompressionTransferCoding;
 import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
 import com.jvdsn.feather.shared.transfercoding.TransferCoding;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A general purpose HTTP agent.
@@ -34,10 +49,25 @@ import java.util.Optional;
  */
 @RequiredArgsConstructor
 public class HttpAgent {
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+
     protected final TransferCoding defaultTransferCoding;
+    @Getter
     protected final Socket socket;
     protected final HttpInputStream inputStream;
     protected final HttpOutputStream outputStream;
+    @Getter
+    @Setter
+    protected @NonNull BufferPool bufferPool = BufferPool.DEFAULT;
+    // Added to every final response that doesn't have a Connection header, so the agent knows whether the connection persists.
+    @Getter
+    @Setter
+    protected volatile Connection connection;
+    // The maximum length of a received message body after decoding its compression transfer codings.
+    @Getter
+    @Setter
+    protected long maxDecodedLength = CompressionTransferCoding.DEFAULT_MAX_DECODED_LENGTH;
 
     /**
      * Constructs a new HTTP agent.
@@ -48,7 +78,8 @@ public class HttpAgent {
         this.defaultTransferCoding = new DefaultTransferCoding();
         this.socket = socket;
         this.inputStream = new HttpInputStream(socket.getInputStream());
-        this.outputStream = new HttpOutputStream(socket.getOutputStream());
+        this.outputStream = new HttpOutputStream(socket.getOutputStream(), socket.getChannel());
+        this.outputStream.setSendBufferSize(socket.getSendBufferSize());
     }
 
     /**
@@ -58,6 +89,54 @@ public class HttpAgent {
         this.socket.close();
     }
 
+    /**
+     * Returns true if the connection to the agent wasn't closed yet.
+     *
+     * @return true if connected, false otherwise
+     */
+    public boolean isConnected() {
+        return !this.socket.isClosed();
+    }
+
+    /**
+     * Returns true if data can be written to the agent without blocking, false if the agent doesn't keep up with the data sent to it.
+     * Agents without an outgoing queue are always writable, a write then blocks until the connection accepted the data.
+     *
+     * @return true if writable, false otherwise
+     */
+    public boolean isWritable() {
+        return true;
+    }
+
+    /**
+     * Returns a future completed once the agent is writable, so a producer of a large message body can wait for the agent before preparing more data.
+     * The future completes on another thread, and completes exceptionally if the connection is closed first.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> whenWritable() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns the amount of bytes received from the agent that can be read without blocking.
+     * A positive amount after a complete request means the agent already sent (part of) the next request.
+     *
+     * @return the amount of bytes
+     */
+    public int available() throws IOException {
+        return this.inputStream.available();
+    }
+
+    /**
+     * Waits until the agent starts sending the next message, without consuming any of it.
+     *
+     * @return false if the agent closed the connection first
+     */
+    public boolean awaitMessage() throws IOException {
+        return this.inputStream.await();
+    }
+
     /**
      * Receives an HTTP request from the agent.
      *
@@ -76,18 +155,56 @@ public class HttpAgent {
         return this.inputStream.readHttpResponse();
     }
 
+    /**
+     * Returns the transfer coding to decode a received message body with, limited to the maximum decoded length.
+     *
+     * @param headers the headers of the message
+     * @return the transfer coding, or empty if the message body isn't transfer coded
+     */
+    protected Optional<TransferCoding> getReceivedTransferCoding(Headers headers) {
+        return headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getTransferCoding).map(t -> t.withMaxDecodedLength(this.maxDecodedLength));
+    }
+
     /**
      * Receives a message body from the agent.
+     * Fails with a {@link com.jvdsn.feather.shared.stream.MessageBodyTooLargeException} if the decoded message body exceeds the maximum decoded length.
      *
      * @param headers the headers to use
      * @return the message body
      */
     public byte[] receiveMessageBody(Headers headers) throws IOException {
-        Optional<TransferCoding> transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getFirst);
-        BigInteger contentLength = headers.get(Header.CONTENT_LENGTH, ContentLength.class).map(ContentLength::getLength).orElse(BigInteger.ZERO);
+        Optional<TransferCoding> transferCoding = this.getReceivedTransferCoding(headers);
+        long contentLength = headers.getContentLength(0);
         return transferCoding.orElse(this.defaultTransferCoding).readBody(this.inputStream, contentLength);
     }
 
+    /**
+     * Receives a message body from the agent into a pooled buffer, which should be released by the caller.
+     *
+     * @param headers the headers to use
+     * @return the message body, between the position and the limit of the buffer
+     */
+    public PooledBuffer receiveMessageBodyBuffer(Headers headers) throws IOException {
+        int sizeHint = (int) Math.min(headers.getContentLength(0), TransferCoding.MAX_ARRAY_LENGTH);
+        try (InputStream body = this.receiveMessageBodyStream(headers)) {
+            return this.bufferPool.read(body, sizeHint);
+        }
+    }
+
+    /**
+     * Receives a message body from the agent as a stream, decoding it while it is read.
+     * The returned stream must be closed before receiving the next message, closing it skips the unread part of the message body.
+     * Reading fails with a {@link com.jvdsn.feather.shared.stream.MessageBodyTooLargeException} once the decoded message body exceeds the maximum decoded length.
+     *
+     * @param headers the headers to use
+     * @return the message body stream
+     */
+    public InputStream receiveMessageBodyStream(Headers headers) throws IOException {
+        Optional<TransferCoding> transferCoding = this.getReceivedTransferCoding(headers);
+        long contentLength = headers.getContentLength(0);
+        return transferCoding.orElse(this.defaultTransferCoding).openInputStream(this.inputStream, contentLength);
+    }
+
     /**
      * Sends an HTTP request to the agent.
      *
@@ -99,13 +216,44 @@ public class HttpAgent {
 
     /**
      * Sends an HTTP response to the agent.
+     * A final response without a Connection header gets the {@link #getConnection() connection} of this agent, if any.
      *
      * @param response the HTTP response
      */
     public void sendResponse(HttpResponse response) throws IOException {
+        // Interim responses don't end the exchange, so they don't need the Connection header.
+        if (response.getStatusCode() >= 200) {
+            Optional<Connection> connection = response.getHeaders().get(Header.CONNECTION, Connection.class);
+            if (connection.isPresent()) {
+                if (connection.get().contains(Connection.CLOSE)) {
+                    this.connection = connection.get();
+                }
+            } else if (this.connection != null) {
+                response = new HttpResponse(response.getHttpVersion(), response.getStatusCode(), response.getStatusMessage(), response.getHeaders().with(Header.CONNECTION, this.connection));
+            }
+        }
+
         this.outputStream.writeResponse(response);
     }
 
+    /**
+     * Returns true if the connection is closed after the current exchange, because of the Connection header of the last response sent or to be sent.
+     *
+     * @return true if the connection is closing, false otherwise
+     */
+    public boolean isClosing() {
+        Connection connection = this.connection;
+        return connection != null && connection.contains(Connection.CLOSE);
+    }
+
+    /**
+     * Flushes all buffered output to the agent.
+     * Requests, responses and message bodies are buffered until this method is called.
+     */
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
     /**
      * Sends a message body to the agent.
      *
@@ -113,8 +261,124 @@ public class HttpAgent {
      * @param body    the message body
      */
     public void sendMessageBody(Headers headers, byte[] body) throws IOException {
-        Optional<TransferCoding> transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getFirst);
-        BigInteger contentLength = headers.get(Header.CONTENT_LENGTH, ContentLength.class).map(ContentLength::getLength).orElse(BigInteger.ZERO);
+        Optional<TransferCoding> transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getTransferCoding);
+        long contentLength = headers.getContentLength(0);
         transferCoding.orElse(this.defaultTransferCoding).writeBody(this.outputStream, contentLength, body);
     }
+
+    /**
+     * Sends the remaining bytes of a buffer as message body to the agent, encoding it according to the headers.
+     * Without a transfer coding the buffer is sent as is, without copying it if the connection allows it.
+     *
+     * @param headers the headers to use
+     * @param body    the message body
+     */
+    public void sendMessageBody(Headers headers, ByteBuffer body) throws IOException {
+        Optional<TransferCoding> transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getTransferCoding);
+        long contentLength = headers.getContentLength(0);
+        if (!transferCoding.isPresent() && this.defaultTransferCoding instanceof DefaultTransferCoding) {
+            if (contentLength != body.remaining()) {
+                throw new IOException("Content length " + contentLength + " does not match message body of " + body.remaining() + " bytes");
+            }
+
+            this.outputStream.write(body);
+            return;
+        }
+
+        try (OutputStream outputStream = transferCoding.orElse(this.defaultTransferCoding).openOutputStream(this.outputStream, contentLength)) {
+            this.bufferPool.write(body, outputStream);
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of a buffer as message body to the agent, without copying them if the connection allows it.
+     * The message body is sent as is, the headers should specify its length.
+     *
+     * @param buffer the buffer
+     */
+    public void sendBuffer(ByteBuffer buffer) throws IOException {
+        this.outputStream.write(buffer);
+    }
+
+    /**
+     * Sends a region of a file as message body to the agent, without copying it into memory if the connection allows it.
+     * The message body is sent as is, the headers should specify its length.
+     *
+     * @param file     the file
+     * @param position the position of the region in the file
+     * @param count    the length of the region
+     */
+    public void sendFile(FileChannel file, long position, long count) throws IOException {
+        this.outputStream.transferFrom(file, position, count);
+    }
+
+    /**
+     * Opens a stream to send a message body to the agent, encoding it while it is written.
+     * The returned stream must be closed before sending the next message, closing it finishes the message body.
+     *
+     * @param headers the headers to use
+     * @return the message body stream
+     */
+    public OutputStream sendMessageBodyStream(Headers headers) throws IOException {
+        Optional<TransferCoding> transferCoding = headers.get(Header.TRANSFER_ENCODING, TransferEncoding.class).flatMap(TransferEncoding::getTransferCoding);
+        long contentLength = headers.getContentLength(0);
+        return transferCoding.orElse(this.defaultTransferCoding).openOutputStream(this.outputStream, contentLength);
+    }
+
+    /**
+     * Sends an HTTP response to an HTTP/1.1 request other than HEAD and opens a stream to send its message body.
+     * See {@link #sendResponseWithBodyStream(HttpRequest, HttpResponse)}, which should be used if the request may be a HEAD or HTTP/1.0 request.
+     *
+     * @param response the HTTP response
+     * @return the message body stream
+     */
+    public OutputStream sendResponseWithBodyStream(HttpResponse response) throws IOException {
+        return this.sendResponseWithBodyStream(response, false, false);
+    }
+
+    /**
+     * Sends an HTTP response to a request and opens a stream to send its message body.
+     * If the response has neither a Content-Length nor a Transfer-Encoding, the message body is sent using the chunked transfer coding,
+     * except to HTTP/1.0 requests, which don't know the chunked transfer coding: their message body ends by closing the connection.
+     * Responses to HEAD requests and 1xx, 204 and 304 responses have no message body, everything written to the returned stream is discarded.
+     * Flushing the returned stream sends the data written so far, so the agent doesn't have to wait for the full message body.
+     *
+     * @param request  the HTTP request
+     * @param response the HTTP response
+     * @return the message body stream
+     */
+    public OutputStream sendResponseWithBodyStream(@NonNull HttpRequest request, HttpResponse response) throws IOException {
+        return this.sendResponseWithBodyStream(response, request.getRequestMethod() == RequestMethod.HEAD, HTTP_1_0.equals(request.getHttpVersion()));
+    }
+
+    /**
+     * Sends an HTTP response and opens a stream to send its message body, framing the message body as the request allows.
+     *
+     * @param response the HTTP response
+     * @param head     true if the request is a HEAD request
+     * @param http10   true if the request is an HTTP/1.0 request
+     * @return the message body stream
+     */
+    protected OutputStream sendResponseWithBodyStream(HttpResponse response, boolean head, boolean http10) throws IOException {
+        Headers headers = response.getHeaders();
+        int statusCode = response.getStatusCode();
+        if (head || statusCode < 200 || statusCode == Status.NO_CONTENT.getCode() || statusCode == Status.NOT_MODIFIED.getCode()) {
+            this.sendResponse(response);
+            return new DiscardingOutputStream();
+        }
+
+        if (!headers.contains(Header.CONTENT_LENGTH) && !headers.contains(Header.TRANSFER_ENCODING)) {
+            if (http10) {
+                headers = headers.with(Header.CONNECTION, new Connection(Connection.CLOSE));
+                this.sendResponse(new HttpResponse(response.getHttpVersion(), statusCode, response.getStatusMessage(), headers));
+                return new CloseDelimitedOutputStream(this.outputStream);
+            }
+
+            headers = headers.with(Header.TRANSFER_ENCODING, new TransferEncoding(Collections.singletonList(new ChunkedTransferCoding(this.defaultTransferCoding))));
+            response = new HttpResponse(response.getHttpVersion(), statusCode, response.getStatusMessage(), headers);
+        }
+
+        this.sendResponse(response);
+        return this.sendMessageBodyStream(headers);
+    }
 }
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.buffer;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A pool of direct buffers in power of two size classes.
+ * Threads are spread over a fixed amount of cache stripes by their id, each caching a few buffers of every size class,
+ * so most buffers are borrowed and returned without contention.
+ * The caches aren't owned by threads, so short-lived threads, like one virtual thread per task, don't strand buffers in caches nobody uses again.
+ * The caches overflow to a shared queue per size class, buffers beyond its bound are left to the garbage collector.
+ * Buffers larger than the largest size class are allocated for a single use.
+ * <p>
+ * Buffers that are garbage collected without being released are reported as leaks.
+ * Tracking every buffer is expensive, so by default only a sample of the buffers is tracked.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class BufferPool {
+    public static final int MIN_SIZE_CLASS_SHIFT = 9;
+    public static final int MAX_SIZE_CLASS_SHIFT = 20;
+    public static final int SIZE_CLASSES = MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1;
+    public static final int CACHE_STRIPE_SIZE = 16;
+    // Between two and four stripes per processor, a power of two so a thread id is mapped to a stripe with a mask.
+    public static final int CACHE_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+    public static final int DEFAULT_SHARED_QUEUE_SIZE = 256;
+    public static final int LEAK_SAMPLE_INTERVAL = 128;
+    public static final int COPY_BUFFER_SIZE = 8192;
+    public static final BufferPool DEFAULT = new BufferPool();
+
+    /**
+     * How buffers are tracked to report leaks.
+     */
+    public enum LeakDetection {
+        /**
+         * No buffers are tracked.
+         */
+        DISABLED,
+        /**
+         * One in every {@link #LEAK_SAMPLE_INTERVAL} buffers is tracked.
+         */
+        SAMPLED,
+        /**
+         * Every buffer is tracked and the leak reports include where the buffer was acquired.
+         */
+        PARANOID
+    }
+
+    @Getter
+    protected final LeakDetection leakDetection;
+    protected final int sharedQueueSize;
+    protected final Queue<ByteBuffer>[] sharedQueues;
+    protected final AtomicInteger[] sharedQueueSizes;
+    protected final CacheStripe[] cacheStripes = new CacheStripe[CACHE_STRIPES];
+    protected final ReferenceQueue<PooledBuffer> referenceQueue = new ReferenceQueue<>();
+    // Keeps the leak trackers reachable until their pooled buffer is released or collected.
+    protected final Set<LeakTracker> leakTrackers = ConcurrentHashMap.newKeySet();
+    protected final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * Constructs a new buffer pool.
+     *
+     * @param leakDetection   how buffers are tracked to report leaks
+     * @param sharedQueueSize the maximum amount of buffers per size class shared between threads
+     */
+    public BufferPool(@NonNull LeakDetection leakDetection, int sharedQueueSize) {
+        this.leakDetection = leakDetection;
+        this.sharedQueueSize = sharedQueueSize;
+        // Generic arrays can't be created, the array only ever contains queues of byte buffers.
+        @SuppressWarnings("unchecked")
+        Queue<ByteBuffer>[] sharedQueues = new Queue[SIZE_CLASSES];
+        this.sharedQueues = sharedQueues;
+        this.sharedQueueSizes = new AtomicInteger[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            this.sharedQueues[i] = new ConcurrentLinkedQueue<>();
+            this.sharedQueueSizes[i] = new AtomicInteger();
+        }
+
+        for (int i = 0; i < CACHE_STRIPES; i++) {
+            this.cacheStripes[i] = new CacheStripe();
+        }
+    }
+
+    /**
+     * Constructs a new buffer pool sampling buffers for leaks.
+     */
+    public BufferPool() {
+        this(LeakDetection.SAMPLED, DEFAULT_SHARED_QUEUE_SIZE);
+    }
+
+    /**
+     * Returns the cache stripe of the current thread.
+     *
+     * @return the cache stripe
+     */
+    protected CacheStripe cacheStripe() {
+        return this.cacheStripes[(int) Thread.currentThread().getId() & (CACHE_STRIPES - 1)];
+    }
+
+    /**
+     * Returns the index of the smallest size class fitting a capacity.
+     *
+     * @param capacity the capacity
+     * @return the index, or -1 if the capacity exceeds the largest size class
+     */
+    protected static int sizeClass(int capacity) {
+        if (capacity > 1 << MAX_SIZE_CLASS_SHIFT) {
+            return -1;
+        }
+
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(shift, MIN_SIZE_CLASS_SHIFT) - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    /**
+     * Borrows a cleared buffer with at least a capacity.
+     * The returned pooled buffer holds a single reference, which should be released when the buffer is no longer used.
+     *
+     * @param capacity the minimum capacity
+     * @return the pooled buffer
+     */
+    public PooledBuffer acquire(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative, got " + capacity);
+        }
+
+        this.reportLeaks();
+        CacheStripe cacheStripe = this.cacheStripe();
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer = null;
+        if (sizeClass != -1) {
+            buffer = cacheStripe.pop(sizeClass);
+            if (buffer == null && (buffer = this.sharedQueues[sizeClass].poll()) != null) {
+                this.sharedQueueSizes[sizeClass].decrementAndGet();
+            }
+        }
+
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(sizeClass == -1 ? capacity : 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT));
+        }
+
+        buffer.clear();
+        PooledBuffer pooledBuffer = new PooledBuffer(this, sizeClass, buffer);
+        if (this.leakDetection == LeakDetection.PARANOID || (this.leakDetection == LeakDetection.SAMPLED && cacheStripe.sample())) {
+            pooledBuffer.leakTracker = this.track(pooledBuffer, buffer.capacity());
+        }
+
+        return pooledBuffer;
+    }
+
+    /**
+     * Starts tracking a pooled buffer for leaks.
+     */
+    protected LeakTracker track(PooledBuffer pooledBuffer, int capacity) {
+        Throwable acquiredAt = this.leakDetection == LeakDetection.PARANOID ? new Throwable("Acquired here") : null;
+        LeakTracker leakTracker = new LeakTracker(pooledBuffer, this.referenceQueue, capacity, acquiredAt);
+        this.leakTrackers.add(leakTracker);
+        return leakTracker;
+    }
+
+    /**
+     * Returns a released buffer to the pool, called by {@link PooledBuffer#release()}.
+     *
+     * @param pooledBuffer the released pooled buffer
+     */
+    protected void recycle(PooledBuffer pooledBuffer) {
+        if (pooledBuffer.leakTracker != null) {
+            this.leakTrackers.remove(pooledBuffer.leakTracker);
+            pooledBuffer.leakTracker.clear();
+        }
+
+        int sizeClass = pooledBuffer.sizeClass;
+        if (sizeClass == -1 || this.cacheStripe().push(sizeClass, pooledBuffer.buffer)) {
+            return;
+        }
+
+        if (this.sharedQueueSizes[sizeClass].incrementAndGet() <= this.sharedQueueSize) {
+            this.sharedQueues[sizeClass].add(pooledBuffer.buffer);
+        } else {
+            this.sharedQueueSizes[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Reports the tracked pooled buffers that were garbage collected without being released.
+     */
+    protected void reportLeaks() {
+        LeakTracker leakTracker;
+        while ((leakTracker = (LeakTracker) this.referenceQueue.poll()) != null) {
+            if (this.leakTrackers.remove(leakTracker)) {
+                this.leaks.incrementAndGet();
+                log.log(Level.WARNING, String.format("A pooled buffer of %d bytes was garbage collected without being released", leakTracker.capacity), leakTracker.acquiredAt);
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of leaked buffers reported so far.
+     *
+     * @return the amount of leaks
+     */
+    public long getLeaks() {
+        this.reportLeaks();
+        return this.leaks.get();
+    }
+
+    /**
+     * Reads the remainder of a stream into a pooled buffer, growing it as needed.
+     * The returned buffer is flipped, so its remaining bytes are the bytes read.
+     *
+     * @param inputStream the stream
+     * @param sizeHint    the expected amount of bytes
+     * @return the pooled buffer
+     */
+    public PooledBuffer read(InputStream inputStream, int sizeHint) throws IOException {
+        CacheStripe cacheStripe = this.cacheStripe();
+        byte[] copyBuffer = cacheStripe.takeCopyBuffer();
+        PooledBuffer pooledBuffer = this.acquire(sizeHint);
+        try {
+            int read;
+            while ((read = inputStream.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+                ByteBuffer buffer = pooledBuffer.getBuffer();
+                if (buffer.remaining() < read) {
+                    if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+                        throw new IOException("Message body does not fit in a buffer");
+                    }
+
+                    PooledBuffer grown = this.acquire(Math.max(buffer.capacity() * 2, buffer.position() + read));
+                    buffer.flip();
+                    grown.getBuffer().put(buffer);
+                    pooledBuffer.release();
+                    pooledBuffer = grown;
+                    buffer = grown.getBuffer();
+                }
+
+                buffer.put(copyBuffer, 0, read);
+            }
+
+            pooledBuffer.getBuffer().flip();
+            return pooledBuffer;
+        } catch (IOException | RuntimeException e) {
+            pooledBuffer.release();
+            throw e;
+        } finally {
+            cacheStripe.returnCopyBuffer(copyBuffer);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a stream, copying direct buffers in pieces through a cached array.
+     *
+     * @param buffer       the buffer
+     * @param outputStream the stream
+     */
+    public void write(ByteBuffer buffer, OutputStream outputStream) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        CacheStripe cacheStripe = this.cacheStripe();
+        byte[] copyBuffer = cacheStripe.takeCopyBuffer();
+        try {
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), copyBuffer.length);
+                buffer.get(copyBuffer, 0, n);
+                outputStream.write(copyBuffer, 0, n);
+            }
+        } finally {
+            cacheStripe.returnCopyBuffer(copyBuffer);
+        }
+    }
+
+    /**
+     * The buffers cached for the threads mapped to a stripe.
+     * The stripe is locked only briefly, the copy buffer is lent out while copying and replaced if another thread holds it.
+     */
+    protected static class CacheStripe {
+        protected final ByteBuffer[][] buffers = new ByteBuffer[SIZE_CLASSES][CACHE_STRIPE_SIZE];
+        protected final int[] sizes = new int[SIZE_CLASSES];
+        protected byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+        protected int acquired;
+
+        protected synchronized boolean sample() {
+            return ++this.acquired % LEAK_SAMPLE_INTERVAL == 0;
+        }
+
+        protected synchronized byte[] takeCopyBuffer() {
+            byte[] copyBuffer = this.copyBuffer;
+            this.copyBuffer = null;
+            return copyBuffer == null ? new byte[COPY_BUFFER_SIZE] : copyBuffer;
+        }
+
+        protected synchronized void returnCopyBuffer(byte[] copyBuffer) {
+            this.copyBuffer = copyBuffer;
+        }
+
+        protected synchronized ByteBuffer pop(int sizeClass) {
+            if (this.sizes[sizeClass] == 0) {
+                return null;
+            }
+
+            int i = --this.sizes[sizeClass];
+            ByteBuffer buffer = this.buffers[sizeClass][i];
+            this.buffers[sizeClass][i] = null;
+            return buffer;
+        }
+
+        protected synchronized boolean push(int sizeClass, ByteBuffer buffer) {
+            if (this.sizes[sizeClass] == CACHE_STRIPE_SIZE) {
+                return false;
+            }
+
+            this.buffers[sizeClass][this.sizes[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+
+    /**
+     * Detects a tracked pooled buffer being garbage collected.
+     * The buffer itself is not returned to the pool, as views of it may still be in use.
+     */
+    protected static class LeakTracker extends PhantomReference<PooledBuffer> {
+        protected final int capacity;
+        protected final Throwable acquiredAt;
+
+        protected LeakTracker(PooledBuffer pooledBuffer, ReferenceQueue<PooledBuffer> referenceQueue, int capacity, Throwable acquiredAt) {
+            super(pooledBuffer, referenceQueue);
+            this.capacity = capacity;
+            this.acquiredAt = acquiredAt;
+        }
+    }
+}
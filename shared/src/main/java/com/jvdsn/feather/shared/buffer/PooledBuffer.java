@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A reference-counted view of a direct buffer borrowed from a {@link BufferPool}.
+ * The buffer returns to the pool when the last reference is released, after which it must no longer be used.
+ * Code keeping the buffer beyond the scope it received it in should retain it, and release it when done.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class PooledBuffer {
+    private static final AtomicIntegerFieldUpdater<PooledBuffer> REFERENCE_COUNT = AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "referenceCount");
+
+    protected final BufferPool pool;
+    // The index of the size class, or -1 if the buffer is too large to be pooled.
+    protected final int sizeClass;
+    protected final ByteBuffer buffer;
+    // Set by the pool right after construction if this pooled buffer is tracked for leaks.
+    protected BufferPool.LeakTracker leakTracker;
+    protected volatile int referenceCount = 1;
+
+    /**
+     * Constructs a new pooled buffer holding a single reference.
+     *
+     * @param pool      the pool the buffer was borrowed from
+     * @param sizeClass the index of the size class of the buffer, or -1 if it is not pooled
+     * @param buffer    the buffer
+     */
+    protected PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the buffer.
+     * Its position and limit are owned by the holders of the references, use {@link ByteBuffer#duplicate()} for independent positions.
+     *
+     * @return the buffer
+     * @throws IllegalStateException if the buffer was released
+     */
+    public ByteBuffer getBuffer() {
+        if (this.referenceCount == 0) {
+            throw new IllegalStateException("The buffer was released");
+        }
+
+        return this.buffer;
+    }
+
+    /**
+     * Returns the amount of references to the buffer.
+     *
+     * @return the reference count, 0 if the buffer was released
+     */
+    public int getReferenceCount() {
+        return this.referenceCount;
+    }
+
+    /**
+     * Adds a reference to the buffer.
+     *
+     * @return this pooled buffer
+     * @throws IllegalStateException if the buffer was released
+     */
+    public PooledBuffer retain() {
+        while (true) {
+            int referenceCount = this.referenceCount;
+            if (referenceCount == 0) {
+                throw new IllegalStateException("The buffer was released");
+            }
+
+            if (REFERENCE_COUNT.compareAndSet(this, referenceCount, referenceCount + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Removes a reference to the buffer, returning it to the pool if it was the last reference.
+     *
+     * @return true if the buffer was returned to the pool, false if other references remain
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public boolean release() {
+        while (true) {
+            int referenceCount = this.referenceCount;
+            if (referenceCount == 0) {
+                throw new IllegalStateException("The buffer was already released");
+            }
+
+            if (REFERENCE_COUNT.compareAndSet(this, referenceCount, referenceCount - 1)) {
+                if (referenceCount > 1) {
+                    return false;
+                }
+
+                this.pool.recycle(this);
+                return true;
+            }
+        }
+    }
+}
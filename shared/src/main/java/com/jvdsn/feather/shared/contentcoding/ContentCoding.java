@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.contentcoding;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * A content coding, which compresses a representation independently of how it is transferred.
+ * Encoding and decoding happen in a streaming fashion, flushing an encoding stream sends everything written so far.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
+@EqualsAndHashCode
+public abstract class ContentCoding {
+    public static final String DEFLATE = "deflate";
+    public static final String GZIP = "gzip";
+    public static final String IDENTITY = "identity";
+    public static final String X_GZIP = "x-gzip";
+    public static final int BUFFER_SIZE = 8192;
+
+    protected final @NonNull String identifier;
+
+    /**
+     * Returns a content coding by the identifier, ignoring case.
+     *
+     * @param identifier the identifier
+     * @return an optional containing the content coding, or an empty optional if the identifier is unknown
+     */
+    public static Optional<ContentCoding> getByIdentifier(String identifier) {
+        switch (identifier.toLowerCase(Locale.ROOT)) {
+            case GZIP:
+            case X_GZIP:
+                return Optional.of(new GzipContentCoding());
+            case DEFLATE:
+                return Optional.of(new DeflateContentCoding());
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * Opens a stream encoding the data written to it.
+     * Closing the returned stream finishes the encoded data and closes the output stream.
+     *
+     * @param outputStream the output stream to write the encoded data to
+     * @return the encoding stream
+     */
+    public abstract OutputStream openOutputStream(OutputStream outputStream) throws IOException;
+
+    /**
+     * Opens a stream decoding the data read from it.
+     * Closing the returned stream closes the input stream.
+     *
+     * @param inputStream the input stream to read the encoded data from
+     * @return the decoding stream
+     */
+    public abstract InputStream openInputStream(InputStream inputStream) throws IOException;
+
+    /**
+     * Encodes some data at once.
+     *
+     * @param data the data
+     * @param off  the offset of the data in the array
+     * @param len  the length of the data
+     * @return the encoded data
+     */
+    public byte[] encode(byte[] data, int off, int len) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(Math.max(len / 4, 64));
+        try (OutputStream outputStream = this.openOutputStream(encoded)) {
+            outputStream.write(data, off, len);
+        }
+
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Decodes some data at once.
+     *
+     * @param data the encoded data
+     * @return the decoded data
+     */
+    public byte[] decode(byte[] data) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(data.length * 4);
+        try (InputStream inputStream = this.openInputStream(new ByteArrayInputStream(data))) {
+            byte[] b = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(b)) != -1) {
+                decoded.write(b, 0, read);
+            }
+        }
+
+        return decoded.toByteArray();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.contentcoding;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The 'deflate' content coding, which is the zlib format rather than raw deflate data.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class DeflateContentCoding extends ContentCoding {
+    protected final int level;
+
+    /**
+     * Constructs a new deflate content coding.
+     *
+     * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateContentCoding(int level) {
+        super(ContentCoding.DEFLATE);
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+
+        this.level = level;
+    }
+
+    /**
+     * Constructs a new deflate content coding with the default compression level.
+     */
+    public DeflateContentCoding() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public OutputStream openOutputStream(OutputStream outputStream) {
+        Deflater deflater = new Deflater(this.level);
+        // Flushing syncs the compressor, so a streamed response can be sent in pieces.
+        return new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE, true) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // The deflater was passed in, so it has to be released explicitly.
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream openInputStream(InputStream inputStream) {
+        return new InflaterInputStream(inputStream);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.contentcoding;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The 'gzip' content coding.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class GzipContentCoding extends ContentCoding {
+    protected final int level;
+
+    /**
+     * Constructs a new gzip content coding.
+     *
+     * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public GzipContentCoding(int level) {
+        super(ContentCoding.GZIP);
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+
+        this.level = level;
+    }
+
+    /**
+     * Constructs a new gzip content coding with the default compression level.
+     */
+    public GzipContentCoding() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public OutputStream openOutputStream(OutputStream outputStream) throws IOException {
+        // Flushing syncs the compressor, so a streamed response can be sent in pieces.
+        int level = this.level;
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE, true) {
+            {
+                this.def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public InputStream openInputStream(InputStream inputStream) throws IOException {
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The Accept-Encoding header.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AcceptEncoding implements Header {
+    public static final String ANY = "*";
+    public static final String QUALITY_PARAMETER = "q";
+
+    // The qualities by lowercase content coding, in the order they were listed.
+    protected @NonNull Map<String, Double> qualities;
+
+    /**
+     * Returns the quality of a content coding, from 0 (not acceptable) to 1.
+     * Content codings that aren't listed get the quality of *, the identity coding is acceptable unless it was excluded.
+     *
+     * @param contentCoding the identifier of the content coding
+     * @return the quality
+     */
+    public double getQuality(String contentCoding) {
+        Double quality = this.qualities.get(contentCoding.toLowerCase(Locale.ROOT));
+        if (quality == null) {
+            quality = this.qualities.get(ANY);
+        }
+
+        if (quality == null) {
+            return ContentCoding.IDENTITY.equalsIgnoreCase(contentCoding) ? 1 : 0;
+        }
+
+        return quality;
+    }
+
+    /**
+     * Returns true if a content coding is acceptable.
+     *
+     * @param contentCoding the identifier of the content coding
+     * @return true if the quality of the content coding is positive, false otherwise
+     */
+    public boolean accepts(String contentCoding) {
+        return this.getQuality(contentCoding) > 0;
+    }
+
+    @Override
+    public AcceptEncoding deserialize(String s) {
+        Map<String, Double> qualities = new LinkedHashMap<>();
+        for (String element : s.split(",")) {
+            String[] splitted = element.split(";");
+            String contentCoding = splitted[0].trim().toLowerCase(Locale.ROOT);
+            if (contentCoding.isEmpty()) {
+                continue;
+            }
+
+            double quality = 1;
+            for (int i = 1; i < splitted.length; i++) {
+                int j = splitted[i].indexOf('=');
+                if (j != -1 && splitted[i].substring(0, j).trim().equalsIgnoreCase(QUALITY_PARAMETER)) {
+                    try {
+                        quality = Math.max(0, Math.min(1, Double.parseDouble(splitted[i].substring(j + 1).trim())));
+                    } catch (NumberFormatException e) {
+                        // A malformed quality doesn't make the content coding any more acceptable.
+                        quality = 0;
+                    }
+                }
+            }
+
+            qualities.put(contentCoding, quality);
+        }
+
+        this.qualities = qualities;
+        return this;
+    }
+
+    @Override
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, Double> quality : this.qualities.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+
+            sb.append(quality.getKey());
+            if (quality.getValue() != 1) {
+                sb.append(";q=").append(quality.getValue());
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import com.jvdsn.feather.shared.request.RequestMethod;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The Allow header.
+ * The request methods are kept as strings, so request methods unknown to this library are preserved.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Allow implements Header {
+    protected @NonNull List<String> requestMethods;
+
+    /**
+     * Constructs a new Allow header from request methods.
+     *
+     * @param requestMethods the request methods
+     */
+    public Allow(@NonNull Collection<RequestMethod> requestMethods) {
+        this.requestMethods = new ArrayList<>();
+        for (RequestMethod requestMethod : requestMethods) {
+            this.requestMethods.add(requestMethod.name());
+        }
+    }
+
+    @Override
+    public Allow deserialize(String s) {
+        List<String> requestMethods = new ArrayList<>();
+        for (String requestMethod : s.split(",")) {
+            requestMethod = requestMethod.trim();
+            if (!requestMethod.isEmpty()) {
+                requestMethods.add(requestMethod);
+            }
+        }
+
+        this.requestMethods = requestMethods;
+        return this;
+    }
+
+    @Override
+    public String serialize() {
+        return String.join(", ", this.requestMethods);
+    }
+}
@@ -24,8 +24,27 @@ import lombok.NonNull;
 @AllArgsConstructor
 @NoArgsConstructor
 public class Connection implements Header {
+    public static final String CLOSE = "close";
+    public static final String KEEP_ALIVE = "keep-alive";
+
     protected @NonNull String tokens;
 
+    /**
+     * Returns true if the connection options contain a token, ignoring case.
+     *
+     * @param token the token
+     * @return true if the connection options contain the token, false otherwise
+     */
+    public boolean contains(String token) {
+        for (String t : this.tokens.split(",")) {
+            if (t.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public Connection deserialize(String s) {
         this.tokens = s;
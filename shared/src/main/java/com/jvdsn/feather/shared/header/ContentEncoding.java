@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The Content-Encoding header.
+ * The content codings are listed in the order they were applied.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ContentEncoding implements Header {
+    protected @NonNull List<String> contentCodings;
+
+    /**
+     * Constructs a new Content-Encoding header with a single content coding.
+     *
+     * @param contentCoding the content coding
+     */
+    public ContentEncoding(@NonNull ContentCoding contentCoding) {
+        this(Collections.singletonList(contentCoding.getIdentifier()));
+    }
+
+    /**
+     * Returns the last applied content coding if it is known, which is the first to decode.
+     *
+     * @return an optional containing the content coding, or an empty optional
+     */
+    public Optional<ContentCoding> getLast() {
+        if (this.contentCodings.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return ContentCoding.getByIdentifier(this.contentCodings.get(this.contentCodings.size() - 1));
+    }
+
+    @Override
+    public ContentEncoding deserialize(String s) {
+        List<String> contentCodings = new ArrayList<>();
+        for (String contentCoding : s.split(",")) {
+            contentCoding = contentCoding.trim();
+            if (!contentCoding.isEmpty()) {
+                contentCodings.add(contentCoding);
+            }
+        }
+
+        this.contentCodings = contentCodings;
+        return this;
+    }
+
+    @Override
+    public String serialize() {
+        return String.join(", ", this.contentCodings);
+    }
+}
@@ -13,9 +13,6 @@ package com.jvdsn.feather.shared.header;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import lombok.NonNull;
-
-import java.math.BigInteger;
 
 /**
  * The Content-Length header.
@@ -26,16 +23,21 @@ import java.math.BigInteger;
 @AllArgsConstructor
 @NoArgsConstructor
 public class ContentLength implements Header {
-    protected @NonNull BigInteger length;
+    protected long length;
 
     @Override
     public ContentLength deserialize(String s) {
-        this.length = new BigInteger(s);
+        // Long.parseLong accepts a sign, which is not allowed in a Content-Length.
+        if (s.isEmpty() || s.charAt(0) < '0' || s.charAt(0) > '9') {
+            throw new NumberFormatException("Malformed content length " + s);
+        }
+
+        this.length = Long.parseLong(s);
         return this;
     }
 
     @Override
     public String serialize() {
-        return this.length.toString();
+        return Long.toString(this.length);
     }
 }
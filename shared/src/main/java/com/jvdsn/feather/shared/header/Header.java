@@ -16,37 +16,39 @@ package com.jvdsn.feather.shared.header;
  * @author Joachim Vandersmissen
  */
 public interface Header {
+    String ACCEPT = "Accept";
+    String ACCEPT_ENCODING = "Accept-Encoding";
+    String ACCEPT_LANGUAGE = "Accept-Language";
+    String ALLOW = "Allow";
+    String AUTHORIZATION = "Authorization";
+    String CACHE_CONTROL = "Cache-Control";
     String CONNECTION = "Connection";
+    String CONTENT_ENCODING = "Content-Encoding";
     String CONTENT_LENGTH = "Content-Length";
     String CONTENT_TYPE = "Content-Type";
+    String COOKIE = "Cookie";
+    String DATE = "Date";
+    String EXPECT = "Expect";
     String HOST = "Host";
     String IF_MODIFIED_SINCE = "If-Modified-Since";
+    String LAST_MODIFIED = "Last-Modified";
+    String REFERER = "Referer";
+    String SERVER = "Server";
     String TRANSFER_ENCODING = "Transfer-Encoding";
+    String USER_AGENT = "User-Agent";
+    String VARY = "Vary";
     char SEPARATOR = ':';
 
     /**
      * Returns a header by the field name, or an unknown header if the field name is unknown.
+     * Field names are case-insensitive.
      *
      * @param fieldName the field name
      * @return the header
      */
     static Header getByFieldName(String fieldName) {
-        switch (fieldName) {
-            case CONNECTION:
-                return new Connection();
-            case CONTENT_LENGTH:
-                return new ContentLength();
-            case CONTENT_TYPE:
-                return new ContentType();
-            case HOST:
-                return new Host();
-            case IF_MODIFIED_SINCE:
-                return new IfModifiedSince();
-            case TRANSFER_ENCODING:
-                return new TransferEncoding();
-            default:
-                return new UnknownHeader();
-        }
+        int id = HeaderNames.getId(fieldName);
+        return id == HeaderNames.UNKNOWN ? new UnknownHeader() : HeaderNames.newHeader(id);
     }
 
     /**
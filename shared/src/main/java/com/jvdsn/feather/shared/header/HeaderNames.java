@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A table of well-known header field names.
+ * Field names are matched case-insensitively, directly from strings or bytes, without allocating.
+ * Each well-known field name has an id, which maps to the interned field name and a factory for the header.
+ *
+ * @author Joachim Vandersmissen
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class HeaderNames {
+    public static final int UNKNOWN = -1;
+
+    private static final String[] NAMES = {
+            Header.ACCEPT, Header.ACCEPT_ENCODING, Header.ACCEPT_LANGUAGE, Header.ALLOW, Header.AUTHORIZATION, Header.CACHE_CONTROL,
+            Header.CONNECTION, Header.CONTENT_ENCODING, Header.CONTENT_LENGTH, Header.CONTENT_TYPE, Header.COOKIE,
+            Header.DATE, Header.EXPECT, Header.HOST, Header.IF_MODIFIED_SINCE, Header.LAST_MODIFIED,
+            Header.REFERER, Header.SERVER, Header.TRANSFER_ENCODING, Header.USER_AGENT,
+            Header.VARY
+    };
+    private static final int[] HASHES = new int[NAMES.length];
+    @SuppressWarnings("unchecked")
+    private static final Supplier<Header>[] FACTORIES = new Supplier[NAMES.length];
+    // Open addressing, each slot contains an id or UNKNOWN, at most half full.
+    private static final int[] TABLE = new int[64];
+
+    static {
+        Arrays.fill(TABLE, UNKNOWN);
+        for (int id = 0; id < NAMES.length; id++) {
+            HASHES[id] = hash(NAMES[id]);
+            FACTORIES[id] = UnknownHeader::new;
+            int slot = HASHES[id] & (TABLE.length - 1);
+            while (TABLE[slot] != UNKNOWN) {
+                slot = (slot + 1) & (TABLE.length - 1);
+            }
+
+            TABLE[slot] = id;
+        }
+
+        FACTORIES[getId(Header.ACCEPT_ENCODING)] = AcceptEncoding::new;
+        FACTORIES[getId(Header.ALLOW)] = Allow::new;
+        FACTORIES[getId(Header.CONNECTION)] = Connection::new;
+        FACTORIES[getId(Header.CONTENT_ENCODING)] = ContentEncoding::new;
+        FACTORIES[getId(Header.CONTENT_LENGTH)] = ContentLength::new;
+        FACTORIES[getId(Header.CONTENT_TYPE)] = ContentType::new;
+        FACTORIES[getId(Header.HOST)] = Host::new;
+        FACTORIES[getId(Header.IF_MODIFIED_SINCE)] = IfModifiedSince::new;
+        FACTORIES[getId(Header.LAST_MODIFIED)] = LastModified::new;
+        FACTORIES[getId(Header.TRANSFER_ENCODING)] = TransferEncoding::new;
+    }
+
+    /**
+     * Converts an ASCII uppercase letter to lowercase, leaving other characters unchanged.
+     *
+     * @param c the character
+     * @return the lowercase character
+     */
+    public static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Returns the case-insensitive hash of a field name.
+     *
+     * @param fieldName the field name
+     * @return the hash
+     */
+    public static int hash(String fieldName) {
+        int hash = 0;
+        for (int i = 0; i < fieldName.length(); i++) {
+            hash = 31 * hash + toLowerCase(fieldName.charAt(i));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the case-insensitive hash of a field name in a range of a buffer, without modifying the buffer.
+     *
+     * @param buffer the buffer
+     * @param start  the absolute start index (inclusive)
+     * @param end    the absolute end index (exclusive)
+     * @return the hash
+     */
+    public static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase(buffer.get(i) & 0xFF);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the id of a well-known field name.
+     *
+     * @param fieldName the field name, in any case
+     * @return the id, or {@link #UNKNOWN} if the field name is not well-known
+     */
+    public static int getId(String fieldName) {
+        int hash = hash(fieldName);
+        for (int slot = hash & (TABLE.length - 1); TABLE[slot] != UNKNOWN; slot = (slot + 1) & (TABLE.length - 1)) {
+            int id = TABLE[slot];
+            if (HASHES[id] == hash && NAMES[id].equalsIgnoreCase(fieldName)) {
+                return id;
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the id of a well-known field name in a range of a buffer, without modifying the buffer.
+     *
+     * @param buffer the buffer
+     * @param start  the absolute start index (inclusive)
+     * @param end    the absolute end index (exclusive)
+     * @return the id, or {@link #UNKNOWN} if the field name is not well-known
+     */
+    public static int getId(ByteBuffer buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        outer:
+        for (int slot = hash & (TABLE.length - 1); TABLE[slot] != UNKNOWN; slot = (slot + 1) & (TABLE.length - 1)) {
+            int id = TABLE[slot];
+            String name = NAMES[id];
+            if (HASHES[id] != hash || name.length() != end - start) {
+                continue;
+            }
+
+            for (int i = 0; i < name.length(); i++) {
+                if (toLowerCase(name.charAt(i)) != toLowerCase(buffer.get(start + i) & 0xFF)) {
+                    continue outer;
+                }
+            }
+
+            return id;
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the interned field name of an id.
+     *
+     * @param id the id
+     * @return the field name
+     */
+    public static String getName(int id) {
+        return NAMES[id];
+    }
+
+    /**
+     * Constructs a new, empty header of the type associated with an id.
+     *
+     * @param id the id
+     * @return the header
+     */
+    public static Header newHeader(int id) {
+        return FACTORIES[id].get();
+    }
+
+}
@@ -10,6 +10,7 @@
 
 package com.jvdsn.feather.shared.header;
 
+import com.jvdsn.feather.shared.transfercoding.StackedTransferCoding;
 import com.jvdsn.feather.shared.transfercoding.TransferCoding;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -44,6 +45,35 @@ public class TransferEncoding implements Header {
         return Optional.empty();
     }
 
+    /**
+     * Returns the last transfer coding if possible, which delimits the message body.
+     *
+     * @return an optional containing the last transfer coding, or an empty optional
+     */
+    public Optional<TransferCoding> getLast() {
+        if (this.transferCodings.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(this.transferCodings.get(this.transferCodings.size() - 1));
+    }
+
+    /**
+     * Returns a transfer coding applying all transfer codings in order if possible.
+     *
+     * @return an optional containing the single transfer coding or a {@link StackedTransferCoding}, or an empty optional
+     */
+    public Optional<TransferCoding> getTransferCoding() {
+        switch (this.transferCodings.size()) {
+            case 0:
+                return Optional.empty();
+            case 1:
+                return Optional.of(this.transferCodings.get(0));
+            default:
+                return Optional.of(new StackedTransferCoding(this.transferCodings));
+        }
+    }
+
     @Override
     public TransferEncoding deserialize(String s) {
         String[] splitted = s.split(",");
@@ -55,7 +85,8 @@ public class TransferEncoding implements Header {
             }
         }
 
-        return new TransferEncoding(transferCodings);
+        this.transferCodings = transferCodings;
+        return this;
     }
 
     @Override
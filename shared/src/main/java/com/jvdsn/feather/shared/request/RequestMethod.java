@@ -23,5 +23,21 @@ public enum RequestMethod {
     DELETE,
     CONNECT,
     OPTIONS,
-    TRACE
+    TRACE;
+
+    /**
+     * Returns true if sending a request with this method multiple times has the same effect as sending it once.
+     * Such requests can safely be sent again if the connection fails before the response was received.
+     *
+     * @return true if this method is idempotent, false otherwise
+     */
+    public boolean isIdempotent() {
+        switch (this) {
+            case POST:
+            case CONNECT:
+                return false;
+            default:
+                return true;
+        }
+    }
 }
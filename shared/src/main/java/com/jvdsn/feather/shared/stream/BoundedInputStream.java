@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream reading a fixed amount of bytes from an underlying input stream.
+ * Closing this stream skips the unread bytes but leaves the underlying input stream open, so the next message can be read.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class BoundedInputStream extends InputStream {
+    public static final int SKIP_BUFFER_SIZE = 8192;
+
+    protected final InputStream inputStream;
+    @Getter
+    protected long remaining;
+
+    /**
+     * Constructs a new bounded input stream.
+     *
+     * @param inputStream the underlying input stream
+     * @param length      the amount of bytes to read
+     */
+    public BoundedInputStream(@NonNull InputStream inputStream, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+
+        this.inputStream = inputStream;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.remaining == 0) {
+            return -1;
+        }
+
+        int i = this.inputStream.read();
+        if (i == -1) {
+            throw new EOFException("Unexpected end of stream, " + this.remaining + " bytes remaining");
+        }
+
+        this.remaining--;
+        return i;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (this.remaining == 0) {
+            return -1;
+        }
+
+        int read = this.inputStream.read(b, off, (int) Math.min(len, this.remaining));
+        if (read == -1) {
+            throw new EOFException("Unexpected end of stream, " + this.remaining + " bytes remaining");
+        }
+
+        this.remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(this.inputStream.available(), this.remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        byte[] b = new byte[(int) Math.min(SKIP_BUFFER_SIZE, this.remaining)];
+        while (this.remaining > 0) {
+            this.read(b, 0, b.length);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream writing a fixed amount of bytes to an underlying output stream.
+ * Closing this stream verifies all bytes were written but leaves the underlying output stream open, so the next message can be written.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class BoundedOutputStream extends OutputStream {
+    protected final OutputStream outputStream;
+    @Getter
+    protected long remaining;
+    protected boolean closed;
+
+    /**
+     * Constructs a new bounded output stream.
+     *
+     * @param outputStream the underlying output stream
+     * @param length       the amount of bytes to write
+     */
+    public BoundedOutputStream(@NonNull OutputStream outputStream, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+
+        this.outputStream = outputStream;
+        this.remaining = length;
+    }
+
+    /**
+     * Checks whether more bytes can be written.
+     *
+     * @param len the amount of bytes to write
+     */
+    protected void ensureWritable(int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (len > this.remaining) {
+            throw new IOException("Message body exceeds its length, " + this.remaining + " bytes remaining");
+        }
+    }
+
+    @Override
+    public void write(int i) throws IOException {
+        this.ensureWritable(1);
+        this.outputStream.write(i);
+        this.remaining--;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.ensureWritable(len);
+        this.outputStream.write(b, off, len);
+        this.remaining -= len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        if (this.remaining > 0) {
+            throw new IOException("Message body ended prematurely, " + this.remaining + " bytes remaining");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.TransferCoding;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream decoding a 'chunked' message body while it is read.
+ * Chunk data is read straight from the underlying input stream into the caller's array, the chunk headers are parsed from the buffered bytes.
+ * Closing this stream skips the unread chunks and the trailer but leaves the underlying input stream open.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ChunkedInputStream extends InputStream {
+    protected final HttpInputStream inputStream;
+    protected final TransferCoding transferCoding;
+    // True if the chunk data isn't transformed, so it can be read without opening a stream per chunk.
+    protected final boolean identity;
+    protected InputStream chunk;
+    protected long remaining;
+    protected boolean started;
+    @Getter
+    protected Headers trailer;
+
+    /**
+     * Constructs a new chunked input stream.
+     *
+     * @param inputStream    the underlying input stream
+     * @param transferCoding the transfer coding of the data in each chunk
+     */
+    public ChunkedInputStream(@NonNull HttpInputStream inputStream, @NonNull TransferCoding transferCoding) {
+        this.inputStream = inputStream;
+        this.transferCoding = transferCoding;
+        this.identity = transferCoding.getClass() == DefaultTransferCoding.class;
+    }
+
+    /**
+     * Returns true if the last chunk and the trailer were read.
+     *
+     * @return true if the message body was fully read, false otherwise
+     */
+    public boolean isFinished() {
+        return this.trailer != null;
+    }
+
+    /**
+     * Advances to the next chunk, should only be called after the current chunk was fully read.
+     *
+     * @return false if the last chunk was read
+     */
+    protected boolean advance() throws IOException {
+        if (this.isFinished()) {
+            return false;
+        }
+
+        if (this.started) {
+            this.chunk = null;
+            this.inputStream.readLineEnd();
+        }
+
+        this.started = true;
+        long chunkSize = this.inputStream.readChunkSize(null);
+        if (chunkSize == 0) {
+            this.trailer = this.inputStream.readHeaders();
+            return false;
+        }
+
+        if (this.identity) {
+            this.remaining = chunkSize;
+        } else {
+            this.chunk = this.transferCoding.openInputStream(this.inputStream, chunkSize);
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads from the current chunk.
+     *
+     * @return the amount of bytes read, or -1 if the current chunk was fully read
+     */
+    protected int readChunk(byte[] b, int off, int len) throws IOException {
+        if (!this.identity) {
+            return this.chunk == null ? -1 : this.chunk.read(b, off, len);
+        }
+
+        if (this.remaining == 0) {
+            return -1;
+        }
+
+        int read = this.inputStream.read(b, off, (int) Math.min(len, this.remaining));
+        if (read == -1) {
+            throw new EOFException("Unexpected end of stream, " + this.remaining + " bytes of chunk data remaining");
+        }
+
+        this.remaining -= read;
+        return read;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            int i;
+            if (this.identity && this.remaining > 0) {
+                if ((i = this.inputStream.read()) == -1) {
+                    throw new EOFException("Unexpected end of stream, " + this.remaining + " bytes of chunk data remaining");
+                }
+
+                this.remaining--;
+                return i;
+            }
+
+            if (this.chunk != null && (i = this.chunk.read()) != -1) {
+                return i;
+            }
+
+            if (!this.advance()) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            int read = this.readChunk(b, off, len);
+            if (read != -1) {
+                return read;
+            }
+
+            if (!this.advance()) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (this.identity) {
+            return (int) Math.min(this.remaining, this.inputStream.available());
+        }
+
+        return this.chunk == null ? 0 : this.chunk.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        byte[] b = new byte[BoundedInputStream.SKIP_BUFFER_SIZE];
+        while (this.read(b, 0, b.length) != -1) {
+            // Skip the remaining chunks so the next message can be read.
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.TransferCoding;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream encoding a 'chunked' message body while it is written.
+ * Written data is collected into chunks, which are sent when they are full or when this stream is flushed.
+ * The chunk size adapts to the producer between a minimum and a maximum: it doubles every time a chunk fills up before the producer flushes,
+ * and falls back to the minimum when the producer flushes chunks that are mostly empty.
+ * Closing this stream sends the last chunk and the trailer but leaves the underlying output stream open.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class ChunkedOutputStream extends OutputStream {
+    protected final HttpOutputStream outputStream;
+    protected final TransferCoding transferCoding;
+    // True if the chunk data isn't transformed, so it can be written without opening a stream per chunk.
+    protected final boolean identity;
+    protected final int minChunkSize;
+    protected final int maxChunkSize;
+    protected byte[] chunk;
+    protected int chunkSize;
+    protected int position;
+    protected Headers trailer = new Headers();
+    protected boolean closed;
+
+    /**
+     * Constructs a new chunked output stream with an adaptive chunk size.
+     *
+     * @param outputStream   the underlying output stream
+     * @param transferCoding the transfer coding of the data in each chunk
+     * @param minChunkSize   the initial amount of data collected into a chunk
+     * @param maxChunkSize   the maximum amount of data collected into a chunk
+     */
+    public ChunkedOutputStream(@NonNull HttpOutputStream outputStream, @NonNull TransferCoding transferCoding, int minChunkSize, int maxChunkSize) {
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes " + minChunkSize + " and " + maxChunkSize);
+        }
+
+        this.outputStream = outputStream;
+        this.transferCoding = transferCoding;
+        this.identity = transferCoding.getClass() == DefaultTransferCoding.class;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.chunkSize = minChunkSize;
+    }
+
+    /**
+     * Constructs a new chunked output stream.
+     *
+     * @param outputStream   the underlying output stream
+     * @param transferCoding the transfer coding of the data in each chunk
+     * @param chunkSize      the maximum amount of data collected into a chunk
+     */
+    public ChunkedOutputStream(@NonNull HttpOutputStream outputStream, @NonNull TransferCoding transferCoding, int chunkSize) {
+        this(outputStream, transferCoding, chunkSize, chunkSize);
+    }
+
+    /**
+     * Sets the trailer, which is sent when this stream is closed.
+     *
+     * @param trailer the trailer
+     */
+    public void setTrailer(@NonNull Headers trailer) {
+        this.trailer = trailer;
+    }
+
+    /**
+     * Sends a chunk, the chunk must not be empty.
+     *
+     * @param b   the data
+     * @param off the offset of the chunk in the data
+     * @param len the length of the chunk
+     */
+    protected void writeChunk(byte[] b, int off, int len) throws IOException {
+        this.outputStream.writeChunkSize(len, null);
+        if (this.identity) {
+            this.outputStream.write(b, off, len);
+        } else {
+            try (OutputStream outputStream = this.transferCoding.openOutputStream(this.outputStream, len)) {
+                outputStream.write(b, off, len);
+            }
+        }
+
+        this.outputStream.writeLine("");
+    }
+
+    /**
+     * Sends the collected data as a chunk, if there is any.
+     */
+    protected void writeCollected() throws IOException {
+        if (this.position > 0) {
+            this.writeChunk(this.chunk, 0, this.position);
+            this.position = 0;
+        }
+    }
+
+    /**
+     * Sends the collected data as a chunk because it is full, and grows the chunk size for the next chunks.
+     */
+    protected void writeFull() throws IOException {
+        this.writeCollected();
+        this.chunkSize = (int) Math.min(2L * this.chunkSize, this.maxChunkSize);
+    }
+
+    /**
+     * Ensures the collected data can grow up to the current chunk size.
+     */
+    protected void ensureCapacity() {
+        if (this.chunk == null || this.chunk.length < this.chunkSize) {
+            byte[] chunk = new byte[this.chunkSize];
+            if (this.position > 0) {
+                System.arraycopy(this.chunk, 0, chunk, 0, this.position);
+            }
+
+            this.chunk = chunk;
+        }
+    }
+
+    @Override
+    public void write(int i) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        this.ensureCapacity();
+        this.chunk[this.position++] = (byte) i;
+        if (this.position == this.chunkSize) {
+            this.writeFull();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        // Data that fills a chunk by itself is sent as is, instead of copying it.
+        if (this.position == 0 && len >= this.chunkSize) {
+            this.writeChunk(b, off, len);
+            this.chunkSize = (int) Math.min(Math.max(2L * this.chunkSize, Integer.highestOneBit(len)), this.maxChunkSize);
+            return;
+        }
+
+        while (len > 0) {
+            this.ensureCapacity();
+            int n = Math.min(len, this.chunkSize - this.position);
+            System.arraycopy(b, off, this.chunk, this.position, n);
+            this.position += n;
+            off += n;
+            len -= n;
+            if (this.position == this.chunkSize) {
+                this.writeFull();
+            }
+        }
+    }
+
+    /**
+     * Sends the collected data as a chunk and flushes the underlying output stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        // A producer flushing small chunks is slow, so there is no point in collecting large chunks for it.
+        if (this.position < this.chunkSize / 4) {
+            this.chunkSize = this.minChunkSize;
+        }
+
+        this.writeCollected();
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.writeCollected();
+        this.outputStream.writeChunkSize(0, null);
+        this.outputStream.writeHeaders(this.trailer);
+    }
+}
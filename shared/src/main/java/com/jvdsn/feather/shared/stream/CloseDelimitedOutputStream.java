@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream writing a message body that ends when the connection is closed.
+ * Closing this stream only flushes the underlying output stream, the connection is closed after the exchange.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class CloseDelimitedOutputStream extends OutputStream {
+    protected final OutputStream outputStream;
+    protected boolean closed;
+
+    /**
+     * Constructs a new close delimited output stream.
+     *
+     * @param outputStream the underlying output stream
+     */
+    public CloseDelimitedOutputStream(@NonNull OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Checks whether the stream is still open.
+     */
+    protected void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(int i) throws IOException {
+        this.ensureOpen();
+        this.outputStream.write(i);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.ensureOpen();
+        this.outputStream.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.outputStream.flush();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream for a message that has no message body, like the response to a HEAD request.
+ * Everything written to this stream is discarded.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class DiscardingOutputStream extends OutputStream {
+    protected boolean closed;
+
+    @Override
+    public void write(int i) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("Range [" + off + ", " + off + " + " + len + ") out of bounds for length " + b.length);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+}
@@ -11,27 +11,138 @@
 package com.jvdsn.feather.shared.stream;
 
 import com.jvdsn.feather.shared.Headers;
-import com.jvdsn.feather.shared.header.Header;
 import com.jvdsn.feather.shared.request.HttpRequest;
-import com.jvdsn.feather.shared.request.RequestMethod;
 import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import lombok.Getter;
 import lombok.NonNull;
-import lombok.Value;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 /**
  * An HTTP input stream.
+ * Reads from the underlying input stream in bulk into a reusable buffer, from which the message heads are parsed.
  *
  * @author Joachim Vandersmissen
  */
-@Value
 public class HttpInputStream extends InputStream {
     public static final String LINE_END = "\r\n";
-    @NonNull InputStream inputStream;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int MAX_BUFFER_SIZE = 65536;
+
+    @Getter
+    protected final @NonNull InputStream inputStream;
+    protected final HttpParser parser = new HttpParser();
+    protected ByteBuffer buffer;
+    // Tracked around every read from the underlying input stream, so a stalled connection can be told apart from a slow one.
+    @Getter
+    protected volatile boolean reading;
+    @Getter
+    protected volatile long bytesRead;
+
+    /**
+     * Constructs a new HTTP input stream.
+     *
+     * @param inputStream the underlying input stream
+     * @param bufferSize  the initial size of the buffer, it grows up to {@link #MAX_BUFFER_SIZE} to fit a line
+     */
+    public HttpInputStream(@NonNull InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * Constructs a new HTTP input stream.
+     *
+     * @param inputStream the underlying input stream
+     */
+    public HttpInputStream(@NonNull InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads from the underlying input stream.
+     *
+     * @param b   the array to read into
+     * @param off the offset in the array
+     * @param len the maximum amount of bytes to read
+     * @return the amount of bytes read, or -1 if the end of the stream was reached
+     */
+    protected int readUnderlying(byte[] b, int off, int len) throws IOException {
+        this.reading = true;
+        try {
+            int read = this.inputStream.read(b, off, len);
+            if (read > 0) {
+                this.bytesRead += read;
+            }
+
+            return read;
+        } finally {
+            this.reading = false;
+        }
+    }
+
+    /**
+     * Reads as much as possible from the underlying input stream into the buffer with a single read.
+     * Growing the buffer if it is full.
+     *
+     * @return the amount of bytes read, or -1 if the end of the stream was reached
+     */
+    protected int fill() throws IOException {
+        this.buffer.compact();
+        if (!this.buffer.hasRemaining()) {
+            if (this.buffer.capacity() >= MAX_BUFFER_SIZE) {
+                throw new IOException("Line exceeds " + MAX_BUFFER_SIZE + " bytes");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(this.buffer.capacity() * 2, MAX_BUFFER_SIZE));
+            this.buffer.flip();
+            buffer.put(this.buffer);
+            this.buffer = buffer;
+        }
+
+        int read = this.readUnderlying(this.buffer.array(), this.buffer.arrayOffset() + this.buffer.position(), this.buffer.remaining());
+        if (read > 0) {
+            this.buffer.position(this.buffer.position() + read);
+        }
+
+        this.buffer.flip();
+        return read;
+    }
+
+    /**
+     * Fills the buffer until the parser completed the message head.
+     *
+     * @param state the state to start parsing in
+     */
+    protected void parse(HttpParser.State state) throws IOException {
+        this.parser.reset(state);
+        while (!this.parser.parse(this.buffer)) {
+            if (this.fill() == -1) {
+                throw new EOFException("Unexpected end of stream while reading message head");
+            }
+        }
+    }
+
+    /**
+     * Waits until data is available without consuming it, such as the first byte of the next message.
+     *
+     * @return false if the end of the stream was reached
+     */
+    public boolean await() throws IOException {
+        while (!this.buffer.hasRemaining()) {
+            if (this.fill() == -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
     /**
      * Reads a line from the input.
@@ -40,19 +151,69 @@ public class HttpInputStream extends InputStream {
      * @return the line
      */
     public String readLine() throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        int i;
-        while ((i = this.inputStream.read()) != -1 && i != LINE_END.charAt(0)) {
-            stringBuilder.append((char) i);
+        int end = this.awaitLine();
+        String line = HttpParser.decode(this.buffer, this.buffer.position(), end);
+        this.buffer.position(end + LINE_END.length());
+        return line;
+    }
+
+    /**
+     * Waits until the buffer contains a full line.
+     *
+     * @return the absolute index of the CR ending the line
+     */
+    protected int awaitLine() throws IOException {
+        int scanned = 0;
+        int end;
+        while ((end = HttpParser.findLineEnd(this.buffer, this.buffer.position() + scanned)) == -1) {
+            scanned = Math.max(0, this.buffer.remaining() - 1);
+            if (this.fill() == -1) {
+                throw new EOFException("Unexpected end of stream while reading line");
+            }
         }
 
-        for (int j = 1; j < LINE_END.length(); j++) {
-            if ((i = this.inputStream.read()) != LINE_END.charAt(j)) {
-                throw new IOException("Expected " + (int) LINE_END.charAt(j) + " but got " + i + " for line end");
+        return end;
+    }
+
+    /**
+     * Reads a chunk size line from the input, parsing the hexadecimal size directly from the buffered bytes.
+     * The chunk extensions are only decoded if a map is given to put them in.
+     *
+     * @param extensions the map to put the chunk extensions in, or null to ignore them
+     * @return the chunk size
+     */
+    public long readChunkSize(Map<String, String> extensions) throws IOException {
+        int end = this.awaitLine();
+        int start = this.buffer.position();
+        long chunkSize = HttpParser.parseChunkSize(this.buffer, start, end);
+        int i = HttpParser.indexOf(this.buffer, start, end, (byte) ChunkedTransferCoding.EXTENSION_SEPARATOR);
+        if (extensions != null && i < end) {
+            for (String extension : HttpParser.decode(this.buffer, i + 1, end).split(String.valueOf(ChunkedTransferCoding.EXTENSION_SEPARATOR))) {
+                int j = extension.indexOf(ChunkedTransferCoding.EXTENSION_VALUE_SEPARATOR);
+                extensions.put((j == -1 ? extension : extension.substring(0, j)).trim(), j == -1 ? "" : extension.substring(j + 1).trim());
             }
         }
 
-        return stringBuilder.toString();
+        this.buffer.position(end + LINE_END.length());
+        return chunkSize;
+    }
+
+    /**
+     * Reads an empty line from the input, such as the CRLF following chunk data.
+     */
+    public void readLineEnd() throws IOException {
+        while (this.buffer.remaining() < LINE_END.length()) {
+            if (this.fill() == -1) {
+                throw new EOFException("Unexpected end of stream while reading line");
+            }
+        }
+
+        int position = this.buffer.position();
+        if (this.buffer.get(position) != HttpParser.CR || this.buffer.get(position + 1) != HttpParser.LF) {
+            throw new IOException("Expected CRLF");
+        }
+
+        this.buffer.position(position + LINE_END.length());
     }
 
     /**
@@ -61,17 +222,8 @@ public class HttpInputStream extends InputStream {
      * @return the headers
      */
     public Headers readHeaders() throws IOException {
-        NavigableMap<String, Header> headers = new TreeMap<>();
-        String line;
-        while (!(line = this.readLine()).isEmpty()) {
-            int i = line.indexOf(Header.SEPARATOR);
-            String fieldName = line.substring(0, i).trim();
-            Header header = Header.getByFieldName(fieldName);
-            header.deserialize(line.substring(i + 1).trim());
-            headers.put(fieldName, header);
-        }
-
-        return new Headers(headers);
+        this.parse(HttpParser.State.HEADERS);
+        return this.parser.getHeaders();
     }
 
     /**
@@ -80,12 +232,8 @@ public class HttpInputStream extends InputStream {
      * @return the HTTP request
      */
     public HttpRequest readHttpRequest() throws IOException {
-        String requestLine = this.readLine();
-        int i = requestLine.indexOf(' ');
-        RequestMethod requestMethod = RequestMethod.valueOf(requestLine.substring(0, i));
-        String request = requestLine.substring(i + 1);
-        int i1 = request.indexOf(' ');
-        return new HttpRequest(requestMethod, request.substring(0, i1), request.substring(i1 + 1), this.readHeaders());
+        this.parse(HttpParser.State.REQUEST_LINE);
+        return this.parser.getRequest();
     }
 
     /**
@@ -94,16 +242,66 @@ public class HttpInputStream extends InputStream {
      * @return the HTTP response
      */
     public HttpResponse readHttpResponse() throws IOException {
-        String statusLine = this.readLine();
-        int i = statusLine.indexOf(' ');
-        String httpVersion = statusLine.substring(0, i);
-        String status = statusLine.substring(i + 1);
-        int i1 = status.indexOf(' ');
-        return new HttpResponse(httpVersion, Integer.parseInt(status.substring(0, i1)), status.substring(i1 + 1), this.readHeaders());
+        this.parse(HttpParser.State.STATUS_LINE);
+        return this.parser.getResponse();
+    }
+
+    /**
+     * Reads exactly len bytes from the input.
+     *
+     * @param b   the array to read into
+     * @param off the offset in the array
+     * @param len the amount of bytes to read
+     */
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int read = this.read(b, off, len);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of stream, " + len + " bytes remaining");
+            }
+
+            off += read;
+            len -= read;
+        }
     }
 
     @Override
     public int read() throws IOException {
-        return this.inputStream.read();
+        while (!this.buffer.hasRemaining()) {
+            if (this.fill() == -1) {
+                return -1;
+            }
+        }
+
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!this.buffer.hasRemaining()) {
+            // Large reads bypass the buffer to avoid copying the data twice.
+            if (len >= this.buffer.capacity()) {
+                return this.readUnderlying(b, off, len);
+            }
+
+            while (!this.buffer.hasRemaining()) {
+                if (this.fill() == -1) {
+                    return -1;
+                }
+            }
+        }
+
+        int n = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.buffer.remaining() + this.inputStream.available();
     }
 }
@@ -14,22 +14,127 @@ import com.jvdsn.feather.shared.Headers;
 import com.jvdsn.feather.shared.header.Header;
 import com.jvdsn.feather.shared.request.HttpRequest;
 import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import lombok.Getter;
 import lombok.NonNull;
-import lombok.Value;
+import lombok.Setter;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Map;
 import java.util.Map.Entry;
 
 /**
  * An HTTP output stream.
+ * Encodes the start line, the headers and small bodies into a reusable buffer, which is only written when it is full or flushed.
+ * Large bodies are written together with the buffered data in a single gathering write if a channel is available.
  *
  * @author Joachim Vandersmissen
  */
-@Value
 public class HttpOutputStream extends OutputStream {
     public static final String LINE_END = "\r\n";
-    @NonNull OutputStream outputStream;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int MAX_WRITE_SIZE = 262144;
+    protected static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    @Getter
+    protected final @NonNull OutputStream outputStream;
+    protected final GatheringByteChannel channel;
+    protected final ByteBuffer buffer;
+    // The amount of data the connection accepts at once, used to size the chunks of streamed message bodies.
+    @Getter
+    @Setter
+    protected int sendBufferSize = DEFAULT_BUFFER_SIZE;
+    // Tracked around every write to the underlying output stream or channel, so a stalled connection can be told apart from a slow one.
+    @Getter
+    protected volatile boolean writing;
+    @Getter
+    protected volatile long bytesWritten;
+
+    /**
+     * Constructs a new HTTP output stream.
+     *
+     * @param outputStream the underlying output stream
+     * @param channel      the channel underlying the output stream, or null if there is none
+     * @param bufferSize   the size of the buffer
+     */
+    public HttpOutputStream(@NonNull OutputStream outputStream, GatheringByteChannel channel, int bufferSize) {
+        this.outputStream = outputStream;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Constructs a new HTTP output stream.
+     *
+     * @param outputStream the underlying output stream
+     * @param channel      the channel underlying the output stream, or null if there is none
+     */
+    public HttpOutputStream(@NonNull OutputStream outputStream, GatheringByteChannel channel) {
+        this(outputStream, channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new HTTP output stream without an underlying channel.
+     *
+     * @param outputStream the underlying output stream
+     */
+    public HttpOutputStream(@NonNull OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    /**
+     * Returns the maximum amount of bytes written to the underlying output stream or channel at once.
+     * Large writes are split, so the progress of a slow connection becomes visible between the writes.
+     * The writes are large enough that splitting them costs next to nothing compared to transferring the data.
+     *
+     * @return the maximum amount of bytes
+     */
+    protected int getMaxWriteSize() {
+        return Math.max(this.sendBufferSize, MAX_WRITE_SIZE);
+    }
+
+    /**
+     * Writes the buffered data to the underlying output stream or channel.
+     */
+    protected void writeBuffer() throws IOException {
+        this.buffer.flip();
+        this.writing = true;
+        try {
+            if (this.channel != null) {
+                while (this.buffer.hasRemaining()) {
+                    this.bytesWritten += this.channel.write(this.buffer);
+                }
+            } else if (this.buffer.hasRemaining()) {
+                this.outputStream.write(this.buffer.array(), this.buffer.arrayOffset(), this.buffer.limit());
+                this.bytesWritten += this.buffer.limit();
+            }
+        } finally {
+            this.writing = false;
+        }
+
+        this.buffer.clear();
+    }
+
+    /**
+     * Encodes a string as ISO-8859-1 into the buffer.
+     *
+     * @param s the string
+     */
+    protected void writeString(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (!this.buffer.hasRemaining()) {
+                this.writeBuffer();
+            }
+
+            char c = s.charAt(i);
+            this.buffer.put(c <= 0xFF ? (byte) c : (byte) '?');
+        }
+    }
 
     /**
      * Writes a line to the output.
@@ -38,7 +143,35 @@ public class HttpOutputStream extends OutputStream {
      * @param line the line
      */
     public void writeLine(String line) throws IOException {
-        this.outputStream.write((line + LINE_END).getBytes());
+        this.writeString(line);
+        this.writeString(LINE_END);
+    }
+
+    /**
+     * Writes a chunk size line to the output, encoding the hexadecimal size without intermediate strings.
+     *
+     * @param chunkSize  the chunk size
+     * @param extensions the chunk extensions, or null if there are none
+     */
+    public void writeChunkSize(long chunkSize, Map<String, String> extensions) throws IOException {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("Chunk size must not be negative, got " + chunkSize);
+        }
+
+        for (int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(chunkSize)) & ~3); shift >= 0; shift -= 4) {
+            this.write(HEX_DIGITS[(int) (chunkSize >>> shift) & 0xF]);
+        }
+
+        if (extensions != null) {
+            for (Entry<String, String> extension : extensions.entrySet()) {
+                this.write(ChunkedTransferCoding.EXTENSION_SEPARATOR);
+                this.writeString(extension.getKey());
+                this.write(ChunkedTransferCoding.EXTENSION_VALUE_SEPARATOR);
+                this.writeString(extension.getValue());
+            }
+        }
+
+        this.writeString(LINE_END);
     }
 
     /**
@@ -47,11 +180,13 @@ public class HttpOutputStream extends OutputStream {
      * @param headers the headers
      */
     public void writeHeaders(Headers headers) throws IOException {
-        for (Entry<String, Header> header : headers.getHeaders().entrySet()) {
-            this.writeLine(header.getKey() + Header.SEPARATOR + header.getValue().serialize());
+        for (int i = 0; i < headers.size(); i++) {
+            this.writeString(headers.getFieldName(i));
+            this.write(Header.SEPARATOR);
+            this.writeLine(headers.getValue(i));
         }
 
-        this.writeLine("");
+        this.writeString(LINE_END);
     }
 
     /**
@@ -60,7 +195,11 @@ public class HttpOutputStream extends OutputStream {
      * @param httpRequest the HTTP request
      */
     public void writeRequest(HttpRequest httpRequest) throws IOException {
-        this.writeLine(httpRequest.getRequestMethod().toString() + ' ' + httpRequest.getResource() + ' ' + httpRequest.getHttpVersion());
+        this.writeString(httpRequest.getRequestMethod().name());
+        this.write(' ');
+        this.writeString(httpRequest.getResource());
+        this.write(' ');
+        this.writeLine(httpRequest.getHttpVersion());
         this.writeHeaders(httpRequest.getHeaders());
     }
 
@@ -70,12 +209,149 @@ public class HttpOutputStream extends OutputStream {
      * @param httpResponse the HTTP response
      */
     public void writeResponse(HttpResponse httpResponse) throws IOException {
-        this.writeLine(httpResponse.getHttpVersion() + ' ' + httpResponse.getStatusCode() + ' ' + httpResponse.getStatusMessage());
+        this.writeString(httpResponse.getHttpVersion());
+        this.write(' ');
+        this.writeString(Integer.toString(httpResponse.getStatusCode()));
+        this.write(' ');
+        this.writeLine(httpResponse.getStatusMessage());
         this.writeHeaders(httpResponse.getHeaders());
     }
 
+    /**
+     * Writes the remaining bytes of a buffer to the output.
+     * The buffered data and the bytes are written in a single gathering write if a channel is available.
+     *
+     * @param src the buffer
+     */
+    public void write(ByteBuffer src) throws IOException {
+        if (src.remaining() <= this.buffer.remaining()) {
+            this.buffer.put(src);
+            return;
+        }
+
+        int limit = src.limit();
+        if (this.channel != null) {
+            this.buffer.flip();
+            ByteBuffer[] buffers = {this.buffer, src};
+            this.writing = true;
+            try {
+                // The buffered data precedes the source, so both are written once the source is.
+                while (src.position() < limit) {
+                    src.limit(Math.min(limit, src.position() + this.getMaxWriteSize()));
+                    this.bytesWritten += this.channel.write(buffers);
+                }
+            } finally {
+                src.limit(limit);
+                this.writing = false;
+            }
+
+            this.buffer.clear();
+            return;
+        }
+
+        this.writeBuffer();
+        if (src.hasArray()) {
+            this.writing = true;
+            try {
+                while (src.hasRemaining()) {
+                    int n = Math.min(src.remaining(), this.getMaxWriteSize());
+                    this.outputStream.write(src.array(), src.arrayOffset() + src.position(), n);
+                    src.position(src.position() + n);
+                    this.bytesWritten += n;
+                }
+            } finally {
+                this.writing = false;
+            }
+
+            return;
+        }
+
+        while (src.hasRemaining()) {
+            src.limit(src.position() + Math.min(src.remaining(), this.buffer.remaining()));
+            this.buffer.put(src);
+            src.limit(limit);
+            this.writeBuffer();
+        }
+    }
+
+    /**
+     * Writes a region of a file to the output.
+     * The file is transferred to the channel by the operating system if a channel is available, otherwise it is copied through the buffer.
+     *
+     * @param file     the file
+     * @param position the position of the region in the file
+     * @param count    the length of the region
+     */
+    public void transferFrom(FileChannel file, long position, long count) throws IOException {
+        if (this.buffer.position() > 0) {
+            this.writeBuffer();
+        }
+
+        while (count > 0) {
+            long transferred;
+            if (this.channel != null) {
+                this.writing = true;
+                try {
+                    transferred = file.transferTo(position, Math.min(count, this.getMaxWriteSize()), this.channel);
+                    this.bytesWritten += transferred;
+                } finally {
+                    this.writing = false;
+                }
+            } else {
+                this.buffer.limit((int) Math.min(this.buffer.capacity(), count));
+                transferred = Math.max(file.read(this.buffer, position), 0);
+                this.writeBuffer();
+            }
+
+            if (transferred == 0 && position >= file.size()) {
+                throw new EOFException("Unexpected end of file, " + count + " bytes remaining");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
     @Override
     public void write(int i) throws IOException {
-        this.outputStream.write(i);
+        if (!this.buffer.hasRemaining()) {
+            this.writeBuffer();
+        }
+
+        this.buffer.put((byte) i);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= this.buffer.capacity()) {
+            this.write(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+
+        // Fill the buffer before writing it, so the data goes out in as few full segments as possible.
+        int n = Math.min(len, this.buffer.remaining());
+        this.buffer.put(b, off, n);
+        if (n < len) {
+            this.writeBuffer();
+            this.buffer.put(b, off + n, len - n);
+        }
+    }
+
+    /**
+     * Writes the buffered data and flushes the underlying output stream.
+     * This is the point at which the data is actually sent.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.buffer.position() > 0) {
+            this.writeBuffer();
+        }
+
+        this.writing = true;
+        try {
+            this.outputStream.flush();
+        } finally {
+            this.writing = false;
+        }
     }
 }
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.HeaderNames;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A resumable parser for the head (start line and headers) of an HTTP message.
+ * The parser consumes complete lines from a buffer and remembers how far it scanned an incomplete line,
+ * so it can be called again after more data was added to the buffer without rescanning.
+ * Header lines are only split into field name and value, the headers are deserialized when they are requested.
+ * Well-known field names are matched case-insensitively from the bytes, so only unknown field names are copied.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class HttpParser {
+    public static final byte CR = '\r';
+    public static final byte LF = '\n';
+    public static final byte SP = ' ';
+    public static final byte HTAB = '\t';
+
+    private static final RequestMethod[] REQUEST_METHODS = RequestMethod.values();
+
+    /**
+     * The state of the parser.
+     */
+    public enum State {
+        REQUEST_LINE,
+        STATUS_LINE,
+        HEADERS,
+        COMPLETE
+    }
+
+    @Getter
+    protected State state = State.COMPLETE;
+    protected int scanned;
+    protected RequestMethod requestMethod;
+    protected String resource;
+    protected String httpVersion;
+    protected int statusCode;
+    protected String statusMessage;
+    // The raw field names and values, and their ranges, reused for every message head.
+    protected byte[] raw = new byte[1024];
+    protected int rawLength;
+    protected int[] ranges = new int[64];
+    protected int[] ids = new int[16];
+    protected int headerCount;
+
+    /**
+     * Returns the index of the CR of the first CRLF in a buffer.
+     *
+     * @param buffer the buffer
+     * @param from   the absolute index to start scanning from
+     * @return the index, or -1 if the buffer does not contain a CRLF after the index
+     */
+    public static int findLineEnd(ByteBuffer buffer, int from) {
+        int limit = buffer.limit() - 1;
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == CR && buffer.get(i + 1) == LF) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decodes a range of a buffer to a string, without modifying the buffer.
+     *
+     * @param buffer the buffer
+     * @param start  the absolute start index (inclusive)
+     * @param end    the absolute end index (exclusive)
+     * @return the string
+     */
+    public static String decode(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses the chunk size of a chunk size line in a range of a buffer, without modifying the buffer.
+     * The chunk size is a non-empty sequence of hexadecimal digits, optionally surrounded by whitespace and followed by chunk extensions.
+     * Signs and chunk sizes that overflow a long are rejected.
+     *
+     * @param buffer the buffer
+     * @param start  the absolute start index of the line (inclusive)
+     * @param end    the absolute end index of the line, excluding the CRLF (exclusive)
+     * @return the chunk size
+     */
+    public static long parseChunkSize(ByteBuffer buffer, int start, int end) throws IOException {
+        long chunkSize = 0;
+        int i = start;
+        while (i < end && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+
+        int digitsStart = i;
+        for (; i < end; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit == -1) {
+                break;
+            }
+
+            if (chunkSize > Long.MAX_VALUE >> 4) {
+                throw new IOException("Chunk size too large in line " + decode(buffer, start, end));
+            }
+
+            chunkSize = chunkSize << 4 | digit;
+        }
+
+        int digits = i - digitsStart;
+        while (i < end && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+
+        if (digits == 0 || (i < end && buffer.get(i) != ChunkedTransferCoding.EXTENSION_SEPARATOR)) {
+            throw new IOException("Malformed chunk size line " + decode(buffer, start, end));
+        }
+
+        return chunkSize;
+    }
+
+    /**
+     * Returns the index of the first byte in a range of a buffer, or end if the range doesn't contain the byte.
+     */
+    protected static int indexOf(ByteBuffer buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns true if the byte is optional whitespace.
+     */
+    protected static boolean isWhitespace(byte b) {
+        return b == SP || b == HTAB;
+    }
+
+    /**
+     * Starts parsing a new message head.
+     *
+     * @param state the state to start in, one of {@link State#REQUEST_LINE}, {@link State#STATUS_LINE}, or {@link State#HEADERS}
+     */
+    public void reset(State state) {
+        this.state = state;
+        this.scanned = 0;
+        this.requestMethod = null;
+        this.resource = null;
+        this.httpVersion = null;
+        this.statusCode = 0;
+        this.statusMessage = null;
+        this.rawLength = 0;
+        this.headerCount = 0;
+    }
+
+    /**
+     * Consumes as many complete lines as possible from a buffer.
+     * An incomplete line is left in the buffer, call this method again after more data was added to the buffer.
+     *
+     * @param buffer the buffer in read mode, positioned at the start of the next line
+     * @return true if the message head is complete, false if more data is needed
+     */
+    public boolean parse(ByteBuffer buffer) throws IOException {
+        while (this.state != State.COMPLETE) {
+            int start = buffer.position();
+            int end = findLineEnd(buffer, start + this.scanned);
+            if (end == -1) {
+                // Keep a trailing CR unscanned as the LF may be the next byte to arrive.
+                this.scanned = Math.max(0, buffer.remaining() - 1);
+                return false;
+            }
+
+            this.scanned = 0;
+            switch (this.state) {
+                case REQUEST_LINE:
+                    this.parseRequestLine(buffer, start, end);
+                    this.state = State.HEADERS;
+                    break;
+                case STATUS_LINE:
+                    this.parseStatusLine(buffer, start, end);
+                    this.state = State.HEADERS;
+                    break;
+                default:
+                    if (start == end) {
+                        this.state = State.COMPLETE;
+                    } else {
+                        this.parseHeaderLine(buffer, start, end);
+                    }
+            }
+
+            buffer.position(end + 2);
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses a request line, matching the request method directly from the bytes.
+     */
+    protected void parseRequestLine(ByteBuffer buffer, int start, int end) throws IOException {
+        int i = indexOf(buffer, start, end, SP);
+        int j = indexOf(buffer, i + 1, end, SP);
+        if (j >= end) {
+            throw new IOException("Malformed request line " + decode(buffer, start, end));
+        }
+
+        outer:
+        for (RequestMethod requestMethod : REQUEST_METHODS) {
+            String name = requestMethod.name();
+            if (name.length() != i - start) {
+                continue;
+            }
+
+            for (int k = 0; k < name.length(); k++) {
+                if (buffer.get(start + k) != name.charAt(k)) {
+                    continue outer;
+                }
+            }
+
+            this.requestMethod = requestMethod;
+            this.resource = decode(buffer, i + 1, j);
+            this.httpVersion = decode(buffer, j + 1, end);
+            return;
+        }
+
+        throw new IOException("Unknown request method " + decode(buffer, start, i));
+    }
+
+    /**
+     * Parses a status line, the status message may be absent.
+     */
+    protected void parseStatusLine(ByteBuffer buffer, int start, int end) throws IOException {
+        int i = indexOf(buffer, start, end, SP);
+        int j = indexOf(buffer, i + 1, end, SP);
+        if (i >= end || j - i != 4) {
+            throw new IOException("Malformed status line " + decode(buffer, start, end));
+        }
+
+        int statusCode = 0;
+        for (int k = i + 1; k < j; k++) {
+            byte b = buffer.get(k);
+            if (b < '0' || b > '9') {
+                throw new IOException("Malformed status code " + decode(buffer, i + 1, j));
+            }
+
+            statusCode = statusCode * 10 + (b - '0');
+        }
+
+        this.httpVersion = decode(buffer, start, i);
+        this.statusCode = statusCode;
+        this.statusMessage = j < end ? decode(buffer, j + 1, end) : "";
+    }
+
+    /**
+     * Parses a header line, trimming whitespace around the field name and value.
+     */
+    protected void parseHeaderLine(ByteBuffer buffer, int start, int end) throws IOException {
+        int i = indexOf(buffer, start, end, (byte) Header.SEPARATOR);
+        if (i == end) {
+            throw new IOException("Malformed header line " + decode(buffer, start, end));
+        }
+
+        int nameStart = start;
+        int nameEnd = i;
+        while (nameStart < nameEnd && isWhitespace(buffer.get(nameStart))) {
+            nameStart++;
+        }
+
+        while (nameEnd > nameStart && isWhitespace(buffer.get(nameEnd - 1))) {
+            nameEnd--;
+        }
+
+        int valueStart = i + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && isWhitespace(buffer.get(valueStart))) {
+            valueStart++;
+        }
+
+        while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+
+        // A repeated field name replaces the earlier value, the earlier raw value is left unused.
+        int id = HeaderNames.getId(buffer, nameStart, nameEnd);
+        int index = this.indexOfFieldName(buffer, nameStart, nameEnd, id);
+        if (index == -1) {
+            index = this.headerCount++;
+            if (index == this.ids.length) {
+                this.ranges = Arrays.copyOf(this.ranges, this.ranges.length * 2);
+                this.ids = Arrays.copyOf(this.ids, this.ids.length * 2);
+            }
+
+            this.ids[index] = id;
+            this.ranges[index * 4] = this.rawLength;
+            if (id == HeaderNames.UNKNOWN) {
+                this.append(buffer, nameStart, nameEnd);
+            }
+
+            this.ranges[index * 4 + 1] = this.rawLength;
+        }
+
+        this.ranges[index * 4 + 2] = this.rawLength;
+        this.append(buffer, valueStart, valueEnd);
+        this.ranges[index * 4 + 3] = this.rawLength;
+    }
+
+    /**
+     * Returns the index of the header with the field name in a range of a buffer, or -1 if no such header was parsed yet.
+     */
+    protected int indexOfFieldName(ByteBuffer buffer, int start, int end, int id) {
+        outer:
+        for (int i = 0; i < this.headerCount; i++) {
+            if (this.ids[i] != id) {
+                continue;
+            }
+
+            if (id != HeaderNames.UNKNOWN) {
+                return i;
+            }
+
+            int nameStart = this.ranges[i * 4];
+            if (this.ranges[i * 4 + 1] - nameStart != end - start) {
+                continue;
+            }
+
+            for (int j = start; j < end; j++) {
+                if (HeaderNames.toLowerCase(this.raw[nameStart + j - start] & 0xFF) != HeaderNames.toLowerCase(buffer.get(j) & 0xFF)) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Appends a range of a buffer to the raw bytes, without modifying the buffer.
+     */
+    protected void append(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (this.rawLength + length > this.raw.length) {
+            this.raw = Arrays.copyOf(this.raw, Math.max(this.raw.length * 2, this.rawLength + length));
+        }
+
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + start, this.raw, this.rawLength, length);
+        } else {
+            for (int i = start; i < end; i++) {
+                this.raw[this.rawLength + i - start] = buffer.get(i);
+            }
+        }
+
+        this.rawLength += length;
+    }
+
+    /**
+     * Copies the raw headers, so the parser can reuse its arrays for the next message head.
+     */
+    protected Headers copyHeaders() {
+        if (this.headerCount == 0) {
+            return new Headers();
+        }
+
+        return new Headers(Arrays.copyOf(this.raw, this.rawLength), Arrays.copyOf(this.ranges, this.headerCount * 4), Arrays.copyOf(this.ids, this.headerCount), this.headerCount);
+    }
+
+    /**
+     * Returns the parsed headers.
+     *
+     * @return the headers
+     */
+    public Headers getHeaders() {
+        this.checkComplete();
+        return this.copyHeaders();
+    }
+
+    /**
+     * Returns the parsed HTTP request.
+     *
+     * @return the HTTP request
+     */
+    public HttpRequest getRequest() {
+        this.checkComplete();
+        return new HttpRequest(this.requestMethod, this.resource, this.httpVersion, this.copyHeaders());
+    }
+
+    /**
+     * Returns the parsed HTTP response.
+     *
+     * @return the HTTP response
+     */
+    public HttpResponse getResponse() {
+        this.checkComplete();
+        return new HttpResponse(this.httpVersion, this.statusCode, this.statusMessage, this.copyHeaders());
+    }
+
+    protected void checkComplete() {
+        if (this.state != State.COMPLETE) {
+            throw new IllegalStateException("The message head is not complete");
+        }
+    }
+}
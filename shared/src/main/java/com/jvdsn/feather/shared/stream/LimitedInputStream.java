@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream failing once more than a maximum amount of bytes was read from the underlying input stream.
+ * Guards against message bodies that decode to far more data than was received, the underlying input stream is closed with this stream.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class LimitedInputStream extends FilterInputStream {
+    protected final long maxLength;
+    @Getter
+    protected long count;
+
+    /**
+     * Constructs a new limited input stream.
+     *
+     * @param inputStream the underlying input stream
+     * @param maxLength   the maximum amount of bytes to read
+     */
+    public LimitedInputStream(@NonNull InputStream inputStream, long maxLength) {
+        super(inputStream);
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Negative maximum length " + maxLength);
+        }
+
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Counts bytes read from the underlying input stream.
+     *
+     * @param read the amount of bytes read
+     * @throws MessageBodyTooLargeException if the maximum amount of bytes was exceeded
+     */
+    protected void count(long read) throws MessageBodyTooLargeException {
+        this.count += read;
+        if (this.count > this.maxLength) {
+            throw new MessageBodyTooLargeException(this.maxLength);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int i = this.in.read();
+        if (i != -1) {
+            this.count(1);
+        }
+
+        return i;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        // Never reads more than one byte past the maximum, so the excess isn't decoded needlessly.
+        int read = this.in.read(b, off, (int) Math.min(len, this.maxLength - this.count + 1));
+        if (read > 0) {
+            this.count(read);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = this.in.skip(Math.min(n, this.maxLength - this.count + 1));
+        this.count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Signals that a message body exceeded the maximum length it may have.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+public class MessageBodyTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    protected final long maxLength;
+
+    /**
+     * Constructs a new message body too large exception.
+     *
+     * @param maxLength the maximum length of the message body
+     */
+    public MessageBodyTooLargeException(long maxLength) {
+        super("Message body exceeds " + maxLength + " bytes");
+        this.maxLength = maxLength;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.timer;
+
+import lombok.Getter;
+
+/**
+ * A task scheduled on a timing wheel.
+ * Timeouts are linked into the bucket of their deadline, so they can be cancelled in constant time.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class Timeout {
+    @Getter
+    protected final TimerTask task;
+    protected long deadlineTick;
+    // Null once the timeout expired or was cancelled, guarded by the bucket itself.
+    protected volatile TimingWheel.Bucket bucket;
+    protected Timeout previous;
+    protected Timeout next;
+    @Getter
+    protected volatile boolean cancelled;
+
+    /**
+     * Constructs a new timeout.
+     *
+     * @param task         the task to run
+     * @param deadlineTick the tick at which the timeout expires
+     */
+    protected Timeout(TimerTask task, long deadlineTick) {
+        this.task = task;
+        this.deadlineTick = deadlineTick;
+    }
+
+    /**
+     * Cancels the timeout, so the task won't run.
+     *
+     * @return true if the timeout was cancelled, false if it already expired or was cancelled before
+     */
+    public boolean cancel() {
+        TimingWheel.Bucket bucket = this.bucket;
+        if (bucket == null) {
+            return false;
+        }
+
+        synchronized (bucket) {
+            if (this.bucket != bucket) {
+                return false;
+            }
+
+            bucket.remove(this);
+            this.cancelled = true;
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the timeout neither expired nor was cancelled yet.
+     *
+     * @return true if the timeout is pending, false otherwise
+     */
+    public boolean isPending() {
+        return this.bucket != null;
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.timer;
+
+/**
+ * A task run by a timing wheel when its timeout expires.
+ *
+ * @author Joachim Vandersmissen
+ */
+@FunctionalInterface
+public interface TimerTask {
+    /**
+     * Runs the task on the thread of the timing wheel, which should not block.
+     *
+     * @param timeout the expired timeout, to tell apart the timeouts of a task that is scheduled repeatedly
+     */
+    void run(Timeout timeout);
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.timer;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A hashed timing wheel, scheduling and cancelling timeouts in constant time regardless of how many are pending.
+ * Timeouts are hashed into a ring of buckets by the tick of their deadline, a single thread advances the wheel every tick and expires the due timeouts of the current bucket.
+ * Timeouts expire up to one tick late, which suits deadlines of network connections that are much longer than a tick.
+ * The thread is only started when the first timeout is scheduled.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Log
+public class TimingWheel {
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    @Getter
+    protected final long tickMillis;
+    protected final Bucket[] buckets;
+    protected final int mask;
+    protected final long startNanos = System.nanoTime();
+    protected final AtomicBoolean started = new AtomicBoolean();
+    // The last tick that was processed.
+    protected volatile long tick;
+    @Getter
+    protected volatile boolean stopped;
+    protected Thread thread;
+
+    /**
+     * Constructs a new timing wheel.
+     *
+     * @param tickMillis    the duration of a tick, which is the precision of the timeouts
+     * @param ticksPerWheel the amount of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickMillis, int ticksPerWheel) {
+        if (tickMillis < 1 || ticksPerWheel < 1 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Invalid tick duration " + tickMillis + " or ticks per wheel " + ticksPerWheel);
+        }
+
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[ticksPerWheel == 1 ? 1 : Integer.highestOneBit(ticksPerWheel - 1) << 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new Bucket();
+        }
+
+        this.mask = this.buckets.length - 1;
+    }
+
+    /**
+     * Constructs a new timing wheel with ticks of 100 milliseconds and 512 buckets.
+     */
+    public TimingWheel() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * Returns the time elapsed since the timing wheel was constructed.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    protected long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+    }
+
+    /**
+     * Schedules a task to run once a delay has passed.
+     *
+     * @param task        the task
+     * @param delayMillis the delay
+     * @return the timeout, which can be cancelled
+     */
+    public Timeout schedule(@NonNull TimerTask task, long delayMillis) {
+        if (this.stopped) {
+            throw new IllegalStateException("Timing wheel stopped");
+        }
+
+        if (this.started.compareAndSet(false, true)) {
+            this.thread = new Thread(this::run, "timing-wheel");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        // Rounded up, so the timeout never expires early.
+        Timeout timeout = new Timeout(task, (this.elapsedMillis() + Math.max(delayMillis, 0) + this.tickMillis - 1) / this.tickMillis);
+        while (true) {
+            Bucket bucket = this.buckets[(int) (timeout.deadlineTick & this.mask)];
+            synchronized (bucket) {
+                if (bucket.lastTick < timeout.deadlineTick) {
+                    bucket.add(timeout);
+                    return timeout;
+                }
+            }
+
+            // The tick of the deadline was processed while the timeout was scheduled, so it expires on the next tick.
+            timeout.deadlineTick = this.tick + 1;
+        }
+    }
+
+    /**
+     * Stops the timing wheel, the pending timeouts never expire.
+     */
+    public void stop() {
+        this.stopped = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    /**
+     * Advances the wheel every tick until it is stopped.
+     */
+    protected void run() {
+        while (!this.stopped) {
+            long next = this.tick + 1;
+            long sleepMillis = next * this.tickMillis - this.elapsedMillis();
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    // Only interrupted when stopped.
+                }
+
+                continue;
+            }
+
+            this.expire(next);
+            this.tick = next;
+        }
+    }
+
+    /**
+     * Expires the due timeouts in the bucket of a tick, running their tasks outside of the bucket so they can schedule new timeouts.
+     *
+     * @param tick the tick
+     */
+    protected void expire(long tick) {
+        Bucket bucket = this.buckets[(int) (tick & this.mask)];
+        Timeout expired = null;
+        synchronized (bucket) {
+            bucket.lastTick = tick;
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                // Timeouts further than a full rotation away share the bucket until their round comes.
+                if (timeout.deadlineTick <= tick) {
+                    bucket.remove(timeout);
+                    timeout.next = expired;
+                    expired = timeout;
+                }
+
+                timeout = next;
+            }
+        }
+
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            try {
+                expired.task.run(expired);
+            } catch (Exception e) {
+                // A failing task shouldn't stop the wheel, or every other timeout would stop expiring.
+                log.log(Level.WARNING, "Timer task failed", e);
+            }
+
+            expired = next;
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts hashed to the same tick.
+     */
+    protected static class Bucket {
+        protected Timeout head;
+        protected Timeout tail;
+        protected long lastTick;
+
+        /**
+         * Appends a timeout, should only be called while holding the lock of this bucket.
+         *
+         * @param timeout the timeout
+         */
+        protected void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = this.tail;
+            if (this.tail == null) {
+                this.head = timeout;
+            } else {
+                this.tail.next = timeout;
+            }
+
+            this.tail = timeout;
+        }
+
+        /**
+         * Unlinks a timeout, should only be called while holding the lock of this bucket.
+         *
+         * @param timeout the timeout
+         */
+        protected void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                this.head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+
+            if (timeout.next == null) {
+                this.tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
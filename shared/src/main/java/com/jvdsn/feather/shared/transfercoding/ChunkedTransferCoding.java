@@ -11,6 +11,8 @@
 package com.jvdsn.feather.shared.transfercoding;
 
 import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.stream.ChunkedInputStream;
+import com.jvdsn.feather.shared.stream.ChunkedOutputStream;
 import com.jvdsn.feather.shared.stream.HttpInputStream;
 import com.jvdsn.feather.shared.stream.HttpOutputStream;
 import lombok.NonNull;
@@ -18,44 +20,93 @@ import lombok.NonNull;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * A 'chunked' transfer coding.
+ * Message bodies are decoded and encoded in a streaming fashion, without copying the chunk data into intermediate arrays.
+ * Subclasses overriding the extension or trailer hooks get every chunk as a separate array instead,
+ * and their message body streams collect the whole message body, as the hooks see the full payload.
  *
  * @author Joachim Vandersmissen
  */
 public class ChunkedTransferCoding extends TransferCoding {
     public static final char EXTENSION_SEPARATOR = ';';
     public static final char EXTENSION_VALUE_SEPARATOR = '=';
-    public static final BigInteger DEFAULT_CHUNK_SIZE = BigInteger.valueOf(8192);
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+    public static final int MIN_CHUNK_SIZE = 1024;
+    public static final int MAX_CHUNK_SIZE = 1 << 18;
+    public static final int ADAPTIVE_CHUNK_SIZE = 0;
 
     protected final TransferCoding transferCoding;
-    protected final BigInteger chunkSize;
+    protected final int chunkSize;
+    protected final boolean readHooks;
+    protected final boolean writeHooks;
 
     /**
      * Constructs a new chunked transfer coding.
      *
      * @param transferCoding the underlying transfer coding to use
-     * @param chunkSize      the chunk size to use
+     * @param chunkSize      the chunk size to use, or {@link #ADAPTIVE_CHUNK_SIZE} to size chunks after the connection and the producer
      */
-    public ChunkedTransferCoding(@NonNull TransferCoding transferCoding, @NonNull BigInteger chunkSize) {
+    public ChunkedTransferCoding(@NonNull TransferCoding transferCoding, int chunkSize) {
         super(TransferCoding.CHUNKED);
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("Chunk size must not be negative, got " + chunkSize);
+        }
+
         this.transferCoding = transferCoding;
         this.chunkSize = chunkSize;
+        this.readHooks = this.overrides("useExtensions", ByteArrayOutputStream.class, byte[].class, Map.class) || this.overrides("useTrailer", ByteArrayOutputStream.class, Headers.class);
+        this.writeHooks = this.overrides("getExtensions", ByteArrayInputStream.class, byte[].class) || this.overrides("getTrailer", ByteArrayInputStream.class);
     }
 
     /**
-     * Constructs a new chunked transfer coding.
+     * Constructs a new chunked transfer coding with an adaptive chunk size.
      *
      * @param transferCoding the underlying transfer coding to use
      */
     public ChunkedTransferCoding(@NonNull TransferCoding transferCoding) {
-        this(transferCoding, DEFAULT_CHUNK_SIZE);
+        this(transferCoding, ADAPTIVE_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns true if a subclass overrides a method of this class.
+     *
+     * @param name           the name of the method
+     * @param parameterTypes the parameter types of the method
+     * @return true if the method is overridden
+     */
+    protected boolean overrides(String name, Class<?>... parameterTypes) {
+        for (Class<?> type = this.getClass(); type != ChunkedTransferCoding.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not declared by this class, try its superclass.
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the largest chunk to send over an output stream.
+     *
+     * @param outputStream the output stream
+     * @return the chunk size
+     */
+    protected int getMaxChunkSize(HttpOutputStream outputStream) {
+        if (this.chunkSize != ADAPTIVE_CHUNK_SIZE) {
+            return this.chunkSize;
+        }
+
+        return Math.max(MIN_CHUNK_SIZE, Math.min(outputStream.getSendBufferSize(), MAX_CHUNK_SIZE));
     }
 
     /**
@@ -99,26 +150,51 @@ public class ChunkedTransferCoding extends TransferCoding {
     }
 
     @Override
-    public byte[] readBody(HttpInputStream inputStream, BigInteger contentLength) throws IOException {
+    public byte[] readBody(HttpInputStream inputStream, long contentLength) throws IOException {
+        if (this.readHooks) {
+            return this.readBodyWithHooks(inputStream);
+        }
+
+        InputStream chunkedInputStream = this.openInputStream(inputStream, contentLength);
+        // Whatever is already buffered is likely part of the message body, so start with room for it.
+        byte[] body = new byte[Math.max(DEFAULT_CHUNK_SIZE, Math.min(inputStream.available(), MAX_CHUNK_SIZE))];
+        int length = 0;
+        int read;
+        while (true) {
+            if (length == body.length) {
+                body = Arrays.copyOf(body, checkArrayLength(2L * body.length));
+            }
+
+            if ((read = chunkedInputStream.read(body, length, body.length - length)) == -1) {
+                break;
+            }
+
+            length += read;
+        }
+
+        return length == body.length ? body : Arrays.copyOf(body, length);
+    }
+
+    /**
+     * Reads a message body chunk by chunk, calling the hooks for every chunk and the trailer.
+     *
+     * @param inputStream the input stream
+     * @return the message body
+     */
+    protected byte[] readBodyWithHooks(HttpInputStream inputStream) throws IOException {
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
             while (true) {
-                String line = inputStream.readLine();
-                String[] splitted = line.split(String.valueOf(EXTENSION_SEPARATOR));
-                BigInteger chunkSize = new BigInteger(splitted[0], 16);
-                byte[] chunk = this.transferCoding.readBody(inputStream, chunkSize);
-
                 Map<String, String> extensions = new HashMap<>();
-                for (int i = 1; i < splitted.length; i++) {
-                    int j = splitted[i].indexOf(EXTENSION_VALUE_SEPARATOR);
-                    extensions.put(splitted[i].substring(0, j), splitted[i].substring(j + 1));
-                }
-
+                long chunkSize = inputStream.readChunkSize(extensions);
+                byte[] chunk = this.transferCoding.readBody(inputStream, chunkSize);
                 this.useExtensions(outputStream, chunk, extensions);
                 outputStream.write(chunk);
-                inputStream.readLine();
-                if (chunkSize.equals(BigInteger.ZERO)) {
+                // The last chunk has no data, so it isn't followed by a CRLF either.
+                if (chunkSize == 0) {
                     break;
                 }
+
+                inputStream.readLineEnd();
             }
 
             this.useTrailer(outputStream, inputStream.readHeaders());
@@ -127,30 +203,89 @@ public class ChunkedTransferCoding extends TransferCoding {
     }
 
     @Override
-    public void writeBody(HttpOutputStream outputStream, BigInteger contentLength, byte[] body) throws IOException {
+    public InputStream openInputStream(HttpInputStream inputStream, long contentLength) throws IOException {
+        if (this.readHooks) {
+            return new ByteArrayInputStream(this.readBodyWithHooks(inputStream));
+        }
+
+        return new ChunkedInputStream(inputStream, this.transferCoding);
+    }
+
+    @Override
+    public void writeBody(HttpOutputStream outputStream, long contentLength, byte[] body) throws IOException {
+        if (this.writeHooks) {
+            this.writeBodyWithHooks(outputStream, body);
+            return;
+        }
+
+        // The whole message body is available, so the chunks can be as large as the connection accepts right away.
+        int maxChunkSize = this.getMaxChunkSize(outputStream);
+        boolean identity = this.transferCoding.getClass() == DefaultTransferCoding.class;
+        for (int off = 0; off < body.length; off += maxChunkSize) {
+            int len = Math.min(maxChunkSize, body.length - off);
+            outputStream.writeChunkSize(len, null);
+            if (identity) {
+                outputStream.write(body, off, len);
+            } else {
+                try (OutputStream chunkOutputStream = this.transferCoding.openOutputStream(outputStream, len)) {
+                    chunkOutputStream.write(body, off, len);
+                }
+            }
+
+            outputStream.writeLine("");
+        }
+
+        outputStream.writeChunkSize(0, null);
+        outputStream.writeHeaders(new Headers());
+    }
+
+    /**
+     * Writes a message body chunk by chunk, calling the hooks for every chunk and the trailer.
+     *
+     * @param outputStream the output stream
+     * @param body         the message body
+     */
+    protected void writeBodyWithHooks(HttpOutputStream outputStream, byte[] body) throws IOException {
+        int chunkSize = this.getMaxChunkSize(outputStream);
         try (ByteArrayInputStream inputStream = new ByteArrayInputStream(body)) {
             while (true) {
                 int available = inputStream.available();
-                StringBuilder line = new StringBuilder();
-                BigInteger chunkSize = this.chunkSize.min(BigInteger.valueOf(available));
-                line.append(chunkSize.toString(16));
-                byte[] chunk = new byte[chunkSize.intValue()];
-                inputStream.read(chunk);
-
-                Map<String, String> extensions = this.getExtensions(inputStream, chunk);
-                for (Entry<String, String> extension : extensions.entrySet()) {
-                    line.append(EXTENSION_SEPARATOR).append(extension.getKey()).append(EXTENSION_VALUE_SEPARATOR).append(extension.getValue());
-                }
-
-                outputStream.writeLine(line.toString());
-                this.transferCoding.writeBody(outputStream, chunkSize, chunk);
-                outputStream.writeLine("");
+                byte[] chunk = new byte[Math.min(chunkSize, available)];
+                inputStream.read(chunk, 0, chunk.length);
+                outputStream.writeChunkSize(chunk.length, this.getExtensions(inputStream, chunk));
+                this.transferCoding.writeBody(outputStream, chunk.length, chunk);
                 if (available == 0) {
                     break;
                 }
+
+                outputStream.writeLine("");
             }
 
             outputStream.writeHeaders(this.getTrailer(inputStream));
         }
     }
+
+    @Override
+    public OutputStream openOutputStream(HttpOutputStream outputStream, long contentLength) {
+        if (this.writeHooks) {
+            return new ByteArrayOutputStream() {
+                protected boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (!this.closed) {
+                        this.closed = true;
+                        ChunkedTransferCoding.this.writeBodyWithHooks(outputStream, this.toByteArray());
+                    }
+                }
+            };
+        }
+
+        int maxChunkSize = this.getMaxChunkSize(outputStream);
+        if (this.chunkSize != ADAPTIVE_CHUNK_SIZE) {
+            return new ChunkedOutputStream(outputStream, this.transferCoding, maxChunkSize);
+        }
+
+        return new ChunkedOutputStream(outputStream, this.transferCoding, Math.min(DEFAULT_CHUNK_SIZE, maxChunkSize), maxChunkSize);
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.transfercoding;
+
+import com.jvdsn.feather.shared.contentcoding.ContentCoding;
+import com.jvdsn.feather.shared.stream.BoundedInputStream;
+import com.jvdsn.feather.shared.stream.BoundedOutputStream;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.stream.LimitedInputStream;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A transfer coding compressing the message body with a content coding.
+ * It is usually followed by the chunked transfer coding, on its own the compressed message body is delimited by the content length.
+ * A small compressed message body can decode to an enormous amount of data, so decoding fails once the decoded message body exceeds a maximum length.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class CompressionTransferCoding extends TransferCoding {
+    public static final long DEFAULT_MAX_DECODED_LENGTH = 1L << 26;
+
+    protected final @NonNull ContentCoding contentCoding;
+    protected final long maxDecodedLength;
+
+    /**
+     * Constructs a new compression transfer coding.
+     *
+     * @param contentCoding    the content coding to compress with, which also provides the identifier
+     * @param maxDecodedLength the maximum length of the decoded message body
+     */
+    public CompressionTransferCoding(@NonNull ContentCoding contentCoding, long maxDecodedLength) {
+        super(contentCoding.getIdentifier());
+        if (maxDecodedLength < 0) {
+            throw new IllegalArgumentException("Negative maximum decoded length " + maxDecodedLength);
+        }
+
+        this.contentCoding = contentCoding;
+        this.maxDecodedLength = maxDecodedLength;
+    }
+
+    /**
+     * Constructs a new compression transfer coding decoding message bodies of up to {@link #DEFAULT_MAX_DECODED_LENGTH} bytes.
+     *
+     * @param contentCoding the content coding to compress with, which also provides the identifier
+     */
+    public CompressionTransferCoding(@NonNull ContentCoding contentCoding) {
+        this(contentCoding, DEFAULT_MAX_DECODED_LENGTH);
+    }
+
+    @Override
+    public TransferCoding withMaxDecodedLength(long maxDecodedLength) {
+        return maxDecodedLength == this.maxDecodedLength ? this : new CompressionTransferCoding(this.contentCoding, maxDecodedLength);
+    }
+
+    @Override
+    public byte[] readBody(HttpInputStream inputStream, long contentLength) throws IOException {
+        try (InputStream decodingStream = this.openInputStream(inputStream, contentLength)) {
+            return readFully(decodingStream, (int) Math.min(contentLength, MAX_ARRAY_LENGTH));
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(HttpInputStream inputStream, long contentLength) throws IOException {
+        return this.openDecodingStream(new BoundedInputStream(inputStream, contentLength));
+    }
+
+    @Override
+    public void writeBody(HttpOutputStream outputStream, long contentLength, byte[] body) throws IOException {
+        try (OutputStream encodingStream = this.openOutputStream(outputStream, contentLength)) {
+            encodingStream.write(body);
+        }
+    }
+
+    @Override
+    public OutputStream openOutputStream(HttpOutputStream outputStream, long contentLength) throws IOException {
+        return this.openEncodingStream(new BoundedOutputStream(outputStream, contentLength));
+    }
+
+    @Override
+    public InputStream openDecodingStream(InputStream inputStream) throws IOException {
+        return new LimitedInputStream(this.contentCoding.openInputStream(inputStream), this.maxDecodedLength);
+    }
+
+    @Override
+    public OutputStream openEncodingStream(OutputStream outputStream) throws IOException {
+        return this.contentCoding.openOutputStream(outputStream);
+    }
+}
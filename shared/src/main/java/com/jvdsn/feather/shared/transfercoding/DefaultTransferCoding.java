@@ -10,11 +10,14 @@
 
 package com.jvdsn.feather.shared.transfercoding;
 
+import com.jvdsn.feather.shared.stream.BoundedInputStream;
+import com.jvdsn.feather.shared.stream.BoundedOutputStream;
 import com.jvdsn.feather.shared.stream.HttpInputStream;
 import com.jvdsn.feather.shared.stream.HttpOutputStream;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * The default transfer coding, directly reads from the inputstream or writes to outputstream.
@@ -30,14 +33,38 @@ public class DefaultTransferCoding extends TransferCoding {
     }
 
     @Override
-    public byte[] readBody(HttpInputStream inputStream, BigInteger contentLength) throws IOException {
-        byte[] body = new byte[contentLength.intValue()];
-        inputStream.read(body);
+    public byte[] readBody(HttpInputStream inputStream, long contentLength) throws IOException {
+        byte[] body = new byte[checkArrayLength(contentLength)];
+        inputStream.readFully(body, 0, body.length);
         return body;
     }
 
     @Override
-    public void writeBody(HttpOutputStream outputStream, BigInteger contentLength, byte[] body) throws IOException {
-        outputStream.write(body, 0, contentLength.intValue());
+    public InputStream openInputStream(HttpInputStream inputStream, long contentLength) {
+        return new BoundedInputStream(inputStream, contentLength);
+    }
+
+    @Override
+    public void writeBody(HttpOutputStream outputStream, long contentLength, byte[] body) throws IOException {
+        if (contentLength < 0 || contentLength > body.length) {
+            throw new IOException("Content length " + contentLength + " does not match message body of " + body.length + " bytes");
+        }
+
+        outputStream.write(body, 0, (int) contentLength);
+    }
+
+    @Override
+    public OutputStream openOutputStream(HttpOutputStream outputStream, long contentLength) {
+        return new BoundedOutputStream(outputStream, contentLength);
+    }
+
+    @Override
+    public InputStream openDecodingStream(InputStream inputStream) {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream openEncodingStream(OutputStream outputStream) {
+        return outputStream;
     }
 }
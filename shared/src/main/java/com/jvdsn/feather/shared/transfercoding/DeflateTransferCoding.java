@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.transfercoding;
+
+import com.jvdsn.feather.shared.contentcoding.DeflateContentCoding;
+
+/**
+ * The 'deflate' transfer coding.
+ *
+ * @author Joachim Vandersmissen
+ */
+public class DeflateTransferCoding extends CompressionTransferCoding {
+    /**
+     * Constructs a new deflate transfer coding.
+     *
+     * @param level the compression level, from 0 to 9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateTransferCoding(int level) {
+        super(new DeflateContentCoding(level));
+    }
+
+    /**
+     * Constructs a new deflate transfer coding using the default compression level.
+     */
+    public DeflateTransferCoding() {
+        super(new DeflateContentCoding());
+    }
+}
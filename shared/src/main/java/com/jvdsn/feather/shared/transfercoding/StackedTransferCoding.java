@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.transfercoding;
+
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of transfer codings applied to the message body in order, like 'gzip, chunked'.
+ * The last transfer coding delimits the message body, the others are stacked on top of it as streams.
+ * Decoding and encoding happen in a single streaming pass, no transfer coding materializes the output of another.
+ *
+ * @author Joachim Vandersmissen
+ */
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class StackedTransferCoding extends TransferCoding {
+    protected final @NonNull List<TransferCoding> transferCodings;
+
+    /**
+     * Constructs a new stacked transfer coding.
+     *
+     * @param transferCodings the transfer codings in the order they are applied, must not be empty
+     */
+    public StackedTransferCoding(@NonNull List<TransferCoding> transferCodings) {
+        super(identifier(transferCodings));
+        this.transferCodings = transferCodings;
+    }
+
+    /**
+     * Joins the identifiers of the transfer codings.
+     *
+     * @param transferCodings the transfer codings
+     * @return the joined identifiers
+     */
+    protected static String identifier(List<TransferCoding> transferCodings) {
+        if (transferCodings.isEmpty()) {
+            throw new IllegalArgumentException("No transfer codings to stack");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (TransferCoding transferCoding : transferCodings) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+
+            sb.append(transferCoding.getIdentifier());
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public TransferCoding withMaxDecodedLength(long maxDecodedLength) {
+        List<TransferCoding> transferCodings = new ArrayList<>(this.transferCodings.size());
+        for (TransferCoding transferCoding : this.transferCodings) {
+            transferCodings.add(transferCoding.withMaxDecodedLength(maxDecodedLength));
+        }
+
+        return transferCodings.equals(this.transferCodings) ? this : new StackedTransferCoding(transferCodings);
+    }
+
+    /**
+     * Returns the transfer coding delimiting the message body.
+     *
+     * @return the last transfer coding
+     */
+    public TransferCoding getLast() {
+        return this.transferCodings.get(this.transferCodings.size() - 1);
+    }
+
+    @Override
+    public byte[] readBody(HttpInputStream inputStream, long contentLength) throws IOException {
+        try (InputStream decodingStream = this.openInputStream(inputStream, contentLength)) {
+            return readFully(decodingStream, (int) Math.min(contentLength, MAX_ARRAY_LENGTH));
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(HttpInputStream inputStream, long contentLength) throws IOException {
+        InputStream decodingStream = this.getLast().openInputStream(inputStream, contentLength);
+        try {
+            // The transfer coding applied last has to be decoded first.
+            for (int i = this.transferCodings.size() - 2; i >= 0; i--) {
+                decodingStream = this.transferCodings.get(i).openDecodingStream(decodingStream);
+            }
+        } catch (IOException | RuntimeException e) {
+            decodingStream.close();
+            throw e;
+        }
+
+        return decodingStream;
+    }
+
+    @Override
+    public void writeBody(HttpOutputStream outputStream, long contentLength, byte[] body) throws IOException {
+        try (OutputStream encodingStream = this.openOutputStream(outputStream, contentLength)) {
+            encodingStream.write(body);
+        }
+    }
+
+    @Override
+    public OutputStream openOutputStream(HttpOutputStream outputStream, long contentLength) throws IOException {
+        // Opening the streams writes nothing yet, so a transfer coding that can't be stacked doesn't corrupt the message.
+        OutputStream encodingStream = this.getLast().openOutputStream(outputStream, contentLength);
+        for (int i = this.transferCodings.size() - 2; i >= 0; i--) {
+            encodingStream = this.transferCodings.get(i).openEncodingStream(encodingStream);
+        }
+
+        return encodingStream;
+    }
+}
@@ -19,10 +19,15 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * A transfer coding.
+ * Lengths are primitive longs, message bodies of any length can be read and written through the streams in pieces.
+ * Only reading or writing a whole message body at once is limited to what fits in an array.
  *
  * @author Joachim Vandersmissen
  */
@@ -32,6 +37,11 @@ import java.math.BigInteger;
 public abstract class TransferCoding {
     public static final String CHUNKED = "chunked";
     public static final String DEFAULT = "default";
+    public static final String DEFLATE = "deflate";
+    public static final String GZIP = "gzip";
+    public static final String X_GZIP = "x-gzip";
+    public static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    public static final int MAX_INITIAL_READ_SIZE = 65536;
 
     protected final @NonNull String identifier;
 
@@ -42,9 +52,14 @@ public abstract class TransferCoding {
      * @return the header
      */
     public static TransferCoding getByIdentifier(String identifier) {
-        switch (identifier) {
+        switch (identifier.toLowerCase(Locale.ROOT)) {
             case CHUNKED:
                 return new ChunkedTransferCoding(new DefaultTransferCoding());
+            case GZIP:
+            case X_GZIP:
+                return new GzipTransferCoding();
+            case DEFLATE:
+                return new DeflateTransferCoding();
             default:
                 return new DefaultTransferCoding();
         }
@@ -52,12 +67,23 @@ public abstract class TransferCoding {
 
     /**
      * Reads the message body according to the transfer coding.
+     * Use {@link #openInputStream(HttpInputStream, long)} for message bodies that may not fit in an array.
      *
      * @param inputStream   the input stream to read from
      * @param contentLength the length of the message body
      * @return the message body
      */
-    public abstract byte[] readBody(HttpInputStream inputStream, BigInteger contentLength) throws IOException;
+    public abstract byte[] readBody(HttpInputStream inputStream, long contentLength) throws IOException;
+
+    /**
+     * Opens a stream decoding the message body according to the transfer coding while it is read.
+     * Closing the returned stream skips the unread part of the message body, but does not close the input stream.
+     *
+     * @param inputStream   the input stream to read from
+     * @param contentLength the length of the message body
+     * @return the message body stream
+     */
+    public abstract InputStream openInputStream(HttpInputStream inputStream, long contentLength) throws IOException;
 
     /**
      * Writes the message body according to the transfer coding.
@@ -66,5 +92,94 @@ public abstract class TransferCoding {
      * @param contentLength the length of the message body
      * @param body          the message body
      */
-    public abstract void writeBody(HttpOutputStream outputStream, BigInteger contentLength, byte[] body) throws IOException;
+    public abstract void writeBody(HttpOutputStream outputStream, long contentLength, byte[] body) throws IOException;
+
+    /**
+     * Opens a stream encoding the message body according to the transfer coding while it is written.
+     * Closing the returned stream finishes the message body, but does not close the output stream.
+     *
+     * @param outputStream  the output stream to write to
+     * @param contentLength the length of the message body
+     * @return the message body stream
+     */
+    public abstract OutputStream openOutputStream(HttpOutputStream outputStream, long contentLength) throws IOException;
+
+    /**
+     * Opens a stream decoding data read from another stream, for when this transfer coding is not the last one applied to the message body.
+     * Closing the returned stream closes the other stream.
+     * Only codings that don't delimit the message body can be applied before another coding, this implementation always throws.
+     *
+     * @param inputStream the stream to read the encoded data from
+     * @return the decoding stream
+     * @throws IOException if this transfer coding can only be applied last
+     */
+    public InputStream openDecodingStream(InputStream inputStream) throws IOException {
+        throw new IOException("The " + this.identifier + " transfer coding can only be applied last");
+    }
+
+    /**
+     * Opens a stream encoding data written to it into another stream, for when this transfer coding is not the last one applied to the message body.
+     * Closing the returned stream finishes the encoded data and closes the other stream.
+     * Only codings that don't delimit the message body can be applied before another coding, this implementation always throws.
+     *
+     * @param outputStream the stream to write the encoded data to
+     * @return the encoding stream
+     * @throws IOException if this transfer coding can only be applied last
+     */
+    public OutputStream openEncodingStream(OutputStream outputStream) throws IOException {
+        throw new IOException("The " + this.identifier + " transfer coding can only be applied last");
+    }
+
+    /**
+     * Returns this transfer coding with a limit on the length of the decoded message body, for codings that decode into more data than they read.
+     * Other transfer codings are returned as they are.
+     *
+     * @param maxDecodedLength the maximum length of the decoded message body
+     * @return the transfer coding
+     */
+    public TransferCoding withMaxDecodedLength(long maxDecodedLength) {
+        return this;
+    }
+
+    /**
+     * Reads a decoded message body of unknown length into an array.
+     * The array starts at most at {@link #MAX_INITIAL_READ_SIZE} bytes and grows with the data actually read, so a wrong hint can't allocate much up front.
+     *
+     * @param inputStream the stream decoding the message body
+     * @param sizeHint    the expected length of the message body
+     * @return the message body
+     */
+    protected static byte[] readFully(InputStream inputStream, int sizeHint) throws IOException {
+        byte[] body = new byte[Math.max(Math.min(sizeHint, MAX_INITIAL_READ_SIZE), 64)];
+        int length = 0;
+        int read;
+        while (true) {
+            if (length == body.length) {
+                body = Arrays.copyOf(body, checkArrayLength(2L * body.length));
+            }
+
+            if ((read = inputStream.read(body, length, body.length - length)) == -1) {
+                break;
+            }
+
+            length += read;
+        }
+
+        return length == body.length ? body : Arrays.copyOf(body, length);
+    }
+
+    /**
+     * Checks that a message body of a length fits in an array.
+     *
+     * @param contentLength the length of the message body
+     * @return the length as an int
+     * @throws IOException if the length is negative or too large for an array
+     */
+    protected static int checkArrayLength(long contentLength) throws IOException {
+        if (contentLength < 0 || contentLength > MAX_ARRAY_LENGTH) {
+            throw new IOException("Message body of " + contentLength + " bytes can't be read into an array, open a stream instead");
+        }
+
+        return (int) contentLength;
+    }
 }
@@ -10,11 +10,14 @@
 
 package com.jvdsn.feather.shared;
 
+import com.jvdsn.feather.shared.header.ContentLength;
 import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.HeaderNames;
 import com.jvdsn.feather.shared.header.UnknownHeader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 
@@ -39,4 +42,36 @@ public class HeadersTest {
         Assertions.assertTrue(with.get("unknown", UnknownHeader.class).isPresent());
         Assertions.assertEquals(header, with.get("unknown", UnknownHeader.class).get());
     }
+
+    @Test
+    public void testRaw() {
+        byte[] raw = "Content-Length5X-Testvalue".getBytes(StandardCharsets.ISO_8859_1);
+        Headers headers = new Headers(raw, new int[]{0, 14, 14, 15, 15, 21, 21, 26}, new int[]{HeaderNames.getId(Header.CONTENT_LENGTH), HeaderNames.UNKNOWN}, 2);
+        Assertions.assertEquals(2, headers.size());
+        Assertions.assertEquals("X-Test", headers.getFieldName(1));
+        Assertions.assertEquals("value", headers.getValue(1));
+        Assertions.assertTrue(headers.contains(Header.CONTENT_LENGTH));
+        Assertions.assertTrue(headers.contains("content-length"));
+        Assertions.assertTrue(headers.contains("x-TEST"));
+        Assertions.assertFalse(headers.contains("Content"));
+        Assertions.assertEquals(5, headers.get(Header.CONTENT_LENGTH, ContentLength.class).get().getLength());
+        Assertions.assertSame(headers.get(Header.CONTENT_LENGTH, ContentLength.class).get(), headers.get(Header.CONTENT_LENGTH, ContentLength.class).get());
+        Assertions.assertFalse(headers.get("X-Test", ContentLength.class).isPresent());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Headers(raw, new int[4], new int[2], 2));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> headers.getFieldName(2));
+    }
+
+    @Test
+    public void testBuilder() {
+        Header first = new UnknownHeader("first");
+        Header second = new UnknownHeader("second");
+        Headers.Builder builder = Headers.builder().with("b", first).with("a", first).with("B", second);
+        Headers headers = builder.build();
+        Assertions.assertEquals(2, headers.size());
+        Assertions.assertEquals("B", headers.getFieldName(0));
+        Assertions.assertEquals(second, headers.get("b", UnknownHeader.class).get());
+        Assertions.assertFalse(builder.without("b").build().contains("b"));
+        Assertions.assertTrue(headers.contains("b"));
+        Assertions.assertEquals(headers, new Headers().with("a", first).with("b", second));
+    }
 }
@@ -30,6 +30,9 @@ public class HostAndPortTest {
         HostAndPort hostAndPort = HostAndPort.parse("test:10");
         Assertions.assertEquals("test", hostAndPort.getHost());
         Assertions.assertEquals(10, hostAndPort.getPort());
+        Assertions.assertEquals(new HostAndPort("test", 80), HostAndPort.parse("test"));
+        Assertions.assertEquals(new HostAndPort("[::1]", 80), HostAndPort.parse("[::1]"));
+        Assertions.assertEquals(new HostAndPort("[::1]", 10), HostAndPort.parse("[::1]:10"));
     }
 
     @Test
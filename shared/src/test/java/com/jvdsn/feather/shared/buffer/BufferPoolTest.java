@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.buffer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class BufferPoolTest {
+    @Test
+    public void testAcquire() {
+        BufferPool bufferPool = new BufferPool(BufferPool.LeakDetection.DISABLED, 4);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> bufferPool.acquire(-1));
+        PooledBuffer pooledBuffer = bufferPool.acquire(1000);
+        ByteBuffer buffer = pooledBuffer.getBuffer();
+        Assertions.assertEquals(1024, buffer.capacity());
+        Assertions.assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        pooledBuffer.release();
+        PooledBuffer reused = bufferPool.acquire(600);
+        Assertions.assertSame(buffer, reused.getBuffer());
+        Assertions.assertEquals(0, reused.getBuffer().position());
+        reused.release();
+        Assertions.assertEquals(512, bufferPool.acquire(0).getBuffer().capacity());
+        Assertions.assertEquals((1 << 20) + 1, bufferPool.acquire((1 << 20) + 1).getBuffer().capacity());
+    }
+
+    @Test
+    public void testShortLivedThreads() throws Exception {
+        BufferPool bufferPool = new BufferPool(BufferPool.LeakDetection.DISABLED, 0);
+        Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 4 * BufferPool.CACHE_STRIPES; i++) {
+            Thread thread = new Thread(() -> {
+                PooledBuffer pooledBuffer = bufferPool.acquire(1000);
+                synchronized (buffers) {
+                    buffers.add(pooledBuffer.getBuffer());
+                }
+
+                pooledBuffer.release();
+            });
+            thread.start();
+            thread.join();
+        }
+
+        // A buffer released by a thread that ended is reused by later threads, even without a shared queue.
+        Assertions.assertTrue(buffers.size() <= BufferPool.CACHE_STRIPES, buffers.size() + " buffers");
+    }
+
+    @Test
+    public void testRelease() {
+        PooledBuffer pooledBuffer = new BufferPool().acquire(16);
+        Assertions.assertEquals(1, pooledBuffer.getReferenceCount());
+        pooledBuffer.retain();
+        Assertions.assertEquals(2, pooledBuffer.getReferenceCount());
+        pooledBuffer.release();
+        pooledBuffer.getBuffer();
+        pooledBuffer.release();
+        Assertions.assertThrows(IllegalStateException.class, pooledBuffer::getBuffer);
+        Assertions.assertThrows(IllegalStateException.class, pooledBuffer::release);
+        Assertions.assertThrows(IllegalStateException.class, pooledBuffer::retain);
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        BufferPool bufferPool = new BufferPool();
+        byte[] bytes = new byte[20000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        PooledBuffer pooledBuffer = bufferPool.read(new ByteArrayInputStream(bytes), 16);
+        Assertions.assertEquals(bytes.length, pooledBuffer.getBuffer().remaining());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bufferPool.write(pooledBuffer.getBuffer(), outputStream);
+        Assertions.assertArrayEquals(bytes, outputStream.toByteArray());
+        Assertions.assertFalse(pooledBuffer.getBuffer().hasRemaining());
+        pooledBuffer.release();
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        BufferPool bufferPool = new BufferPool(BufferPool.LeakDetection.PARANOID, 4);
+        bufferPool.acquire(16);
+        for (int i = 0; i < 50 && bufferPool.getLeaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        Assertions.assertEquals(1, bufferPool.getLeaks());
+        bufferPool.acquire(16).release();
+        System.gc();
+        Assertions.assertEquals(1, bufferPool.getLeaks());
+    }
+}
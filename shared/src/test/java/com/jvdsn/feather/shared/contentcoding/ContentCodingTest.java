@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.contentcoding;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ContentCodingTest {
+    @Test
+    public void testGetByIdentifier() {
+        Assertions.assertEquals(new GzipContentCoding(), ContentCoding.getByIdentifier("GZIP").get());
+        Assertions.assertEquals(new GzipContentCoding(), ContentCoding.getByIdentifier("x-gzip").get());
+        Assertions.assertEquals(new DeflateContentCoding(), ContentCoding.getByIdentifier("deflate").get());
+        Assertions.assertFalse(ContentCoding.getByIdentifier("br").isPresent());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new GzipContentCoding(10));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte) 'x');
+        for (ContentCoding contentCoding : Arrays.asList(new GzipContentCoding(), new DeflateContentCoding(9))) {
+            byte[] encoded = contentCoding.encode(data, 0, data.length);
+            Assertions.assertTrue(encoded.length < data.length / 10);
+            Assertions.assertArrayEquals(data, contentCoding.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        for (ContentCoding contentCoding : Arrays.asList(new GzipContentCoding(), new DeflateContentCoding())) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            OutputStream outputStream = contentCoding.openOutputStream(encoded);
+            outputStream.write("hello".getBytes(StandardCharsets.ISO_8859_1));
+            outputStream.flush();
+            // Everything written before the flush can be decoded before the stream is finished.
+            InputStream inputStream = contentCoding.openInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+            byte[] b = new byte[5];
+            int read = 0;
+            while (read < b.length) {
+                read += inputStream.read(b, read, b.length - read);
+            }
+
+            Assertions.assertEquals("hello", new String(b, StandardCharsets.ISO_8859_1));
+            outputStream.close();
+        }
+    }
+}
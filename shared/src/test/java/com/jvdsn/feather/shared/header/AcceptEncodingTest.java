@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class AcceptEncodingTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new AcceptEncoding(null));
+        Assertions.assertEquals(Collections.singletonMap("gzip", 1.0), new AcceptEncoding(Collections.singletonMap("gzip", 1.0)).getQualities());
+    }
+
+    @Test
+    public void testDeserialize() {
+        AcceptEncoding acceptEncoding = new AcceptEncoding().deserialize("GZIP;q=0.5, deflate ,br;q=x, identity;Q=0");
+        Assertions.assertEquals(0.5, acceptEncoding.getQuality("gzip"));
+        Assertions.assertEquals(1, acceptEncoding.getQuality("Deflate"));
+        Assertions.assertEquals(0, acceptEncoding.getQuality("br"));
+        Assertions.assertFalse(acceptEncoding.accepts("identity"));
+        Assertions.assertFalse(acceptEncoding.accepts("compress"));
+    }
+
+    @Test
+    public void testAny() {
+        AcceptEncoding acceptEncoding = new AcceptEncoding().deserialize("deflate;q=0, *;q=0.3");
+        Assertions.assertEquals(0.3, acceptEncoding.getQuality("gzip"));
+        Assertions.assertFalse(acceptEncoding.accepts("deflate"));
+        Assertions.assertTrue(new AcceptEncoding().deserialize("").accepts("identity"));
+    }
+
+    @Test
+    public void testSerialize() {
+        Header header = new AcceptEncoding().deserialize("gzip;q=0.5,deflate");
+        Assertions.assertEquals("gzip;q=0.5, deflate", header.serialize());
+    }
+}
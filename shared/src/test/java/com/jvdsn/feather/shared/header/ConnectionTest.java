@@ -35,4 +35,12 @@ public class ConnectionTest {
         Header header = new Connection("test");
         Assertions.assertEquals("test", header.serialize());
     }
+
+    @Test
+    public void testContains() {
+        Connection connection = new Connection("Keep-Alive, Upgrade");
+        Assertions.assertTrue(connection.contains(Connection.KEEP_ALIVE));
+        Assertions.assertTrue(connection.contains("upgrade"));
+        Assertions.assertFalse(connection.contains(Connection.CLOSE));
+    }
 }
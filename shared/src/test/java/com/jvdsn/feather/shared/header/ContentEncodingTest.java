@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import com.jvdsn.feather.shared.contentcoding.GzipContentCoding;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ContentEncodingTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new ContentEncoding((GzipContentCoding) null));
+        Assertions.assertEquals(Collections.singletonList("gzip"), new ContentEncoding(new GzipContentCoding()).getContentCodings());
+    }
+
+    @Test
+    public void testDeserialize() {
+        ContentEncoding contentEncoding = new ContentEncoding().deserialize("br, gzip");
+        Assertions.assertEquals(Arrays.asList("br", "gzip"), contentEncoding.getContentCodings());
+        Assertions.assertEquals(new GzipContentCoding(), contentEncoding.getLast().get());
+        Assertions.assertFalse(new ContentEncoding().deserialize("gzip, br").getLast().isPresent());
+    }
+
+    @Test
+    public void testSerialize() {
+        Header header = new ContentEncoding(Arrays.asList("deflate", "gzip"));
+        Assertions.assertEquals("deflate, gzip", header.serialize());
+    }
+}
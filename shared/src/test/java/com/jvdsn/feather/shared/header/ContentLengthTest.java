@@ -13,28 +13,29 @@ package com.jvdsn.feather.shared.header;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
-import java.math.BigInteger;
-
 /**
  * @author Joachim Vandersmissen
  */
 public class ContentLengthTest {
     @Test
     public void testConstructor() {
-        Assertions.assertThrows(NullPointerException.class, () -> new ContentLength(null));
-        ContentLength contentLength = new ContentLength(BigInteger.TEN);
-        Assertions.assertEquals(BigInteger.TEN, contentLength.getLength());
+        ContentLength contentLength = new ContentLength(10);
+        Assertions.assertEquals(10, contentLength.getLength());
     }
 
     @Test
     public void testDeserialize() {
         ContentLength contentLength = new ContentLength();
-        Assertions.assertEquals(BigInteger.TEN, contentLength.deserialize("10").getLength());
+        Assertions.assertEquals(10, contentLength.deserialize("10").getLength());
+        Assertions.assertEquals(5000000000L, contentLength.deserialize("5000000000").getLength());
+        Assertions.assertThrows(NumberFormatException.class, () -> contentLength.deserialize("-1"));
+        Assertions.assertThrows(NumberFormatException.class, () -> contentLength.deserialize("+1"));
+        Assertions.assertThrows(NumberFormatException.class, () -> contentLength.deserialize("99999999999999999999"));
     }
 
     @Test
     public void testSerialize() {
-        Header header = new ContentLength(BigInteger.TEN);
+        Header header = new ContentLength(10);
         Assertions.assertEquals("10", header.serialize());
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.header;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class HeaderNamesTest {
+    @Test
+    public void testGetId() {
+        int id = HeaderNames.getId(Header.TRANSFER_ENCODING);
+        Assertions.assertNotEquals(HeaderNames.UNKNOWN, id);
+        Assertions.assertEquals(id, HeaderNames.getId("transfer-ENCODING"));
+        Assertions.assertSame(Header.TRANSFER_ENCODING, HeaderNames.getName(id));
+        Assertions.assertEquals(HeaderNames.UNKNOWN, HeaderNames.getId("X-Transfer-Encoding"));
+        ByteBuffer buffer = ByteBuffer.wrap(" host: x".getBytes(StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals(HeaderNames.getId(Header.HOST), HeaderNames.getId(buffer, 1, 5));
+        Assertions.assertEquals(HeaderNames.UNKNOWN, HeaderNames.getId(buffer, 1, 4));
+    }
+
+    @Test
+    public void testGetByFieldName() {
+        Assertions.assertTrue(Header.getByFieldName("content-length") instanceof ContentLength);
+        Assertions.assertTrue(Header.getByFieldName("User-Agent") instanceof UnknownHeader);
+        Assertions.assertTrue(Header.getByFieldName("X-Unknown") instanceof UnknownHeader);
+    }
+}
@@ -12,6 +12,9 @@ package com.jvdsn.feather.shared.header;
 
 import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
 import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.DeflateTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.GzipTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.StackedTransferCoding;
 import com.jvdsn.feather.shared.transfercoding.TransferCoding;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -42,6 +45,22 @@ public class TransferEncodingTest {
         Assertions.assertFalse(new TransferEncoding(Collections.emptyList()).getFirst().isPresent());
     }
 
+    @Test
+    public void testGetLast() {
+        List<TransferCoding> transferCodings = Arrays.asList(new GzipTransferCoding(), new ChunkedTransferCoding(new DefaultTransferCoding()));
+        Assertions.assertEquals(transferCodings.get(1), new TransferEncoding(transferCodings).getLast().get());
+        Assertions.assertFalse(new TransferEncoding(Collections.emptyList()).getLast().isPresent());
+    }
+
+    @Test
+    public void testGetTransferCoding() {
+        List<TransferCoding> transferCodings = Arrays.asList(new GzipTransferCoding(), new ChunkedTransferCoding(new DefaultTransferCoding()));
+        Assertions.assertEquals(new StackedTransferCoding(transferCodings), new TransferEncoding(transferCodings).getTransferCoding().get());
+        Assertions.assertEquals(transferCodings.get(1), new TransferEncoding(transferCodings.subList(1, 2)).getTransferCoding().get());
+        Assertions.assertFalse(new TransferEncoding(Collections.emptyList()).getTransferCoding().isPresent());
+        Assertions.assertEquals(Arrays.asList(new GzipTransferCoding(), new DeflateTransferCoding(), new GzipTransferCoding()), new TransferEncoding().deserialize("GZIP, deflate, x-gzip").getTransferCodings());
+    }
+
     @Test
     public void testDeserialize() {
         List<TransferCoding> transferCodings = Arrays.asList(new ChunkedTransferCoding(new DefaultTransferCoding()), new DefaultTransferCoding());
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class BoundedInputStreamTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new BoundedInputStream(null, 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BoundedInputStream(new ByteArrayInputStream(new byte[0]), -1));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5});
+        BoundedInputStream boundedInputStream = new BoundedInputStream(inputStream, 3);
+        byte[] b = new byte[5];
+        Assertions.assertEquals(1, boundedInputStream.read());
+        Assertions.assertEquals(2, boundedInputStream.read(b));
+        Assertions.assertEquals(-1, boundedInputStream.read(b));
+        Assertions.assertEquals(4, inputStream.read());
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5});
+        new BoundedInputStream(inputStream, 3).close();
+        Assertions.assertEquals(4, inputStream.read());
+        Assertions.assertThrows(EOFException.class, () -> new BoundedInputStream(inputStream, 3).close());
+    }
+
+    @Test
+    public void testLargeLength() throws IOException {
+        long length = 3L << 30;
+        InputStream zeros = new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return len;
+            }
+        };
+
+        BoundedInputStream boundedInputStream = new BoundedInputStream(zeros, length);
+        byte[] b = new byte[1 << 20];
+        long total = 0;
+        int read;
+        while ((read = boundedInputStream.read(b)) != -1) {
+            total += read;
+        }
+
+        Assertions.assertEquals(length, total);
+    }
+}
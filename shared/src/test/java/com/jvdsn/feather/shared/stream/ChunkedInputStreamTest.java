@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.transfercoding.ChunkedTransferCoding;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ChunkedInputStreamTest {
+    private static HttpInputStream of(String s) {
+        return new HttpInputStream(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new ChunkedInputStream(null, new DefaultTransferCoding()));
+        Assertions.assertThrows(NullPointerException.class, () -> new ChunkedInputStream(of(""), null));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        HttpInputStream inputStream = of("4;name=value\r\nWiki\r\n6\r\npedia \r\nE\r\nin \r\n\r\nchunks.\r\n0\r\nExpires: never\r\n\r\nnext");
+        ChunkedInputStream chunkedInputStream = new ChunkedInputStream(inputStream, new DefaultTransferCoding());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        int read;
+        while ((read = chunkedInputStream.read(b)) != -1) {
+            outputStream.write(b, 0, read);
+        }
+
+        Assertions.assertEquals("Wikipedia in \r\n\r\nchunks.", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        Assertions.assertTrue(chunkedInputStream.isFinished());
+        Assertions.assertEquals("never", chunkedInputStream.getTrailer().get("Expires", UnknownHeader.class).get().getValue());
+        byte[] next = new byte[4];
+        inputStream.readFully(next, 0, next.length);
+        Assertions.assertEquals("next", new String(next, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        HttpInputStream inputStream = of("3\r\nabc\r\n0\r\n\r\nnext\r\n");
+        ChunkedInputStream chunkedInputStream = new ChunkedInputStream(inputStream, new DefaultTransferCoding());
+        Assertions.assertEquals('a', chunkedInputStream.read());
+        chunkedInputStream.close();
+        Assertions.assertEquals("next", inputStream.readLine());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] body = new byte[20000];
+        Arrays.fill(body, (byte) 'x');
+        ChunkedTransferCoding transferCoding = new ChunkedTransferCoding(new DefaultTransferCoding());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        transferCoding.writeBody(httpOutputStream, body.length, body);
+        transferCoding.writeBody(httpOutputStream, body.length, body);
+        httpOutputStream.flush();
+
+        HttpInputStream httpInputStream = new HttpInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assertions.assertArrayEquals(body, transferCoding.readBody(httpInputStream, 0));
+        try (InputStream inputStream = transferCoding.openInputStream(httpInputStream, 0)) {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            int read;
+            while ((read = inputStream.read(b)) != -1) {
+                decoded.write(b, 0, read);
+            }
+
+            Assertions.assertArrayEquals(body, decoded.toByteArray());
+        }
+
+        Assertions.assertEquals(-1, httpInputStream.read());
+    }
+
+    @Test
+    public void testHooks() throws IOException {
+        Map<String, String> received = new HashMap<>();
+        ChunkedTransferCoding transferCoding = new ChunkedTransferCoding(new DefaultTransferCoding(), 4) {
+            @Override
+            protected void useExtensions(ByteArrayOutputStream outputStream, byte[] chunk, Map<String, String> extensions) {
+                received.putAll(extensions);
+            }
+
+            @Override
+            protected Map<String, String> getExtensions(ByteArrayInputStream inputStream, byte[] chunk) {
+                return Collections.singletonMap("length", String.valueOf(chunk.length));
+            }
+        };
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        transferCoding.writeBody(httpOutputStream, 6, "Feathe".getBytes(StandardCharsets.ISO_8859_1));
+        httpOutputStream.flush();
+        Assertions.assertEquals("4;length=4\r\nFeat\r\n2;length=2\r\nhe\r\n0;length=0\r\n\r\n", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        byte[] body = transferCoding.readBody(new HttpInputStream(new ByteArrayInputStream(outputStream.toByteArray())), 0);
+        Assertions.assertEquals("Feathe", new String(body, StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals("0", received.get("length"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.transfercoding.DefaultTransferCoding;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ChunkedOutputStreamTest {
+    @Test
+    public void testConstructor() {
+        HttpOutputStream outputStream = new HttpOutputStream(new ByteArrayOutputStream());
+        Assertions.assertThrows(NullPointerException.class, () -> new ChunkedOutputStream(null, new DefaultTransferCoding(), 8));
+        Assertions.assertThrows(NullPointerException.class, () -> new ChunkedOutputStream(outputStream, null, 8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ChunkedOutputStream(outputStream, new DefaultTransferCoding(), 0));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(httpOutputStream, new DefaultTransferCoding(), 4);
+        chunkedOutputStream.write("Wiki".getBytes(StandardCharsets.ISO_8859_1));
+        chunkedOutputStream.write('p');
+        chunkedOutputStream.flush();
+        Assertions.assertEquals("4\r\nWiki\r\n1\r\np\r\n", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        chunkedOutputStream.write("edia".getBytes(StandardCharsets.ISO_8859_1), 1, 3);
+        chunkedOutputStream.setTrailer(new Headers().with("Expires", new UnknownHeader("never")));
+        chunkedOutputStream.close();
+        httpOutputStream.flush();
+        Assertions.assertEquals("4\r\nWiki\r\n1\r\np\r\n3\r\ndia\r\n0\r\nExpires:never\r\n\r\n", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        Assertions.assertThrows(IOException.class, () -> chunkedOutputStream.write('x'));
+    }
+
+    @Test
+    public void testAdaptiveChunkSize() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(httpOutputStream, new DefaultTransferCoding(), 2, 8);
+        chunkedOutputStream.write("abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.ISO_8859_1), 0, 1);
+        for (char c = 'b'; c <= 'o'; c++) {
+            chunkedOutputStream.write(c);
+        }
+
+        chunkedOutputStream.write('p');
+        chunkedOutputStream.flush();
+        chunkedOutputStream.write('q');
+        chunkedOutputStream.write('r');
+        chunkedOutputStream.flush();
+        httpOutputStream.flush();
+        Assertions.assertEquals("2\r\nab\r\n4\r\ncdef\r\n8\r\nghijklmn\r\n2\r\nop\r\n2\r\nqr\r\n", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ChunkedOutputStream(httpOutputStream, new DefaultTransferCoding(), 8, 2));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] body = new byte[20000];
+        Arrays.fill(body, (byte) 'x');
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        try (ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(httpOutputStream, new DefaultTransferCoding(), 8192)) {
+            chunkedOutputStream.write(body, 0, 100);
+            chunkedOutputStream.write(body, 100, body.length - 100);
+        }
+
+        httpOutputStream.flush();
+        ChunkedInputStream chunkedInputStream = new ChunkedInputStream(new HttpInputStream(new ByteArrayInputStream(outputStream.toByteArray())), new DefaultTransferCoding());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        int read;
+        while ((read = chunkedInputStream.read(b)) != -1) {
+            decoded.write(b, 0, read);
+        }
+
+        Assertions.assertArrayEquals(body, decoded.toByteArray());
+        Assertions.assertTrue(chunkedInputStream.isFinished());
+    }
+}
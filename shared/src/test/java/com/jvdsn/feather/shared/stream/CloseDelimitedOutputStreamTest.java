@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class CloseDelimitedOutputStreamTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new CloseDelimitedOutputStream(null));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CloseDelimitedOutputStream closeDelimitedOutputStream = new CloseDelimitedOutputStream(outputStream);
+        closeDelimitedOutputStream.write('a');
+        closeDelimitedOutputStream.write(new byte[]{'b', 'c', 'd'});
+        closeDelimitedOutputStream.close();
+        closeDelimitedOutputStream.close();
+        Assertions.assertThrows(IOException.class, () -> closeDelimitedOutputStream.write('e'));
+        Assertions.assertArrayEquals(new byte[]{'a', 'b', 'c', 'd'}, outputStream.toByteArray());
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class DiscardingOutputStreamTest {
+    @Test
+    public void testWrite() throws IOException {
+        DiscardingOutputStream discardingOutputStream = new DiscardingOutputStream();
+        discardingOutputStream.write('a');
+        discardingOutputStream.write(new byte[]{'b', 'c', 'd'});
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> discardingOutputStream.write(new byte[2], 1, 2));
+        discardingOutputStream.close();
+        Assertions.assertThrows(IOException.class, () -> discardingOutputStream.write('e'));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class HttpInputStreamTest {
+    private static HttpInputStream of(String s, int bufferSize) {
+        return new HttpInputStream(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)), bufferSize);
+    }
+
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new HttpInputStream(null));
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+        HttpInputStream inputStream = of("first line\r\nsecond line\r\nrest", 4);
+        Assertions.assertEquals("first line", inputStream.readLine());
+        Assertions.assertEquals("second line", inputStream.readLine());
+        Assertions.assertThrows(EOFException.class, inputStream::readLine);
+    }
+
+    @Test
+    public void testReadChunkSize() throws IOException {
+        HttpInputStream inputStream = of("1A\r\n0 \r\nff;a=1; b \r\n\r\n", 4);
+        Assertions.assertEquals(26, inputStream.readChunkSize(null));
+        Assertions.assertEquals(0, inputStream.readChunkSize(null));
+        Map<String, String> extensions = new HashMap<>();
+        Assertions.assertEquals(255, inputStream.readChunkSize(extensions));
+        Assertions.assertEquals("1", extensions.get("a"));
+        Assertions.assertEquals("", extensions.get("b"));
+        inputStream.readLineEnd();
+        Assertions.assertThrows(EOFException.class, inputStream::readLineEnd);
+        Assertions.assertThrows(IOException.class, () -> of(";x\r\n", 4).readChunkSize(null));
+        Assertions.assertThrows(IOException.class, () -> of("1x\r\n", 4).readChunkSize(null));
+        Assertions.assertThrows(IOException.class, () -> of("10000000000000000\r\n", 4).readChunkSize(null));
+        Assertions.assertThrows(IOException.class, () -> of("ab", 4).readLineEnd());
+    }
+
+    @Test
+    public void testReadHttpRequest() throws IOException {
+        HttpInputStream inputStream = of("POST /a HTTP/1.1\r\nHost: localhost:80\r\n\r\nbodyGET /b HTTP/1.1\r\n\r\n", 8);
+        HttpRequest request = inputStream.readHttpRequest();
+        Assertions.assertEquals(RequestMethod.POST, request.getRequestMethod());
+        byte[] body = new byte[4];
+        inputStream.readFully(body, 0, body.length);
+        Assertions.assertEquals("body", new String(body, StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals("/b", inputStream.readHttpRequest().getResource());
+        Assertions.assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testReadFully() throws IOException {
+        HttpInputStream inputStream = of("0123456789", 4);
+        byte[] b = new byte[10];
+        inputStream.readFully(b, 0, 10);
+        Assertions.assertEquals("0123456789", new String(b, StandardCharsets.ISO_8859_1));
+        Assertions.assertThrows(EOFException.class, () -> inputStream.readFully(b, 0, 1));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import com.jvdsn.feather.shared.response.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class HttpOutputStreamTest {
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        private int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            this.writes++;
+            super.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new HttpOutputStream(null));
+    }
+
+    @Test
+    public void testWriteResponse() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        httpOutputStream.writeResponse(new HttpResponse(Status.OK, new Headers().with(Header.CONTENT_LENGTH, new ContentLength(2))));
+        httpOutputStream.write("OK".getBytes(StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals(0, outputStream.writes);
+        httpOutputStream.flush();
+        Assertions.assertEquals(1, outputStream.writes);
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\nContent-Length:2\r\n\r\nOK", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testWriteChunkSize() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream, null, 4);
+        httpOutputStream.writeChunkSize(0, null);
+        httpOutputStream.writeChunkSize(0x1a2b, Collections.singletonMap("name", "value"));
+        httpOutputStream.writeChunkSize(Long.MAX_VALUE, null);
+        httpOutputStream.flush();
+        Assertions.assertEquals("0\r\n1a2b;name=value\r\n7fffffffffffffff\r\n", new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> httpOutputStream.writeChunkSize(-1, null));
+    }
+
+    @Test
+    public void testWriteLarge() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream, null, 16);
+        byte[] body = new byte[100];
+        Arrays.fill(body, (byte) 'x');
+        httpOutputStream.writeLine("line");
+        httpOutputStream.write(body);
+        httpOutputStream.flush();
+        Assertions.assertEquals(2, outputStream.writes);
+        Assertions.assertEquals("line\r\n" + new String(body, StandardCharsets.ISO_8859_1), new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testTransferFrom() throws IOException {
+        Path file = Files.createTempFile("feather", ".txt");
+        try {
+            Files.write(file, "Hello, World!".getBytes(StandardCharsets.ISO_8859_1));
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream, null, 4);
+            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                httpOutputStream.write('>');
+                httpOutputStream.transferFrom(fileChannel, 7, 5);
+                Assertions.assertThrows(IOException.class, () -> httpOutputStream.transferFrom(fileChannel, 10, 5));
+            }
+
+            httpOutputStream.flush();
+            Assertions.assertTrue(new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1).startsWith(">World"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
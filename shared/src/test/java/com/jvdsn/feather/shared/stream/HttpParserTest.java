@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.stream;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.ContentLength;
+import com.jvdsn.feather.shared.header.Header;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.request.HttpRequest;
+import com.jvdsn.feather.shared.request.RequestMethod;
+import com.jvdsn.feather.shared.response.HttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class HttpParserTest {
+    @Test
+    public void testFindLineEnd() {
+        ByteBuffer buffer = ByteBuffer.wrap("ab\r\ncd\r".getBytes(StandardCharsets.ISO_8859_1));
+        Assertions.assertEquals(2, HttpParser.findLineEnd(buffer, 0));
+        Assertions.assertEquals(-1, HttpParser.findLineEnd(buffer, 3));
+    }
+
+    @Test
+    public void testParseRequest() throws IOException {
+        HttpParser parser = new HttpParser();
+        parser.reset(HttpParser.State.REQUEST_LINE);
+        Assertions.assertTrue(parser.parse(ByteBuffer.wrap("GET /index.html HTTP/1.1\r\nContent-Length: 10\r\nX-Test:  value \r\n\r\n".getBytes(StandardCharsets.ISO_8859_1))));
+        HttpRequest request = parser.getRequest();
+        Assertions.assertEquals(RequestMethod.GET, request.getRequestMethod());
+        Assertions.assertEquals("/index.html", request.getResource());
+        Assertions.assertEquals("HTTP/1.1", request.getHttpVersion());
+        Assertions.assertEquals(10, request.getHeaders().get(Header.CONTENT_LENGTH, ContentLength.class).get().getLength());
+        Assertions.assertEquals("value", request.getHeaders().get("X-Test", UnknownHeader.class).get().getValue());
+    }
+
+    @Test
+    public void testParseCaseInsensitive() throws IOException {
+        HttpParser parser = new HttpParser();
+        parser.reset(HttpParser.State.HEADERS);
+        Assertions.assertTrue(parser.parse(ByteBuffer.wrap("content-length: 1\r\nx-test: a\r\nCONTENT-LENGTH: 2\r\nX-Test: b\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1))));
+        Headers headers = parser.getHeaders();
+        Assertions.assertEquals(2, headers.size());
+        Assertions.assertSame(Header.CONTENT_LENGTH, headers.getFieldName(0));
+        Assertions.assertEquals(2, headers.get(Header.CONTENT_LENGTH, ContentLength.class).get().getLength());
+        Assertions.assertEquals("b", headers.get("X-TEST", UnknownHeader.class).get().getValue());
+    }
+
+    @Test
+    public void testParseResumes() throws IOException {
+        byte[] bytes = "HTTP/1.1 404 Not Found\r\nX-Test: value\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        HttpParser parser = new HttpParser();
+        parser.reset(HttpParser.State.STATUS_LINE);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        for (int i = 0; i < bytes.length - 1; i++) {
+            buffer.put(bytes[i]).flip();
+            Assertions.assertFalse(parser.parse(buffer));
+            buffer.compact();
+        }
+
+        buffer.put(bytes[bytes.length - 1]).flip();
+        Assertions.assertTrue(parser.parse(buffer));
+        Assertions.assertFalse(buffer.hasRemaining());
+        HttpResponse response = parser.getResponse();
+        Assertions.assertEquals(404, response.getStatusCode());
+        Assertions.assertEquals("Not Found", response.getStatusMessage());
+        Assertions.assertTrue(response.getHeaders().contains("X-Test"));
+    }
+
+    @Test
+    public void testParseMalformed() {
+        HttpParser parser = new HttpParser();
+        parser.reset(HttpParser.State.REQUEST_LINE);
+        Assertions.assertThrows(IOException.class, () -> parser.parse(ByteBuffer.wrap("FETCH / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1))));
+        parser.reset(HttpParser.State.HEADERS);
+        Assertions.assertThrows(IOException.class, () -> parser.parse(ByteBuffer.wrap("no separator\r\n".getBytes(StandardCharsets.ISO_8859_1))));
+    }
+}
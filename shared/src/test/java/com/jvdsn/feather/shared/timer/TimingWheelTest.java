@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class TimingWheelTest {
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, 8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TimingWheel(10, 0));
+        Assertions.assertEquals(8, new TimingWheel(10, 5).buckets.length);
+        Assertions.assertEquals(1, new TimingWheel(10, 1).buckets.length);
+    }
+
+    @Test
+    public void testSchedule() throws InterruptedException {
+        TimingWheel timingWheel = new TimingWheel(10, 4);
+        try {
+            CountDownLatch latch = new CountDownLatch(2);
+            long start = System.nanoTime();
+            // Longer than a full rotation, so the timeout shares its bucket with earlier rounds.
+            Timeout timeout = timingWheel.schedule(t -> latch.countDown(), 100);
+            timingWheel.schedule(t -> latch.countDown(), 0);
+            Assertions.assertTrue(timeout.isPending());
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            Assertions.assertFalse(timeout.isPending());
+            Assertions.assertFalse(timeout.cancel());
+            Assertions.assertFalse(timeout.isCancelled());
+        } finally {
+            timingWheel.stop();
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        TimingWheel timingWheel = new TimingWheel(10, 8);
+        try {
+            AtomicInteger runs = new AtomicInteger();
+            Timeout[] timeouts = new Timeout[100000];
+            for (int i = 0; i < timeouts.length; i++) {
+                timeouts[i] = timingWheel.schedule(t -> runs.incrementAndGet(), 1000 + i % 100);
+            }
+
+            for (int i = 0; i < timeouts.length; i += 2) {
+                Assertions.assertTrue(timeouts[i].cancel());
+                Assertions.assertFalse(timeouts[i].cancel());
+                Assertions.assertTrue(timeouts[i].isCancelled());
+            }
+
+            CountDownLatch latch = new CountDownLatch(1);
+            timingWheel.schedule(t -> latch.countDown(), 1200);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(timeouts.length / 2, runs.get());
+        } finally {
+            timingWheel.stop();
+        }
+    }
+
+    @Test
+    public void testReschedule() throws InterruptedException {
+        TimingWheel timingWheel = new TimingWheel(10, 8);
+        try {
+            CountDownLatch latch = new CountDownLatch(3);
+            timingWheel.schedule(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    latch.countDown();
+                    if (latch.getCount() > 0) {
+                        timingWheel.schedule(this, 10);
+                    }
+                }
+            }, 10);
+            timingWheel.schedule(t -> {
+                throw new IllegalStateException();
+            }, 10);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            timingWheel.stop();
+        }
+
+        Assertions.assertThrows(IllegalStateException.class, () -> timingWheel.schedule(t -> {
+        }, 10));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.transfercoding;
+
+import com.jvdsn.feather.shared.Headers;
+import com.jvdsn.feather.shared.header.UnknownHeader;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class ChunkedTransferCodingTest {
+    private static final byte[] BODY = "hello, world".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Overrides all hooks, recording the extensions and trailers it received.
+     */
+    private static class HookedTransferCoding extends ChunkedTransferCoding {
+        private final List<Map<String, String>> extensions = new ArrayList<>();
+        private final List<Headers> trailers = new ArrayList<>();
+
+        private HookedTransferCoding() {
+            super(new DefaultTransferCoding(), 5);
+        }
+
+        @Override
+        protected Map<String, String> getExtensions(ByteArrayInputStream inputStream, byte[] chunk) {
+            return Collections.singletonMap("length", Integer.toString(chunk.length));
+        }
+
+        @Override
+        protected Headers getTrailer(ByteArrayInputStream inputStream) {
+            return new Headers().with("Checksum", new UnknownHeader("abc"));
+        }
+
+        @Override
+        protected void useExtensions(ByteArrayOutputStream outputStream, byte[] chunk, Map<String, String> extensions) {
+            this.extensions.add(extensions);
+        }
+
+        @Override
+        protected void useTrailer(ByteArrayOutputStream outputStream, Headers trailer) {
+            this.trailers.add(trailer);
+        }
+    }
+
+    private static String write(TransferCoding transferCoding) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        try (OutputStream encodingStream = transferCoding.openOutputStream(httpOutputStream, 0)) {
+            encodingStream.write(BODY, 0, 3);
+            encodingStream.flush();
+            encodingStream.write(BODY, 3, BODY.length - 3);
+        }
+
+        httpOutputStream.flush();
+        return new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void testWriteHooks() throws IOException {
+        String expected = "5;length=5\r\nhello\r\n5;length=5\r\n, wor\r\n2;length=2\r\nld\r\n0;length=0\r\nChecksum:abc\r\n\r\n";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        new HookedTransferCoding().writeBody(httpOutputStream, 0, BODY);
+        httpOutputStream.flush();
+        Assertions.assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1));
+        // The streaming path calls the hooks as well.
+        Assertions.assertEquals(expected, write(new HookedTransferCoding()));
+    }
+
+    @Test
+    public void testReadHooks() throws IOException {
+        byte[] encoded = write(new HookedTransferCoding()).getBytes(StandardCharsets.ISO_8859_1);
+        HookedTransferCoding transferCoding = new HookedTransferCoding();
+        Assertions.assertArrayEquals(BODY, transferCoding.readBody(new HttpInputStream(new ByteArrayInputStream(encoded)), 0));
+        Assertions.assertEquals(4, transferCoding.extensions.size());
+        Assertions.assertEquals(1, transferCoding.trailers.size());
+
+        // The streaming path calls the hooks as well.
+        transferCoding = new HookedTransferCoding();
+        try (InputStream decodingStream = transferCoding.openInputStream(new HttpInputStream(new ByteArrayInputStream(encoded)), 0)) {
+            byte[] body = new byte[BODY.length];
+            Assertions.assertEquals(BODY.length, decodingStream.read(body));
+            Assertions.assertArrayEquals(BODY, body);
+        }
+
+        Assertions.assertEquals(Collections.singletonMap("length", "5"), transferCoding.extensions.get(0));
+        Assertions.assertEquals(4, transferCoding.extensions.size());
+        Headers trailer = transferCoding.trailers.get(0);
+        Assertions.assertEquals("abc", trailer.getValue(trailer.indexOf("Checksum")));
+    }
+
+    @Test
+    public void testWithoutHooks() throws IOException {
+        String encoded = write(new ChunkedTransferCoding(new DefaultTransferCoding(), 5));
+        // Without hooks, the message body is sent as it is written.
+        Assertions.assertEquals("3\r\nhel\r\n9\r\nlo, world\r\n0\r\n\r\n", encoded);
+    }
+}
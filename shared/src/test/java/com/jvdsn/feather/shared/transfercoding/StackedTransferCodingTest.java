@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Joachim Vandersmissen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.jvdsn.feather.shared.transfercoding;
+
+import com.jvdsn.feather.shared.header.TransferEncoding;
+import com.jvdsn.feather.shared.stream.HttpInputStream;
+import com.jvdsn.feather.shared.stream.HttpOutputStream;
+import com.jvdsn.feather.shared.stream.MessageBodyTooLargeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author Joachim Vandersmissen
+ */
+public class StackedTransferCodingTest {
+    private static final byte[] BODY = String.join("", Collections.nCopies(1000, "stacked transfer codings ")).getBytes(StandardCharsets.ISO_8859_1);
+
+    private static TransferCoding of(String s) {
+        return new TransferEncoding().deserialize(s).getTransferCoding().get();
+    }
+
+    private static byte[] write(TransferCoding transferCoding) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpOutputStream httpOutputStream = new HttpOutputStream(outputStream);
+        try (OutputStream encodingStream = transferCoding.openOutputStream(httpOutputStream, 0)) {
+            encodingStream.write(BODY, 0, 100);
+            encodingStream.flush();
+            encodingStream.write(BODY, 100, BODY.length - 100);
+        }
+
+        httpOutputStream.write("next".getBytes(StandardCharsets.ISO_8859_1));
+        httpOutputStream.flush();
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void testConstructor() {
+        Assertions.assertThrows(NullPointerException.class, () -> new StackedTransferCoding(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new StackedTransferCoding(Collections.emptyList()));
+        Assertions.assertEquals("gzip,chunked", new StackedTransferCoding(Arrays.asList(new GzipTransferCoding(), new ChunkedTransferCoding(new DefaultTransferCoding()))).getIdentifier());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String transferEncoding : new String[]{"gzip, chunked", "deflate, chunked", "gzip, deflate, chunked"}) {
+            TransferCoding transferCoding = of(transferEncoding);
+            byte[] encoded = write(transferCoding);
+            Assertions.assertTrue(encoded.length < BODY.length);
+            HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(encoded));
+            try (InputStream decodingStream = transferCoding.openInputStream(inputStream, 0)) {
+                Assertions.assertEquals(BODY.length, decodingStream.skip(BODY.length));
+            }
+
+            byte[] next = new byte[4];
+            inputStream.readFully(next, 0, next.length);
+            Assertions.assertEquals("next", new String(next, StandardCharsets.ISO_8859_1));
+            Assertions.assertArrayEquals(BODY, transferCoding.readBody(new HttpInputStream(new ByteArrayInputStream(encoded)), 0));
+        }
+    }
+
+    @Test
+    public void testMaxDecodedLength() throws IOException {
+        for (String transferEncoding : new String[]{"gzip, chunked", "deflate, gzip, chunked"}) {
+            TransferCoding transferCoding = of(transferEncoding);
+            byte[] encoded = write(transferCoding);
+            Assertions.assertSame(transferCoding, transferCoding.withMaxDecodedLength(CompressionTransferCoding.DEFAULT_MAX_DECODED_LENGTH));
+            TransferCoding limited = transferCoding.withMaxDecodedLength(BODY.length);
+            Assertions.assertArrayEquals(BODY, limited.readBody(new HttpInputStream(new ByteArrayInputStream(encoded)), 0));
+            TransferCoding exceeded = transferCoding.withMaxDecodedLength(BODY.length - 1);
+            Assertions.assertThrows(MessageBodyTooLargeException.class, () -> exceeded.readBody(new HttpInputStream(new ByteArrayInputStream(encoded)), 0));
+            try (InputStream decodingStream = exceeded.openInputStream(new HttpInputStream(new ByteArrayInputStream(encoded)), 0)) {
+                Assertions.assertThrows(MessageBodyTooLargeException.class, () -> decodingStream.skip(BODY.length));
+            }
+        }
+
+        TransferCoding chunked = of("chunked");
+        Assertions.assertSame(chunked, chunked.withMaxDecodedLength(0));
+    }
+
+    @Test
+    public void testChunkedNotLast() {
+        TransferCoding transferCoding = of("chunked, gzip");
+        HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(new byte[0]));
+        Assertions.assertThrows(IOException.class, () -> transferCoding.openInputStream(inputStream, 0));
+        Assertions.assertThrows(IOException.class, () -> transferCoding.openOutputStream(new HttpOutputStream(new ByteArrayOutputStream()), 0));
+    }
+}